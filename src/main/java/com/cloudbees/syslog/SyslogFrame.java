@@ -0,0 +1,172 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog;
+
+import com.cloudbees.syslog.util.Utf8ByteArrayWriter;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import net.jcip.annotations.Immutable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A {@link SyslogMessage} encoded in UTF-8 in a given {@link MessageFormat}, without the framing of the transport.
+ *
+ * Frames are immutable: a message encoded once can be sent by several senders and re-sent on retries without being
+ * encoded again.
+ */
+@Immutable
+public final class SyslogFrame {
+    /**
+     * Encoding buffers that grew larger than this number of bytes are not retained by the threads.
+     */
+    private final static int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+    private final static ThreadLocal<Utf8ByteArrayWriter> encoders = ThreadLocal.withInitial(() -> new Utf8ByteArrayWriter(256));
+
+    private final MessageFormat messageFormat;
+    private final byte[] bytes;
+    private final boolean truncated;
+
+    private SyslogFrame(@NonNull MessageFormat messageFormat, @NonNull byte[] bytes, boolean truncated) {
+        this.messageFormat = messageFormat;
+        this.bytes = bytes;
+        this.truncated = truncated;
+    }
+
+    /**
+     * @param messageFormat format of the encoded message
+     * @param bytes         encoded message, copied
+     */
+    @NonNull
+    public static SyslogFrame copyOf(@NonNull MessageFormat messageFormat, @NonNull byte[] bytes) {
+        return new SyslogFrame(messageFormat, bytes.clone(), false);
+    }
+
+    /**
+     * Encode the given message, stopping at the given number of bytes.
+     *
+     * @param maxSize maximum number of bytes of the frame, {@link Integer#MAX_VALUE} for no limit
+     * @see SyslogMessage#toSyslogFrame(MessageFormat, int)
+     */
+    @NonNull
+    static SyslogFrame encode(@NonNull SyslogMessage message, @NonNull MessageFormat messageFormat, int maxSize) {
+        Utf8ByteArrayWriter encoder = encoders.get();
+        if (encoder.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+            encoder = new Utf8ByteArrayWriter(256);
+            encoders.set(encoder);
+        }
+        try {
+            if (messageFormat == MessageFormat.RFC_5425) {
+                // octet counting prefix of the RFC-5424 message, the room of the longest prefix is reserved
+                encoder.reset(maxSize == Integer.MAX_VALUE ? maxSize : Math.max(0, maxSize - digits(maxSize) - 1));
+                message.toSyslogMessage(MessageFormat.RFC_5424, encoder);
+                encoder.flush();
+                String length = Integer.toString(encoder.size());
+                byte[] bytes = new byte[length.length() + 1 + encoder.size()];
+                for (int i = 0; i < length.length(); i++) {
+                    bytes[i] = (byte) length.charAt(i);
+                }
+                bytes[length.length()] = SyslogMessage.SP;
+                encoder.copyTo(bytes, length.length() + 1);
+                return new SyslogFrame(messageFormat, bytes, encoder.isTruncated());
+            } else {
+                encoder.reset(maxSize);
+                message.toSyslogMessage(messageFormat, encoder);
+                encoder.flush();
+                return new SyslogFrame(messageFormat, encoder.toByteArray(), encoder.isTruncated());
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static int digits(int value) {
+        int digits = 1;
+        while (value >= 10) {
+            value /= 10;
+            digits++;
+        }
+        return digits;
+    }
+
+    @NonNull
+    public MessageFormat getMessageFormat() {
+        return messageFormat;
+    }
+
+    /**
+     * @return {@code true} if the end of the message has been dropped to fit in the maximum size given to
+     * {@link SyslogMessage#toSyslogFrame(MessageFormat, int)}
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * @return number of bytes of the encoded message
+     */
+    public int size() {
+        return bytes.length;
+    }
+
+    public void writeTo(@NonNull OutputStream out) throws IOException {
+        out.write(bytes);
+    }
+
+    /**
+     * @return a read-only view of the encoded message
+     */
+    @NonNull
+    public ByteBuffer asByteBuffer() {
+        return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+
+    /**
+     * @return a copy of the encoded message
+     */
+    @NonNull
+    public byte[] toByteArray() {
+        return bytes.clone();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof SyslogFrame)) {
+            return false;
+        }
+        SyslogFrame other = (SyslogFrame) obj;
+        return messageFormat == other.messageFormat && Arrays.equals(bytes, other.bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * messageFormat.hashCode() + Arrays.hashCode(bytes);
+    }
+
+    /**
+     * @return the decoded message
+     */
+    @Override
+    public String toString() {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
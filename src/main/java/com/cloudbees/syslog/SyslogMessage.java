@@ -22,18 +22,15 @@ import java.io.CharArrayWriter;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.io.Writer;
-import java.net.InetAddress;
-import java.net.UnknownHostException;
 import java.nio.charset.StandardCharsets;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Locale;
 import java.util.Set;
 import java.util.TimeZone;
-import java.util.concurrent.TimeUnit;
 
-import com.cloudbees.syslog.util.CachingReference;
 import com.cloudbees.syslog.util.ConcurrentDateFormat;
+import com.cloudbees.syslog.util.LocalHostnameResolver;
 
 /**
  * Syslog message as defined in <a href="https://tools.ietf.org/html/rfc5424">RFC 5424 - The Syslog Protocol</a>.
@@ -49,16 +46,10 @@ public class SyslogMessage {
     private final static int DEFAULT_CONCURRENCY = 50;
     protected final static ConcurrentDateFormat rfc3339DateFormat;
     protected final static ConcurrentDateFormat rfc3164DateFormat;
-    private static CachingReference<String> localhostNameReference = new CachingReference<String>(10, TimeUnit.SECONDS) {
-        @Override
-        protected String newObject() {
-            try {
-                return InetAddress.getLocalHost().getHostName();
-            } catch (UnknownHostException e) {
-                return String.valueOf(NILVALUE);
-            }
-        }
-    };
+    /**
+     * Resolved when the class is initialized, never blocks the threads encoding the messages.
+     */
+    private final static LocalHostnameResolver localhostNameResolver = new LocalHostnameResolver();
 
     static {
         int concurrency;
@@ -212,11 +203,9 @@ public class SyslogMessage {
     }
 
     public SyslogMessage withMsg(final String msg) {
-        return withMsg(new CharArrayWriter() {
-            {
-                append(msg);
-            }
-        });
+        CharArrayWriter writer = new CharArrayWriter(msg == null ? 4 : msg.length());
+        writer.append(msg);
+        return withMsg(writer);
     }
     
     public Set<SDElement> getSDElements() {
@@ -281,6 +270,28 @@ public class SyslogMessage {
         }
     }
 
+    /**
+     * Encode this message in the given format, see {@link SyslogFrame}.
+     *
+     * @param messageFormat message format
+     */
+    @NonNull
+    public SyslogFrame toSyslogFrame(@NonNull MessageFormat messageFormat) {
+        return SyslogFrame.encode(this, messageFormat, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Encode this message in the given format, stopping at the given number of bytes: the end of the message that
+     * doesn't fit is dropped without being encoded and the frame is {@link SyslogFrame#isTruncated() truncated}.
+     *
+     * @param messageFormat message format
+     * @param maxSize       maximum number of bytes of the frame
+     */
+    @NonNull
+    public SyslogFrame toSyslogFrame(@NonNull MessageFormat messageFormat, int maxSize) {
+        return SyslogFrame.encode(this, messageFormat, maxSize);
+    }
+
     /**
      * Generates an <a href="http://tools.ietf.org/html/rfc5424">RFC-5425</a> message.
      */
@@ -338,7 +349,7 @@ public class SyslogMessage {
         out.write(SP);
         out.write(rfc3339DateFormat.format(timestamp == null ? new Date() : new Date(timestamp))); // message time
         out.write(SP);
-        out.write(hostname == null ? localhostNameReference.get() : hostname); // emitting server hostname
+        out.write(hostname == null ? localhostNameResolver.getHostname() : hostname); // emitting server hostname
         out.write(SP);
         writeNillableValue(appName, out); // appname
         out.write(SP);
@@ -381,7 +392,7 @@ public class SyslogMessage {
         out.write('>');
         out.write(rfc3164DateFormat.format(timestamp == null ? new Date() : new Date(timestamp))); // message time
         out.write(SP);
-        out.write(hostname == null ? localhostNameReference.get() : hostname); // emitting server hostname
+        out.write(hostname == null ? localhostNameResolver.getHostname() : hostname); // emitting server hostname
         out.write(SP);
         writeNillableValue(appName, out); // appname
 
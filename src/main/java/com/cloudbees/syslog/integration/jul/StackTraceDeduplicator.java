@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2010-2013 the original author or authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.cloudbees.syslog.integration.jul;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import net.jcip.annotations.ThreadSafe;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Count the occurrences of identical stack traces within a time window so that the full stack trace is only sent
+ * the first time.
+ *
+ * Stack traces are identified by a fingerprint hashing the class of the throwable, of its causes and of their
+ * suppressed throwables and their frames, the messages are ignored as they often contain variable data.
+ *
+ * The number of tracked fingerprints is bounded, once the bound is reached, unknown stack traces are reported as
+ * first occurrences.
+ */
+@ThreadSafe
+public class StackTraceDeduplicator {
+    public final static int DEFAULT_MAX_FINGERPRINTS = 1000;
+    private final static int MAX_CAUSE_DEPTH = 16;
+
+    private final ConcurrentMap<Long, Occurrences> occurrencesByFingerprint = new ConcurrentHashMap<>();
+    private final long windowInMillis;
+    private final int maxFingerprints;
+
+    /**
+     * @param windowInMillis  duration after which a full stack trace is sent again
+     * @param maxFingerprints maximum number of tracked stack traces
+     */
+    public StackTraceDeduplicator(long windowInMillis, int maxFingerprints) {
+        this.windowInMillis = windowInMillis;
+        this.maxFingerprints = maxFingerprints;
+    }
+
+    /**
+     * @return fingerprint of the class and frames of the given throwable, of its causes and of their suppressed
+     * throwables
+     */
+    public static long fingerprint(@NonNull Throwable throwable) {
+        long hash = hash(1125899906842597L, throwable, 0);
+        // murmur3 finalizer to spread the bits
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * Hash the given throwable, its suppressed throwables and its causes, the depth bounds the causes and the nested
+     * suppressed throwables, including cycles.
+     */
+    private static long hash(long hash, @NonNull Throwable throwable, int depth) {
+        for (Throwable t = throwable; t != null && depth < MAX_CAUSE_DEPTH; t = t.getCause(), depth++) {
+            hash = 31 * hash + t.getClass().getName().hashCode();
+            for (StackTraceElement element : t.getStackTrace()) {
+                hash = 31 * hash + element.getClassName().hashCode();
+                hash = 31 * hash + element.getMethodName().hashCode();
+                hash = 31 * hash + (element.getFileName() == null ? 0 : element.getFileName().hashCode());
+                hash = 31 * hash + element.getLineNumber();
+            }
+            for (Throwable suppressed : t.getSuppressed()) {
+                // distinguish a suppressed throwable from a cause
+                hash = hash(31 * hash + 1, suppressed, depth + 1);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * @return textual identifier of the given fingerprint
+     */
+    @NonNull
+    public static String toId(long fingerprint) {
+        String hex = Long.toHexString(fingerprint);
+        return hex.length() == 16 ? hex : "0000000000000000".substring(hex.length()) + hex;
+    }
+
+    /**
+     * Record an occurrence of the given stack trace.
+     *
+     * @param fingerprint   see {@link #fingerprint(Throwable)}
+     * @param nowInMillis   current time
+     * @return the rank of this occurrence in the current window, {@code 1} if the full stack trace must be sent
+     */
+    public long record(long fingerprint, long nowInMillis) {
+        Long key = fingerprint;
+        while (true) {
+            Occurrences occurrences = occurrencesByFingerprint.get(key);
+            if (occurrences != null && nowInMillis - occurrences.windowStartInMillis < windowInMillis) {
+                return occurrences.counter.incrementAndGet();
+            }
+            Occurrences newOccurrences = new Occurrences(nowInMillis);
+            if (occurrences == null) {
+                if (occurrencesByFingerprint.size() >= maxFingerprints) {
+                    purge(nowInMillis);
+                    if (occurrencesByFingerprint.size() >= maxFingerprints) {
+                        return 1;
+                    }
+                }
+                if (occurrencesByFingerprint.putIfAbsent(key, newOccurrences) == null) {
+                    return 1;
+                }
+            } else if (occurrencesByFingerprint.replace(key, occurrences, newOccurrences)) {
+                return 1;
+            }
+            // lost a race with another thread, retry
+        }
+    }
+
+    private void purge(long nowInMillis) {
+        for (Iterator<Map.Entry<Long, Occurrences>> it = occurrencesByFingerprint.entrySet().iterator(); it.hasNext(); ) {
+            if (nowInMillis - it.next().getValue().windowStartInMillis >= windowInMillis) {
+                it.remove();
+            }
+        }
+    }
+
+    public long getWindowInMillis() {
+        return windowInMillis;
+    }
+
+    public int getMaxFingerprints() {
+        return maxFingerprints;
+    }
+
+    private static class Occurrences {
+        final long windowStartInMillis;
+        final AtomicLong counter = new AtomicLong(1);
+
+        Occurrences(long windowStartInMillis) {
+            this.windowStartInMillis = windowStartInMillis;
+        }
+    }
+}
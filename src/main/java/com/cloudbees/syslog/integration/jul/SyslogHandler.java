@@ -24,15 +24,21 @@
 package com.cloudbees.syslog.integration.jul;
 
 import com.cloudbees.syslog.Facility;
+import com.cloudbees.syslog.SDElement;
+import com.cloudbees.syslog.SDParam;
 import com.cloudbees.syslog.Severity;
 import com.cloudbees.syslog.SyslogMessage;
 import com.cloudbees.syslog.integration.jul.util.LevelHelper;
 import com.cloudbees.syslog.integration.jul.util.LogManagerHelper;
+import com.cloudbees.syslog.sender.AsyncSyslogMessageSender;
+import com.cloudbees.syslog.sender.SendBudget;
 import com.cloudbees.syslog.sender.SyslogMessageSender;
+import com.cloudbees.syslog.sender.TcpSyslogMessageSender;
 import com.cloudbees.syslog.sender.UdpSyslogMessageSender;
 
 import edu.umd.cs.findbugs.annotations.NonNull;
 import edu.umd.cs.findbugs.annotations.Nullable;
+import java.io.CharArrayWriter;
 import java.io.IOException;
 import java.util.logging.Filter;
 import java.util.logging.Formatter;
@@ -41,12 +47,53 @@ import java.util.logging.LogManager;
 import java.util.logging.LogRecord;
 
 /**
+ * {@link java.util.logging.Handler} sending log records to a Syslog server.
+ *
+ * Configuration properties in {@code logging.properties}, prefixed by {@code com.cloudbees.syslog.integration.jul.SyslogHandler.}:
+ * <ul>
+ *     <li>{@code syslogServerHostname}, {@code syslogServerPort}: UDP Syslog server</li>
+ *     <li>{@code maxDatagramSize}: maximum size of the UDP datagrams, {@code 1472} avoids IP fragmentation on
+ *     Ethernet networks (default: {@code 65507})</li>
+ *     <li>{@code oversizePolicy}: {@code TRUNCATE} or {@code SPLIT} the messages larger than {@code maxDatagramSize},
+ *     see {@link UdpSyslogMessageSender.OversizePolicy}</li>
+ *     <li>{@code appName}, {@code facility}, {@code severity}, {@code messageHostname}: Syslog message fields</li>
+ *     <li>{@code async}: if {@code true}, log records are formatted on the logging thread and sent by a background
+ *     thread, see {@link AsyncSyslogMessageSender}. Application threads never block on Syslog I/O.</li>
+ *     <li>{@code asyncQueueCapacity}: maximum number of log records waiting to be sent</li>
+ *     <li>{@code asyncDiscardingThreshold}: remaining capacity of the queue below which the records of
+ *     {@code asyncDiscardingLevel} or lower are discarded (default: 20% of the capacity)</li>
+ *     <li>{@code asyncDiscardingLevel}: level of the records discarded first (default: {@code FINE}, that is
+ *     {@code FINE}, {@code FINER} and {@code FINEST})</li>
+ *     <li>{@code asyncOverflowPolicy}: {@code DISCARD_NEWEST} or {@code DISCARD_OLDEST} when the queue is full</li>
+ *     <li>{@code asyncShutdownTimeoutInMillis}: maximum time {@link #flush()} and {@link #close()} wait for the
+ *     queued records to be sent</li>
+ *     <li>{@code asyncSharedSendBudget}: if {@code true}, the queued records count against the
+ *     {@link SendBudget#getShared() send budget shared} by the handlers of the JVM, the {@code asyncOverflowPolicy}
+ *     applies when it is exhausted</li>
+ *     <li>{@code stackTraceDeduplicationWindowInMillis}: if greater than {@code 0}, the stack trace of an exception
+ *     is only sent once per window, the following occurrences only contain the exception and a reference to the
+ *     fingerprint of the stack trace, see {@link StackTraceDeduplicator}</li>
+ *     <li>{@code stackTraceDeduplicationMaxFingerprints}: maximum number of stack traces tracked for deduplication</li>
+ * </ul>
+ *
+ * When stack traces are deduplicated, the records with an exception carry a
+ * {@code [stacktrace@32473 fingerprint="..." occurrence="..."]} structured data element so that the collector can
+ * correlate the occurrences with the first one. The deduplication requires the {@link SyslogMessageFormatter}.
+ *
  * @author <a href="mailto:cleclerc@cloudbees.com">Cyrille Le Clerc</a>
  */
 public class SyslogHandler extends AbstractHandler {
 
+    /**
+     * SD-ID of the structured data element identifying the stack traces when they are deduplicated.
+     */
+    public final static String STACK_TRACE_SD_ID = "stacktrace@32473";
+
     private SyslogMessageSender syslogMessageSender;
 
+    @Nullable
+    private StackTraceDeduplicator stackTraceDeduplicator;
+
     private String appName;
     private Facility facility = Facility.USER;
     private Severity severity = Severity.DEBUG;
@@ -61,6 +108,9 @@ public class SyslogHandler extends AbstractHandler {
         UdpSyslogMessageSender udpSender = new UdpSyslogMessageSender();
         udpSender.setSyslogServerHostname(LogManagerHelper.getStringProperty(manager, cname + ".syslogServerHostname", SyslogMessageSender.DEFAULT_SYSLOG_HOST));
         udpSender.setSyslogServerPort(LogManagerHelper.getIntProperty(manager, cname + ".syslogServerPort", SyslogMessageSender.DEFAULT_SYSLOG_PORT));
+        udpSender.setMaxDatagramSize(LogManagerHelper.getIntProperty(manager, cname + ".maxDatagramSize", UdpSyslogMessageSender.MAX_DATAGRAM_SIZE));
+        udpSender.setOversizePolicy(UdpSyslogMessageSender.OversizePolicy.valueOf(
+                LogManagerHelper.getStringProperty(manager, cname + ".oversizePolicy", udpSender.getOversizePolicy().name())));
 
         appName = LogManagerHelper.getStringProperty(manager, cname + ".appName", this.appName);
         udpSender.setDefaultAppName(appName);
@@ -71,7 +121,37 @@ public class SyslogHandler extends AbstractHandler {
         messageHostname = LogManagerHelper.getStringProperty(manager, cname + ".messageHostname", this.messageHostname);
         udpSender.setDefaultMessageHostname(messageHostname);
 
-        this.syslogMessageSender = udpSender;
+        if (LogManagerHelper.getBooleanProperty(manager, cname + ".async", false)) {
+            this.syslogMessageSender = newAsyncSyslogMessageSender(manager, cname + ".async", udpSender);
+        } else {
+            this.syslogMessageSender = udpSender;
+        }
+
+        int stackTraceDeduplicationWindowInMillis = LogManagerHelper.getIntProperty(manager, cname + ".stackTraceDeduplicationWindowInMillis", 0);
+        if (stackTraceDeduplicationWindowInMillis > 0) {
+            this.stackTraceDeduplicator = new StackTraceDeduplicator(stackTraceDeduplicationWindowInMillis,
+                    LogManagerHelper.getIntProperty(manager, cname + ".stackTraceDeduplicationMaxFingerprints", StackTraceDeduplicator.DEFAULT_MAX_FINGERPRINTS));
+        }
+    }
+
+    @NonNull
+    private static AsyncSyslogMessageSender newAsyncSyslogMessageSender(@NonNull LogManager manager, @NonNull String prefix, @NonNull SyslogMessageSender syslogMessageSender) {
+        AsyncSyslogMessageSender asyncSender = new AsyncSyslogMessageSender(syslogMessageSender,
+                LogManagerHelper.getIntProperty(manager, prefix + "QueueCapacity", AsyncSyslogMessageSender.DEFAULT_QUEUE_CAPACITY));
+        asyncSender.setDiscardingThreshold(LogManagerHelper.getIntProperty(manager, prefix + "DiscardingThreshold", asyncSender.getDiscardingThreshold()));
+        Level discardingLevel = LogManagerHelper.getLevelProperty(manager, prefix + "DiscardingLevel", Level.FINE);
+        Severity discardingSeverity = LevelHelper.toSeverity(discardingLevel);
+        if (discardingSeverity != null) {
+            asyncSender.setDiscardingSeverity(discardingSeverity);
+        }
+        asyncSender.setOverflowPolicy(AsyncSyslogMessageSender.OverflowPolicy.valueOf(
+                LogManagerHelper.getStringProperty(manager, prefix + "OverflowPolicy", asyncSender.getOverflowPolicy().name())));
+        asyncSender.setShutdownTimeoutInMillis(LogManagerHelper.getIntProperty(manager, prefix + "ShutdownTimeoutInMillis",
+                (int) AsyncSyslogMessageSender.DEFAULT_SHUTDOWN_TIMEOUT_IN_MILLIS));
+        if (LogManagerHelper.getBooleanProperty(manager, prefix + "SharedSendBudget", false)) {
+            asyncSender.setSendBudget(SendBudget.getShared());
+        }
+        return asyncSender;
     }
 
     public SyslogHandler(@NonNull SyslogMessageSender syslogMessageSender) {
@@ -94,7 +174,23 @@ public class SyslogHandler extends AbstractHandler {
         if (!isLoggable(record))
             return;
 
-        String msg = getFormatter().format(record);
+        SDElement stackTraceElement = null;
+        String stackTraceReference = null;
+        StackTraceDeduplicator deduplicator = this.stackTraceDeduplicator;
+        Throwable thrown = record.getThrown();
+        if (thrown != null && deduplicator != null) {
+            long fingerprint = StackTraceDeduplicator.fingerprint(thrown);
+            long occurrence = deduplicator.record(fingerprint, System.currentTimeMillis());
+            String fingerprintId = StackTraceDeduplicator.toId(fingerprint);
+            stackTraceElement = new SDElement(STACK_TRACE_SD_ID,
+                    new SDParam("fingerprint", fingerprintId),
+                    new SDParam("occurrence", Long.toString(occurrence)));
+            if (occurrence > 1) {
+                stackTraceReference = "[stack trace " + fingerprintId + " already sent, occurrence " + occurrence + "]";
+            }
+        }
+
+        CharArrayWriter msg = format(record, stackTraceReference);
 
         Severity severity = LevelHelper.toSeverity(record.getLevel());
         if (severity == null)
@@ -107,6 +203,9 @@ public class SyslogHandler extends AbstractHandler {
                 .withHostname(this.messageHostname)
                 .withFacility(this.facility)
                 .withMsg(msg);
+        if (stackTraceElement != null) {
+            message.withSDElement(stackTraceElement);
+        }
 
         try {
             syslogMessageSender.sendMessage(message);
@@ -115,9 +214,48 @@ public class SyslogHandler extends AbstractHandler {
         }
     }
 
+    /**
+     * Format the record without intermediate {@code String} when the formatter is the {@link SyslogMessageFormatter}.
+     * The buffer of the formatter is reused by the next records of the thread, it is directly handed to the
+     * {@link SyslogMessageSender} only if the sender doesn't retain the message once sent.
+     */
+    @NonNull
+    private CharArrayWriter format(@NonNull LogRecord record, @Nullable String stackTraceReference) {
+        Formatter formatter = getFormatter();
+        if (formatter.getClass() == SyslogMessageFormatter.class) {
+            CharArrayWriter buffer = ((SyslogMessageFormatter) formatter).formatToBuffer(record, stackTraceReference);
+            if (isSynchronous(syslogMessageSender)) {
+                return buffer;
+            }
+            CharArrayWriter msg = new CharArrayWriter(buffer.size());
+            try {
+                buffer.writeTo(msg);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return msg;
+        }
+        String formatted = formatter.format(record);
+        CharArrayWriter msg = new CharArrayWriter(formatted.length());
+        msg.append(formatted);
+        return msg;
+    }
+
+    /**
+     * @return {@code true} if the given sender has finished with the message when {@code sendMessage()} returns.
+     */
+    protected boolean isSynchronous(@NonNull SyslogMessageSender syslogMessageSender) {
+        return syslogMessageSender instanceof UdpSyslogMessageSender || syslogMessageSender instanceof TcpSyslogMessageSender;
+    }
+
+    /**
+     * Wait for the queued log records to be sent if the {@link SyslogMessageSender} is asynchronous.
+     */
     @Override
     public void flush() {
-
+        if (syslogMessageSender instanceof AsyncSyslogMessageSender) {
+            ((AsyncSyslogMessageSender) syslogMessageSender).flush();
+        }
     }
 
     @Override
@@ -173,4 +311,16 @@ public class SyslogHandler extends AbstractHandler {
     public void setSyslogMessageSender(SyslogMessageSender syslogMessageSender) {
         this.syslogMessageSender = syslogMessageSender;
     }
+
+    @Nullable
+    public StackTraceDeduplicator getStackTraceDeduplicator() {
+        return stackTraceDeduplicator;
+    }
+
+    /**
+     * @param stackTraceDeduplicator {@code null} to always send the full stack traces
+     */
+    public void setStackTraceDeduplicator(@Nullable StackTraceDeduplicator stackTraceDeduplicator) {
+        this.stackTraceDeduplicator = stackTraceDeduplicator;
+    }
 }
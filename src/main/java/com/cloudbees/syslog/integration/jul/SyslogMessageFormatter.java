@@ -23,28 +23,212 @@
  */
 package com.cloudbees.syslog.integration.jul;
 
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import java.io.CharArrayWriter;
 import java.io.PrintWriter;
-import java.io.StringWriter;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
 import java.util.logging.Formatter;
 import java.util.logging.LogRecord;
 
 /**
+ * Format log records as {@code LEVEL [thread] logger: message}, followed by the stack trace if any.
+ *
+ * {@link #formatToBuffer(LogRecord)} renders the record directly into a {@link CharArrayWriter} reused by the calling
+ * thread to avoid the allocation of intermediate {@code String}s. The stack trace is rendered like
+ * {@link Throwable#printStackTrace(PrintWriter)} except that the class loader name and the version of the JDK
+ * modules are omitted from the frames.
+ *
  * @author <a href="mailto:cleclerc@cloudbees.com">Cyrille Le Clerc</a>
  */
 public class SyslogMessageFormatter extends Formatter {
+    /**
+     * Buffers that grew larger than this number of chars (huge stack traces) are not retained by the threads.
+     */
+    private final static int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+    private final ThreadLocal<Buffer> buffers = ThreadLocal.withInitial(Buffer::new);
 
     @Override
     public String format(LogRecord record) {
-        String message = formatMessage(record);
-        String throwable = "";
+        return formatToBuffer(record).toString();
+    }
+
+    /**
+     * Format the given record into a buffer reused by the calling thread.
+     *
+     * @return the buffer holding the formatted record, only valid until the next invocation by the same thread
+     */
+    @NonNull
+    public CharArrayWriter formatToBuffer(@NonNull LogRecord record) {
+        return formatToBuffer(record, null);
+    }
+
+    /**
+     * Format the given record into a buffer reused by the calling thread.
+     *
+     * @param stackTraceReference if not {@code null}, the stack trace of the thrown exception is replaced by the
+     *                            exception followed by this reference (see {@link StackTraceDeduplicator})
+     * @return the buffer holding the formatted record, only valid until the next invocation by the same thread
+     */
+    @NonNull
+    public CharArrayWriter formatToBuffer(@NonNull LogRecord record, @Nullable String stackTraceReference) {
+        Buffer buffer = buffers.get();
+        if (buffer.writer.size() > MAX_RETAINED_BUFFER_SIZE) {
+            buffer = new Buffer();
+            buffers.set(buffer);
+        }
+        buffer.writer.reset();
+        format(record, stackTraceReference, buffer.printWriter);
+        return buffer.writer;
+    }
+
+    protected void format(@NonNull LogRecord record, @NonNull PrintWriter out) {
+        format(record, null, out);
+    }
+
+    protected void format(@NonNull LogRecord record, @Nullable String stackTraceReference, @NonNull PrintWriter out) {
+        out.write(String.valueOf(record.getLevel()));
+        out.write(" [");
+        out.write(Thread.currentThread().getName());
+        out.write("] ");
+        out.write(String.valueOf(record.getLoggerName()));
+        out.write(": ");
+        out.write(String.valueOf(formatMessage(record)));
         if (record.getThrown() != null) {
-            StringWriter sw = new StringWriter();
-            PrintWriter pw = new PrintWriter(sw);
-            pw.println();
-            record.getThrown().printStackTrace(pw);
-            pw.close();
-            throwable = sw.toString();
-        }
-        return record.getLevel() + " [" + Thread.currentThread().getName() + "] " + record.getLoggerName() + ": " + message + throwable;
+            out.println();
+            if (stackTraceReference == null) {
+                printStackTrace(record.getThrown(), out);
+            } else {
+                out.print(record.getThrown());
+                out.write(' ');
+                out.write(stackTraceReference);
+            }
+        }
+    }
+
+    /**
+     * Garbage free equivalent of {@link Throwable#printStackTrace(PrintWriter)}.
+     */
+    protected void printStackTrace(@NonNull Throwable throwable, @NonNull PrintWriter out) {
+        out.println(throwable);
+        StackTraceElement[] trace = throwable.getStackTrace();
+        for (StackTraceElement element : trace) {
+            out.write("\tat ");
+            printStackTraceElement(element, out);
+            out.println();
+        }
+        Throwable[] suppressed = throwable.getSuppressed();
+        Throwable cause = throwable.getCause();
+        if (suppressed.length > 0 || cause != null) {
+            Set<Throwable> dejaVu = Collections.newSetFromMap(new IdentityHashMap<>());
+            dejaVu.add(throwable);
+            for (Throwable se : suppressed) {
+                printEnclosedStackTrace(se, out, trace, "Suppressed: ", "\t", dejaVu);
+            }
+            if (cause != null) {
+                printEnclosedStackTrace(cause, out, trace, "Caused by: ", "", dejaVu);
+            }
+        }
+    }
+
+    private void printEnclosedStackTrace(@NonNull Throwable throwable, @NonNull PrintWriter out, @NonNull StackTraceElement[] enclosingTrace,
+                                         @NonNull String caption, @NonNull String prefix, @NonNull Set<Throwable> dejaVu) {
+        if (!dejaVu.add(throwable)) {
+            out.write(prefix);
+            out.write(caption);
+            out.write("[CIRCULAR REFERENCE: ");
+            out.print(throwable);
+            out.write(']');
+            out.println();
+            return;
+        }
+        StackTraceElement[] trace = throwable.getStackTrace();
+        int m = trace.length - 1;
+        int n = enclosingTrace.length - 1;
+        while (m >= 0 && n >= 0 && trace[m].equals(enclosingTrace[n])) {
+            m--;
+            n--;
+        }
+        int framesInCommon = trace.length - 1 - m;
+
+        out.write(prefix);
+        out.write(caption);
+        out.println(throwable);
+        for (int i = 0; i <= m; i++) {
+            out.write(prefix);
+            out.write("\tat ");
+            printStackTraceElement(trace[i], out);
+            out.println();
+        }
+        if (framesInCommon != 0) {
+            out.write(prefix);
+            out.write("\t... ");
+            printInt(framesInCommon, out);
+            out.write(" more");
+            out.println();
+        }
+        for (Throwable se : throwable.getSuppressed()) {
+            printEnclosedStackTrace(se, out, trace, "Suppressed: ", prefix + "\t", dejaVu);
+        }
+        Throwable cause = throwable.getCause();
+        if (cause != null) {
+            printEnclosedStackTrace(cause, out, trace, "Caused by: ", prefix, dejaVu);
+        }
+    }
+
+    private void printStackTraceElement(@NonNull StackTraceElement element, @NonNull PrintWriter out) {
+        String moduleName = element.getModuleName();
+        if (moduleName != null && !moduleName.isEmpty()) {
+            out.write(moduleName);
+            String moduleVersion = element.getModuleVersion();
+            if (moduleVersion != null && !moduleVersion.isEmpty() && !moduleName.startsWith("java.") && !moduleName.startsWith("jdk.")) {
+                out.write('@');
+                out.write(moduleVersion);
+            }
+            out.write('/');
+        }
+        out.write(element.getClassName());
+        out.write('.');
+        out.write(element.getMethodName());
+        String fileName = element.getFileName();
+        int lineNumber = element.getLineNumber();
+        if (element.isNativeMethod()) {
+            out.write("(Native Method)");
+        } else if (fileName == null) {
+            out.write("(Unknown Source)");
+        } else {
+            out.write('(');
+            out.write(fileName);
+            if (lineNumber >= 0) {
+                out.write(':');
+                printInt(lineNumber, out);
+            }
+            out.write(')');
+        }
+    }
+
+    /**
+     * {@link PrintWriter#print(int)} without allocating a {@code String}.
+     */
+    private static void printInt(int value, @NonNull PrintWriter out) {
+        if (value < 0) {
+            out.write('-');
+            value = -value;
+        }
+        int divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            out.write('0' + (value / divisor) % 10);
+        }
+    }
+
+    private static class Buffer {
+        final CharArrayWriter writer = new CharArrayWriter(256);
+        final PrintWriter printWriter = new PrintWriter(writer);
     }
 }
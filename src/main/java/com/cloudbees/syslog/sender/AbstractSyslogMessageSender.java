@@ -63,7 +63,7 @@ public abstract class AbstractSyslogMessageSender implements SyslogMessageSender
 
     @Override
     public void sendMessage(CharSequence message) throws IOException {
-        CharArrayWriter writer = new CharArrayWriter();
+        CharArrayWriter writer = new CharArrayWriter(message == null ? 4 : message.length());
         writer.append(message);
         sendMessage(writer);
     }
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.sender;
+
+import com.cloudbees.syslog.util.InternalLogger;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import net.jcip.annotations.ThreadSafe;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Queue of an asynchronous sender drained by a background thread: the queued elements, messages or frames, are
+ * handed one by one to {@link #send(Object)}.
+ *
+ * The subclasses hold the elements, report them with {@link #enqueued()} and {@link #discarded(long)} and hand them
+ * back with {@link #poll(long, TimeUnit)}. This class counts the send errors, logs the first of a series, waits for
+ * the queued elements in {@link #flush(long)} and stops the background thread by a deadline in
+ * {@link #close(long, long)}.
+ *
+ * @param <E> type of the queued elements
+ */
+@ThreadSafe
+abstract class AsyncQueue<E> {
+    private final static long POLL_TIMEOUT_IN_MILLIS = 100;
+
+    private final SyslogMessageSender syslogMessageSender;
+    private final InternalLogger logger;
+    private final AtomicInteger sendErrorCounter;
+    private final Thread writerThread;
+    private final Object drainMonitor = new Object();
+    private final AtomicLong enqueuedCounter = new AtomicLong();
+    /**
+     * Number of messages handed to {@link #send(Object)}, successfully or not, or discarded once queued.
+     */
+    private final AtomicLong processedCounter = new AtomicLong();
+    private volatile boolean running = true;
+    /**
+     * {@link #close(long, long)} timed out, stop sending.
+     */
+    private volatile boolean aborted;
+    private boolean lastSendFailed;
+
+    /**
+     * @param syslogMessageSender sender of the elements, for the logs
+     * @param logger              logger of the asynchronous sender
+     * @param sendErrorCounter    counter of the messages that failed to be sent
+     * @param threadName          name of the background thread, started by {@link #start()}
+     */
+    AsyncQueue(@NonNull SyslogMessageSender syslogMessageSender, @NonNull InternalLogger logger,
+               @NonNull AtomicInteger sendErrorCounter, @NonNull String threadName) {
+        this.syslogMessageSender = syslogMessageSender;
+        this.logger = logger;
+        this.sendErrorCounter = sendErrorCounter;
+        this.writerThread = new Thread(this::drain, threadName);
+        this.writerThread.setDaemon(true);
+    }
+
+    /**
+     * Start the background thread, once the subclass is initialized.
+     */
+    void start() {
+        writerThread.start();
+    }
+
+    /**
+     * Wait up to the given timeout for the next element.
+     *
+     * @return the element to send, {@code null} if there is none
+     * @throws InterruptedException if {@link #close(long, long)} timed out
+     */
+    @Nullable
+    protected abstract E poll(long timeout, @NonNull TimeUnit unit) throws InterruptedException;
+
+    /**
+     * @return {@code true} if no element is waiting to be polled
+     */
+    protected abstract boolean isEmpty();
+
+    /**
+     * Send the given element, invoked by the background thread.
+     */
+    protected abstract void send(@NonNull E element) throws IOException;
+
+    /**
+     * @return number of messages of the given element
+     */
+    protected int count(@NonNull E element) {
+        return 1;
+    }
+
+    /**
+     * Wake up the background thread waiting in {@link #poll(long, TimeUnit)}, the thread polls again after the
+     * timeout otherwise.
+     */
+    protected void wakeUp() {
+    }
+
+    /**
+     * Invoked by the producers once a message is queued.
+     */
+    void enqueued() {
+        enqueuedCounter.incrementAndGet();
+    }
+
+    /**
+     * Invoked when queued messages are discarded before being sent.
+     */
+    void discarded(long count) {
+        processedCounter.addAndGet(count);
+    }
+
+    private void drain() {
+        while ((running || !isEmpty()) && !aborted) {
+            E element;
+            try {
+                element = poll(POLL_TIMEOUT_IN_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                // close() timed out
+                break;
+            }
+            if (element == null) {
+                continue;
+            }
+            int count = count(element);
+            try {
+                send(element);
+                if (lastSendFailed) {
+                    logger.info("Syslog messages are sent again by " + syslogMessageSender);
+                    lastSendFailed = false;
+                }
+            } catch (IOException | RuntimeException e) {
+                sendErrorCounter.addAndGet(count);
+                if (!lastSendFailed) {
+                    logger.warn("Exception sending " + (count == 1 ? "syslog message" : count + " syslog messages") + " with " + syslogMessageSender + ", discard " + (count == 1 ? "message" : "messages"), e);
+                    lastSendFailed = true;
+                } else if (logger.isLoggable(Level.FINE)) {
+                    logger.log(Level.FINE, "Exception sending syslog messages with " + syslogMessageSender, e);
+                }
+            } finally {
+                processedCounter.addAndGet(count);
+                synchronized (drainMonitor) {
+                    drainMonitor.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait until the messages queued before this invocation have been sent.
+     *
+     * @param deadlineInNanos {@link System#nanoTime()} after which to stop waiting
+     * @return {@code true} if all the messages have been sent before the deadline
+     */
+    boolean flush(long deadlineInNanos) throws InterruptedException {
+        long target = enqueuedCounter.get();
+        synchronized (drainMonitor) {
+            while (processedCounter.get() < target) {
+                long remainingInMillis = TimeUnit.NANOSECONDS.toMillis(deadlineInNanos - System.nanoTime());
+                if (remainingInMillis <= 0 || !writerThread.isAlive()) {
+                    return false;
+                }
+                drainMonitor.wait(remainingInMillis);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stop accepting messages, the background thread sends the queued ones and stops.
+     */
+    void stop() {
+        running = false;
+        wakeUp();
+    }
+
+    /**
+     * {@link #stop()}, wait until the deadline for the queued messages to be sent, then interrupt the background
+     * thread and wait up to the timeout for it to stop.
+     *
+     * @param deadlineInNanos {@link System#nanoTime()} after which to interrupt the background thread
+     * @param timeoutInMillis maximum time to wait for the interrupted thread
+     * @return number of messages queued and not sent
+     */
+    long close(long deadlineInNanos, long timeoutInMillis) {
+        stop();
+        try {
+            writerThread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadlineInNanos - System.nanoTime())));
+            if (writerThread.isAlive()) {
+                aborted = true;
+                writerThread.interrupt();
+                writerThread.join(timeoutInMillis);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long remaining = getSize();
+        if (remaining > 0) {
+            logger.warn("Discard " + remaining + " syslog messages not sent by " + syslogMessageSender + " within " + timeoutInMillis + "ms on close");
+        }
+        return remaining;
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    @NonNull
+    Thread getWriterThread() {
+        return writerThread;
+    }
+
+    /**
+     * @return number of messages queued and not yet sent nor discarded
+     */
+    long getSize() {
+        return enqueuedCounter.get() - processedCounter.get();
+    }
+
+    long getSendErrorCount() {
+        return sendErrorCounter.get();
+    }
+}
@@ -0,0 +1,356 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.sender;
+
+import com.cloudbees.syslog.Severity;
+import com.cloudbees.syslog.SyslogMessage;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import net.jcip.annotations.ThreadSafe;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Send messages asynchronously: {@link #sendMessage(SyslogMessage)} never blocks on I/O, it puts the message in a
+ * bounded queue drained by a background thread that sends it with the underlying {@link SyslogMessageSender}.
+ *
+ * When the queue fills up, the messages of low severity are discarded first: once the remaining capacity of the queue
+ * goes below the {@link #setDiscardingThreshold(int) discarding threshold}, the messages whose severity is
+ * {@link #setDiscardingSeverity(Severity) discarding severity} or less severe are discarded. When the queue is full,
+ * the {@link OverflowPolicy overflow policy} applies, as well as when the {@link #setSendBudget(SendBudget) send budget}
+ * shared with other senders is exhausted.
+ *
+ * Errors sending messages are counted in {@link #getSendErrorCount()} and logged with the {@link #logger internal
+ * logger}, they are not reported to the caller.
+ *
+ * The given {@link SyslogMessage} are queued as is and must not be modified after having been sent.
+ */
+@ThreadSafe
+public class AsyncSyslogMessageSender extends DelegatingSyslogMessageSender {
+    public final static int DEFAULT_QUEUE_CAPACITY = 1024;
+    public final static long DEFAULT_SHUTDOWN_TIMEOUT_IN_MILLIS = 1000;
+    private final static AtomicInteger threadCounter = new AtomicInteger();
+
+    /**
+     * Behavior when the queue is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Discard the message being sent.
+         */
+        DISCARD_NEWEST,
+        /**
+         * Discard the oldest message of the queue to make room for the message being sent.
+         */
+        DISCARD_OLDEST
+    }
+
+    private final SyslogMessageSender syslogMessageSender;
+    private final BlockingQueue<SyslogMessage> queue;
+    private final int queueCapacity;
+    private final MessageQueue messageQueue;
+    private volatile int discardingThreshold;
+    private volatile Severity discardingSeverity = Severity.DEBUG;
+    private volatile OverflowPolicy overflowPolicy = OverflowPolicy.DISCARD_NEWEST;
+    private volatile long shutdownTimeoutInMillis = DEFAULT_SHUTDOWN_TIMEOUT_IN_MILLIS;
+    @Nullable
+    private volatile SendBudget.Account sendBudgetAccount;
+    private final AtomicLong discardCounter = new AtomicLong();
+
+    public AsyncSyslogMessageSender(@NonNull SyslogMessageSender syslogMessageSender) {
+        this(syslogMessageSender, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param syslogMessageSender underlying sender, closed when this sender is closed
+     * @param queueCapacity       maximum number of messages waiting to be sent
+     */
+    public AsyncSyslogMessageSender(@NonNull SyslogMessageSender syslogMessageSender, int queueCapacity) {
+        super(syslogMessageSender);
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Invalid queue capacity " + queueCapacity);
+        }
+        this.syslogMessageSender = syslogMessageSender;
+        this.queueCapacity = queueCapacity;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.discardingThreshold = queueCapacity / 5;
+        this.messageQueue = new MessageQueue();
+        this.messageQueue.start();
+    }
+
+    /**
+     * Queue the given message, never blocks.
+     *
+     * @param message the message to send
+     */
+    @Override
+    public void sendMessage(@NonNull SyslogMessage message) {
+        sendCounter.incrementAndGet();
+        long nanosBefore = System.nanoTime();
+        try {
+            if (!messageQueue.isRunning()) {
+                discard();
+                return;
+            }
+            if (queue.remainingCapacity() < discardingThreshold && isDiscardable(message)) {
+                discard();
+                return;
+            }
+            SendBudget.Account sendBudgetAccount = this.sendBudgetAccount;
+            int size = 0;
+            if (sendBudgetAccount != null) {
+                size = SendBudget.estimateSize(message);
+                while (!sendBudgetAccount.tryReserve(size)) {
+                    if (overflowPolicy != OverflowPolicy.DISCARD_OLDEST || !sendBudgetAccount.canReserveByReleasing(size) || !discardOldest()) {
+                        discardOverBudget(sendBudgetAccount);
+                        return;
+                    }
+                }
+            }
+            while (!queue.offer(message)) {
+                if (overflowPolicy == OverflowPolicy.DISCARD_OLDEST) {
+                    discardOldest();
+                } else {
+                    if (sendBudgetAccount != null) {
+                        sendBudgetAccount.release(size);
+                    }
+                    discard();
+                    return;
+                }
+            }
+            messageQueue.enqueued();
+        } finally {
+            sendDurationInNanosCounter.addAndGet(System.nanoTime() - nanosBefore);
+        }
+    }
+
+    private boolean isDiscardable(@NonNull SyslogMessage message) {
+        Severity severity = message.getSeverity() == null ? defaultSeverity : message.getSeverity();
+        Severity discardingSeverity = this.discardingSeverity;
+        if (discardingSeverity == null) {
+            return false;
+        }
+        return severity == null || severity.numericalCode() >= discardingSeverity.numericalCode();
+    }
+
+    /**
+     * @return {@code false} if the queue is empty
+     */
+    private boolean discardOldest() {
+        SyslogMessage oldest = queue.poll();
+        if (oldest == null) {
+            return false;
+        }
+        release(oldest);
+        discard();
+        messageQueue.discarded(1);
+        return true;
+    }
+
+    private void release(@NonNull SyslogMessage message) {
+        SendBudget.Account sendBudgetAccount = this.sendBudgetAccount;
+        if (sendBudgetAccount != null) {
+            sendBudgetAccount.release(SendBudget.estimateSize(message));
+        }
+    }
+
+    private void discardOverBudget(@NonNull SendBudget.Account sendBudgetAccount) {
+        long discardCount = discardCounter.incrementAndGet();
+        if (discardCount == 1 || logger.isLoggable(Level.FINEST)) {
+            logger.warn("Syslog send budget is exhausted (" + sendBudgetAccount.getSendBudget() + "), discard message, total discarded: " + discardCount);
+        }
+    }
+
+    private void discard() {
+        long discardCount = discardCounter.incrementAndGet();
+        if (discardCount == 1 || logger.isLoggable(Level.FINEST)) {
+            logger.warn("Syslog message queue is saturated (capacity: " + queueCapacity + "), discard message, total discarded: " + discardCount);
+        }
+    }
+
+    /**
+     * Wait until the messages queued before this invocation have been handed to the underlying sender.
+     *
+     * @return {@code true} if all the messages have been sent before the timeout
+     */
+    public boolean flush(long timeout, TimeUnit unit) throws InterruptedException {
+        return messageQueue.flush(System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    /**
+     * Wait up to {@link #getShutdownTimeoutInMillis()} for the queued messages to be sent.
+     *
+     * @see #flush(long, TimeUnit)
+     */
+    public boolean flush() {
+        try {
+            return flush(shutdownTimeoutInMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Stop accepting messages, wait up to {@link #getShutdownTimeoutInMillis()} for the queued messages to be sent,
+     * discard the remaining ones and close the underlying sender.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!messageQueue.isRunning()) {
+            return;
+        }
+        long remaining = messageQueue.close(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(shutdownTimeoutInMillis), shutdownTimeoutInMillis);
+        queue.clear();
+        discardCounter.addAndGet(remaining);
+        SendBudget.Account sendBudgetAccount = this.sendBudgetAccount;
+        if (sendBudgetAccount != null) {
+            sendBudgetAccount.releaseAll();
+        }
+        syslogMessageSender.close();
+    }
+
+    public SyslogMessageSender getSyslogMessageSender() {
+        return syslogMessageSender;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    public long getDiscardCount() {
+        return discardCounter.get();
+    }
+
+    public int getDiscardingThreshold() {
+        return discardingThreshold;
+    }
+
+    /**
+     * @param discardingThreshold remaining capacity of the queue below which the messages of
+     *                            {@link #getDiscardingSeverity()} or less severe are discarded, {@code 0} to disable.
+     *                            Default is 20% of the queue capacity.
+     */
+    public void setDiscardingThreshold(int discardingThreshold) {
+        this.discardingThreshold = discardingThreshold;
+    }
+
+    public Severity getDiscardingSeverity() {
+        return discardingSeverity;
+    }
+
+    /**
+     * @param discardingSeverity messages of this severity or less severe are the first discarded, default
+     *                           {@link Severity#DEBUG}, {@code null} to disable.
+     */
+    public void setDiscardingSeverity(Severity discardingSeverity) {
+        this.discardingSeverity = discardingSeverity;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public void setOverflowPolicy(@NonNull OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    @Nullable
+    public SendBudget getSendBudget() {
+        SendBudget.Account sendBudgetAccount = this.sendBudgetAccount;
+        return sendBudgetAccount == null ? null : sendBudgetAccount.getSendBudget();
+    }
+
+    /**
+     * @param sendBudget budget shared with other senders bounding the size of the queued messages, {@code null}
+     *                   (default) for no budget. To be set before sending messages.
+     */
+    public void setSendBudget(@Nullable SendBudget sendBudget) {
+        SendBudget.Account previous = this.sendBudgetAccount;
+        this.sendBudgetAccount = sendBudget == null ? null : sendBudget.newAccount();
+        if (previous != null) {
+            previous.releaseAll();
+        }
+    }
+
+    public long getShutdownTimeoutInMillis() {
+        return shutdownTimeoutInMillis;
+    }
+
+    /**
+     * @param shutdownTimeoutInMillis maximum time {@link #flush()} and {@link #close()} wait for the queued messages
+     *                                to be sent
+     */
+    public void setShutdownTimeoutInMillis(long shutdownTimeoutInMillis) {
+        this.shutdownTimeoutInMillis = shutdownTimeoutInMillis;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getName() + "{" +
+                "syslogMessageSender=" + syslogMessageSender +
+                ", queueCapacity=" + queueCapacity +
+                ", queueSize=" + queue.size() +
+                ", discardingThreshold=" + discardingThreshold +
+                ", discardingSeverity=" + discardingSeverity +
+                ", overflowPolicy=" + overflowPolicy +
+                ", sendBudget=" + getSendBudget() +
+                ", sendCounter=" + sendCounter +
+                ", sendDurationInNanosCounter=" + sendDurationInNanosCounter +
+                ", sendErrorCounter=" + sendErrorCounter +
+                ", discardCounter=" + discardCounter +
+                '}';
+    }
+
+    /**
+     * Queue of the messages drained by the writer thread.
+     */
+    private class MessageQueue extends AsyncQueue<SyslogMessage> {
+        MessageQueue() {
+            super(syslogMessageSender, logger, sendErrorCounter, "syslog-async-sender-" + threadCounter.incrementAndGet());
+        }
+
+        @Nullable
+        @Override
+        protected SyslogMessage poll(long timeout, @NonNull TimeUnit unit) throws InterruptedException {
+            SyslogMessage message = queue.poll(timeout, unit);
+            if (message != null) {
+                release(message);
+            }
+            return message;
+        }
+
+        @Override
+        protected boolean isEmpty() {
+            return queue.isEmpty();
+        }
+
+        @Override
+        protected void send(@NonNull SyslogMessage message) throws IOException {
+            syslogMessageSender.sendMessage(message);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.sender;
+
+import com.cloudbees.syslog.MessageFormat;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Sender decorating underlying senders: the defaults of the messages are copied from the first underlying sender, the
+ * syslog server and the message format are set on all the underlying senders.
+ */
+abstract class DelegatingSyslogMessageSender extends AbstractSyslogMessageSender {
+    private final List<SyslogMessageSender> delegates;
+
+    /**
+     * @param syslogMessageSender underlying sender
+     */
+    DelegatingSyslogMessageSender(@NonNull SyslogMessageSender syslogMessageSender) {
+        this(Collections.singletonList(syslogMessageSender));
+    }
+
+    /**
+     * @param syslogMessageSenders underlying senders, the defaults of the messages are the ones of the first sender
+     */
+    DelegatingSyslogMessageSender(@NonNull List<? extends SyslogMessageSender> syslogMessageSenders) {
+        if (syslogMessageSenders.isEmpty()) {
+            throw new IllegalArgumentException("No underlying sender");
+        }
+        this.delegates = Collections.unmodifiableList(new ArrayList<>(syslogMessageSenders));
+        if (syslogMessageSenders.get(0) instanceof AbstractSyslogMessageSender) {
+            AbstractSyslogMessageSender sender = (AbstractSyslogMessageSender) syslogMessageSenders.get(0);
+            this.defaultAppName = sender.getDefaultAppName();
+            this.defaultFacility = sender.getDefaultFacility();
+            this.defaultMessageHostname = sender.getDefaultMessageHostname();
+            this.defaultSeverity = sender.getDefaultSeverity();
+            this.messageFormat = sender.getMessageFormat();
+        }
+    }
+
+    /**
+     * Set the hostname or IP of the syslog server on the underlying senders.
+     *
+     * @throws UnsupportedOperationException if an underlying sender is not an {@link AbstractSyslogMessageSender}
+     */
+    @Override
+    public void setSyslogServerHostname(String syslogServerHostname) {
+        for (AbstractSyslogMessageSender sender : getAbstractSyslogMessageSenders()) {
+            sender.setSyslogServerHostname(syslogServerHostname);
+        }
+    }
+
+    /**
+     * Set the port of the syslog server on the underlying senders.
+     *
+     * @throws UnsupportedOperationException if an underlying sender is not an {@link AbstractSyslogMessageSender}
+     */
+    @Override
+    public void setSyslogServerPort(int syslogServerPort) {
+        for (AbstractSyslogMessageSender sender : getAbstractSyslogMessageSenders()) {
+            sender.setSyslogServerPort(syslogServerPort);
+        }
+    }
+
+    /**
+     * The message format is the one of the underlying senders.
+     *
+     * @throws UnsupportedOperationException if an underlying sender is not an {@link AbstractSyslogMessageSender}
+     */
+    @Override
+    public void setMessageFormat(MessageFormat messageFormat) {
+        List<AbstractSyslogMessageSender> senders = getAbstractSyslogMessageSenders();
+        super.setMessageFormat(messageFormat);
+        for (AbstractSyslogMessageSender sender : senders) {
+            sender.setMessageFormat(messageFormat);
+        }
+    }
+
+    @NonNull
+    private List<AbstractSyslogMessageSender> getAbstractSyslogMessageSenders() {
+        List<AbstractSyslogMessageSender> senders = new ArrayList<>(delegates.size());
+        for (SyslogMessageSender delegate : delegates) {
+            if (!(delegate instanceof AbstractSyslogMessageSender)) {
+                throw new UnsupportedOperationException("Underlying sender is not an AbstractSyslogMessageSender: " + delegate);
+            }
+            senders.add((AbstractSyslogMessageSender) delegate);
+        }
+        return senders;
+    }
+}
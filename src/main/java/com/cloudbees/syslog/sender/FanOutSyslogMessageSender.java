@@ -0,0 +1,372 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.sender;
+
+import com.cloudbees.syslog.MessageFormat;
+import com.cloudbees.syslog.SyslogFrame;
+import com.cloudbees.syslog.SyslogMessage;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import net.jcip.annotations.ThreadSafe;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Send each message to several senders, encoding it only once per {@link MessageFormat}.
+ *
+ * The message is encoded in a {@link SyslogFrame} for each message format of the {@link SyslogFrameSender}s, the
+ * frame is shared by the senders of that format. The other senders receive the {@link SyslogMessage}.
+ *
+ * Each sender has its own bounded queue and I/O thread so that a slow destination doesn't delay the others. When the
+ * queue of a sender is full, or when its account on the {@link #setSendBudget(SendBudget) send budget} shared with
+ * other senders is exhausted, the message is discarded for this sender.
+ *
+ * The given {@link SyslogMessage} are queued as is and must not be modified after having been sent.
+ */
+@ThreadSafe
+public class FanOutSyslogMessageSender extends DelegatingSyslogMessageSender {
+    private final static AtomicInteger threadCounter = new AtomicInteger();
+    private final static MessageFormat[] MESSAGE_FORMATS = MessageFormat.values();
+
+    /**
+     * A sender with its queue and I/O thread.
+     */
+    @ThreadSafe
+    public class Branch extends AsyncQueue<Entry> {
+        private final SyslogMessageSender syslogMessageSender;
+        @Nullable
+        private final SyslogFrameSender syslogFrameSender;
+        private final BlockingQueue<Entry> queue;
+        private final AtomicLong discardCounter = new AtomicLong();
+        @Nullable
+        private volatile SendBudget.Account sendBudgetAccount;
+
+        Branch(@NonNull SyslogMessageSender syslogMessageSender, int queueCapacity) {
+            super(syslogMessageSender, logger, new AtomicInteger(), "syslog-fan-out-sender-" + threadCounter.incrementAndGet());
+            this.syslogMessageSender = syslogMessageSender;
+            this.syslogFrameSender = syslogMessageSender instanceof SyslogFrameSender ? (SyslogFrameSender) syslogMessageSender : null;
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        }
+
+        /**
+         * @param messageSize estimated size of the message, {@code 0} without send budget
+         */
+        void offer(@NonNull SyslogMessage message, @Nullable SyslogFrame frame, int messageSize) {
+            SendBudget.Account sendBudgetAccount = this.sendBudgetAccount;
+            int size = 0;
+            if (sendBudgetAccount != null) {
+                size = messageSize + (frame == null ? 0 : frame.size());
+                if (!sendBudgetAccount.tryReserve(size)) {
+                    long discardCount = discardCounter.incrementAndGet();
+                    if (discardCount == 1 || logger.isLoggable(Level.FINEST)) {
+                        logger.warn("Syslog send budget is exhausted (" + sendBudgetAccount.getSendBudget() + "), discard message for " + syslogMessageSender + ", total discarded: " + discardCount);
+                    }
+                    return;
+                }
+            }
+            if (!isRunning() || !queue.offer(new Entry(message, frame, size))) {
+                if (sendBudgetAccount != null) {
+                    sendBudgetAccount.release(size);
+                }
+                long discardCount = discardCounter.incrementAndGet();
+                if (discardCount == 1 || logger.isLoggable(Level.FINEST)) {
+                    logger.warn("Syslog message queue of " + syslogMessageSender + " is saturated, discard message, total discarded: " + discardCount);
+                }
+                return;
+            }
+            enqueued();
+        }
+
+        @Nullable
+        @Override
+        protected Entry poll(long timeout, @NonNull TimeUnit unit) throws InterruptedException {
+            Entry entry = queue.poll(timeout, unit);
+            SendBudget.Account sendBudgetAccount = this.sendBudgetAccount;
+            if (entry != null && sendBudgetAccount != null) {
+                sendBudgetAccount.release(entry.size);
+            }
+            return entry;
+        }
+
+        @Override
+        protected boolean isEmpty() {
+            return queue.isEmpty();
+        }
+
+        @Override
+        protected void send(@NonNull Entry entry) throws IOException {
+            if (entry.frame != null && syslogFrameSender != null && entry.frame.getMessageFormat() == syslogFrameSender.getMessageFormat()) {
+                syslogFrameSender.sendFrame(entry.frame);
+            } else {
+                syslogMessageSender.sendMessage(entry.message);
+            }
+        }
+
+        /**
+         * @return the format of the frames sent to this branch, {@code null} if it doesn't accept frames
+         */
+        @Nullable
+        MessageFormat getFrameFormat() {
+            return syslogFrameSender == null ? null : syslogFrameSender.getMessageFormat();
+        }
+
+        @NonNull
+        public SyslogMessageSender getSyslogMessageSender() {
+            return syslogMessageSender;
+        }
+
+        public int getQueueSize() {
+            return queue.size();
+        }
+
+        public long getDiscardCount() {
+            return discardCounter.get();
+        }
+
+        @Override
+        public long getSendErrorCount() {
+            return super.getSendErrorCount();
+        }
+
+        @Override
+        public String toString() {
+            return "Branch{" +
+                    "syslogMessageSender=" + syslogMessageSender +
+                    ", queueSize=" + queue.size() +
+                    ", discardCounter=" + discardCounter +
+                    ", sendErrorCount=" + getSendErrorCount() +
+                    '}';
+        }
+    }
+
+    private static class Entry {
+        final SyslogMessage message;
+        @Nullable
+        final SyslogFrame frame;
+        /**
+         * Bytes reserved on the send budget
+         */
+        final int size;
+
+        Entry(@NonNull SyslogMessage message, @Nullable SyslogFrame frame, int size) {
+            this.message = message;
+            this.frame = frame;
+            this.size = size;
+        }
+    }
+
+    private final Branch[] branches;
+    private volatile boolean closed;
+    @Nullable
+    private volatile SendBudget sendBudget;
+    private volatile long shutdownTimeoutInMillis = AsyncSyslogMessageSender.DEFAULT_SHUTDOWN_TIMEOUT_IN_MILLIS;
+    private final AtomicLong encodeCounter = new AtomicLong();
+
+    public FanOutSyslogMessageSender(@NonNull SyslogMessageSender... syslogMessageSenders) {
+        this(Arrays.asList(syslogMessageSenders), AsyncSyslogMessageSender.DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param syslogMessageSenders senders receiving every message, closed when this sender is closed
+     * @param queueCapacity        maximum number of messages waiting to be sent by each sender
+     */
+    public FanOutSyslogMessageSender(@NonNull List<? extends SyslogMessageSender> syslogMessageSenders, int queueCapacity) {
+        super(syslogMessageSenders);
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Invalid queue capacity " + queueCapacity);
+        }
+        this.branches = new Branch[syslogMessageSenders.size()];
+        for (int i = 0; i < branches.length; i++) {
+            branches[i] = new Branch(syslogMessageSenders.get(i), queueCapacity);
+            branches[i].start();
+        }
+    }
+
+    /**
+     * Encode the given message once per message format and queue it for each sender, never blocks.
+     *
+     * @param message the message to send
+     */
+    @Override
+    public void sendMessage(@NonNull SyslogMessage message) {
+        sendCounter.incrementAndGet();
+        long nanosBefore = System.nanoTime();
+        try {
+            SyslogFrame[] frames = null;
+            int messageSize = sendBudget == null ? 0 : SendBudget.estimateSize(message);
+            for (Branch branch : branches) {
+                MessageFormat frameFormat = branch.getFrameFormat();
+                SyslogFrame frame = null;
+                if (frameFormat != null) {
+                    if (frames == null) {
+                        frames = new SyslogFrame[MESSAGE_FORMATS.length];
+                    }
+                    frame = frames[frameFormat.ordinal()];
+                    if (frame == null) {
+                        frame = message.toSyslogFrame(frameFormat);
+                        frames[frameFormat.ordinal()] = frame;
+                        encodeCounter.incrementAndGet();
+                    }
+                }
+                branch.offer(message, frame, messageSize);
+            }
+        } finally {
+            sendDurationInNanosCounter.addAndGet(System.nanoTime() - nanosBefore);
+        }
+    }
+
+    /**
+     * Wait until the messages queued before this invocation have been handed to all the senders.
+     *
+     * @return {@code true} if all the messages have been sent before the timeout
+     */
+    public boolean flush(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Branch branch : branches) {
+            if (!branch.flush(deadline)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stop accepting messages, wait up to {@link #getShutdownTimeoutInMillis()} for the queued messages to be sent,
+     * discard the remaining ones and close the senders.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Branch branch : branches) {
+            branch.stop();
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(shutdownTimeoutInMillis);
+        IOException exception = null;
+        for (Branch branch : branches) {
+            long remaining = branch.close(deadline, shutdownTimeoutInMillis);
+            branch.queue.clear();
+            branch.discardCounter.addAndGet(remaining);
+            SendBudget.Account sendBudgetAccount = branch.sendBudgetAccount;
+            if (sendBudgetAccount != null) {
+                sendBudgetAccount.releaseAll();
+            }
+            try {
+                branch.syslogMessageSender.close();
+            } catch (IOException e) {
+                exception = e;
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    /**
+     * @throws UnsupportedOperationException the servers are the ones of the senders
+     */
+    @Override
+    public void setSyslogServerHostname(String syslogServerHostname) {
+        throw new UnsupportedOperationException("Configure the hostname of the senders");
+    }
+
+    /**
+     * @throws UnsupportedOperationException the servers are the ones of the senders
+     */
+    @Override
+    public void setSyslogServerPort(int syslogServerPort) {
+        throw new UnsupportedOperationException("Configure the port of the senders");
+    }
+
+    @NonNull
+    public List<Branch> getBranches() {
+        return Collections.unmodifiableList(new ArrayList<>(Arrays.asList(branches)));
+    }
+
+    /**
+     * @return number of errors sending messages, all senders included
+     */
+    @Override
+    public int getSendErrorCount() {
+        long sendErrorCount = 0;
+        for (Branch branch : branches) {
+            sendErrorCount += branch.getSendErrorCount();
+        }
+        return (int) sendErrorCount;
+    }
+
+    /**
+     * @return number of {@link SyslogFrame}s encoded
+     */
+    public long getEncodeCount() {
+        return encodeCounter.get();
+    }
+
+    @Nullable
+    public SendBudget getSendBudget() {
+        return sendBudget;
+    }
+
+    /**
+     * @param sendBudget budget shared with other senders bounding the size of the messages queued by each sender, a
+     *                   message queued for several senders is counted by each of them. {@code null} (default) for no
+     *                   budget. To be set before sending messages.
+     */
+    public void setSendBudget(@Nullable SendBudget sendBudget) {
+        this.sendBudget = sendBudget;
+        for (Branch branch : branches) {
+            SendBudget.Account previous = branch.sendBudgetAccount;
+            branch.sendBudgetAccount = sendBudget == null ? null : sendBudget.newAccount();
+            if (previous != null) {
+                previous.releaseAll();
+            }
+        }
+    }
+
+    public long getShutdownTimeoutInMillis() {
+        return shutdownTimeoutInMillis;
+    }
+
+    /**
+     * @param shutdownTimeoutInMillis maximum time {@link #close()} waits for the queued messages to be sent
+     */
+    public void setShutdownTimeoutInMillis(long shutdownTimeoutInMillis) {
+        this.shutdownTimeoutInMillis = shutdownTimeoutInMillis;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getName() + "{" +
+                "branches=" + Arrays.asList(branches) +
+                ", sendCounter=" + sendCounter +
+                ", sendDurationInNanosCounter=" + sendDurationInNanosCounter +
+                ", encodeCounter=" + encodeCounter +
+                ", sendBudget=" + sendBudget +
+                '}';
+    }
+}
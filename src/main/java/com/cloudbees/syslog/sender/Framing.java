@@ -0,0 +1,170 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.sender;
+
+import com.cloudbees.syslog.MessageFormat;
+import com.cloudbees.syslog.SyslogFrame;
+import com.cloudbees.syslog.util.Utf8ByteArrayWriter;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import net.jcip.annotations.Immutable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Delimitation of the messages sent over a stream transport (TCP, TLS), see
+ * <a href="https://tools.ietf.org/html/rfc6587#section-3.4">RFC 6587 - 3.4 Framing</a>.
+ *
+ * <ul>
+ * <li>Non-transparent framing: each message is followed by a trailer ({@link #LF}, {@link #CRLF}, {@link #NUL}), the
+ * receivers scan for the trailer which must not appear in the messages,</li>
+ * <li>{@link #OCTET_COUNTING Octet counting}: each message is preceded by its length in bytes and a space, the
+ * receivers read the message without scanning it and the messages may contain any character.</li>
+ * </ul>
+ *
+ * A {@link MessageFormat#RFC_5425} frame is already octet counted: it is written as is with octet counting and
+ * followed by the trailer with non-transparent framing.
+ */
+@Immutable
+public abstract class Framing {
+    /**
+     * Non-transparent framing with a LF trailer, the most widely supported.
+     */
+    public final static Framing LF = nonTransparent("\n");
+    /**
+     * Non-transparent framing with a CR LF trailer.
+     */
+    public final static Framing CRLF = nonTransparent("\r\n");
+    /**
+     * Non-transparent framing with a NUL trailer, for messages containing line breaks.
+     */
+    public final static Framing NUL = nonTransparent("\0");
+    /**
+     * Octet counting, see <a href="https://tools.ietf.org/html/rfc6587#section-3.4.1">RFC 6587 - 3.4.1 Octet Counting</a>.
+     */
+    public final static Framing OCTET_COUNTING = new OctetCounting();
+
+    /**
+     * Write the given frame and its delimitation.
+     */
+    public abstract void writeFrame(@NonNull SyslogFrame frame, @NonNull OutputStream out) throws IOException;
+
+    /**
+     * Write the given encoded message and its delimitation without creating a {@link SyslogFrame}.
+     *
+     * @param messageFormat format of the message, a {@link MessageFormat#RFC_5425} message is encoded in
+     *                      {@link MessageFormat#RFC_5424}, without its octet counting prefix
+     * @param message       the encoded message
+     */
+    void writeMessage(@NonNull MessageFormat messageFormat, @NonNull Utf8ByteArrayWriter message, @NonNull OutputStream out) throws IOException {
+        byte[] bytes;
+        if (messageFormat == MessageFormat.RFC_5425) {
+            byte[] length = Integer.toString(message.size()).getBytes(StandardCharsets.US_ASCII);
+            bytes = new byte[length.length + 1 + message.size()];
+            System.arraycopy(length, 0, bytes, 0, length.length);
+            bytes[length.length] = ' ';
+            message.copyTo(bytes, length.length + 1);
+        } else {
+            bytes = message.toByteArray();
+        }
+        writeFrame(SyslogFrame.copyOf(messageFormat, bytes), out);
+    }
+
+    private static void writeOctetCount(int size, @NonNull OutputStream out) throws IOException {
+        int divisor = 1;
+        while (size / divisor >= 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            out.write('0' + size / divisor % 10);
+        }
+        out.write(' ');
+    }
+
+    /**
+     * @return the framing used by default for the given format: {@link #OCTET_COUNTING} for
+     * {@link MessageFormat#RFC_5425}, {@link #CRLF} otherwise
+     */
+    @NonNull
+    public static Framing defaultFraming(@NonNull MessageFormat messageFormat) {
+        return messageFormat == MessageFormat.RFC_5425 ? OCTET_COUNTING : CRLF;
+    }
+
+    /**
+     * @param trailer trailer appended to each message
+     * @return a non-transparent framing with the given trailer
+     */
+    @NonNull
+    public static Framing nonTransparent(@NonNull String trailer) {
+        if (trailer.isEmpty()) {
+            throw new IllegalArgumentException("Empty trailer");
+        }
+        return new NonTransparent(trailer);
+    }
+
+    private static class NonTransparent extends Framing {
+        private final String trailer;
+        private final byte[] trailerBytes;
+
+        NonTransparent(@NonNull String trailer) {
+            this.trailer = trailer;
+            this.trailerBytes = trailer.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void writeFrame(@NonNull SyslogFrame frame, @NonNull OutputStream out) throws IOException {
+            frame.writeTo(out);
+            out.write(trailerBytes);
+        }
+
+        @Override
+        void writeMessage(@NonNull MessageFormat messageFormat, @NonNull Utf8ByteArrayWriter message, @NonNull OutputStream out) throws IOException {
+            if (messageFormat == MessageFormat.RFC_5425) {
+                writeOctetCount(message.size(), out);
+            }
+            message.writeTo(out);
+            out.write(trailerBytes);
+        }
+
+        @Override
+        public String toString() {
+            return "Framing[non-transparent, trailer=" + trailer.replace("\r", "\\r").replace("\n", "\\n").replace("\0", "\\0") + "]";
+        }
+    }
+
+    private static class OctetCounting extends Framing {
+
+        @Override
+        public void writeFrame(@NonNull SyslogFrame frame, @NonNull OutputStream out) throws IOException {
+            if (frame.getMessageFormat() != MessageFormat.RFC_5425) {
+                writeOctetCount(frame.size(), out);
+            }
+            frame.writeTo(out);
+        }
+
+        @Override
+        void writeMessage(@NonNull MessageFormat messageFormat, @NonNull Utf8ByteArrayWriter message, @NonNull OutputStream out) throws IOException {
+            writeOctetCount(message.size(), out);
+            message.writeTo(out);
+        }
+
+        @Override
+        public String toString() {
+            return "Framing[octet-counting]";
+        }
+    }
+}
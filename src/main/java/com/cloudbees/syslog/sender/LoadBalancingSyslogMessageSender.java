@@ -0,0 +1,462 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.sender;
+
+import com.cloudbees.syslog.SyslogMessage;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import net.jcip.annotations.ThreadSafe;
+import javax.net.SocketFactory;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Spread the messages over several Syslog servers, each one reached through its own {@link SyslogMessageSender}.
+ *
+ * The destination of each message is chosen by the {@link Policy policy} among the healthy destinations. A message
+ * that fails to be sent is sent to another healthy destination. A destination failing
+ * {@link #setMaxConsecutiveFailures(int) consecutive times} is ejected, a background thread re-admits it once a
+ * {@link #probe(Destination) health probe} succeeds.
+ *
+ * Statistics of each destination are available with {@link #getDestinations()}.
+ */
+@ThreadSafe
+public class LoadBalancingSyslogMessageSender extends DelegatingSyslogMessageSender {
+    public final static long DEFAULT_PROBE_INTERVAL_IN_MILLIS = 5000;
+    public final static int DEFAULT_MAX_CONSECUTIVE_FAILURES = 1;
+    public final static int DEFAULT_PROBE_TIMEOUT_IN_MILLIS = 500;
+    public final static long DEFAULT_LATENCY_EWMA_HALF_LIFE_IN_MILLIS = 10_000;
+    /**
+     * Weight of the last sample in the {@link Destination#getLatencyEwmaInNanos() latency moving average}.
+     */
+    private final static double EWMA_ALPHA = 0.2;
+    /**
+     * Estimation of the size of the header of a message, for {@link Policy#LEAST_OUTSTANDING_BYTES}.
+     */
+    private final static int HEADER_SIZE_ESTIMATE = 64;
+    private final static AtomicInteger threadCounter = new AtomicInteger();
+
+    /**
+     * Selection of the destination of a message.
+     */
+    public enum Policy {
+        /**
+         * Destinations in turn.
+         */
+        ROUND_ROBIN,
+        /**
+         * Destination with the fewest bytes being sent, favors the destinations keeping up.
+         */
+        LEAST_OUTSTANDING_BYTES,
+        /**
+         * Destination with the lowest exponentially weighted moving average of the send duration. The average of a
+         * destination halves every {@link #setLatencyEwmaHalfLifeInMillis(long) half-life} without a new sample, so
+         * that a destination once slow is tried again and its average refreshed.
+         */
+        EWMA_LATENCY
+    }
+
+    /**
+     * A Syslog server and its statistics.
+     */
+    @ThreadSafe
+    public static class Destination {
+        private final SyslogMessageSender syslogMessageSender;
+        private volatile boolean healthy = true;
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private final AtomicLong outstandingBytes = new AtomicLong();
+        private volatile long latencyEwmaInNanos;
+        private volatile long latencySampleNanos;
+        private final AtomicLong sentCounter = new AtomicLong();
+        private final AtomicLong failureCounter = new AtomicLong();
+        private final AtomicLong ejectionCounter = new AtomicLong();
+
+        Destination(@NonNull SyslogMessageSender syslogMessageSender) {
+            this.syslogMessageSender = syslogMessageSender;
+        }
+
+        void recordSuccess(long durationInNanos, long nowInNanos, long halfLifeInNanos) {
+            sentCounter.incrementAndGet();
+            consecutiveFailures.set(0);
+            long ewma = decayedLatencyEwmaInNanos(nowInNanos, halfLifeInNanos);
+            // racy update, an approximation is fine
+            latencyEwmaInNanos = ewma == 0 ? durationInNanos : (long) (EWMA_ALPHA * durationInNanos + (1 - EWMA_ALPHA) * ewma);
+            latencySampleNanos = nowInNanos;
+        }
+
+        /**
+         * @return the latency moving average halved for each half-life elapsed since the last sample, {@code 0} if
+         * the destination has no sample yet
+         */
+        long decayedLatencyEwmaInNanos(long nowInNanos, long halfLifeInNanos) {
+            long ewma = latencyEwmaInNanos;
+            long ageInNanos = nowInNanos - latencySampleNanos;
+            if (ewma == 0 || halfLifeInNanos <= 0 || ageInNanos <= 0) {
+                return ewma;
+            }
+            return (long) (ewma * Math.pow(0.5, (double) ageInNanos / halfLifeInNanos));
+        }
+
+        /**
+         * @return {@code true} if the destination must be ejected
+         */
+        boolean recordFailure(int maxConsecutiveFailures) {
+            failureCounter.incrementAndGet();
+            return consecutiveFailures.incrementAndGet() >= maxConsecutiveFailures;
+        }
+
+        @NonNull
+        public SyslogMessageSender getSyslogMessageSender() {
+            return syslogMessageSender;
+        }
+
+        public boolean isHealthy() {
+            return healthy;
+        }
+
+        public long getOutstandingBytes() {
+            return outstandingBytes.get();
+        }
+
+        /**
+         * @return the latency moving average as of the last sample, without the decay applied since
+         */
+        public long getLatencyEwmaInNanos() {
+            return latencyEwmaInNanos;
+        }
+
+        public long getSentCount() {
+            return sentCounter.get();
+        }
+
+        public long getFailureCount() {
+            return failureCounter.get();
+        }
+
+        public long getEjectionCount() {
+            return ejectionCounter.get();
+        }
+
+        @Override
+        public String toString() {
+            return "Destination{" +
+                    "syslogMessageSender=" + syslogMessageSender +
+                    ", healthy=" + healthy +
+                    ", outstandingBytes=" + outstandingBytes +
+                    ", latencyEwmaInNanos=" + latencyEwmaInNanos +
+                    ", sentCounter=" + sentCounter +
+                    ", failureCounter=" + failureCounter +
+                    ", ejectionCounter=" + ejectionCounter +
+                    '}';
+        }
+    }
+
+    private final Destination[] destinations;
+    private final Policy policy;
+    private final AtomicInteger roundRobinCounter = new AtomicInteger();
+    private final Thread probeThread;
+    private volatile boolean running = true;
+    private volatile long probeIntervalInMillis = DEFAULT_PROBE_INTERVAL_IN_MILLIS;
+    private volatile int probeTimeoutInMillis = DEFAULT_PROBE_TIMEOUT_IN_MILLIS;
+    private volatile int maxConsecutiveFailures = DEFAULT_MAX_CONSECUTIVE_FAILURES;
+    private volatile long latencyEwmaHalfLifeInMillis = DEFAULT_LATENCY_EWMA_HALF_LIFE_IN_MILLIS;
+
+    public LoadBalancingSyslogMessageSender(@NonNull Policy policy, @NonNull SyslogMessageSender... syslogMessageSenders) {
+        this(policy, Arrays.asList(syslogMessageSenders));
+    }
+
+    /**
+     * @param policy               selection of the destination of each message
+     * @param syslogMessageSenders senders of the destinations, closed when this sender is closed
+     */
+    public LoadBalancingSyslogMessageSender(@NonNull Policy policy, @NonNull List<? extends SyslogMessageSender> syslogMessageSenders) {
+        super(syslogMessageSenders);
+        this.policy = policy;
+        this.destinations = new Destination[syslogMessageSenders.size()];
+        for (int i = 0; i < destinations.length; i++) {
+            destinations[i] = new Destination(syslogMessageSenders.get(i));
+        }
+        this.probeThread = new Thread(this::probeLoop, "syslog-load-balancer-probe-" + threadCounter.incrementAndGet());
+        this.probeThread.setDaemon(true);
+        this.probeThread.start();
+    }
+
+    /**
+     * Send the given message to the destination selected by the policy, or to the other healthy destinations if it
+     * fails.
+     *
+     * @param message the message to send
+     * @throws IOException the exception of the last destination if the message could not be sent to any destination
+     */
+    @Override
+    public void sendMessage(@NonNull SyslogMessage message) throws IOException {
+        sendCounter.incrementAndGet();
+        long nanosBefore = System.nanoTime();
+        try {
+            long size = HEADER_SIZE_ESTIMATE + (message.getMsg() == null ? 0 : message.getMsg().size());
+            Exception lastException = null;
+            // allocated on the first failure
+            boolean[] tried = null;
+            for (int attempt = 0; attempt < destinations.length; attempt++) {
+                int index = select(tried);
+                if (index < 0) {
+                    break;
+                }
+                Destination destination = destinations[index];
+                destination.outstandingBytes.addAndGet(size);
+                long destinationNanosBefore = System.nanoTime();
+                try {
+                    destination.syslogMessageSender.sendMessage(message);
+                    long destinationNanosAfter = System.nanoTime();
+                    destination.recordSuccess(destinationNanosAfter - destinationNanosBefore, destinationNanosAfter,
+                            TimeUnit.MILLISECONDS.toNanos(latencyEwmaHalfLifeInMillis));
+                    return;
+                } catch (IOException | RuntimeException e) {
+                    lastException = e;
+                    if (tried == null) {
+                        tried = new boolean[destinations.length];
+                    }
+                    tried[index] = true;
+                    if (destination.recordFailure(maxConsecutiveFailures)) {
+                        eject(destination, e);
+                    }
+                } finally {
+                    destination.outstandingBytes.addAndGet(-size);
+                }
+            }
+            sendErrorCounter.incrementAndGet();
+            if (lastException instanceof IOException) {
+                throw (IOException) lastException;
+            } else if (lastException instanceof RuntimeException) {
+                throw (RuntimeException) lastException;
+            }
+            throw new IOException("No healthy Syslog destination among " + Arrays.asList(destinations));
+        } finally {
+            sendDurationInNanosCounter.addAndGet(System.nanoTime() - nanosBefore);
+        }
+    }
+
+    /**
+     * @param excluded destinations already tried for the message, {@code null} if none
+     * @return index of the selected destination, {@code -1} if no destination is healthy
+     */
+    private int select(@Nullable boolean[] excluded) {
+        int start = roundRobinCounter.getAndIncrement() & Integer.MAX_VALUE;
+        long nowInNanos = policy == Policy.EWMA_LATENCY ? System.nanoTime() : 0;
+        long halfLifeInNanos = TimeUnit.MILLISECONDS.toNanos(latencyEwmaHalfLifeInMillis);
+        int selected = -1;
+        long selectedScore = 0;
+        for (int i = 0; i < destinations.length; i++) {
+            int index = (start + i) % destinations.length;
+            Destination candidate = destinations[index];
+            if (!candidate.healthy || (excluded != null && excluded[index])) {
+                continue;
+            }
+            if (policy == Policy.ROUND_ROBIN) {
+                return index;
+            }
+            long score = policy == Policy.LEAST_OUTSTANDING_BYTES ?
+                    candidate.outstandingBytes.get() :
+                    candidate.decayedLatencyEwmaInNanos(nowInNanos, halfLifeInNanos);
+            if (selected < 0 || score < selectedScore) {
+                selected = index;
+                selectedScore = score;
+            }
+        }
+        return selected;
+    }
+
+    private void eject(@NonNull Destination destination, @NonNull Exception cause) {
+        if (destination.healthy) {
+            destination.healthy = false;
+            destination.ejectionCounter.incrementAndGet();
+            logger.warn("Eject Syslog destination " + destination.syslogMessageSender + " after " +
+                    destination.consecutiveFailures + " consecutive failures", cause);
+        }
+    }
+
+    private void probeLoop() {
+        while (running) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(probeIntervalInMillis);
+            } catch (InterruptedException e) {
+                break;
+            }
+            probeEjectedDestinations();
+        }
+    }
+
+    /**
+     * Re-admit the ejected destinations whose {@link #probe(Destination) health probe} succeeds.
+     */
+    void probeEjectedDestinations() {
+        for (Destination destination : destinations) {
+            if (destination.healthy) {
+                continue;
+            }
+            boolean healthy;
+            try {
+                healthy = probe(destination);
+            } catch (RuntimeException e) {
+                healthy = false;
+            }
+            if (healthy) {
+                destination.consecutiveFailures.set(0);
+                destination.healthy = true;
+                logger.info("Re-admit Syslog destination " + destination.syslogMessageSender);
+            }
+        }
+    }
+
+    /**
+     * Check if an ejected destination can be used again. A TCP connection is opened to the server of the
+     * {@link TcpSyslogMessageSender}s, the other destinations are re-admitted after one
+     * {@link #getProbeIntervalInMillis() probe interval} and ejected again if the next message fails.
+     *
+     * @return {@code true} if the destination can be used again
+     */
+    protected boolean probe(@NonNull Destination destination) {
+        if (!(destination.syslogMessageSender instanceof TcpSyslogMessageSender)) {
+            return true;
+        }
+        TcpSyslogMessageSender tcpSender = (TcpSyslogMessageSender) destination.syslogMessageSender;
+        try (Socket socket = SocketFactory.getDefault().createSocket()) {
+            InetAddress inetAddress = tcpSender.syslogServerAddressResolver.getAddress();
+            socket.connect(new InetSocketAddress(inetAddress, tcpSender.getSyslogServerPort()), probeTimeoutInMillis);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Stop the health probes and close the senders of all the destinations.
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        probeThread.interrupt();
+        IOException exception = null;
+        for (Destination destination : destinations) {
+            try {
+                destination.syslogMessageSender.close();
+            } catch (IOException e) {
+                exception = e;
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    /**
+     * @throws UnsupportedOperationException the servers are the ones of the destinations
+     */
+    @Override
+    public void setSyslogServerHostname(String syslogServerHostname) {
+        throw new UnsupportedOperationException("Configure the hostname of the destinations");
+    }
+
+    /**
+     * @throws UnsupportedOperationException the servers are the ones of the destinations
+     */
+    @Override
+    public void setSyslogServerPort(int syslogServerPort) {
+        throw new UnsupportedOperationException("Configure the port of the destinations");
+    }
+
+    @NonNull
+    public List<Destination> getDestinations() {
+        return Collections.unmodifiableList(Arrays.asList(destinations));
+    }
+
+    @NonNull
+    public List<Destination> getHealthyDestinations() {
+        List<Destination> healthyDestinations = new ArrayList<>();
+        for (Destination destination : destinations) {
+            if (destination.healthy) {
+                healthyDestinations.add(destination);
+            }
+        }
+        return healthyDestinations;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    public long getProbeIntervalInMillis() {
+        return probeIntervalInMillis;
+    }
+
+    public void setProbeIntervalInMillis(long probeIntervalInMillis) {
+        this.probeIntervalInMillis = probeIntervalInMillis;
+    }
+
+    public int getProbeTimeoutInMillis() {
+        return probeTimeoutInMillis;
+    }
+
+    public void setProbeTimeoutInMillis(int probeTimeoutInMillis) {
+        this.probeTimeoutInMillis = probeTimeoutInMillis;
+    }
+
+    public int getMaxConsecutiveFailures() {
+        return maxConsecutiveFailures;
+    }
+
+    /**
+     * @param maxConsecutiveFailures number of consecutive failures after which a destination is ejected
+     */
+    public void setMaxConsecutiveFailures(int maxConsecutiveFailures) {
+        this.maxConsecutiveFailures = maxConsecutiveFailures;
+    }
+
+    public long getLatencyEwmaHalfLifeInMillis() {
+        return latencyEwmaHalfLifeInMillis;
+    }
+
+    /**
+     * @param latencyEwmaHalfLifeInMillis time after which the latency moving average of a destination without new
+     *                                    sample counts for half, {@code 0} to never decay the averages
+     * @see Policy#EWMA_LATENCY
+     */
+    public void setLatencyEwmaHalfLifeInMillis(long latencyEwmaHalfLifeInMillis) {
+        this.latencyEwmaHalfLifeInMillis = latencyEwmaHalfLifeInMillis;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getName() + "{" +
+                "policy=" + policy +
+                ", destinations=" + Arrays.asList(destinations) +
+                ", latencyEwmaHalfLifeInMillis=" + latencyEwmaHalfLifeInMillis +
+                ", sendCounter=" + sendCounter +
+                ", sendDurationInNanosCounter=" + sendDurationInNanosCounter +
+                ", sendErrorCounter=" + sendErrorCounter +
+                '}';
+    }
+}
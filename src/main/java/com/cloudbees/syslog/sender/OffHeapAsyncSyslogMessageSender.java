@@ -0,0 +1,368 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.sender;
+
+import com.cloudbees.syslog.SyslogMessage;
+import com.cloudbees.syslog.util.FrameRingBuffer;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import net.jcip.annotations.ThreadSafe;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+
+/**
+ * Send messages asynchronously like {@link AsyncSyslogMessageSender} but without keeping the queued messages on the
+ * heap: {@link #sendMessage(SyslogMessage)} encodes the message with the {@link TcpSyslogMessageSender#getFraming()
+ * framing} of the underlying sender on the caller thread and copies the bytes in a {@link FrameRingBuffer} allocated
+ * outside of the heap. A queued message costs its encoded bytes and no object, a backlog doesn't fill the old
+ * generation.
+ *
+ * The background thread copies the contiguous messages of the buffer, up to {@link #DEFAULT_MAX_BATCH_SIZE_IN_BYTES},
+ * and writes them with a single flush of the connection. On failure, the batch is retried as a whole by the
+ * underlying sender, then discarded.
+ *
+ * When the buffer is full or when the {@link #setSendBudget(SendBudget) send budget} shared with other senders is
+ * exhausted, the message being sent is discarded. Messages are encoded when queued: the framing and
+ * message format changed afterwards only apply to the messages queued afterwards.
+ */
+@ThreadSafe
+public class OffHeapAsyncSyslogMessageSender extends DelegatingSyslogMessageSender {
+    public final static int DEFAULT_BUFFER_CAPACITY_IN_BYTES = 1024 * 1024;
+    public final static int DEFAULT_MAX_BATCH_SIZE_IN_BYTES = 64 * 1024;
+    public final static long DEFAULT_SHUTDOWN_TIMEOUT_IN_MILLIS = 1000;
+    /**
+     * Encoding buffers that grew larger than this number of bytes are not retained by the threads.
+     */
+    private final static int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+    private final static AtomicInteger threadCounter = new AtomicInteger();
+    private final static ThreadLocal<FrameEncoder> encoders = ThreadLocal.withInitial(FrameEncoder::new);
+
+    private final TcpSyslogMessageSender tcpSyslogMessageSender;
+    private final FrameRingBuffer ringBuffer;
+    private final BatchQueue batchQueue;
+    /**
+     * The writer thread is about to park, the producers unpark it.
+     */
+    private volatile boolean writerWaiting;
+    private volatile long shutdownTimeoutInMillis = DEFAULT_SHUTDOWN_TIMEOUT_IN_MILLIS;
+    @Nullable
+    private volatile SendBudget.Account sendBudgetAccount;
+    private final AtomicLong discardCounter = new AtomicLong();
+    private final Batch batch = new Batch();
+
+    public OffHeapAsyncSyslogMessageSender(@NonNull TcpSyslogMessageSender tcpSyslogMessageSender) {
+        this(tcpSyslogMessageSender, DEFAULT_BUFFER_CAPACITY_IN_BYTES);
+    }
+
+    /**
+     * @param tcpSyslogMessageSender  underlying sender, closed when this sender is closed. RELP is not supported as
+     *                                it acknowledges the messages one by one.
+     * @param bufferCapacityInBytes   size of the buffer of the queued messages, a power of 2
+     */
+    public OffHeapAsyncSyslogMessageSender(@NonNull TcpSyslogMessageSender tcpSyslogMessageSender, int bufferCapacityInBytes) {
+        super(checkNotRelp(tcpSyslogMessageSender));
+        this.tcpSyslogMessageSender = tcpSyslogMessageSender;
+        this.ringBuffer = new FrameRingBuffer(bufferCapacityInBytes);
+        this.batchQueue = new BatchQueue();
+        this.batchQueue.start();
+    }
+
+    @NonNull
+    private static TcpSyslogMessageSender checkNotRelp(@NonNull TcpSyslogMessageSender tcpSyslogMessageSender) {
+        if (tcpSyslogMessageSender instanceof RelpSyslogMessageSender) {
+            throw new IllegalArgumentException("RELP is not supported: " + tcpSyslogMessageSender);
+        }
+        return tcpSyslogMessageSender;
+    }
+
+    /**
+     * Encode and queue the given message, never blocks.
+     *
+     * @param message the message to send
+     */
+    @Override
+    public void sendMessage(@NonNull SyslogMessage message) {
+        sendCounter.incrementAndGet();
+        long nanosBefore = System.nanoTime();
+        try {
+            if (!batchQueue.isRunning()) {
+                discard();
+                return;
+            }
+            FrameEncoder encoder = encoders.get();
+            if (encoder.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+                encoder = new FrameEncoder();
+                encoders.set(encoder);
+            }
+            encoder.reset();
+            try {
+                tcpSyslogMessageSender.getFraming().writeFrame(message.toSyslogFrame(messageFormat), encoder);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            SendBudget.Account sendBudgetAccount = this.sendBudgetAccount;
+            if (sendBudgetAccount != null && !sendBudgetAccount.tryReserve(encoder.size())) {
+                long discardCount = discardCounter.incrementAndGet();
+                if (discardCount == 1 || logger.isLoggable(Level.FINEST)) {
+                    logger.warn("Syslog send budget is exhausted (" + sendBudgetAccount.getSendBudget() + "), discard message, total discarded: " + discardCount);
+                }
+                return;
+            }
+            if (!ringBuffer.offer(encoder.array(), 0, encoder.size())) {
+                if (sendBudgetAccount != null) {
+                    sendBudgetAccount.release(encoder.size());
+                }
+                discard();
+                return;
+            }
+            batchQueue.enqueued();
+            if (writerWaiting) {
+                batchQueue.wakeUp();
+            }
+        } finally {
+            sendDurationInNanosCounter.addAndGet(System.nanoTime() - nanosBefore);
+        }
+    }
+
+    private void discard() {
+        long discardCount = discardCounter.incrementAndGet();
+        if (discardCount == 1 || logger.isLoggable(Level.FINEST)) {
+            logger.warn("Syslog message buffer is saturated (capacity: " + ringBuffer.capacity() + " bytes), discard message, total discarded: " + discardCount);
+        }
+    }
+
+    /**
+     * Wait until the messages queued before this invocation have been handed to the underlying sender.
+     *
+     * @return {@code true} if all the messages have been sent before the timeout
+     */
+    public boolean flush(long timeout, TimeUnit unit) throws InterruptedException {
+        return batchQueue.flush(System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    /**
+     * Wait up to {@link #getShutdownTimeoutInMillis()} for the queued messages to be sent.
+     *
+     * @see #flush(long, TimeUnit)
+     */
+    public boolean flush() {
+        try {
+            return flush(shutdownTimeoutInMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Stop accepting messages, wait up to {@link #getShutdownTimeoutInMillis()} for the queued messages to be sent,
+     * discard the remaining ones and close the underlying sender.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!batchQueue.isRunning()) {
+            return;
+        }
+        long remaining = batchQueue.close(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(shutdownTimeoutInMillis), shutdownTimeoutInMillis);
+        discardCounter.addAndGet(remaining);
+        SendBudget.Account sendBudgetAccount = this.sendBudgetAccount;
+        if (sendBudgetAccount != null) {
+            sendBudgetAccount.releaseAll();
+        }
+        tcpSyslogMessageSender.close();
+    }
+
+    public TcpSyslogMessageSender getTcpSyslogMessageSender() {
+        return tcpSyslogMessageSender;
+    }
+
+    public int getBufferCapacityInBytes() {
+        return ringBuffer.capacity();
+    }
+
+    /**
+     * @return number of bytes of the buffer used by the queued messages
+     */
+    public int getBufferSizeInBytes() {
+        return ringBuffer.size();
+    }
+
+    /**
+     * @return number of messages queued and not yet handed to the underlying sender
+     */
+    public long getQueueSize() {
+        return batchQueue.getSize();
+    }
+
+    public long getDiscardCount() {
+        return discardCounter.get();
+    }
+
+    @Nullable
+    public SendBudget getSendBudget() {
+        SendBudget.Account sendBudgetAccount = this.sendBudgetAccount;
+        return sendBudgetAccount == null ? null : sendBudgetAccount.getSendBudget();
+    }
+
+    /**
+     * @param sendBudget budget shared with other senders bounding the bytes of the queued messages, {@code null}
+     *                   (default) for no budget. To be set before sending messages.
+     */
+    public void setSendBudget(@Nullable SendBudget sendBudget) {
+        SendBudget.Account previous = this.sendBudgetAccount;
+        this.sendBudgetAccount = sendBudget == null ? null : sendBudget.newAccount();
+        if (previous != null) {
+            previous.releaseAll();
+        }
+    }
+
+    public long getShutdownTimeoutInMillis() {
+        return shutdownTimeoutInMillis;
+    }
+
+    /**
+     * @param shutdownTimeoutInMillis maximum time {@link #flush()} and {@link #close()} wait for the queued messages
+     *                                to be sent
+     */
+    public void setShutdownTimeoutInMillis(long shutdownTimeoutInMillis) {
+        this.shutdownTimeoutInMillis = shutdownTimeoutInMillis;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getName() + "{" +
+                "tcpSyslogMessageSender=" + tcpSyslogMessageSender +
+                ", ringBuffer=" + ringBuffer +
+                ", sendBudget=" + getSendBudget() +
+                ", sendCounter=" + sendCounter +
+                ", sendDurationInNanosCounter=" + sendDurationInNanosCounter +
+                ", sendErrorCounter=" + sendErrorCounter +
+                ", discardCounter=" + discardCounter +
+                '}';
+    }
+
+    /**
+     * Batches of the messages of the buffer, drained by the writer thread.
+     */
+    private class BatchQueue extends AsyncQueue<Batch> {
+        BatchQueue() {
+            super(tcpSyslogMessageSender, logger, sendErrorCounter, "syslog-off-heap-async-sender-" + threadCounter.incrementAndGet());
+        }
+
+        @Nullable
+        @Override
+        protected Batch poll(long timeout, @NonNull TimeUnit unit) {
+            if (ringBuffer.read(batch) > 0) {
+                SendBudget.Account sendBudgetAccount = OffHeapAsyncSyslogMessageSender.this.sendBudgetAccount;
+                if (sendBudgetAccount != null) {
+                    sendBudgetAccount.release(batch.length);
+                }
+                return batch;
+            }
+            if (!ringBuffer.isEmpty()) {
+                // a message is being copied
+                Thread.yield();
+            } else if (isRunning()) {
+                writerWaiting = true;
+                if (ringBuffer.isEmpty() && isRunning()) {
+                    LockSupport.parkNanos(this, unit.toNanos(timeout));
+                }
+                writerWaiting = false;
+            }
+            return null;
+        }
+
+        @Override
+        protected boolean isEmpty() {
+            return ringBuffer.isEmpty();
+        }
+
+        @Override
+        protected void send(@NonNull Batch batch) throws IOException {
+            try {
+                tcpSyslogMessageSender.sendFramedBytes(batch.bytes, 0, batch.length, batch.count);
+            } finally {
+                batch.clear();
+            }
+        }
+
+        @Override
+        protected int count(@NonNull Batch batch) {
+            return batch.count;
+        }
+
+        @Override
+        protected void wakeUp() {
+            LockSupport.unpark(getWriterThread());
+        }
+    }
+
+    /**
+     * Encoding buffer of the caller threads.
+     */
+    private static class FrameEncoder extends ByteArrayOutputStream {
+        FrameEncoder() {
+            super(256);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+
+        int capacity() {
+            return buf.length;
+        }
+    }
+
+    /**
+     * Messages copied from the buffer by the writer thread.
+     */
+    private static class Batch implements FrameRingBuffer.FrameHandler {
+        private byte[] bytes = new byte[DEFAULT_MAX_BATCH_SIZE_IN_BYTES];
+        private int length;
+        private int count;
+
+        @Override
+        public boolean onFrame(@NonNull ByteBuffer buffer, int index, int frameLength) {
+            if (length + frameLength > bytes.length) {
+                if (length > 0) {
+                    return false;
+                }
+                // message larger than a batch
+                bytes = new byte[frameLength];
+            }
+            buffer.get(index, bytes, length, frameLength);
+            length += frameLength;
+            count++;
+            return true;
+        }
+
+        void clear() {
+            length = 0;
+            count = 0;
+            if (bytes.length > DEFAULT_MAX_BATCH_SIZE_IN_BYTES) {
+                bytes = new byte[DEFAULT_MAX_BATCH_SIZE_IN_BYTES];
+            }
+        }
+    }
+}
@@ -0,0 +1,433 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.sender;
+
+import com.cloudbees.syslog.Severity;
+import com.cloudbees.syslog.SyslogMessage;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import net.jcip.annotations.ThreadSafe;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Send messages asynchronously like {@link AsyncSyslogMessageSender} but with one queue per {@link Lane severity
+ * class} so that the error messages are not delayed by a backlog of debug messages.
+ *
+ * The background thread drains the lanes according to the {@link DrainPolicy drain policy}. The lanes share the
+ * capacity of the sender: when it is reached, the oldest message of the lowest priority non-empty lane is discarded
+ * to make room for a message of higher priority, a message for which no lower priority message can be discarded is
+ * itself discarded. The same applies when the {@link #setSendBudget(SendBudget) send budget} shared with other senders
+ * is exhausted.
+ *
+ * Errors sending messages are counted in {@link #getSendErrorCount()} and logged with the {@link #logger internal
+ * logger}, they are not reported to the caller.
+ *
+ * The given {@link SyslogMessage} are queued as is and must not be modified after having been sent.
+ */
+@ThreadSafe
+public class PriorityAsyncSyslogMessageSender extends DelegatingSyslogMessageSender {
+    public final static int DEFAULT_CAPACITY = 1024;
+    private final static AtomicInteger threadCounter = new AtomicInteger();
+
+    /**
+     * Severity classes, from the highest to the lowest priority.
+     */
+    public enum Lane {
+        /**
+         * {@link Severity#EMERGENCY} to {@link Severity#ERROR}
+         */
+        HIGH(8),
+        /**
+         * {@link Severity#WARNING} and {@link Severity#NOTICE}
+         */
+        MEDIUM(4),
+        /**
+         * {@link Severity#INFORMATIONAL} and {@link Severity#DEBUG}
+         */
+        LOW(1);
+
+        private final int weight;
+
+        Lane(int weight) {
+            this.weight = weight;
+        }
+
+        /**
+         * @return number of consecutive messages sent from this lane per round with {@link DrainPolicy#WEIGHTED}
+         */
+        public int weight() {
+            return weight;
+        }
+
+        @NonNull
+        public static Lane fromSeverity(@Nullable Severity severity) {
+            if (severity == null) {
+                return LOW;
+            } else if (severity.numericalCode() <= Severity.ERROR.numericalCode()) {
+                return HIGH;
+            } else if (severity.numericalCode() <= Severity.NOTICE.numericalCode()) {
+                return MEDIUM;
+            } else {
+                return LOW;
+            }
+        }
+    }
+
+    /**
+     * Order in which the lanes are drained.
+     */
+    public enum DrainPolicy {
+        /**
+         * A lane is only drained when the lanes of higher priority are empty. Lower priority messages can starve.
+         */
+        STRICT,
+        /**
+         * Weighted round robin, each round sends up to {@link Lane#weight()} messages of each lane.
+         */
+        WEIGHTED
+    }
+
+    private final static Lane[] LANES = Lane.values();
+
+    private final SyslogMessageSender syslogMessageSender;
+    private final BlockingQueue<SyslogMessage>[] queues;
+    private final int capacity;
+    private final AtomicInteger queuedCounter = new AtomicInteger();
+    /**
+     * Wakes up the writer thread, may have more permits than queued messages after discards.
+     */
+    private final Semaphore available = new Semaphore(0);
+    private final LaneQueue laneQueue;
+    private volatile DrainPolicy drainPolicy = DrainPolicy.STRICT;
+    private volatile long shutdownTimeoutInMillis = AsyncSyslogMessageSender.DEFAULT_SHUTDOWN_TIMEOUT_IN_MILLIS;
+    @Nullable
+    private volatile SendBudget.Account sendBudgetAccount;
+    private final AtomicLong[] discardCounters = new AtomicLong[LANES.length];
+    /**
+     * Remaining messages of each lane in the current {@link DrainPolicy#WEIGHTED} round, only used by the writer thread.
+     */
+    private final int[] credits = new int[LANES.length];
+
+    public PriorityAsyncSyslogMessageSender(@NonNull SyslogMessageSender syslogMessageSender) {
+        this(syslogMessageSender, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param syslogMessageSender underlying sender, closed when this sender is closed
+     * @param capacity            maximum number of messages waiting to be sent, all lanes included
+     */
+    @SuppressWarnings("unchecked")
+    public PriorityAsyncSyslogMessageSender(@NonNull SyslogMessageSender syslogMessageSender, int capacity) {
+        super(syslogMessageSender);
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        }
+        this.syslogMessageSender = syslogMessageSender;
+        this.capacity = capacity;
+        this.queues = new BlockingQueue[LANES.length];
+        for (Lane lane : LANES) {
+            queues[lane.ordinal()] = new ArrayBlockingQueue<>(capacity);
+            discardCounters[lane.ordinal()] = new AtomicLong();
+        }
+        this.laneQueue = new LaneQueue();
+        this.laneQueue.start();
+    }
+
+    /**
+     * Queue the given message in the lane of its severity, never blocks.
+     *
+     * @param message the message to send
+     */
+    @Override
+    public void sendMessage(@NonNull SyslogMessage message) {
+        sendCounter.incrementAndGet();
+        long nanosBefore = System.nanoTime();
+        try {
+            Lane lane = Lane.fromSeverity(message.getSeverity() == null ? defaultSeverity : message.getSeverity());
+            if (!laneQueue.isRunning()) {
+                discard(lane);
+                return;
+            }
+            SendBudget.Account sendBudgetAccount = this.sendBudgetAccount;
+            int size = 0;
+            if (sendBudgetAccount != null) {
+                size = SendBudget.estimateSize(message);
+                while (!sendBudgetAccount.tryReserve(size)) {
+                    if (!sendBudgetAccount.canReserveByReleasing(size) || !discardLowerPriorityThan(lane)) {
+                        long discardCount = discardCounters[lane.ordinal()].incrementAndGet();
+                        if (discardCount == 1 || logger.isLoggable(Level.FINEST)) {
+                            logger.warn("Syslog send budget is exhausted (" + sendBudgetAccount.getSendBudget() + "), discard " + lane + " priority message, total discarded in lane: " + discardCount);
+                        }
+                        return;
+                    }
+                }
+            }
+            if (queuedCounter.incrementAndGet() > capacity && !discardLowerPriorityThan(lane)) {
+                queuedCounter.decrementAndGet();
+                release(sendBudgetAccount, size);
+                discard(lane);
+                return;
+            }
+            if (!queues[lane.ordinal()].offer(message)) {
+                // can't happen, each lane can hold the capacity of the sender
+                queuedCounter.decrementAndGet();
+                release(sendBudgetAccount, size);
+                discard(lane);
+                return;
+            }
+            laneQueue.enqueued();
+            available.release();
+        } finally {
+            sendDurationInNanosCounter.addAndGet(System.nanoTime() - nanosBefore);
+        }
+    }
+
+    /**
+     * Discard the oldest message of the lowest priority non-empty lane of lower priority than the given lane.
+     *
+     * @return {@code false} if there is no message of lower priority
+     */
+    private boolean discardLowerPriorityThan(@NonNull Lane lane) {
+        for (int i = LANES.length - 1; i > lane.ordinal(); i--) {
+            SyslogMessage message = queues[i].poll();
+            if (message != null) {
+                release(message);
+                queuedCounter.decrementAndGet();
+                laneQueue.discarded(1);
+                discard(LANES[i]);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void release(@NonNull SyslogMessage message) {
+        SendBudget.Account sendBudgetAccount = this.sendBudgetAccount;
+        if (sendBudgetAccount != null) {
+            sendBudgetAccount.release(SendBudget.estimateSize(message));
+        }
+    }
+
+    private static void release(@Nullable SendBudget.Account sendBudgetAccount, int size) {
+        if (sendBudgetAccount != null) {
+            sendBudgetAccount.release(size);
+        }
+    }
+
+    private void discard(@NonNull Lane lane) {
+        long discardCount = discardCounters[lane.ordinal()].incrementAndGet();
+        if (discardCount == 1 || logger.isLoggable(Level.FINEST)) {
+            logger.warn("Syslog message queue is saturated (capacity: " + capacity + "), discard " + lane + " priority message, total discarded in lane: " + discardCount);
+        }
+    }
+
+    @Nullable
+    private SyslogMessage poll() {
+        if (drainPolicy == DrainPolicy.STRICT) {
+            for (BlockingQueue<SyslogMessage> queue : queues) {
+                SyslogMessage message = queue.poll();
+                if (message != null) {
+                    return message;
+                }
+            }
+            return null;
+        }
+        // a second pass with new credits when the non-empty lanes have exhausted theirs
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < queues.length; i++) {
+                if (credits[i] > 0) {
+                    SyslogMessage message = queues[i].poll();
+                    if (message != null) {
+                        credits[i]--;
+                        return message;
+                    }
+                }
+            }
+            for (Lane lane : LANES) {
+                credits[lane.ordinal()] = lane.weight();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Wait until the messages queued before this invocation have been handed to the underlying sender.
+     *
+     * @return {@code true} if all the messages have been sent before the timeout
+     */
+    public boolean flush(long timeout, TimeUnit unit) throws InterruptedException {
+        return laneQueue.flush(System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    /**
+     * Wait up to {@link #getShutdownTimeoutInMillis()} for the queued messages to be sent.
+     *
+     * @see #flush(long, TimeUnit)
+     */
+    public boolean flush() {
+        try {
+            return flush(shutdownTimeoutInMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Stop accepting messages, wait up to {@link #getShutdownTimeoutInMillis()} for the queued messages to be sent,
+     * discard the remaining ones and close the underlying sender.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!laneQueue.isRunning()) {
+            return;
+        }
+        laneQueue.close(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(shutdownTimeoutInMillis), shutdownTimeoutInMillis);
+        for (Lane lane : LANES) {
+            int size = queues[lane.ordinal()].size();
+            queues[lane.ordinal()].clear();
+            discardCounters[lane.ordinal()].addAndGet(size);
+        }
+        SendBudget.Account sendBudgetAccount = this.sendBudgetAccount;
+        if (sendBudgetAccount != null) {
+            sendBudgetAccount.releaseAll();
+        }
+        syslogMessageSender.close();
+    }
+
+    public SyslogMessageSender getSyslogMessageSender() {
+        return syslogMessageSender;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getQueueSize() {
+        return queuedCounter.get();
+    }
+
+    public int getQueueSize(@NonNull Lane lane) {
+        return queues[lane.ordinal()].size();
+    }
+
+    public long getDiscardCount() {
+        long discardCount = 0;
+        for (AtomicLong discardCounter : discardCounters) {
+            discardCount += discardCounter.get();
+        }
+        return discardCount;
+    }
+
+    public long getDiscardCount(@NonNull Lane lane) {
+        return discardCounters[lane.ordinal()].get();
+    }
+
+    public DrainPolicy getDrainPolicy() {
+        return drainPolicy;
+    }
+
+    public void setDrainPolicy(@NonNull DrainPolicy drainPolicy) {
+        this.drainPolicy = drainPolicy;
+    }
+
+    @Nullable
+    public SendBudget getSendBudget() {
+        SendBudget.Account sendBudgetAccount = this.sendBudgetAccount;
+        return sendBudgetAccount == null ? null : sendBudgetAccount.getSendBudget();
+    }
+
+    /**
+     * @param sendBudget budget shared with other senders bounding the size of the queued messages, {@code null}
+     *                   (default) for no budget. To be set before sending messages.
+     */
+    public void setSendBudget(@Nullable SendBudget sendBudget) {
+        SendBudget.Account previous = this.sendBudgetAccount;
+        this.sendBudgetAccount = sendBudget == null ? null : sendBudget.newAccount();
+        if (previous != null) {
+            previous.releaseAll();
+        }
+    }
+
+    public long getShutdownTimeoutInMillis() {
+        return shutdownTimeoutInMillis;
+    }
+
+    /**
+     * @param shutdownTimeoutInMillis maximum time {@link #flush()} and {@link #close()} wait for the queued messages
+     *                                to be sent
+     */
+    public void setShutdownTimeoutInMillis(long shutdownTimeoutInMillis) {
+        this.shutdownTimeoutInMillis = shutdownTimeoutInMillis;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getName() + "{" +
+                "syslogMessageSender=" + syslogMessageSender +
+                ", capacity=" + capacity +
+                ", queueSize=" + queuedCounter +
+                ", drainPolicy=" + drainPolicy +
+                ", sendBudget=" + getSendBudget() +
+                ", sendCounter=" + sendCounter +
+                ", sendDurationInNanosCounter=" + sendDurationInNanosCounter +
+                ", sendErrorCounter=" + sendErrorCounter +
+                ", discardCount=" + getDiscardCount() +
+                '}';
+    }
+
+    /**
+     * Lanes drained by the writer thread according to the drain policy.
+     */
+    private class LaneQueue extends AsyncQueue<SyslogMessage> {
+        LaneQueue() {
+            super(syslogMessageSender, logger, sendErrorCounter, "syslog-priority-async-sender-" + threadCounter.incrementAndGet());
+        }
+
+        @Nullable
+        @Override
+        protected SyslogMessage poll(long timeout, @NonNull TimeUnit unit) throws InterruptedException {
+            if (!available.tryAcquire(timeout, unit)) {
+                return null;
+            }
+            // null if the message has been discarded to make room for a higher priority one
+            SyslogMessage message = PriorityAsyncSyslogMessageSender.this.poll();
+            if (message != null) {
+                release(message);
+                queuedCounter.decrementAndGet();
+            }
+            return message;
+        }
+
+        @Override
+        protected boolean isEmpty() {
+            return queuedCounter.get() == 0;
+        }
+
+        @Override
+        protected void send(@NonNull SyslogMessage message) throws IOException {
+            syslogMessageSender.sendMessage(message);
+        }
+    }
+}
@@ -0,0 +1,382 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.sender;
+
+import com.cloudbees.syslog.Facility;
+import com.cloudbees.syslog.SDElement;
+import com.cloudbees.syslog.SDParam;
+import com.cloudbees.syslog.Severity;
+import com.cloudbees.syslog.SyslogMessage;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import net.jcip.annotations.ThreadSafe;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Limit the rate of the messages sent to the underlying sender with token buckets keyed by the
+ * {@link KeyField fields} of the messages.
+ *
+ * Each message takes a token from the bucket of its key, messages for which no token is left are suppressed before
+ * being encoded. Taking a token is a single atomic decrement: an empty bucket goes below zero and the number of
+ * suppressed messages is derived from the negative token count when the bucket is refilled by the background
+ * thread.
+ *
+ * Every {@link #setSummaryIntervalInMillis(long) summary interval}, a {@link Severity#WARNING} message is sent for
+ * each key having suppressed messages, with a {@code [ratelimit@32473 suppressed="..." facility="..." severity="..."
+ * appName="..."]} structured data element.
+ *
+ * The number of distinct app names tracked is bounded by {@link #getMaxAppNames()}, messages of the app names seen
+ * beyond share the same buckets.
+ */
+@ThreadSafe
+public class RateLimitingSyslogMessageSender extends DelegatingSyslogMessageSender {
+    public final static long DEFAULT_REFILL_INTERVAL_IN_MILLIS = 100;
+    public final static long DEFAULT_SUMMARY_INTERVAL_IN_MILLIS = 60_000;
+    public final static int DEFAULT_MAX_APP_NAMES = 1000;
+    /**
+     * SD-ID of the structured data element of the summary messages.
+     */
+    public final static String RATE_LIMIT_SD_ID = "ratelimit@32473";
+    private final static String OTHER_APP_NAMES = "*";
+    private final static AtomicInteger threadCounter = new AtomicInteger();
+    private final static Facility[] FACILITIES = Facility.values();
+    private final static Severity[] SEVERITIES = Severity.values();
+
+    /**
+     * Fields of the messages identifying their token bucket.
+     */
+    public enum KeyField {
+        FACILITY,
+        SEVERITY,
+        APP_NAME
+    }
+
+    private final SyslogMessageSender syslogMessageSender;
+    private final long permitsPerSecond;
+    private final long burst;
+    private final long refillIntervalInMillis;
+    private final Set<KeyField> keyFields;
+    private final boolean keyedByFacility;
+    private final boolean keyedBySeverity;
+    private final boolean keyedByAppName;
+    private final int bucketsPerAppName;
+    private final ConcurrentMap<String, Buckets> bucketsByAppName = new ConcurrentHashMap<>();
+    private final Buckets globalBuckets;
+    private final Thread refillThread;
+    private volatile boolean running = true;
+    private volatile long summaryIntervalInMillis = DEFAULT_SUMMARY_INTERVAL_IN_MILLIS;
+    private volatile int maxAppNames = DEFAULT_MAX_APP_NAMES;
+    private final AtomicLong suppressedCounter = new AtomicLong();
+    // only used by the refill thread, guarded by this
+    private long milliPermits;
+    private long lastRefillNanos = System.nanoTime();
+    private long lastSummaryNanos = System.nanoTime();
+
+    /**
+     * @param syslogMessageSender underlying sender, closed when this sender is closed
+     * @param permitsPerSecond    sustained number of messages per second of each key
+     * @param burst               maximum number of messages of each key sent at once, capacity of the buckets
+     * @param keyFields           fields identifying the token buckets, a single bucket if none
+     */
+    public RateLimitingSyslogMessageSender(@NonNull SyslogMessageSender syslogMessageSender, long permitsPerSecond, long burst, @NonNull KeyField... keyFields) {
+        this(syslogMessageSender, permitsPerSecond, burst, DEFAULT_REFILL_INTERVAL_IN_MILLIS,
+                keyFields.length == 0 ? EnumSet.noneOf(KeyField.class) : EnumSet.of(keyFields[0], keyFields));
+    }
+
+    /**
+     * @param syslogMessageSender    underlying sender, closed when this sender is closed
+     * @param permitsPerSecond       sustained number of messages per second of each key
+     * @param burst                  maximum number of messages of each key sent at once, capacity of the buckets
+     * @param refillIntervalInMillis interval between two refills of the buckets
+     * @param keyFields              fields identifying the token buckets, a single bucket if empty
+     */
+    public RateLimitingSyslogMessageSender(@NonNull SyslogMessageSender syslogMessageSender, long permitsPerSecond, long burst,
+                                           long refillIntervalInMillis, @NonNull Set<KeyField> keyFields) {
+        super(syslogMessageSender);
+        if (permitsPerSecond < 1 || burst < 1 || refillIntervalInMillis < 1) {
+            throw new IllegalArgumentException("Invalid rate limit permitsPerSecond=" + permitsPerSecond +
+                    ", burst=" + burst + ", refillIntervalInMillis=" + refillIntervalInMillis);
+        }
+        this.syslogMessageSender = syslogMessageSender;
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+        this.refillIntervalInMillis = refillIntervalInMillis;
+        this.keyFields = Collections.unmodifiableSet(keyFields.isEmpty() ? EnumSet.noneOf(KeyField.class) : EnumSet.copyOf(keyFields));
+        this.keyedByFacility = keyFields.contains(KeyField.FACILITY);
+        this.keyedBySeverity = keyFields.contains(KeyField.SEVERITY);
+        this.keyedByAppName = keyFields.contains(KeyField.APP_NAME);
+        this.bucketsPerAppName = (keyedByFacility ? FACILITIES.length : 1) * (keyedBySeverity ? SEVERITIES.length : 1);
+        this.globalBuckets = new Buckets(null);
+        this.refillThread = new Thread(this::refillLoop, "syslog-rate-limiter-" + threadCounter.incrementAndGet());
+        this.refillThread.setDaemon(true);
+        this.refillThread.start();
+    }
+
+    /**
+     * Send the given message if the bucket of its key has a token left, suppress it otherwise. Only the sent
+     * messages are counted in {@link #getSendCount()}.
+     *
+     * @param message the message to send
+     */
+    @Override
+    public void sendMessage(@NonNull SyslogMessage message) throws IOException {
+        Facility facility = message.getFacility() == null ? defaultFacility : message.getFacility();
+        Severity severity = message.getSeverity() == null ? defaultSeverity : message.getSeverity();
+        Buckets buckets = globalBuckets;
+        if (keyedByAppName) {
+            buckets = getBuckets(message.getAppName() == null ? defaultAppName : message.getAppName());
+        }
+        int index = 0;
+        if (keyedByFacility && facility != null) {
+            index = facility.ordinal();
+        }
+        if (keyedBySeverity && severity != null) {
+            index = index * SEVERITIES.length + severity.ordinal();
+        }
+        if (buckets.tokens.decrementAndGet(index) < 0) {
+            return;
+        }
+        sendCounter.incrementAndGet();
+        syslogMessageSender.sendMessage(message);
+    }
+
+    @NonNull
+    private Buckets getBuckets(@Nullable String appName) {
+        String key = appName == null ? "" : appName;
+        Buckets buckets = bucketsByAppName.get(key);
+        if (buckets == null) {
+            if (bucketsByAppName.size() >= maxAppNames) {
+                key = OTHER_APP_NAMES;
+                buckets = bucketsByAppName.get(key);
+                if (buckets != null) {
+                    return buckets;
+                }
+            }
+            buckets = bucketsByAppName.computeIfAbsent(key, Buckets::new);
+        }
+        return buckets;
+    }
+
+    private void refillLoop() {
+        while (running) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(refillIntervalInMillis);
+            } catch (InterruptedException e) {
+                break;
+            }
+            try {
+                long nanos = System.nanoTime();
+                synchronized (this) {
+                    refill(TimeUnit.NANOSECONDS.toMillis(nanos - lastRefillNanos));
+                    lastRefillNanos = nanos;
+                }
+                if (nanos - lastSummaryNanos >= TimeUnit.MILLISECONDS.toNanos(summaryIntervalInMillis)) {
+                    lastSummaryNanos = nanos;
+                    sendSummary();
+                }
+            } catch (RuntimeException e) {
+                logger.warn("Exception refilling rate limiting buckets", e);
+            }
+        }
+    }
+
+    /**
+     * Add the tokens earned during the elapsed time to the buckets and collect the count of suppressed messages.
+     */
+    synchronized void refill(long elapsedInMillis) {
+        milliPermits += elapsedInMillis * permitsPerSecond;
+        long permits = milliPermits / 1000;
+        milliPermits %= 1000;
+        globalBuckets.refill(permits);
+        for (Buckets buckets : bucketsByAppName.values()) {
+            buckets.refill(permits);
+        }
+    }
+
+    /**
+     * Send a summary message for each key having suppressed messages since the previous summary.
+     */
+    synchronized void sendSummary() {
+        refill(0);
+        globalBuckets.sendSummary();
+        for (Buckets buckets : bucketsByAppName.values()) {
+            buckets.sendSummary();
+        }
+    }
+
+    /**
+     * Stop the refill thread, send the last summary and close the underlying sender.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!running) {
+            return;
+        }
+        running = false;
+        refillThread.interrupt();
+        try {
+            refillThread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sendSummary();
+        syslogMessageSender.close();
+    }
+
+    /**
+     * Token buckets of an app name, indexed by facility and severity.
+     */
+    private class Buckets {
+        @Nullable
+        final String appName;
+        final AtomicLongArray tokens;
+        /**
+         * Messages suppressed since the previous summary, guarded by the enclosing sender.
+         */
+        final long[] suppressed;
+
+        Buckets(@Nullable String appName) {
+            this.appName = appName;
+            this.tokens = new AtomicLongArray(bucketsPerAppName);
+            this.suppressed = new long[bucketsPerAppName];
+            for (int i = 0; i < bucketsPerAppName; i++) {
+                tokens.set(i, burst);
+            }
+        }
+
+        void refill(long permits) {
+            for (int i = 0; i < bucketsPerAppName; i++) {
+                long previous;
+                long next;
+                do {
+                    previous = tokens.get(i);
+                    next = Math.min(burst, Math.max(previous, 0) + permits);
+                } while (previous != next && !tokens.compareAndSet(i, previous, next));
+                if (previous < 0) {
+                    suppressed[i] -= previous;
+                    suppressedCounter.addAndGet(-previous);
+                }
+            }
+        }
+
+        void sendSummary() {
+            for (int i = 0; i < bucketsPerAppName; i++) {
+                long count = suppressed[i];
+                if (count == 0) {
+                    continue;
+                }
+                suppressed[i] = 0;
+                SDElement sdElement = new SDElement(RATE_LIMIT_SD_ID, new SDParam("suppressed", Long.toString(count)));
+                Facility facility = defaultFacility;
+                if (keyedByFacility) {
+                    facility = FACILITIES[keyedBySeverity ? i / SEVERITIES.length : i];
+                    sdElement.addSDParam("facility", facility.label());
+                }
+                if (keyedBySeverity) {
+                    sdElement.addSDParam("severity", SEVERITIES[i % SEVERITIES.length].label());
+                }
+                if (keyedByAppName) {
+                    sdElement.addSDParam("appName", appName);
+                }
+                SyslogMessage summary = new SyslogMessage()
+                        .withFacility(facility)
+                        .withSeverity(Severity.WARNING)
+                        .withAppName(keyedByAppName && !OTHER_APP_NAMES.equals(appName) && !appName.isEmpty() ? appName : defaultAppName)
+                        .withHostname(defaultMessageHostname)
+                        .withSDElement(sdElement)
+                        .withMsg("Rate limit of " + permitsPerSecond + " messages per second exceeded, " + count + " messages suppressed");
+                try {
+                    syslogMessageSender.sendMessage(summary);
+                } catch (IOException | RuntimeException e) {
+                    sendErrorCounter.incrementAndGet();
+                    logger.warn("Exception sending rate limiting summary with " + syslogMessageSender, e);
+                }
+            }
+        }
+    }
+
+    public SyslogMessageSender getSyslogMessageSender() {
+        return syslogMessageSender;
+    }
+
+    public long getPermitsPerSecond() {
+        return permitsPerSecond;
+    }
+
+    public long getBurst() {
+        return burst;
+    }
+
+    public long getRefillIntervalInMillis() {
+        return refillIntervalInMillis;
+    }
+
+    public Set<KeyField> getKeyFields() {
+        return keyFields;
+    }
+
+    /**
+     * @return number of suppressed messages, updated when the buckets are refilled
+     */
+    public long getSuppressedCount() {
+        return suppressedCounter.get();
+    }
+
+    public long getSummaryIntervalInMillis() {
+        return summaryIntervalInMillis;
+    }
+
+    /**
+     * @param summaryIntervalInMillis interval between two sendings of the count of suppressed messages
+     */
+    public void setSummaryIntervalInMillis(long summaryIntervalInMillis) {
+        this.summaryIntervalInMillis = summaryIntervalInMillis;
+    }
+
+    public int getMaxAppNames() {
+        return maxAppNames;
+    }
+
+    /**
+     * @param maxAppNames maximum number of app names having their own buckets when keyed by {@link KeyField#APP_NAME}
+     */
+    public void setMaxAppNames(int maxAppNames) {
+        this.maxAppNames = maxAppNames;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getName() + "{" +
+                "syslogMessageSender=" + syslogMessageSender +
+                ", permitsPerSecond=" + permitsPerSecond +
+                ", burst=" + burst +
+                ", keyFields=" + keyFields +
+                ", suppressedCounter=" + suppressedCounter +
+                ", sendErrorCounter=" + sendErrorCounter +
+                '}';
+    }
+}
@@ -0,0 +1,631 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.sender;
+
+import com.cloudbees.syslog.MessageFormat;
+import com.cloudbees.syslog.SyslogFrame;
+import com.cloudbees.syslog.SyslogMessage;
+import com.cloudbees.syslog.util.IoUtils;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import net.jcip.annotations.ThreadSafe;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Send messages with <a href="https://www.rsyslog.com/doc/relp.html">RELP - the Reliable Event Logging Protocol</a>.
+ *
+ * Plain TCP loses the messages sitting in the socket buffers when the connection drops. With RELP, the server
+ * acknowledges each message: the sender keeps the sent messages in a window until they are acknowledged and, after a
+ * reconnection, sends again the messages that have not been acknowledged. The delivery is "at least once", the server
+ * may receive twice the messages it received but could not acknowledge before the connection dropped.
+ *
+ * The messages are pipelined: {@link #sendMessage(com.cloudbees.syslog.SyslogMessage)} doesn't wait for the
+ * acknowledgement, it only waits when {@link #getWindowSize() window size} messages are unacknowledged. The
+ * acknowledgements are processed by a reader thread per connection. If no acknowledgement is received within the
+ * {@link #getAckTimeoutInMillis() acknowledgement timeout} while the window is full, the connection is considered dead
+ * and a new one is opened.
+ *
+ * The messages are sent in the RFC 3164 or RFC 5424 {@link #getMessageFormat() format}, RFC 5425 octet counting is not
+ * supported as RELP frames the messages itself. The {@link #setFraming(Framing) framing} is not used.
+ */
+@ThreadSafe
+public class RelpSyslogMessageSender extends TcpSyslogMessageSender {
+    public final static int DEFAULT_RELP_PORT = 2514;
+    public final static int DEFAULT_WINDOW_SIZE = 128;
+    public final static int DEFAULT_ACK_TIMEOUT_IN_MILLIS = 10_000;
+    /**
+     * Transaction numbers wrap to 1 after this value, see "transaction number" in the RELP specification.
+     */
+    final static int MAX_TXNR = 999_999_999;
+    /**
+     * Largest DATALEN accepted in a response of the server: responses are a status code with a short message, or the
+     * offers of the "open" response, the limit avoids allocating what a broken or hostile server announces.
+     */
+    final static int MAX_RESPONSE_DATA_LENGTH = 8 * 1024;
+    private final static byte[] OPEN_OFFERS = "relp_version=0\nrelp_software=syslog-java-client\ncommands=syslog".getBytes(StandardCharsets.US_ASCII);
+    private final static byte[] SYSLOG_COMMAND = " syslog ".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Guards {@link #window} and {@link #connection}, notified when a message is acknowledged or a connection breaks.
+     * Never held while writing to the socket so that the reader thread always processes the acknowledgements.
+     */
+    private final Object windowLock = new Object();
+    /**
+     * Messages sent and not yet acknowledged, oldest first
+     */
+    private final ArrayDeque<PendingFrame> window = new ArrayDeque<>();
+    @Nullable
+    private Connection connection;
+    private volatile int windowSize = DEFAULT_WINDOW_SIZE;
+    private volatile int ackTimeoutInMillis = DEFAULT_ACK_TIMEOUT_IN_MILLIS;
+
+    protected final AtomicLong acknowledgedCounter = new AtomicLong();
+    protected final AtomicLong rejectedCounter = new AtomicLong();
+    protected final AtomicLong resentCounter = new AtomicLong();
+
+    public RelpSyslogMessageSender() {
+        setSyslogServerHostname(DEFAULT_SYSLOG_HOST);
+        syslogServerPort = DEFAULT_RELP_PORT;
+        messageFormat = MessageFormat.RFC_5424;
+    }
+
+    /**
+     * Send the given message without waiting for its acknowledgement, the encoded message is kept until it is
+     * acknowledged to be resent after a reconnection.
+     */
+    @Override
+    public void sendMessage(@NonNull SyslogMessage message) throws IOException {
+        sendFrame(message.toSyslogFrame(messageFormat));
+    }
+
+    /**
+     * Send the given encoded message without waiting for its acknowledgement, unless the window is full.
+     *
+     * @param frame the encoded message, in the {@link #getMessageFormat() message format} of this sender
+     */
+    @Override
+    public synchronized void sendFrame(@NonNull SyslogFrame frame) throws IOException {
+        if (frame.getMessageFormat() != messageFormat) {
+            throw new IllegalArgumentException("Frame format " + frame.getMessageFormat() + " is not the format of the sender " + messageFormat);
+        }
+        if (frame.getMessageFormat() == MessageFormat.RFC_5425) {
+            throw new IllegalArgumentException("RELP frames the messages itself, use " + MessageFormat.RFC_5424);
+        }
+        sendCounter.incrementAndGet();
+        long nanosBefore = System.nanoTime();
+
+        PendingFrame pending = new PendingFrame(frame);
+        try {
+            IOException lastException = null;
+            for (int i = 0; i <= getMaxRetryCount(); i++) {
+                Connection connection = null;
+                try {
+                    if (logger.isLoggable(Level.FINEST)) {
+                        logger.finest("Send syslog message " + frame);
+                    }
+                    connection = ensureConnection();
+                    awaitWindowSpace(connection);
+                    synchronized (windowLock) {
+                        pending.txnr = connection.nextTxnr();
+                        window.add(pending);
+                    }
+                    writeDeadline.arm(connection.tcpSocket, getWriteTimeoutInMillis());
+                    try {
+                        connection.write(pending);
+                        connection.flush();
+                    } finally {
+                        writeDeadline.disarm();
+                    }
+                    return;
+                } catch (IOException e) {
+                    lastException = e;
+                    if (writeDeadline.isExpired()) {
+                        writeTimeoutCounter.incrementAndGet();
+                        lastException = writeDeadline.translate(e);
+                    }
+                    trySendErrorCounter.incrementAndGet();
+                    synchronized (windowLock) {
+                        window.remove(pending);
+                    }
+                    if (connection != null) {
+                        connection.close();
+                    }
+                }
+            }
+            sendErrorCounter.incrementAndGet();
+            throw lastException;
+        } finally {
+            sendDurationInNanosCounter.addAndGet(System.nanoTime() - nanosBefore);
+        }
+    }
+
+    /**
+     * Send the given encoded messages, pipelined as the messages sent one by one.
+     */
+    @Override
+    public synchronized void sendFrames(@NonNull List<SyslogFrame> frames) throws IOException {
+        for (SyslogFrame frame : frames) {
+            sendFrame(frame);
+        }
+    }
+
+    /**
+     * Open a RELP session if the current one is broken and send again the unacknowledged messages on the new session.
+     */
+    @NonNull
+    private Connection ensureConnection() throws IOException {
+        Connection connection;
+        synchronized (windowLock) {
+            connection = this.connection;
+        }
+        if (connection != null && !connection.broken) {
+            return connection;
+        }
+        if (connection != null) {
+            connection.close();
+        }
+        connection = new Connection(connect(syslogServerAddressResolver.getAddresses()));
+        List<PendingFrame> unacknowledged;
+        try {
+            connection.open();
+            synchronized (windowLock) {
+                // the transaction numbers of a session start at 1
+                for (PendingFrame pending : window) {
+                    pending.txnr = connection.nextTxnr();
+                }
+                unacknowledged = new ArrayList<>(window);
+                this.connection = connection;
+            }
+            connection.startReader();
+            writeDeadline.arm(connection.tcpSocket, getWriteTimeoutInMillis());
+            try {
+                for (PendingFrame pending : unacknowledged) {
+                    connection.write(pending);
+                }
+                connection.flush();
+            } finally {
+                writeDeadline.disarm();
+            }
+        } catch (IOException | RuntimeException e) {
+            connection.close();
+            throw e;
+        }
+        if (!unacknowledged.isEmpty()) {
+            resentCounter.addAndGet(unacknowledged.size());
+            logger.info("Resent " + unacknowledged.size() + " unacknowledged messages to " + connection.socket.getInetAddress() + ":" + syslogServerPort);
+        }
+        return connection;
+    }
+
+    private void awaitWindowSpace(@NonNull Connection connection) throws IOException {
+        synchronized (windowLock) {
+            long deadlineInNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ackTimeoutInMillis);
+            while (window.size() >= windowSize) {
+                if (connection.broken) {
+                    throw new EOFException("Connection to the RELP server closed with " + window.size() + " unacknowledged messages");
+                }
+                long remainingInNanos = deadlineInNanos - System.nanoTime();
+                if (remainingInNanos <= 0) {
+                    throw new SocketTimeoutException("No acknowledgement from the RELP server in " + ackTimeoutInMillis + "ms, " +
+                            window.size() + " unacknowledged messages");
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(windowLock, remainingInNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for the acknowledgements of the RELP server");
+                }
+            }
+        }
+    }
+
+    private void onResponse(@NonNull Connection connection, int txnr, @NonNull String data) {
+        synchronized (windowLock) {
+            if (connection != this.connection) {
+                // late response on a replaced session, the message has been sent again
+                return;
+            }
+            for (Iterator<PendingFrame> it = window.iterator(); it.hasNext(); ) {
+                PendingFrame pending = it.next();
+                if (pending.txnr == txnr) {
+                    it.remove();
+                    if (data.startsWith("200")) {
+                        acknowledgedCounter.incrementAndGet();
+                    } else {
+                        rejectedCounter.incrementAndGet();
+                        logger.warn("RELP server rejected message " + pending.frame + ": " + data);
+                    }
+                    windowLock.notifyAll();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait until all the sent messages are acknowledged.
+     *
+     * @return {@code true} if all the messages have been acknowledged, {@code false} if the timeout elapsed or the
+     * connection broke before
+     */
+    public boolean awaitAcknowledgements(long timeoutInMillis) throws InterruptedException {
+        long deadlineInNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutInMillis);
+        synchronized (windowLock) {
+            long remainingInNanos;
+            while (!window.isEmpty() && connection != null && !connection.broken
+                    && (remainingInNanos = deadlineInNanos - System.nanoTime()) > 0) {
+                TimeUnit.NANOSECONDS.timedWait(windowLock, remainingInNanos);
+            }
+            return window.isEmpty();
+        }
+    }
+
+    /**
+     * Wait up to the {@link #getAckTimeoutInMillis() acknowledgement timeout} for the unacknowledged messages, then
+     * close the RELP session. The messages still unacknowledged are sent again if the sender is used afterwards.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        Connection connection;
+        synchronized (windowLock) {
+            connection = this.connection;
+        }
+        if (connection == null) {
+            return;
+        }
+        try {
+            if (!awaitAcknowledgements(ackTimeoutInMillis)) {
+                logger.warn("Close the RELP session with " + getUnacknowledgedCount() + " unacknowledged messages");
+            }
+            if (!connection.broken) {
+                int txnr;
+                synchronized (windowLock) {
+                    txnr = connection.nextTxnr();
+                }
+                writeDeadline.arm(connection.tcpSocket, getWriteTimeoutInMillis());
+                try {
+                    connection.writeCommand(txnr, "close", null);
+                    connection.flush();
+                } finally {
+                    writeDeadline.disarm();
+                }
+                // the server responds and closes the connection
+                connection.reader.join(ackTimeoutInMillis);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * @return number of messages sent and not yet acknowledged
+     */
+    public int getUnacknowledgedCount() {
+        synchronized (windowLock) {
+            return window.size();
+        }
+    }
+
+    public long getAcknowledgedCount() {
+        return acknowledgedCounter.get();
+    }
+
+    /**
+     * @return number of messages refused by the server, they are not sent again
+     */
+    public long getRejectedCount() {
+        return rejectedCounter.get();
+    }
+
+    /**
+     * @return number of unacknowledged messages sent again after a reconnection
+     */
+    public long getResentCount() {
+        return resentCounter.get();
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * @param windowSize maximum number of unacknowledged messages, {@code 1} to wait for the acknowledgement of each
+     *                   message
+     */
+    public void setWindowSize(int windowSize) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("Invalid windowSize " + windowSize);
+        }
+        this.windowSize = windowSize;
+    }
+
+    public int getAckTimeoutInMillis() {
+        return ackTimeoutInMillis;
+    }
+
+    public void setAckTimeoutInMillis(int ackTimeoutInMillis) {
+        if (ackTimeoutInMillis < 1) {
+            throw new IllegalArgumentException("Invalid ackTimeoutInMillis " + ackTimeoutInMillis);
+        }
+        this.ackTimeoutInMillis = ackTimeoutInMillis;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getName() + "{" +
+                "syslogServerHostname='" + this.getSyslogServerHostname() + '\'' +
+                ", syslogServerPort='" + this.getSyslogServerPort() + '\'' +
+                ", ssl=" + isSsl() +
+                ", windowSize=" + windowSize +
+                ", ackTimeoutInMillis=" + ackTimeoutInMillis +
+                ", maxRetryCount=" + getMaxRetryCount() +
+                ", socketConnectTimeoutInMillis=" + getSocketConnectTimeoutInMillis() +
+                ", defaultAppName='" + defaultAppName + '\'' +
+                ", defaultFacility=" + defaultFacility +
+                ", defaultMessageHostname='" + defaultMessageHostname + '\'' +
+                ", defaultSeverity=" + defaultSeverity +
+                ", messageFormat=" + messageFormat +
+                ", sendCounter=" + sendCounter +
+                ", sendDurationInNanosCounter=" + sendDurationInNanosCounter +
+                ", sendErrorCounter=" + sendErrorCounter +
+                ", trySendErrorCounter=" + trySendErrorCounter +
+                ", acknowledgedCounter=" + acknowledgedCounter +
+                ", rejectedCounter=" + rejectedCounter +
+                ", resentCounter=" + resentCounter +
+                '}';
+    }
+
+    private static class PendingFrame {
+        final SyslogFrame frame;
+        /**
+         * Transaction number in the current session, guarded by {@link #windowLock}
+         */
+        int txnr;
+
+        PendingFrame(SyslogFrame frame) {
+            this.frame = frame;
+        }
+    }
+
+    /**
+     * RELP session. Written by the sending thread, read by a dedicated reader thread.
+     */
+    private class Connection {
+        final Socket socket;
+        /**
+         * {@link #socket} or, for TLS, the TCP socket under it
+         */
+        final Socket tcpSocket;
+        final OutputStream out;
+        final InputStream in;
+        final byte[] digits = new byte[10];
+        /**
+         * Character that terminated the last number read
+         */
+        private int terminator;
+        Thread reader;
+        volatile boolean broken;
+        /**
+         * Last transaction number, guarded by {@link #windowLock} once the session is open
+         */
+        private int txnr;
+
+        Connection(@NonNull Socket socket) throws IOException {
+            this.socket = socket;
+            this.tcpSocket = getTcpSocket(socket);
+            try {
+                this.out = new BufferedOutputStream(socket.getOutputStream(), getOutputBufferSize());
+                this.in = new BufferedInputStream(socket.getInputStream());
+            } catch (IOException e) {
+                IoUtils.closeQuietly(socket);
+                throw e;
+            }
+        }
+
+        int nextTxnr() {
+            txnr = txnr == MAX_TXNR ? 1 : txnr + 1;
+            return txnr;
+        }
+
+        /**
+         * Send the "open" command and wait for the response of the server.
+         */
+        void open() throws IOException {
+            int txnr = nextTxnr();
+            writeCommand(txnr, "open", OPEN_OFFERS);
+            flush();
+            socket.setSoTimeout(ackTimeoutInMillis);
+            Response response = readResponse();
+            socket.setSoTimeout(0);
+            if (response == null || response.txnr != txnr || !"rsp".equals(response.command) || !response.data.startsWith("200")) {
+                throw new IOException("RELP server refused the session: " + response);
+            }
+        }
+
+        void startReader() {
+            reader = new Thread(this::read, "syslog-relp-reader-" + socket.getInetAddress().getHostAddress() + ":" + socket.getPort());
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        void write(@NonNull PendingFrame pending) throws IOException {
+            writeNumber(pending.txnr);
+            out.write(SYSLOG_COMMAND);
+            writeNumber(pending.frame.size());
+            out.write(' ');
+            pending.frame.writeTo(out);
+            out.write('\n');
+        }
+
+        void writeCommand(int txnr, @NonNull String command, @Nullable byte[] data) throws IOException {
+            writeNumber(txnr);
+            out.write(' ');
+            out.write(command.getBytes(StandardCharsets.US_ASCII));
+            out.write(' ');
+            writeNumber(data == null ? 0 : data.length);
+            if (data != null && data.length > 0) {
+                out.write(' ');
+                out.write(data);
+            }
+            out.write('\n');
+        }
+
+        private void writeNumber(int value) throws IOException {
+            int position = digits.length;
+            do {
+                digits[--position] = (byte) ('0' + value % 10);
+                value /= 10;
+            } while (value > 0);
+            out.write(digits, position, digits.length - position);
+        }
+
+        void flush() throws IOException {
+            out.flush();
+        }
+
+        private void read() {
+            try {
+                Response response;
+                while ((response = readResponse()) != null) {
+                    if ("rsp".equals(response.command)) {
+                        onResponse(this, response.txnr, response.data);
+                    } else if ("serverclose".equals(response.command)) {
+                        logger.info("RELP server closed the session: " + response.data);
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                if (!socket.isClosed() && logger.isLoggable(Level.FINE)) {
+                    logger.fine("Exception reading the responses of the RELP server: " + e);
+                }
+            } finally {
+                broken = true;
+                synchronized (windowLock) {
+                    windowLock.notifyAll();
+                }
+            }
+        }
+
+        /**
+         * @return the next response, {@code null} at the end of the stream
+         */
+        @Nullable
+        private Response readResponse() throws IOException {
+            int b = in.read();
+            while (b == '\n' || b == '\r') {
+                b = in.read();
+            }
+            if (b == -1) {
+                return null;
+            }
+            int txnr = readNumber(b);
+            StringBuilder command = new StringBuilder(11);
+            while ((b = in.read()) != ' ') {
+                if (b == -1 || command.length() > 32) {
+                    throw new IOException("Invalid RELP command '" + command + "'");
+                }
+                command.append((char) b);
+            }
+            int dataLength = readNumber(in.read());
+            if (dataLength > MAX_RESPONSE_DATA_LENGTH) {
+                throw new IOException("RELP response too large, DATALEN " + dataLength + " exceeds " + MAX_RESPONSE_DATA_LENGTH + " bytes");
+            }
+            byte[] data = new byte[dataLength];
+            if (terminator == '\n') {
+                // no data
+                b = '\n';
+            } else {
+                int offset = 0;
+                while (offset < dataLength) {
+                    int read = in.read(data, offset, dataLength - offset);
+                    if (read == -1) {
+                        throw new EOFException("Truncated RELP response, expected " + dataLength + " bytes, got " + offset);
+                    }
+                    offset += read;
+                }
+                b = in.read();
+            }
+            if (b != '\n') {
+                throw new IOException("Invalid RELP trailer " + b);
+            }
+            return new Response(txnr, command.toString(), new String(data, StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Read a number terminated by a space or, for the data length, by the trailer, saved in {@link #terminator}.
+         */
+        private int readNumber(int b) throws IOException {
+            int value = 0;
+            int digitCount = 0;
+            while (b >= '0' && b <= '9' && digitCount++ < 9) {
+                value = value * 10 + (b - '0');
+                b = in.read();
+            }
+            if (digitCount == 0 || (b != ' ' && b != '\n')) {
+                throw new IOException("Invalid RELP number, unexpected character " + b);
+            }
+            terminator = b;
+            return value;
+        }
+
+        void close() {
+            broken = true;
+            IoUtils.closeQuietly(socket, out);
+            synchronized (windowLock) {
+                if (connection == this) {
+                    connection = null;
+                }
+                windowLock.notifyAll();
+            }
+        }
+    }
+
+    private static class Response {
+        final int txnr;
+        final String command;
+        final String data;
+
+        Response(int txnr, String command, String data) {
+            this.txnr = txnr;
+            this.command = command;
+            this.data = data;
+        }
+
+        @Override
+        public String toString() {
+            return txnr + " " + command + " " + data;
+        }
+    }
+}
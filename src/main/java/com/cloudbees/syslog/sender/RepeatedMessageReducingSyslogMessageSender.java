@@ -0,0 +1,346 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.sender;
+
+import com.cloudbees.syslog.Facility;
+import com.cloudbees.syslog.Severity;
+import com.cloudbees.syslog.SyslogMessage;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import net.jcip.annotations.ThreadSafe;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reduce runs of identical messages like the {@code $RepeatedMsgReduction} of rsyslog: a message identical to the
+ * previous message of its stream is counted instead of being sent, a {@code last message repeated N times} message is
+ * sent when the message of the stream changes or when the {@link #getWindowInMillis() window} of the repetition ends.
+ *
+ * A stream is identified by the facility, app name, hostname and proc id of the messages. Two messages of a stream are
+ * identical if they have the same severity, msg id and body, their timestamps and structured data are ignored.
+ *
+ * The number of tracked streams is bounded, the least recently used stream is evicted (and its repetitions sent) once
+ * {@link #getMaxStreams()} is reached.
+ */
+@ThreadSafe
+public class RepeatedMessageReducingSyslogMessageSender extends DelegatingSyslogMessageSender {
+    public final static long DEFAULT_WINDOW_IN_MILLIS = 30_000;
+    public final static int DEFAULT_MAX_STREAMS = 1000;
+    private final static AtomicInteger threadCounter = new AtomicInteger();
+
+    private final SyslogMessageSender syslogMessageSender;
+    private final long windowInMillis;
+    private final int maxStreams;
+    /**
+     * Last message of each stream in least recently used order. Guarded by itself.
+     */
+    private final LinkedHashMap<StreamKey, Stream> streams;
+    /**
+     * Streams evicted with pending repetitions, sent by the thread which caused the eviction. Guarded by {@link #streams}.
+     */
+    private final List<Stream> evictedStreams = new ArrayList<>();
+    private final Thread flushThread;
+    private volatile boolean running = true;
+    private final AtomicLong reducedCounter = new AtomicLong();
+
+    public RepeatedMessageReducingSyslogMessageSender(@NonNull SyslogMessageSender syslogMessageSender) {
+        this(syslogMessageSender, DEFAULT_WINDOW_IN_MILLIS, DEFAULT_MAX_STREAMS);
+    }
+
+    /**
+     * @param syslogMessageSender underlying sender, closed when this sender is closed
+     * @param windowInMillis      maximum duration of a repetition before its count is sent
+     * @param maxStreams          maximum number of tracked streams
+     */
+    public RepeatedMessageReducingSyslogMessageSender(@NonNull SyslogMessageSender syslogMessageSender, long windowInMillis, final int maxStreams) {
+        super(syslogMessageSender);
+        if (windowInMillis < 1 || maxStreams < 1) {
+            throw new IllegalArgumentException("Invalid windowInMillis=" + windowInMillis + " or maxStreams=" + maxStreams);
+        }
+        this.syslogMessageSender = syslogMessageSender;
+        this.windowInMillis = windowInMillis;
+        this.maxStreams = maxStreams;
+        this.streams = new LinkedHashMap<StreamKey, Stream>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<StreamKey, Stream> eldest) {
+                if (size() <= maxStreams) {
+                    return false;
+                }
+                if (eldest.getValue().repetitions > 0) {
+                    evictedStreams.add(eldest.getValue());
+                }
+                return true;
+            }
+        };
+        this.flushThread = new Thread(this::flushLoop, "syslog-repeated-message-reducer-" + threadCounter.incrementAndGet());
+        this.flushThread.setDaemon(true);
+        this.flushThread.start();
+    }
+
+    /**
+     * Send the given message unless it repeats the previous message of its stream.
+     *
+     * @param message the message to send
+     */
+    @Override
+    public void sendMessage(@NonNull SyslogMessage message) throws IOException {
+        sendCounter.incrementAndGet();
+        long nanosBefore = System.nanoTime();
+        try {
+            StreamKey key = new StreamKey(message);
+            String body = message.getMsg() == null ? "" : message.getMsg().toString();
+            long nowInMillis = System.currentTimeMillis();
+
+            Stream previous = null;
+            boolean send;
+            List<Stream> evicted = null;
+            synchronized (streams) {
+                Stream stream = streams.get(key);
+                if (stream != null && stream.isRepeatedBy(message, body)) {
+                    if (stream.repetitions > 0 && nowInMillis - stream.firstRepetitionInMillis >= windowInMillis) {
+                        previous = stream.copy();
+                        stream.repetitions = 0;
+                    }
+                    if (stream.repetitions++ == 0) {
+                        stream.firstRepetitionInMillis = nowInMillis;
+                    }
+                    send = false;
+                } else {
+                    if (stream != null && stream.repetitions > 0) {
+                        previous = stream;
+                    }
+                    streams.put(key, new Stream(key, message, body));
+                    send = true;
+                }
+                if (!evictedStreams.isEmpty()) {
+                    evicted = new ArrayList<>(evictedStreams);
+                    evictedStreams.clear();
+                }
+            }
+            if (previous != null) {
+                sendRepetitions(previous);
+            }
+            if (evicted != null) {
+                for (Stream stream : evicted) {
+                    sendRepetitions(stream);
+                }
+            }
+            if (send) {
+                syslogMessageSender.sendMessage(message);
+            } else {
+                reducedCounter.incrementAndGet();
+            }
+        } finally {
+            sendDurationInNanosCounter.addAndGet(System.nanoTime() - nanosBefore);
+        }
+    }
+
+    private void sendRepetitions(@NonNull Stream stream) {
+        SyslogMessage repetitions = new SyslogMessage()
+                .withFacility(stream.key.facility)
+                .withSeverity(stream.severity)
+                .withAppName(stream.key.appName)
+                .withHostname(stream.key.hostname)
+                .withProcId(stream.key.procId)
+                .withMsgId(stream.msgId)
+                .withMsg("last message repeated " + stream.repetitions + " times");
+        try {
+            syslogMessageSender.sendMessage(repetitions);
+        } catch (IOException | RuntimeException e) {
+            sendErrorCounter.incrementAndGet();
+            logger.warn("Exception sending repeated message count with " + syslogMessageSender, e);
+        }
+    }
+
+    private void flushLoop() {
+        long intervalInMillis = Math.min(windowInMillis, 1000);
+        while (running) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(intervalInMillis);
+            } catch (InterruptedException e) {
+                break;
+            }
+            try {
+                flush(System.currentTimeMillis());
+            } catch (RuntimeException e) {
+                logger.warn("Exception sending repeated message counts", e);
+            }
+        }
+    }
+
+    /**
+     * Send the counts of the repetitions whose window has ended at the given time.
+     */
+    void flush(long nowInMillis) {
+        List<Stream> expired = new ArrayList<>();
+        synchronized (streams) {
+            for (Stream stream : streams.values()) {
+                if (stream.repetitions > 0 && nowInMillis - stream.firstRepetitionInMillis >= windowInMillis) {
+                    expired.add(stream.copy());
+                    stream.repetitions = 0;
+                }
+            }
+        }
+        for (Stream stream : expired) {
+            sendRepetitions(stream);
+        }
+    }
+
+    /**
+     * Send the pending counts of repetitions and close the underlying sender.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!running) {
+            return;
+        }
+        running = false;
+        flushThread.interrupt();
+        try {
+            flushThread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush(Long.MAX_VALUE);
+        syslogMessageSender.close();
+    }
+
+    /**
+     * Fields identifying a stream of messages.
+     */
+    private static final class StreamKey {
+        @Nullable
+        private final Facility facility;
+        @Nullable
+        private final String appName;
+        @Nullable
+        private final String hostname;
+        @Nullable
+        private final String procId;
+        private final int hashCode;
+
+        StreamKey(@NonNull SyslogMessage message) {
+            this.facility = message.getFacility();
+            this.appName = message.getAppName();
+            this.hostname = message.getHostname();
+            this.procId = message.getProcId();
+            this.hashCode = Objects.hash(facility, appName, hostname, procId);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof StreamKey)) {
+                return false;
+            }
+            StreamKey other = (StreamKey) obj;
+            return hashCode == other.hashCode
+                    && facility == other.facility
+                    && Objects.equals(appName, other.appName)
+                    && Objects.equals(hostname, other.hostname)
+                    && Objects.equals(procId, other.procId);
+        }
+    }
+
+    /**
+     * Fields of the last message sent on a stream and its pending repetitions. The fields are copied, the message may
+     * be reused by the caller once sent.
+     */
+    private static final class Stream {
+        @NonNull
+        final StreamKey key;
+        @Nullable
+        final Severity severity;
+        @Nullable
+        final String msgId;
+        @NonNull
+        final String body;
+        int repetitions;
+        long firstRepetitionInMillis;
+
+        Stream(@NonNull StreamKey key, @NonNull SyslogMessage message, @NonNull String body) {
+            this(key, message.getSeverity(), message.getMsgId(), body);
+        }
+
+        private Stream(@NonNull StreamKey key, @Nullable Severity severity, @Nullable String msgId, @NonNull String body) {
+            this.key = key;
+            this.severity = severity;
+            this.msgId = msgId;
+            this.body = body;
+        }
+
+        boolean isRepeatedBy(@NonNull SyslogMessage other, @NonNull String otherBody) {
+            return severity == other.getSeverity()
+                    && Objects.equals(msgId, other.getMsgId())
+                    && body.equals(otherBody);
+        }
+
+        @NonNull
+        Stream copy() {
+            Stream copy = new Stream(key, severity, msgId, body);
+            copy.repetitions = repetitions;
+            copy.firstRepetitionInMillis = firstRepetitionInMillis;
+            return copy;
+        }
+    }
+
+    public SyslogMessageSender getSyslogMessageSender() {
+        return syslogMessageSender;
+    }
+
+    public long getWindowInMillis() {
+        return windowInMillis;
+    }
+
+    public int getMaxStreams() {
+        return maxStreams;
+    }
+
+    /**
+     * @return number of repeated messages which have not been sent
+     */
+    public long getReducedCount() {
+        return reducedCounter.get();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getName() + "{" +
+                "syslogMessageSender=" + syslogMessageSender +
+                ", windowInMillis=" + windowInMillis +
+                ", maxStreams=" + maxStreams +
+                ", sendCounter=" + sendCounter +
+                ", sendDurationInNanosCounter=" + sendDurationInNanosCounter +
+                ", sendErrorCounter=" + sendErrorCounter +
+                ", reducedCounter=" + reducedCounter +
+                '}';
+    }
+}
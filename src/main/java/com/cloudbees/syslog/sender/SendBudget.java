@@ -0,0 +1,226 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.sender;
+
+import com.cloudbees.syslog.SDElement;
+import com.cloudbees.syslog.SDParam;
+import com.cloudbees.syslog.SyslogMessage;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import net.jcip.annotations.ThreadSafe;
+import java.io.CharArrayWriter;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Maximum number of bytes of the messages waiting to be sent, shared by several asynchronous senders: each sender has
+ * its own queue capacity, the budget bounds the memory used by all the queues during an outage of the Syslog servers
+ * whatever the number of senders.
+ *
+ * A sender {@link Account#tryReserve(long) reserves} the size of a message before queuing it and releases it once the
+ * message is dequeued. When the budget is exhausted, the sender applies its own overflow policy, for example
+ * {@link AsyncSyslogMessageSender.OverflowPolicy#DISCARD_OLDEST} discards its oldest queued messages to make room,
+ * unless the bytes reserved by the sender are not enough to make room, the budget being held by other senders or the
+ * message being too large: the message is then discarded.
+ *
+ * The {@link #getShared() shared budget} is used by the senders configured with {@code logging.properties}, its
+ * capacity is set with the system property {@code com.cloudbees.syslog.sender.SendBudget.capacityInBytes}.
+ *
+ * The window of the messages sent and not yet acknowledged by a {@link RelpSyslogMessageSender} is not accounted: it
+ * is bounded by its {@link RelpSyslogMessageSender#getWindowSize() window size} and blocks the caller when full.
+ *
+ * @see AsyncSyslogMessageSender#setSendBudget(SendBudget)
+ * @see PriorityAsyncSyslogMessageSender#setSendBudget(SendBudget)
+ * @see OffHeapAsyncSyslogMessageSender#setSendBudget(SendBudget)
+ * @see FanOutSyslogMessageSender#setSendBudget(SendBudget)
+ * @see com.cloudbees.syslog.server.SyslogRelay#setSendBudget(SendBudget)
+ */
+@ThreadSafe
+public class SendBudget {
+    public final static long DEFAULT_CAPACITY_IN_BYTES = 64 * 1024 * 1024;
+    /**
+     * Estimated size of a {@link SyslogMessage} and of its fixed fields, the chars of the text fields are added.
+     */
+    private final static int MESSAGE_OVERHEAD_IN_BYTES = 160;
+    private final static int SD_ELEMENT_OVERHEAD_IN_BYTES = 64;
+    private final static int SD_PARAM_OVERHEAD_IN_BYTES = 48;
+
+    private static volatile SendBudget shared;
+
+    private final long capacityInBytes;
+    private final AtomicLong usedBytesCounter = new AtomicLong();
+    private final AtomicLong rejectionCounter = new AtomicLong();
+
+    /**
+     * @param capacityInBytes maximum number of bytes of the messages waiting to be sent
+     */
+    public SendBudget(long capacityInBytes) {
+        if (capacityInBytes < 1) {
+            throw new IllegalArgumentException("Invalid capacity " + capacityInBytes);
+        }
+        this.capacityInBytes = capacityInBytes;
+    }
+
+    /**
+     * @return the budget shared by the whole JVM, created on first use
+     */
+    @NonNull
+    public static SendBudget getShared() {
+        SendBudget sendBudget = shared;
+        if (sendBudget == null) {
+            synchronized (SendBudget.class) {
+                sendBudget = shared;
+                if (sendBudget == null) {
+                    sendBudget = new SendBudget(Long.getLong(SendBudget.class.getName() + ".capacityInBytes", DEFAULT_CAPACITY_IN_BYTES));
+                    shared = sendBudget;
+                }
+            }
+        }
+        return sendBudget;
+    }
+
+    /**
+     * @return a new account of a sender on this budget
+     */
+    @NonNull
+    public Account newAccount() {
+        return new Account();
+    }
+
+    /**
+     * Estimate the heap size of the given message, the message must not be modified while it is queued so that the
+     * same size is released.
+     */
+    public static int estimateSize(@NonNull SyslogMessage message) {
+        int size = MESSAGE_OVERHEAD_IN_BYTES + 2 * (length(message.getHostname()) + length(message.getAppName())
+                + length(message.getProcId()) + length(message.getMsgId()));
+        CharArrayWriter msg = message.getMsg();
+        if (msg != null) {
+            size += 2 * msg.size();
+        }
+        Set<SDElement> sdElements = message.getSDElements();
+        if (!sdElements.isEmpty()) {
+            for (SDElement sdElement : sdElements) {
+                size += SD_ELEMENT_OVERHEAD_IN_BYTES + 2 * length(sdElement.getSdID());
+                for (SDParam sdParam : sdElement.getSdParams()) {
+                    size += SD_PARAM_OVERHEAD_IN_BYTES + 2 * (length(sdParam.getParamName()) + length(sdParam.getParamValue()));
+                }
+            }
+        }
+        return size;
+    }
+
+    private static int length(@Nullable String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    public long getCapacityInBytes() {
+        return capacityInBytes;
+    }
+
+    /**
+     * @return number of bytes reserved by the messages waiting to be sent
+     */
+    public long getUsedBytes() {
+        return usedBytesCounter.get();
+    }
+
+    /**
+     * @return ratio of the capacity reserved by the messages waiting to be sent, between {@code 0} and {@code 1}
+     */
+    public double getUtilization() {
+        return (double) usedBytesCounter.get() / capacityInBytes;
+    }
+
+    /**
+     * @return number of reservations rejected because the budget was exhausted
+     */
+    public long getRejectionCount() {
+        return rejectionCounter.get();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getName() + "{" +
+                "capacityInBytes=" + capacityInBytes +
+                ", usedBytes=" + usedBytesCounter +
+                ", rejectionCounter=" + rejectionCounter +
+                '}';
+    }
+
+    /**
+     * Bytes reserved by a sender. An account never releases more bytes than it reserved, so that the messages
+     * discarded by {@link #releaseAll()} on close are not released twice.
+     */
+    @ThreadSafe
+    public class Account {
+        private final AtomicLong reservedBytes = new AtomicLong();
+
+        private Account() {
+        }
+
+        /**
+         * @return {@code false} if the budget is exhausted, nothing is reserved
+         */
+        public boolean tryReserve(long bytes) {
+            long used;
+            do {
+                used = usedBytesCounter.get();
+                if (used + bytes > capacityInBytes) {
+                    rejectionCounter.incrementAndGet();
+                    return false;
+                }
+            } while (!usedBytesCounter.compareAndSet(used, used + bytes));
+            reservedBytes.addAndGet(bytes);
+            return true;
+        }
+
+        /**
+         * @return {@code true} if the given number of bytes could be reserved once all the bytes of this account are
+         * released, the overflow policies only discard the queued messages of a sender when it makes enough room
+         */
+        public boolean canReserveByReleasing(long bytes) {
+            return capacityInBytes - usedBytesCounter.get() + reservedBytes.get() >= bytes;
+        }
+
+        public void release(long bytes) {
+            long reserved;
+            long released;
+            do {
+                reserved = reservedBytes.get();
+                released = Math.min(bytes, reserved);
+            } while (!reservedBytes.compareAndSet(reserved, reserved - released));
+            usedBytesCounter.addAndGet(-released);
+        }
+
+        /**
+         * Release all the bytes reserved by the account.
+         */
+        public void releaseAll() {
+            usedBytesCounter.addAndGet(-reservedBytes.getAndSet(0));
+        }
+
+        public long getReservedBytes() {
+            return reservedBytes.get();
+        }
+
+        @NonNull
+        public SendBudget getSendBudget() {
+            return SendBudget.this;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.sender;
+
+import com.cloudbees.syslog.SDElement;
+import com.cloudbees.syslog.SDParam;
+import com.cloudbees.syslog.SyslogMessage;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import net.jcip.annotations.ThreadSafe;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Send messages in parallel over several connections while keeping the order of the messages of the same key.
+ *
+ * Each shard is an {@link AsyncSyslogMessageSender} with its own queue and I/O thread in front of its own
+ * {@link SyslogMessageSender} (typically a {@link TcpSyslogMessageSender}, that is a connection). A message is routed
+ * to the shard selected by the hash of its {@link KeyExtractor key}: the messages of a key are sent in order on the
+ * same connection, the messages of different keys are sent in parallel.
+ *
+ * Like with {@link AsyncSyslogMessageSender}, the messages of a shard whose queue is saturated are discarded.
+ */
+@ThreadSafe
+public class ShardedSyslogMessageSender extends DelegatingSyslogMessageSender {
+
+    /**
+     * Extract the key of a message.
+     */
+    public interface KeyExtractor {
+        /**
+         * @return the key of the message, {@code null} routes the message to the first shard
+         */
+        @Nullable
+        Object getKey(@NonNull SyslogMessage message);
+
+        @NonNull
+        static KeyExtractor appName() {
+            return SyslogMessage::getAppName;
+        }
+
+        @NonNull
+        static KeyExtractor procId() {
+            return SyslogMessage::getProcId;
+        }
+
+        @NonNull
+        static KeyExtractor msgId() {
+            return SyslogMessage::getMsgId;
+        }
+
+        /**
+         * @return the value of the given parameter of the given structured data element
+         */
+        @NonNull
+        static KeyExtractor sdParam(@NonNull String sdId, @NonNull String paramName) {
+            return message -> {
+                Set<SDElement> sdElements = message.getSDElements();
+                for (SDElement sdElement : sdElements) {
+                    if (sdId.equals(sdElement.getSdID())) {
+                        for (SDParam sdParam : sdElement.getSdParams()) {
+                            if (paramName.equals(sdParam.getParamName())) {
+                                return sdParam.getParamValue();
+                            }
+                        }
+                    }
+                }
+                return null;
+            };
+        }
+    }
+
+    private final AsyncSyslogMessageSender[] shards;
+    private final KeyExtractor keyExtractor;
+
+    /**
+     * @param shardCount    number of shards
+     * @param senderFactory create the sender of each shard, closed when this sender is closed
+     * @param keyExtractor  key of the messages whose order must be kept
+     */
+    public ShardedSyslogMessageSender(int shardCount, @NonNull Supplier<? extends SyslogMessageSender> senderFactory, @NonNull KeyExtractor keyExtractor) {
+        this(shardCount, senderFactory, keyExtractor, AsyncSyslogMessageSender.DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param shardCount         number of shards
+     * @param senderFactory      create the sender of each shard, closed when this sender is closed
+     * @param keyExtractor       key of the messages whose order must be kept
+     * @param shardQueueCapacity maximum number of messages waiting to be sent in each shard
+     */
+    public ShardedSyslogMessageSender(int shardCount, @NonNull Supplier<? extends SyslogMessageSender> senderFactory, @NonNull KeyExtractor keyExtractor,
+                                      int shardQueueCapacity) {
+        this(newShards(shardCount, senderFactory, shardQueueCapacity), keyExtractor);
+    }
+
+    private ShardedSyslogMessageSender(@NonNull AsyncSyslogMessageSender[] shards, @NonNull KeyExtractor keyExtractor) {
+        super(Arrays.asList(shards));
+        this.keyExtractor = keyExtractor;
+        this.shards = shards;
+    }
+
+    @NonNull
+    private static AsyncSyslogMessageSender[] newShards(int shardCount, @NonNull Supplier<? extends SyslogMessageSender> senderFactory, int shardQueueCapacity) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Invalid shard count " + shardCount);
+        }
+        AsyncSyslogMessageSender[] shards = new AsyncSyslogMessageSender[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new AsyncSyslogMessageSender(senderFactory.get(), shardQueueCapacity);
+            // ordering matters more than the severity
+            shards[i].setDiscardingThreshold(0);
+        }
+        return shards;
+    }
+
+    /**
+     * Queue the given message in the shard of its key, never blocks.
+     *
+     * @param message the message to send
+     */
+    @Override
+    public void sendMessage(@NonNull SyslogMessage message) {
+        sendCounter.incrementAndGet();
+        getShard(message).sendMessage(message);
+    }
+
+    @NonNull
+    AsyncSyslogMessageSender getShard(@NonNull SyslogMessage message) {
+        Object key = keyExtractor.getKey(message);
+        if (key == null) {
+            return shards[0];
+        }
+        int hash = key.hashCode();
+        // spread the high bits like HashMap
+        hash ^= hash >>> 16;
+        return shards[(hash & Integer.MAX_VALUE) % shards.length];
+    }
+
+    /**
+     * Wait until the messages queued in all the shards before this invocation have been sent.
+     *
+     * @return {@code true} if all the messages have been sent before the timeout
+     */
+    public boolean flush(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (AsyncSyslogMessageSender shard : shards) {
+            if (!shard.flush(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Close all the shards, see {@link AsyncSyslogMessageSender#close()}.
+     */
+    @Override
+    public void close() throws IOException {
+        IOException exception = null;
+        for (AsyncSyslogMessageSender shard : shards) {
+            try {
+                shard.close();
+            } catch (IOException e) {
+                exception = e;
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    @NonNull
+    public List<AsyncSyslogMessageSender> getShards() {
+        List<AsyncSyslogMessageSender> result = new ArrayList<>(shards.length);
+        Collections.addAll(result, shards);
+        return Collections.unmodifiableList(result);
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    public long getDiscardCount() {
+        long discardCount = 0;
+        for (AsyncSyslogMessageSender shard : shards) {
+            discardCount += shard.getDiscardCount();
+        }
+        return discardCount;
+    }
+
+    /**
+     * @return number of errors sending messages, all shards included
+     */
+    @Override
+    public int getSendErrorCount() {
+        int sendErrorCount = 0;
+        for (AsyncSyslogMessageSender shard : shards) {
+            sendErrorCount += shard.getSendErrorCount();
+        }
+        return sendErrorCount;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getName() + "{" +
+                "shardCount=" + shards.length +
+                ", keyExtractor=" + keyExtractor +
+                ", sendCounter=" + sendCounter +
+                ", sendErrorCount=" + getSendErrorCount() +
+                ", discardCount=" + getDiscardCount() +
+                '}';
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.sender;
+
+import com.cloudbees.syslog.MessageFormat;
+import com.cloudbees.syslog.SyslogFrame;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import net.jcip.annotations.ThreadSafe;
+import java.io.IOException;
+
+/**
+ * {@link SyslogMessageSender} able to send messages already encoded.
+ *
+ * Implementation <strong>MUST</strong> be thread safe.
+ */
+@ThreadSafe
+public interface SyslogFrameSender extends SyslogMessageSender {
+
+    /**
+     * @return format of the messages accepted by the Syslog server
+     */
+    MessageFormat getMessageFormat();
+
+    /**
+     * Send the given encoded message, adding the framing of the transport.
+     *
+     * @param frame the encoded message, in the {@link #getMessageFormat() message format} of this sender
+     * @throws IllegalArgumentException the message format of the frame is not the one of this sender
+     * @throws IOException
+     */
+    void sendFrame(@NonNull SyslogFrame frame) throws IOException;
+}
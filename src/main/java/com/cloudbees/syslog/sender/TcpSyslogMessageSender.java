@@ -15,34 +15,48 @@
  */
 package com.cloudbees.syslog.sender;
 
+import com.cloudbees.syslog.MessageFormat;
+import com.cloudbees.syslog.SyslogFrame;
 import com.cloudbees.syslog.SyslogMessage;
-import com.cloudbees.syslog.util.CachingReference;
+import com.cloudbees.syslog.util.InetAddressResolver;
 import com.cloudbees.syslog.util.IoUtils;
+import com.cloudbees.syslog.util.Utf8ByteArrayWriter;
 
 import edu.umd.cs.findbugs.annotations.NonNull;
 import edu.umd.cs.findbugs.annotations.Nullable;
 import net.jcip.annotations.ThreadSafe;
-import javax.net.SocketFactory;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSession;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
-import java.io.BufferedWriter;
+import java.io.BufferedOutputStream;
 import java.io.Closeable;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
+import java.io.OutputStream;
 import java.math.BigInteger;
 import java.net.ConnectException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.net.UnknownHostException;
-import java.nio.charset.StandardCharsets;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
 import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
-import java.util.Objects;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 
 /**
@@ -51,18 +65,37 @@ import java.util.logging.Level;
  * @author <a href="mailto:cleclerc@cloudbees.com">Cyrille Le Clerc</a>
  */
 @ThreadSafe
-public class TcpSyslogMessageSender extends AbstractSyslogMessageSender implements Closeable  {
+public class TcpSyslogMessageSender extends AbstractSyslogMessageSender implements SyslogFrameSender, Closeable  {
     public final static int SETTING_SOCKET_CONNECT_TIMEOUT_IN_MILLIS_DEFAULT_VALUE = 500;
     public final static int SETTING_MAX_RETRY = 2;
+    public final static int SETTING_WRITE_TIMEOUT_IN_MILLIS_DEFAULT_VALUE = 10_000;
+    public final static int SETTING_OUTPUT_BUFFER_SIZE_DEFAULT_VALUE = 8192;
+    public final static int SETTING_LIVENESS_CHECK_INTERVAL_IN_MILLIS_DEFAULT_VALUE = 100;
+    public final static int SETTING_SSL_HANDSHAKE_TIMEOUT_IN_MILLIS_DEFAULT_VALUE = 10_000;
+    public final static int SETTING_SSL_SESSION_TICKET_TIMEOUT_IN_MILLIS_DEFAULT_VALUE = 100;
 
     /**
-     * {@link java.net.InetAddress InetAddress} of the remote Syslog Server.
+     * Delay before trying to connect to the next address of the Syslog server while the connection to the previous
+     * one is still pending, see <a href="https://tools.ietf.org/html/rfc8305#section-5">RFC 8305, Section 5</a>.
+     */
+    public final static int CONNECTION_ATTEMPT_DELAY_IN_MILLIS = 250;
+    /**
+     * Encoding buffers that grew larger than this number of bytes are not retained.
+     */
+    private final static int MAX_RETAINED_ENCODER_SIZE = 64 * 1024;
+    /**
+     * Time the liveness check of a TLS connection waits for data, the TLS layer can't be read without blocking.
+     */
+    private final static int LIVENESS_CHECK_TLS_READ_TIMEOUT_IN_MILLIS = 1;
+
+    /**
+     * {@link java.net.InetAddress InetAddresses} of the remote Syslog Server.
      *
-     * The {@code InetAddress} is refreshed regularly to handle DNS changes (default {@link #DEFAULT_INET_ADDRESS_TTL_IN_MILLIS})
+     * The addresses are refreshed in the background to handle DNS changes (default {@link #DEFAULT_INET_ADDRESS_TTL_IN_MILLIS})
      *
      * Default value: {@link #DEFAULT_SYSLOG_HOST}
      */
-    protected CachingReference<InetAddress> syslogServerHostnameReference;
+    protected InetAddressResolver syslogServerAddressResolver;
     /**
      * Listen port of the remote Syslog server.
      *
@@ -71,10 +104,59 @@ public class TcpSyslogMessageSender extends AbstractSyslogMessageSender implemen
     protected int syslogServerPort = DEFAULT_SYSLOG_PORT;
 
     private Socket socket;
-    private Writer writer;
+    private OutputStream outputStream;
+    /**
+     * Next attempt to move the connection to the new addresses of the Syslog server
+     */
+    private long nextReconnectionAttemptInNanos = System.nanoTime();
     private int socketConnectTimeoutInMillis = SETTING_SOCKET_CONNECT_TIMEOUT_IN_MILLIS_DEFAULT_VALUE;
+    private int writeTimeoutInMillis = SETTING_WRITE_TIMEOUT_IN_MILLIS_DEFAULT_VALUE;
+    /**
+     * {@code SO_SNDBUF}, {@code 0} for the default of the operating system
+     */
+    private int sendBufferSize;
+    private boolean tcpNoDelay;
+    /**
+     * {@code SO_LINGER} in seconds, {@code -1} to disable
+     */
+    private int soLingerInSeconds = -1;
+    private int outputBufferSize = SETTING_OUTPUT_BUFFER_SIZE_DEFAULT_VALUE;
+    /**
+     * Idle time of the connection after which its liveness is checked before writing, {@code -1} to disable
+     */
+    private int livenessCheckIntervalInMillis = SETTING_LIVENESS_CHECK_INTERVAL_IN_MILLIS_DEFAULT_VALUE;
+    /**
+     * {@code TCP_KEEPIDLE}, {@code TCP_KEEPINTERVAL} and {@code TCP_KEEPCOUNT}, {@code 0} for the defaults of the
+     * operating system
+     */
+    private int keepAliveIdleInSeconds;
+    private int keepAliveIntervalInSeconds;
+    private int keepAliveCount;
+    private long lastWriteInNanos;
+    /**
+     * Receives the data discarded by the liveness check, a Syslog server doesn't send data
+     */
+    private final ByteBuffer livenessCheckBuffer = ByteBuffer.allocate(256);
+    /**
+     * Deadline of the writes in progress, the writes are serialized
+     */
+    final WriteDeadline writeDeadline = new WriteDeadline();
+    /**
+     * TCP sockets under the TLS sockets, closed when a write times out as closing a TLS socket waits for the write
+     */
+    private final Map<Socket, Socket> tcpSockets = Collections.synchronizedMap(new WeakHashMap<>());
     private boolean ssl;
     private SSLContext sslContext;
+    /**
+     * Reused across the connections, resumption relies on the client session cache of the {@link SSLContext}
+     */
+    private SSLSocketFactory sslSocketFactory;
+    @Nullable
+    private String[] sslEnabledProtocols;
+    @Nullable
+    private String[] sslEnabledCipherSuites;
+    private int sslHandshakeTimeoutInMillis = SETTING_SSL_HANDSHAKE_TIMEOUT_IN_MILLIS_DEFAULT_VALUE;
+    private int sslSessionTicketTimeoutInMillis = SETTING_SSL_SESSION_TICKET_TIMEOUT_IN_MILLIS_DEFAULT_VALUE;
     /**
      * Number of retries to send a message before throwing an exception.
      */
@@ -83,30 +165,149 @@ public class TcpSyslogMessageSender extends AbstractSyslogMessageSender implemen
      * Number of exceptions trying to send message.
      */
     protected final AtomicInteger trySendErrorCounter = new AtomicInteger();
+    /**
+     * Number of writes that exceeded the {@link #getWriteTimeoutInMillis() write timeout}.
+     */
+    protected final AtomicInteger writeTimeoutCounter = new AtomicInteger();
+    /**
+     * Number of connections found closed by the Syslog server before writing.
+     */
+    protected final AtomicInteger deadConnectionCounter = new AtomicInteger();
+    /**
+     * Number of TLS handshakes, including the {@link #sslResumedHandshakeCounter resumed} ones.
+     */
+    protected final AtomicInteger sslHandshakeCounter = new AtomicInteger();
+    /**
+     * Number of TLS handshakes that resumed a previous session instead of a full handshake.
+     */
+    protected final AtomicInteger sslResumedHandshakeCounter = new AtomicInteger();
+    protected final AtomicLong sslHandshakeDurationInNanosCounter = new AtomicLong();
 
-    // use the CR LF non transparent framing as described in "3.4.2.  Non-Transparent-Framing"
-    private String postfix = "\r\n";
+    /**
+     * Delimitation of the messages, {@code null} for the {@link Framing#defaultFraming(MessageFormat) default} of the
+     * message format
+     */
+    @Nullable
+    private volatile Framing framing;
+    /**
+     * Encoding buffer of {@link #sendMessage(SyslogMessage)}, guarded by this sender.
+     */
+    private Utf8ByteArrayWriter encoder = new Utf8ByteArrayWriter(256);
 
+    /**
+     * Send the given message, encoded once in a buffer of this sender so that the retries send the same bytes.
+     */
     @Override
     public synchronized void sendMessage(@NonNull SyslogMessage message) throws IOException {
-        sendCounter.incrementAndGet();
+        MessageFormat messageFormat = this.messageFormat;
+        Utf8ByteArrayWriter encoder = this.encoder;
+        if (encoder.capacity() > MAX_RETAINED_ENCODER_SIZE) {
+            encoder = new Utf8ByteArrayWriter(256);
+            this.encoder = encoder;
+        }
+        encoder.reset(Integer.MAX_VALUE);
+        // the framing adds the octet counting prefix of RFC-5425
+        message.toSyslogMessage(messageFormat == MessageFormat.RFC_5425 ? MessageFormat.RFC_5424 : messageFormat, encoder);
+        encoder.flush();
+        if (logger.isLoggable(Level.FINEST)) {
+            logger.finest("Send syslog message " + encoder);
+        }
+        Framing framing = getFraming();
+        Utf8ByteArrayWriter encodedMessage = encoder;
+        send(1, out -> framing.writeMessage(messageFormat, encodedMessage, out));
+    }
+
+    /**
+     * Send the given encoded message, retried without being encoded again.
+     *
+     * @param frame the encoded message, in the {@link #getMessageFormat() message format} of this sender
+     */
+    @Override
+    public synchronized void sendFrame(@NonNull SyslogFrame frame) throws IOException {
+        checkMessageFormat(frame);
+        if (logger.isLoggable(Level.FINEST)) {
+            logger.finest("Send syslog message " + frame);
+        }
+        send(1, out -> getFraming().writeFrame(frame, out));
+    }
+
+    /**
+     * Send the given encoded messages with a single flush of the connection. On failure, the whole batch is retried:
+     * the messages of the batch that had already been written before the failure are sent twice.
+     *
+     * @param frames the encoded messages, in the {@link #getMessageFormat() message format} of this sender
+     */
+    public synchronized void sendFrames(@NonNull List<SyslogFrame> frames) throws IOException {
+        for (SyslogFrame frame : frames) {
+            checkMessageFormat(frame);
+        }
+        if (frames.isEmpty()) {
+            return;
+        }
+        if (logger.isLoggable(Level.FINEST)) {
+            logger.finest("Send syslog messages " + frames);
+        }
+        send(frames.size(), out -> {
+            Framing framing = getFraming();
+            for (SyslogFrame frame : frames) {
+                framing.writeFrame(frame, out);
+            }
+        });
+    }
+
+    /**
+     * Send messages already encoded with their {@link #getFraming() framing}, written as is with a single flush and
+     * retried like {@link #sendFrames(List)}.
+     *
+     * @param messageCount number of messages in the given bytes
+     */
+    synchronized void sendFramedBytes(@NonNull byte[] bytes, int offset, int length, int messageCount) throws IOException {
+        send(messageCount, out -> out.write(bytes, offset, length));
+    }
+
+    private void checkMessageFormat(@NonNull SyslogFrame frame) {
+        if (frame.getMessageFormat() != messageFormat) {
+            throw new IllegalArgumentException("Frame format " + frame.getMessageFormat() + " is not the format of the sender " + messageFormat);
+        }
+    }
+
+    /**
+     * Write of the messages of a send, invoked again on retries.
+     */
+    private interface FramesWriter {
+        void writeTo(@NonNull OutputStream out) throws IOException;
+    }
+
+    /**
+     * @param messageCount number of messages written by the given writer
+     */
+    private void send(int messageCount, @NonNull FramesWriter framesWriter) throws IOException {
+        sendCounter.addAndGet(messageCount);
         long nanosBefore = System.nanoTime();
 
         try {
             Exception lastException = null;
             for (int i = 0; i <= maxRetryCount; i++) {
                 try {
-                    if (logger.isLoggable(Level.FINEST)) {
-                        logger.finest("Send syslog message " + message.toSyslogMessage(messageFormat));
-                    }
                     ensureSyslogServerConnection();
-                    message.toSyslogMessage(messageFormat, writer);
-                    writer.write(postfix);
-                    writer.flush();
+                    writeDeadline.arm(getTcpSocket(socket), writeTimeoutInMillis);
+                    try {
+                        framesWriter.writeTo(outputStream);
+                        outputStream.flush();
+                    } finally {
+                        writeDeadline.disarm();
+                    }
+                    lastWriteInNanos = System.nanoTime();
                     return;
                 } catch (IOException | RuntimeException e) {
                     lastException = e;
-                    IoUtils.closeQuietly(socket, writer);
+                    if (writeDeadline.isExpired()) {
+                        writeTimeoutCounter.incrementAndGet();
+                        if (e instanceof IOException) {
+                            lastException = writeDeadline.translate((IOException) e);
+                        }
+                    }
+                    IoUtils.closeQuietly(socket, outputStream);
                     trySendErrorCounter.incrementAndGet();
                 }
             }
@@ -124,14 +325,7 @@ public class TcpSyslogMessageSender extends AbstractSyslogMessageSender implemen
     }
 
     private synchronized void ensureSyslogServerConnection() throws IOException {
-        InetAddress inetAddress = syslogServerHostnameReference.get();
-        if (socket != null && !Objects.equals(socket.getInetAddress(), inetAddress)) {
-            logger.info("InetAddress of the Syslog Server have changed, create a new connection. " +
-                    "Before=" + socket.getInetAddress() + ", new=" + inetAddress);
-            IoUtils.closeQuietly(socket, writer);
-            writer = null;
-            socket = null;
-        }
+        InetAddress[] inetAddresses = syslogServerAddressResolver.getAddresses();
         boolean socketIsValid;
         try {
             socketIsValid = socket != null &&
@@ -143,70 +337,345 @@ public class TcpSyslogMessageSender extends AbstractSyslogMessageSender implemen
         } catch (Exception e) {
             socketIsValid = false;
         }
-        if (!socketIsValid) {
-            writer = null;
+        if (socketIsValid && !contains(inetAddresses, socket.getInetAddress())
+                && System.nanoTime() - nextReconnectionAttemptInNanos >= 0) {
+            // roll over: connect to the new addresses before releasing the current connection, keep it if they fail
+            nextReconnectionAttemptInNanos = System.nanoTime() + DEFAULT_INET_ADDRESS_TTL_IN_NANOS;
             try {
-                if (ssl) {
-                    if (sslContext == null) {
-                        socket = SSLSocketFactory.getDefault().createSocket();
-                    } else {
-                        socket = sslContext.getSocketFactory().createSocket();
+                Socket newSocket = connect(inetAddresses);
+                logger.info("InetAddress of the Syslog Server have changed, use a new connection. " +
+                        "Before=" + socket.getInetAddress() + ", new=" + newSocket.getInetAddress());
+                closeGracefully(socket, outputStream);
+                socket = newSocket;
+                outputStream = null;
+            } catch (IOException e) {
+                logger.warn("InetAddress of the Syslog Server have changed but the connection to " +
+                        Arrays.toString(inetAddresses) + " failed, keep using " + socket.getInetAddress() + ": " + e);
+            }
+        }
+        if (socketIsValid && livenessCheckIntervalInMillis >= 0
+                && System.nanoTime() - lastWriteInNanos >= TimeUnit.MILLISECONDS.toNanos(livenessCheckIntervalInMillis)
+                && !isAlive(socket)) {
+            deadConnectionCounter.incrementAndGet();
+            logger.info("Connection to the Syslog server " + socket.getInetAddress() + ":" + syslogServerPort + " has been closed, reconnect");
+            // don't flush into the dead connection
+            IoUtils.closeQuietly(socket);
+            socketIsValid = false;
+        }
+        if (!socketIsValid) {
+            outputStream = null;
+            socket = connect(inetAddresses);
+        }
+        if (outputStream == null) {
+            outputStream = new BufferedOutputStream(socket.getOutputStream(), outputBufferSize);
+        }
+    }
+
+    /**
+     * Connect to the first address of the Syslog server that accepts the connection. As in
+     * <a href="https://tools.ietf.org/html/rfc8305">RFC 8305 - Happy Eyeballs</a>, the next address is tried if the
+     * connection is still pending after {@link #CONNECTION_ATTEMPT_DELAY_IN_MILLIS} or as soon as the connection
+     * fails, the pending connections continue until one of them succeeds.
+     *
+     * @param inetAddresses addresses of the Syslog server, preferred first
+     */
+    @NonNull
+    protected Socket connect(@NonNull InetAddress[] inetAddresses) throws IOException {
+        SocketChannel socketChannel = null;
+        InetAddress inetAddress = null;
+        IOException lastException = null;
+        long timeoutInNanos = TimeUnit.MILLISECONDS.toNanos(socketConnectTimeoutInMillis);
+        List<SocketChannel> pendingChannels = new ArrayList<>(inetAddresses.length);
+        Selector selector = Selector.open();
+        try {
+            int next = 0;
+            long nextAttemptInNanos = System.nanoTime();
+            while (socketChannel == null) {
+                long nowInNanos = System.nanoTime();
+                if (next < inetAddresses.length && (nowInNanos >= nextAttemptInNanos || pendingChannels.isEmpty())) {
+                    InetAddress address = inetAddresses[next++];
+                    nextAttemptInNanos = nowInNanos + TimeUnit.MILLISECONDS.toNanos(CONNECTION_ATTEMPT_DELAY_IN_MILLIS);
+                    SocketChannel channel = SocketChannel.open();
+                    try {
+                        channel.configureBlocking(false);
+                        if (sendBufferSize > 0) {
+                            channel.setOption(StandardSocketOptions.SO_SNDBUF, sendBufferSize);
+                        }
+                        if (keepAliveIdleInSeconds > 0) {
+                            setExtendedOption(channel, "TCP_KEEPIDLE", keepAliveIdleInSeconds);
+                        }
+                        if (keepAliveIntervalInSeconds > 0) {
+                            setExtendedOption(channel, "TCP_KEEPINTERVAL", keepAliveIntervalInSeconds);
+                        }
+                        if (keepAliveCount > 0) {
+                            setExtendedOption(channel, "TCP_KEEPCOUNT", keepAliveCount);
+                        }
+                        if (channel.connect(new InetSocketAddress(address, syslogServerPort))) {
+                            socketChannel = channel;
+                            inetAddress = address;
+                        } else {
+                            channel.register(selector, SelectionKey.OP_CONNECT, new ConnectionAttempt(address, nowInNanos));
+                            pendingChannels.add(channel);
+                        }
+                    } catch (IOException e) {
+                        lastException = e;
+                        channel.close();
+                        syslogServerAddressResolver.reportFailure(address);
                     }
-                } else {
-                    socket = SocketFactory.getDefault().createSocket();
+                    continue;
                 }
-                socket.setKeepAlive(true);
-                socket.connect(
-                        new InetSocketAddress(inetAddress, syslogServerPort),
-                        socketConnectTimeoutInMillis);
-
-                if (socket instanceof SSLSocket && logger.isLoggable(Level.FINER)) {
+                if (pendingChannels.isEmpty()) {
+                    break;
+                }
+                long waitInNanos = next < inetAddresses.length ? nextAttemptInNanos - nowInNanos : Long.MAX_VALUE;
+                for (SelectionKey key : selector.keys()) {
+                    waitInNanos = Math.min(waitInNanos, ((ConnectionAttempt) key.attachment()).startInNanos + timeoutInNanos - nowInNanos);
+                }
+                selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(waitInNanos)));
+                nowInNanos = System.nanoTime();
+                for (SelectionKey key : selector.keys()) {
+                    SocketChannel channel = (SocketChannel) key.channel();
+                    ConnectionAttempt attempt = (ConnectionAttempt) key.attachment();
                     try {
-                        SSLSocket sslSocket = (SSLSocket) socket;
-                        SSLSession session = sslSocket.getSession();
-                        logger.finer("The Certificates used by peer");
-                        for (Certificate certificate : session.getPeerCertificates()) {
-                            if (certificate instanceof X509Certificate) {
-                                X509Certificate x509Certificate = (X509Certificate) certificate;
-                                logger.finer("" + x509Certificate.getSubjectDN());
-                            } else {
-                                logger.finer("" + certificate);
-                            }
+                        if (key.isConnectable() && channel.finishConnect()) {
+                            socketChannel = channel;
+                            inetAddress = attempt.inetAddress;
+                            break;
+                        } else if (nowInNanos - attempt.startInNanos >= timeoutInNanos) {
+                            throw new SocketTimeoutException("connect timed out");
                         }
-                        logger.finer("Peer host is " + session.getPeerHost());
-                        logger.finer("Cipher is " + session.getCipherSuite());
-                        logger.finer("Protocol is " + session.getProtocol());
-                        logger.finer("ID is " + new BigInteger(session.getId()));
-                        logger.finer("Session created in " + session.getCreationTime());
-                        logger.finer("Session accessed in " + session.getLastAccessedTime());
-                    } catch (Exception e) {
-                        logger.warn("Exception dumping debug info for " + socket, e);
+                    } catch (IOException e) {
+                        lastException = e;
+                        key.cancel();
+                        channel.close();
+                        pendingChannels.remove(channel);
+                        syslogServerAddressResolver.reportFailure(attempt.inetAddress);
+                        // don't wait to try the next address
+                        nextAttemptInNanos = nowInNanos;
                     }
                 }
-            } catch (IOException e) {
-                ConnectException ce = new ConnectException("Exception connecting to " + inetAddress + ":" + syslogServerPort);
-                ce.initCause(e);
-                throw ce;
             }
+        } finally {
+            selector.close();
+            for (SocketChannel channel : pendingChannels) {
+                if (channel != socketChannel) {
+                    IoUtils.closeQuietly(channel);
+                }
+            }
+        }
+        if (socketChannel == null) {
+            ConnectException ce = new ConnectException("Exception connecting to " + Arrays.toString(inetAddresses) + ":" + syslogServerPort);
+            ce.initCause(lastException);
+            throw ce;
+        }
+        syslogServerAddressResolver.reportSuccess(inetAddress);
+
+        Socket socket = null;
+        try {
+            socketChannel.configureBlocking(true);
+            socket = socketChannel.socket();
+            socket.setKeepAlive(true);
+            socket.setTcpNoDelay(tcpNoDelay);
+            if (soLingerInSeconds >= 0) {
+                socket.setSoLinger(true, soLingerInSeconds);
+            }
+            if (ssl) {
+                // the hostname and port identify the session to resume whatever the address of the server
+                SSLSocket sslSocket = (SSLSocket) getSslSocketFactory().createSocket(socket, syslogServerAddressResolver.getHostname(), syslogServerPort, true);
+                tcpSockets.put(sslSocket, socket);
+                socket = sslSocket;
+                if (sslEnabledProtocols != null) {
+                    sslSocket.setEnabledProtocols(sslEnabledProtocols);
+                }
+                if (sslEnabledCipherSuites != null) {
+                    sslSocket.setEnabledCipherSuites(sslEnabledCipherSuites);
+                }
+                handshake(sslSocket);
+            }
+        } catch (IOException | RuntimeException e) {
+            IoUtils.closeQuietly(socket);
+            IoUtils.closeQuietly(socketChannel);
+            throw e;
         }
-        if (writer == null) {
-            writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+
+        if (socket instanceof SSLSocket && logger.isLoggable(Level.FINER)) {
+            try {
+                SSLSocket sslSocket = (SSLSocket) socket;
+                SSLSession session = sslSocket.getSession();
+                logger.finer("The Certificates used by peer");
+                for (Certificate certificate : session.getPeerCertificates()) {
+                    if (certificate instanceof X509Certificate) {
+                        X509Certificate x509Certificate = (X509Certificate) certificate;
+                        logger.finer("" + x509Certificate.getSubjectDN());
+                    } else {
+                        logger.finer("" + certificate);
+                    }
+                }
+                logger.finer("Peer host is " + session.getPeerHost());
+                logger.finer("Cipher is " + session.getCipherSuite());
+                logger.finer("Protocol is " + session.getProtocol());
+                logger.finer("ID is " + new BigInteger(session.getId()));
+                logger.finer("Session created in " + session.getCreationTime());
+                logger.finer("Session accessed in " + session.getLastAccessedTime());
+            } catch (Exception e) {
+                logger.warn("Exception dumping debug info for " + socket, e);
+            }
         }
+        return socket;
     }
 
-    @Override
-    public void setSyslogServerHostname(final String syslogServerHostname) {
-        this.syslogServerHostnameReference = new CachingReference<InetAddress>(DEFAULT_INET_ADDRESS_TTL_IN_NANOS) {
-            @Nullable
-            @Override
-            protected InetAddress newObject() {
+    /**
+     * Detect a connection closed by the Syslog server (FIN or RST) without blocking: the writes to such a connection
+     * succeed and the messages are lost. The TCP connection is read in non-blocking mode, a Syslog server never sends
+     * data. A TLS connection is read through the TLS layer, which processes the post-handshake messages of the server
+     * (TLS 1.3 session tickets, key updates), with a {@link #LIVENESS_CHECK_TLS_READ_TIMEOUT_IN_MILLIS} timeout.
+     */
+    private boolean isAlive(@NonNull Socket socket) {
+        if (socket instanceof SSLSocket) {
+            return isAlive((SSLSocket) socket);
+        }
+        SocketChannel channel = socket.getChannel();
+        if (channel == null) {
+            return true;
+        }
+        try {
+            synchronized (channel.blockingLock()) {
+                channel.configureBlocking(false);
                 try {
-                    return InetAddress.getByName(syslogServerHostname);
-                } catch (UnknownHostException e) {
-                    throw new IllegalStateException(e);
+                    livenessCheckBuffer.clear();
+                    int read = channel.read(livenessCheckBuffer);
+                    return read >= 0;
+                } finally {
+                    channel.configureBlocking(true);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    private boolean isAlive(@NonNull SSLSocket sslSocket) {
+        try {
+            sslSocket.setSoTimeout(LIVENESS_CHECK_TLS_READ_TIMEOUT_IN_MILLIS);
+            try {
+                // application data is discarded, a Syslog server never sends data
+                return sslSocket.getInputStream().read(livenessCheckBuffer.array()) != -1;
+            } finally {
+                sslSocket.setSoTimeout(0);
+            }
+        } catch (SocketTimeoutException e) {
+            return true;
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Set the {@code jdk.net.ExtendedSocketOptions} option of the given name if the platform supports it, looked up by
+     * name so that the {@code jdk.net} package is not required at runtime.
+     */
+    @SuppressWarnings("unchecked")
+    private void setExtendedOption(@NonNull SocketChannel channel, @NonNull String name, int value) throws IOException {
+        for (SocketOption<?> option : channel.supportedOptions()) {
+            if (option.name().equals(name) && option.type() == Integer.class) {
+                channel.setOption((SocketOption<Integer>) option, value);
+                return;
+            }
+        }
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("Socket option " + name + " not supported, ignore " + name + "=" + value);
+        }
+    }
+
+    /**
+     * Perform the TLS handshake now rather than on the first write, to time it and to bound it with
+     * {@link #getSslHandshakeTimeoutInMillis()}.
+     *
+     * With TLS 1.3, the server sends the session ticket that allows the next connection to resume the session after
+     * the handshake and the JDK only processes it when reading: as a Syslog client never reads, wait up to
+     * {@link #getSslSessionTicketTimeoutInMillis()} for the ticket.
+     */
+    private void handshake(@NonNull SSLSocket sslSocket) throws IOException {
+        long startInMillis = System.currentTimeMillis();
+        long startInNanos = System.nanoTime();
+        sslSocket.setSoTimeout(sslHandshakeTimeoutInMillis);
+        sslSocket.startHandshake();
+        long durationInNanos = System.nanoTime() - startInNanos;
+        SSLSession session = sslSocket.getSession();
+        // a resumed session has been created by a previous handshake
+        boolean resumed = session.getCreationTime() < startInMillis;
+        sslHandshakeCounter.incrementAndGet();
+        sslHandshakeDurationInNanosCounter.addAndGet(durationInNanos);
+        if (resumed) {
+            sslResumedHandshakeCounter.incrementAndGet();
+        }
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine((resumed ? "Resumed " : "Full ") + session.getProtocol() + " handshake with " + sslSocket.getInetAddress() +
+                    " in " + TimeUnit.NANOSECONDS.toMillis(durationInNanos) + "ms");
+        }
+        if (sslSessionTicketTimeoutInMillis > 0 && "TLSv1.3".equals(session.getProtocol())) {
+            sslSocket.setSoTimeout(sslSessionTicketTimeoutInMillis);
+            try {
+                if (sslSocket.getInputStream().read() == -1) {
+                    throw new EOFException("Connection closed by " + sslSocket.getInetAddress() + " after the TLS handshake");
                 }
+            } catch (SocketTimeoutException e) {
+                // expected, the Syslog server doesn't send data
+            }
+        }
+        sslSocket.setSoTimeout(0);
+    }
+
+    /**
+     * @return the TCP socket under the given TLS socket, the given socket if it is not a TLS socket
+     */
+    @NonNull
+    Socket getTcpSocket(@NonNull Socket socket) {
+        Socket tcpSocket = tcpSockets.get(socket);
+        return tcpSocket == null ? socket : tcpSocket;
+    }
+
+    @NonNull
+    private synchronized SSLSocketFactory getSslSocketFactory() {
+        if (sslSocketFactory == null) {
+            sslSocketFactory = sslContext == null ? (SSLSocketFactory) SSLSocketFactory.getDefault() : sslContext.getSocketFactory();
+        }
+        return sslSocketFactory;
+    }
+
+    private static boolean contains(@NonNull InetAddress[] inetAddresses, @Nullable InetAddress inetAddress) {
+        for (InetAddress address : inetAddresses) {
+            if (address.equals(inetAddress)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Flush and close the given connection so that the server receives all the messages already sent.
+     */
+    private void closeGracefully(@NonNull Socket socket, @Nullable OutputStream outputStream) {
+        writeDeadline.arm(getTcpSocket(socket), writeTimeoutInMillis);
+        try {
+            if (outputStream != null) {
+                outputStream.flush();
+            }
+            if (!(socket instanceof SSLSocket)) {
+                socket.shutdownOutput();
             }
-        };
+        } catch (IOException e) {
+            // ignore
+        } finally {
+            writeDeadline.disarm();
+        }
+        IoUtils.closeQuietly(socket, outputStream);
+    }
+
+    @Override
+    public void setSyslogServerHostname(final String syslogServerHostname) {
+        this.syslogServerAddressResolver = new InetAddressResolver(syslogServerHostname, DEFAULT_INET_ADDRESS_TTL_IN_MILLIS);
+        this.syslogServerAddressResolver.refresh();
     }
 
     @Override
@@ -216,10 +685,7 @@ public class TcpSyslogMessageSender extends AbstractSyslogMessageSender implemen
 
     @Nullable
     public String getSyslogServerHostname() {
-        if (syslogServerHostnameReference == null)
-            return null;
-        InetAddress inetAddress = syslogServerHostnameReference.get();
-        return inetAddress == null ? null : inetAddress.getHostName();
+        return syslogServerAddressResolver == null ? null : syslogServerAddressResolver.getHostname();
     }
 
     public int getSyslogServerPort() {
@@ -236,12 +702,191 @@ public class TcpSyslogMessageSender extends AbstractSyslogMessageSender implemen
     
     public synchronized void setSSLContext(SSLContext sslContext) {
         this.sslContext = sslContext; 
+        this.sslSocketFactory = null;
     }
     
     public synchronized SSLContext getSSLContext() {
         return this.sslContext; 
     }
 
+    @Nullable
+    public String[] getSslEnabledProtocols() {
+        return sslEnabledProtocols == null ? null : sslEnabledProtocols.clone();
+    }
+
+    /**
+     * @param sslEnabledProtocols TLS protocols enabled on the connections (e.g. {@code "TLSv1.3"}), {@code null} for
+     *                            the defaults of the {@link SSLContext}
+     */
+    public void setSslEnabledProtocols(@Nullable String... sslEnabledProtocols) {
+        this.sslEnabledProtocols = sslEnabledProtocols == null ? null : sslEnabledProtocols.clone();
+    }
+
+    @Nullable
+    public String[] getSslEnabledCipherSuites() {
+        return sslEnabledCipherSuites == null ? null : sslEnabledCipherSuites.clone();
+    }
+
+    /**
+     * @param sslEnabledCipherSuites cipher suites enabled on the connections, {@code null} for the defaults of the
+     *                               {@link SSLContext}
+     */
+    public void setSslEnabledCipherSuites(@Nullable String... sslEnabledCipherSuites) {
+        this.sslEnabledCipherSuites = sslEnabledCipherSuites == null ? null : sslEnabledCipherSuites.clone();
+    }
+
+    public int getSslHandshakeTimeoutInMillis() {
+        return sslHandshakeTimeoutInMillis;
+    }
+
+    public void setSslHandshakeTimeoutInMillis(int sslHandshakeTimeoutInMillis) {
+        this.sslHandshakeTimeoutInMillis = sslHandshakeTimeoutInMillis;
+    }
+
+    public int getSslSessionTicketTimeoutInMillis() {
+        return sslSessionTicketTimeoutInMillis;
+    }
+
+    /**
+     * @param sslSessionTicketTimeoutInMillis time to wait for the TLS 1.3 session ticket after the handshake,
+     *                                        {@code 0} to not wait, in which case TLS 1.3 sessions are not resumed
+     */
+    public void setSslSessionTicketTimeoutInMillis(int sslSessionTicketTimeoutInMillis) {
+        this.sslSessionTicketTimeoutInMillis = sslSessionTicketTimeoutInMillis;
+    }
+
+    public int getSslHandshakeCount() {
+        return sslHandshakeCounter.get();
+    }
+
+    public int getSslResumedHandshakeCount() {
+        return sslResumedHandshakeCounter.get();
+    }
+
+    /**
+     * @return total duration spent in TLS handshakes
+     */
+    public long getSslHandshakeDurationInMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(sslHandshakeDurationInNanosCounter.get());
+    }
+
+    public int getWriteTimeoutInMillis() {
+        return writeTimeoutInMillis;
+    }
+
+    /**
+     * @param writeTimeoutInMillis maximum duration of the write of a message, the connection is closed and the
+     *                             message retried on a new connection when it is exceeded. {@code 0} for no timeout
+     */
+    public void setWriteTimeoutInMillis(int writeTimeoutInMillis) {
+        this.writeTimeoutInMillis = writeTimeoutInMillis;
+    }
+
+    public int getWriteTimeoutCount() {
+        return writeTimeoutCounter.get();
+    }
+
+    public int getLivenessCheckIntervalInMillis() {
+        return livenessCheckIntervalInMillis;
+    }
+
+    /**
+     * @param livenessCheckIntervalInMillis idle time of the connection after which the sender checks, without
+     *                                      blocking, that the Syslog server has not closed it before writing.
+     *                                      {@code 0} to check before each write, {@code -1} to disable
+     */
+    public void setLivenessCheckIntervalInMillis(int livenessCheckIntervalInMillis) {
+        this.livenessCheckIntervalInMillis = livenessCheckIntervalInMillis;
+    }
+
+    public int getDeadConnectionCount() {
+        return deadConnectionCounter.get();
+    }
+
+    public int getKeepAliveIdleInSeconds() {
+        return keepAliveIdleInSeconds;
+    }
+
+    /**
+     * @param keepAliveIdleInSeconds {@code TCP_KEEPIDLE} of the new connections: idle time before the first TCP
+     *                               keep-alive probe detecting the servers that vanished without closing the
+     *                               connection, {@code 0} for the default of the operating system (often 2 hours)
+     */
+    public void setKeepAliveIdleInSeconds(int keepAliveIdleInSeconds) {
+        this.keepAliveIdleInSeconds = keepAliveIdleInSeconds;
+    }
+
+    public int getKeepAliveIntervalInSeconds() {
+        return keepAliveIntervalInSeconds;
+    }
+
+    /**
+     * @param keepAliveIntervalInSeconds {@code TCP_KEEPINTERVAL} of the new connections, {@code 0} for the default of
+     *                                   the operating system
+     */
+    public void setKeepAliveIntervalInSeconds(int keepAliveIntervalInSeconds) {
+        this.keepAliveIntervalInSeconds = keepAliveIntervalInSeconds;
+    }
+
+    public int getKeepAliveCount() {
+        return keepAliveCount;
+    }
+
+    /**
+     * @param keepAliveCount {@code TCP_KEEPCOUNT} of the new connections: number of unanswered probes before the
+     *                       connection is dropped, {@code 0} for the default of the operating system
+     */
+    public void setKeepAliveCount(int keepAliveCount) {
+        this.keepAliveCount = keepAliveCount;
+    }
+
+    public int getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    /**
+     * @param sendBufferSize {@code SO_SNDBUF} of the new connections, {@code 0} for the default of the operating system
+     */
+    public void setSendBufferSize(int sendBufferSize) {
+        this.sendBufferSize = sendBufferSize;
+    }
+
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    /**
+     * @param tcpNoDelay {@code TCP_NODELAY} of the new connections, {@code true} to disable Nagle's algorithm
+     */
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    public int getSoLingerInSeconds() {
+        return soLingerInSeconds;
+    }
+
+    /**
+     * @param soLingerInSeconds {@code SO_LINGER} of the new connections, {@code -1} to disable
+     */
+    public void setSoLingerInSeconds(int soLingerInSeconds) {
+        this.soLingerInSeconds = soLingerInSeconds;
+    }
+
+    public int getOutputBufferSize() {
+        return outputBufferSize;
+    }
+
+    /**
+     * @param outputBufferSize size of the buffer in front of the socket of the new connections
+     */
+    public void setOutputBufferSize(int outputBufferSize) {
+        if (outputBufferSize <= 0) {
+            throw new IllegalArgumentException("Invalid outputBufferSize " + outputBufferSize);
+        }
+        this.outputBufferSize = outputBufferSize;
+    }
+
     public int getSocketConnectTimeoutInMillis() {
         return socketConnectTimeoutInMillis;
     }
@@ -262,8 +907,29 @@ public class TcpSyslogMessageSender extends AbstractSyslogMessageSender implemen
         this.maxRetryCount = maxRetryCount;
     }
 
-    public synchronized void setPostfix(String postfix) {
-        this.postfix = postfix;
+    /**
+     * @deprecated use {@link #setFraming(Framing)} with {@link Framing#nonTransparent(String)}
+     */
+    @Deprecated
+    public void setPostfix(String postfix) {
+        setFraming(Framing.nonTransparent(postfix));
+    }
+
+    /**
+     * @return the delimitation of the messages, by default {@link Framing#OCTET_COUNTING} for
+     * {@link MessageFormat#RFC_5425} and {@link Framing#CRLF} for the other formats
+     */
+    @NonNull
+    public Framing getFraming() {
+        Framing framing = this.framing;
+        return framing == null ? Framing.defaultFraming(messageFormat) : framing;
+    }
+
+    /**
+     * @param framing delimitation of the messages, {@code null} for the default of the message format
+     */
+    public void setFraming(@Nullable Framing framing) {
+        this.framing = framing;
     }
 
     @Override
@@ -272,8 +938,18 @@ public class TcpSyslogMessageSender extends AbstractSyslogMessageSender implemen
                 "syslogServerHostname='" + this.getSyslogServerHostname() + '\'' +
                 ", syslogServerPort='" + this.getSyslogServerPort() + '\'' +
                 ", ssl=" + ssl +
+                ", framing=" + getFraming() +
                 ", maxRetryCount=" + maxRetryCount +
                 ", socketConnectTimeoutInMillis=" + socketConnectTimeoutInMillis +
+                ", writeTimeoutInMillis=" + writeTimeoutInMillis +
+                ", sendBufferSize=" + sendBufferSize +
+                ", tcpNoDelay=" + tcpNoDelay +
+                ", soLingerInSeconds=" + soLingerInSeconds +
+                ", outputBufferSize=" + outputBufferSize +
+                ", livenessCheckIntervalInMillis=" + livenessCheckIntervalInMillis +
+                ", keepAliveIdleInSeconds=" + keepAliveIdleInSeconds +
+                ", keepAliveIntervalInSeconds=" + keepAliveIntervalInSeconds +
+                ", keepAliveCount=" + keepAliveCount +
                 ", defaultAppName='" + defaultAppName + '\'' +
                 ", defaultFacility=" + defaultFacility +
                 ", defaultMessageHostname='" + defaultMessageHostname + '\'' +
@@ -283,6 +959,11 @@ public class TcpSyslogMessageSender extends AbstractSyslogMessageSender implemen
                 ", sendDurationInNanosCounter=" + sendDurationInNanosCounter +
                 ", sendErrorCounter=" + sendErrorCounter +
                 ", trySendErrorCounter=" + trySendErrorCounter +
+                ", writeTimeoutCounter=" + writeTimeoutCounter +
+                ", deadConnectionCounter=" + deadConnectionCounter +
+                ", sslHandshakeCounter=" + sslHandshakeCounter +
+                ", sslResumedHandshakeCounter=" + sslResumedHandshakeCounter +
+                ", sslHandshakeDurationInNanosCounter=" + sslHandshakeDurationInNanosCounter +
                 '}';
     }
 
@@ -292,4 +973,14 @@ public class TcpSyslogMessageSender extends AbstractSyslogMessageSender implemen
             this.socket.close();
         }
     }
+
+    private static class ConnectionAttempt {
+        final InetAddress inetAddress;
+        final long startInNanos;
+
+        ConnectionAttempt(InetAddress inetAddress, long startInNanos) {
+            this.inetAddress = inetAddress;
+            this.startInNanos = startInNanos;
+        }
+    }
 }
@@ -15,41 +15,87 @@
  */
 package com.cloudbees.syslog.sender;
 
+import com.cloudbees.syslog.MessageFormat;
+import com.cloudbees.syslog.SDElement;
+import com.cloudbees.syslog.SDParam;
+import com.cloudbees.syslog.SyslogFrame;
 import com.cloudbees.syslog.SyslogMessage;
-import com.cloudbees.syslog.util.CachingReference;
+import com.cloudbees.syslog.util.InetAddressResolver;
+import com.cloudbees.syslog.util.Utf8ByteArrayWriter;
 
+import edu.umd.cs.findbugs.annotations.NonNull;
 import edu.umd.cs.findbugs.annotations.Nullable;
 import net.jcip.annotations.ThreadSafe;
-import java.io.ByteArrayOutputStream;
+import java.io.CharArrayWriter;
 import java.io.Closeable;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
-import java.net.UnknownHostException;
-import java.nio.charset.StandardCharsets;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 
 /**
  * Syslog message sender over UDP.
  *
- * TODO optimize performances recycling the byte arrays. Note: {@link java.io.ByteArrayOutputStream}
- * can be subclassed to access to the underlying {@code byte[]}.
+ * Messages larger than the {@link #setMaxDatagramSize(int) maximum datagram size} are truncated at a code point
+ * boundary or split in several datagrams according to the {@link OversizePolicy}. The end of a truncated message is
+ * not encoded. With {@link MessageFormat#RFC_3164} that has no structured data, the truncated messages and the parts of
+ * the split messages are not marked.
  *
  * @author <a href="mailto:cleclerc@cloudbees.com">Cyrille Le Clerc</a>
  */
 @ThreadSafe
-public class UdpSyslogMessageSender extends AbstractSyslogMessageSender implements Closeable {
+public class UdpSyslogMessageSender extends AbstractSyslogMessageSender implements SyslogFrameSender, Closeable {
     /**
-     * {@link java.net.InetAddress InetAddress} of the remote Syslog Server.
+     * Maximum payload of an UDP datagram over IPv4.
+     */
+    public final static int MAX_DATAGRAM_SIZE = 65507;
+    /**
+     * Maximum payload of an UDP datagram over IPv4 that is not fragmented on an Ethernet network (MTU of 1500 bytes).
+     */
+    public final static int ETHERNET_MAX_DATAGRAM_SIZE = 1472;
+    /**
+     * SD-ID of the structured data element marking the truncated messages.
+     */
+    public final static String TRUNCATED_SD_ID = "truncated@32473";
+    /**
+     * SD-ID of the structured data element identifying the parts of the split messages.
+     */
+    public final static String SPLIT_SD_ID = "split@32473";
+
+    /**
+     * What to do with the messages larger than the {@link #getMaxDatagramSize() maximum datagram size}.
+     */
+    public enum OversizePolicy {
+        /**
+         * Send the beginning of the message with a {@code [truncated@32473 maxSize="..."]} structured data element.
+         */
+        TRUNCATE,
+        /**
+         * Split the body of the message in several messages with a
+         * {@code [split@32473 id="..." part="..." total="..."]} structured data element, on a line boundary when
+         * possible. The message is truncated if its header doesn't leave room for the body.
+         */
+        SPLIT
+    }
+
+    /**
+     * {@link java.net.InetAddress InetAddresses} of the remote Syslog Server, the datagrams are sent to the preferred
+     * one and the next one is used after a send failure.
      *
-     * The {@code InetAddress} is refreshed regularly to handle DNS changes (default {@link #DEFAULT_INET_ADDRESS_TTL_IN_MILLIS})
+     * The addresses are refreshed in the background to handle DNS changes (default {@link #DEFAULT_INET_ADDRESS_TTL_IN_MILLIS})
      *
      * Default value: {@link #DEFAULT_SYSLOG_HOST}
      */
-    protected CachingReference<InetAddress> syslogServerHostnameReference;
+    protected InetAddressResolver syslogServerAddressResolver;
     /**
      * Listen port of the remote Syslog server.
      *
@@ -57,14 +103,19 @@ public class UdpSyslogMessageSender extends AbstractSyslogMessageSender implemen
      */
     protected int syslogServerPort = DEFAULT_SYSLOG_PORT;
 
-    private DatagramSocket datagramSocket;
+    private DatagramChannel datagramChannel;
+
+    private volatile int maxDatagramSize = MAX_DATAGRAM_SIZE;
+    private volatile OversizePolicy oversizePolicy = OversizePolicy.TRUNCATE;
+    private final AtomicInteger oversizedMessageCounter = new AtomicInteger();
+    private final AtomicLong splitMessageIdGenerator = new AtomicLong();
 
     public UdpSyslogMessageSender() {
         try {
             setSyslogServerHostname(DEFAULT_SYSLOG_HOST);
-            datagramSocket = new DatagramSocket();
+            datagramChannel = DatagramChannel.open();
         } catch (IOException e) {
-            throw new IllegalStateException("Exception initializing datagramSocket", e);
+            throw new IllegalStateException("Exception initializing datagramChannel", e);
         }
     }
 
@@ -80,18 +131,57 @@ public class UdpSyslogMessageSender extends AbstractSyslogMessageSender implemen
         long nanosBefore = System.nanoTime();
 
         try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            Writer out = new OutputStreamWriter(baos, StandardCharsets.UTF_8);
-            message.toSyslogMessage(messageFormat, out);
-            out.flush();
-
-            if (logger.isLoggable(Level.FINEST)) {
-                logger.finest("Send syslog message " + new String(baos.toByteArray(), StandardCharsets.UTF_8));
+            int maxDatagramSize = this.maxDatagramSize;
+            SyslogFrame frame = message.toSyslogFrame(messageFormat, maxDatagramSize);
+            if (!frame.isTruncated()) {
+                sendDatagram(frame, maxDatagramSize);
+                return;
+            }
+            oversizedMessageCounter.incrementAndGet();
+            if (oversizePolicy == OversizePolicy.SPLIT) {
+                List<SyslogMessage> parts = split(message, maxDatagramSize);
+                if (parts != null) {
+                    for (SyslogMessage part : parts) {
+                        sendDatagram(part.toSyslogFrame(messageFormat, maxDatagramSize), maxDatagramSize);
+                    }
+                    return;
+                }
+            }
+            if (messageFormat != MessageFormat.RFC_3164) {
+                SDElement truncatedElement = new SDElement(TRUNCATED_SD_ID, new SDParam("maxSize", Integer.toString(maxDatagramSize)));
+                Date timestamp = message.getTimestamp();
+                frame = copyOf(message, timestamp == null ? new Date() : timestamp, message.getMsg(), truncatedElement)
+                        .toSyslogFrame(messageFormat, maxDatagramSize);
             }
-            byte[] bytes = baos.toByteArray();
+            sendDatagram(frame, maxDatagramSize);
+        } catch (IOException | RuntimeException e) {
+            sendErrorCounter.incrementAndGet();
+            throw e;
+        } finally {
+            sendDurationInNanosCounter.addAndGet(System.nanoTime() - nanosBefore);
+        }
+    }
+
+    /**
+     * Send the given encoded message in a datagram, truncated at a code point boundary without marker if it is
+     * larger than the {@link #getMaxDatagramSize() maximum datagram size}.
+     *
+     * @param frame the encoded message, in the {@link #getMessageFormat() message format} of this sender
+     */
+    @Override
+    public void sendFrame(@NonNull SyslogFrame frame) throws IOException {
+        if (frame.getMessageFormat() != messageFormat) {
+            throw new IllegalArgumentException("Frame format " + frame.getMessageFormat() + " is not the format of the sender " + messageFormat);
+        }
+        sendCounter.incrementAndGet();
+        long nanosBefore = System.nanoTime();
 
-            DatagramPacket packet = new DatagramPacket(bytes, bytes.length, syslogServerHostnameReference.get(), syslogServerPort);
-            datagramSocket.send(packet);
+        try {
+            int maxDatagramSize = this.maxDatagramSize;
+            if (frame.size() > maxDatagramSize) {
+                oversizedMessageCounter.incrementAndGet();
+            }
+            sendDatagram(frame, maxDatagramSize);
         } catch (IOException | RuntimeException e) {
             sendErrorCounter.incrementAndGet();
             throw e;
@@ -100,20 +190,114 @@ public class UdpSyslogMessageSender extends AbstractSyslogMessageSender implemen
         }
     }
 
+    private void sendDatagram(@NonNull SyslogFrame frame, int maxDatagramSize) throws IOException {
+        if (logger.isLoggable(Level.FINEST)) {
+            logger.finest("Send syslog message " + frame);
+        }
+        // sent from the bytes of the frame, without copy
+        ByteBuffer datagram = frame.asByteBuffer();
+        if (datagram.remaining() > maxDatagramSize) {
+            // don't cut a multi-byte sequence
+            int length = maxDatagramSize;
+            while (length > 0 && (datagram.get(length) & 0xC0) == 0x80) {
+                length--;
+            }
+            datagram.limit(length);
+        }
+        InetAddress inetAddress = syslogServerAddressResolver.getAddress();
+        try {
+            datagramChannel.send(datagram, new InetSocketAddress(inetAddress, syslogServerPort));
+        } catch (IOException e) {
+            syslogServerAddressResolver.reportFailure(inetAddress);
+            throw e;
+        }
+    }
+
+    /**
+     * @return the parts of the given message, {@code null} if the header of the message doesn't leave room for the
+     * body
+     */
+    @Nullable
+    private List<SyslogMessage> split(@NonNull SyslogMessage message, int maxDatagramSize) {
+        CharArrayWriter msg = message.getMsg();
+        if (msg == null) {
+            return null;
+        }
+        char[] chars = msg.toCharArray();
+        Date timestamp = message.getTimestamp() == null ? new Date() : message.getTimestamp();
+        String id = Long.toString(splitMessageIdGenerator.incrementAndGet());
 
-    @Override
-    public void setSyslogServerHostname(final String syslogServerHostname) {
-        this.syslogServerHostnameReference = new CachingReference<InetAddress>(DEFAULT_INET_ADDRESS_TTL_IN_NANOS) {
-            @Nullable
-            @Override
-            protected InetAddress newObject() {
-                try {
-                    return InetAddress.getByName(syslogServerHostname);
-                } catch (UnknownHostException e) {
-                    throw new IllegalStateException(e);
+        // the number of parts is lower than the number of bytes of the body, use it to reserve room for the part numbers
+        String maxPartNumber = Integer.toString(chars.length * 4);
+        SyslogMessage header = copyOf(message, timestamp, null, newSplitElement(id, maxPartNumber, maxPartNumber));
+        SyslogFrame headerFrame = header.toSyslogFrame(messageFormat == MessageFormat.RFC_5425 ? MessageFormat.RFC_5424 : messageFormat, maxDatagramSize);
+        // room for the separator of the body, ": " with RFC-3164, and for the octet counting prefix of RFC-5425
+        int maxBodySize = maxDatagramSize - headerFrame.size() - 2
+                - (messageFormat == MessageFormat.RFC_5425 ? Integer.toString(maxDatagramSize).length() + 1 : 0);
+        if (headerFrame.isTruncated() || maxBodySize < 4) {
+            return null;
+        }
+
+        List<CharArrayWriter> bodies = new ArrayList<>();
+        for (int start = 0, end; start < chars.length; start = end) {
+            int size = 0;
+            end = start;
+            while (end < chars.length) {
+                int length = Utf8ByteArrayWriter.utf8Length(chars, end);
+                if (size + length > maxBodySize) {
+                    break;
                 }
+                size += length;
+                end += length == 4 ? 2 : 1;
             }
-        };
+            if (end < chars.length) {
+                // prefer to split after a line in the second half of the part
+                for (int i = end - 1; i > start + (end - start) / 2; i--) {
+                    if (chars[i] == '\n') {
+                        end = i + 1;
+                        break;
+                    }
+                }
+            }
+            CharArrayWriter body = new CharArrayWriter(end - start);
+            body.write(chars, start, end - start);
+            bodies.add(body);
+        }
+
+        List<SyslogMessage> parts = new ArrayList<>(bodies.size());
+        String total = Integer.toString(bodies.size());
+        for (int i = 0; i < bodies.size(); i++) {
+            parts.add(copyOf(message, timestamp, bodies.get(i), newSplitElement(id, Integer.toString(i + 1), total)));
+        }
+        return parts;
+    }
+
+    @NonNull
+    private static SDElement newSplitElement(@NonNull String id, @NonNull String part, @NonNull String total) {
+        return new SDElement(SPLIT_SD_ID, new SDParam("id", id), new SDParam("part", part), new SDParam("total", total));
+    }
+
+    @NonNull
+    private static SyslogMessage copyOf(@NonNull SyslogMessage message, @NonNull Date timestamp, @Nullable CharArrayWriter msg, @NonNull SDElement sdElement) {
+        Set<SDElement> sdElements = new LinkedHashSet<>(message.getSDElements());
+        sdElements.add(sdElement);
+        SyslogMessage copy = new SyslogMessage()
+                .withFacility(message.getFacility())
+                .withSeverity(message.getSeverity())
+                .withTimestamp(timestamp)
+                .withHostname(message.getHostname())
+                .withAppName(message.getAppName())
+                .withProcId(message.getProcId())
+                .withMsgId(message.getMsgId())
+                .withMsg(msg);
+        copy.setSDElements(sdElements);
+        return copy;
+    }
+
+    @Override
+    public void setSyslogServerHostname(final String syslogServerHostname) {
+        this.syslogServerAddressResolver = new InetAddressResolver(syslogServerHostname, DEFAULT_INET_ADDRESS_TTL_IN_MILLIS);
+        this.syslogServerAddressResolver.refresh();
     }
 
     @Override
@@ -123,14 +307,47 @@ public class UdpSyslogMessageSender extends AbstractSyslogMessageSender implemen
 
     @Nullable
     public String getSyslogServerHostname() {
-        InetAddress inetAddress = syslogServerHostnameReference.get();
-        return inetAddress == null ? null : inetAddress.getHostName();
+        return syslogServerAddressResolver == null ? null : syslogServerAddressResolver.getHostname();
     }
 
     public int getSyslogServerPort() {
         return syslogServerPort;
     }
 
+    public int getMaxDatagramSize() {
+        return maxDatagramSize;
+    }
+
+    /**
+     * @param maxDatagramSize maximum size of the datagrams, at most {@link #MAX_DATAGRAM_SIZE}, see
+     *                        {@link #ETHERNET_MAX_DATAGRAM_SIZE} to avoid IP fragmentation. Default: {@link #MAX_DATAGRAM_SIZE}
+     */
+    public void setMaxDatagramSize(int maxDatagramSize) {
+        if (maxDatagramSize < 1 || maxDatagramSize > MAX_DATAGRAM_SIZE) {
+            throw new IllegalArgumentException("Invalid maxDatagramSize " + maxDatagramSize + ", must be between 1 and " + MAX_DATAGRAM_SIZE);
+        }
+        this.maxDatagramSize = maxDatagramSize;
+    }
+
+    @NonNull
+    public OversizePolicy getOversizePolicy() {
+        return oversizePolicy;
+    }
+
+    /**
+     * Default: {@link OversizePolicy#TRUNCATE}
+     */
+    public void setOversizePolicy(@NonNull OversizePolicy oversizePolicy) {
+        this.oversizePolicy = oversizePolicy;
+    }
+
+    /**
+     * @return number of messages larger than the {@link #getMaxDatagramSize() maximum datagram size}, truncated or split
+     */
+    public int getOversizedMessageCount() {
+        return oversizedMessageCounter.get();
+    }
+
     @Override
     public String toString() {
         return getClass().getName() + "{" +
@@ -141,6 +358,9 @@ public class UdpSyslogMessageSender extends AbstractSyslogMessageSender implemen
                 ", defaultMessageHostname='" + defaultMessageHostname + '\'' +
                 ", defaultSeverity=" + defaultSeverity +
                 ", messageFormat=" + messageFormat +
+                ", maxDatagramSize=" + maxDatagramSize +
+                ", oversizePolicy=" + oversizePolicy +
+                ", oversizedMessageCounter=" + oversizedMessageCounter +
                 ", sendCounter=" + sendCounter +
                 ", sendDurationInNanosCounter=" + sendDurationInNanosCounter +
                 ", sendErrorCounter=" + sendErrorCounter +
@@ -149,6 +369,6 @@ public class UdpSyslogMessageSender extends AbstractSyslogMessageSender implemen
 
     @Override
     public void close() throws IOException {
-        this.datagramSocket.close();
+        this.datagramChannel.close();
     }
 }
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.sender;
+
+import com.cloudbees.syslog.util.IoUtils;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import net.jcip.annotations.ThreadSafe;
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deadline of a blocking socket write: {@code SO_TIMEOUT} only applies to reads, a write to a stalled server blocks
+ * until the socket buffers drain. A watchdog thread shared by all the senders closes the socket of the writes that are
+ * still in progress after their deadline, the blocked write then fails.
+ *
+ * A deadline is reused by the successive writes of a sender: {@link #arm(Socket, int)} it before writing and
+ * {@link #disarm()} it in a {@code finally} block.
+ */
+@ThreadSafe
+final class WriteDeadline {
+    /**
+     * Resolution of the deadlines
+     */
+    private final static long TICK_IN_MILLIS = 10;
+    private final static Set<WriteDeadline> armedDeadlines = ConcurrentHashMap.newKeySet();
+    private final static Object watchdogLock = new Object();
+    private static volatile boolean watchdogIdle;
+    private static volatile Thread watchdog;
+
+    @Nullable
+    private volatile Socket socket;
+    private volatile long deadlineInNanos;
+    private volatile boolean expired;
+    private volatile int timeoutInMillis;
+
+    /**
+     * @param socket          socket closed when the deadline expires. For a TLS socket layered over a TCP socket, the
+     *                        TCP socket: closing a TLS socket waits for the write in progress
+     * @param timeoutInMillis {@code 0} for no deadline
+     */
+    void arm(@NonNull Socket socket, int timeoutInMillis) {
+        expired = false;
+        if (timeoutInMillis <= 0) {
+            return;
+        }
+        this.socket = socket;
+        this.timeoutInMillis = timeoutInMillis;
+        this.deadlineInNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutInMillis);
+        armedDeadlines.add(this);
+        if (watchdog == null) {
+            startWatchdog();
+        } else if (watchdogIdle) {
+            synchronized (watchdogLock) {
+                watchdogLock.notifyAll();
+            }
+        }
+    }
+
+    void disarm() {
+        armedDeadlines.remove(this);
+        socket = null;
+    }
+
+    /**
+     * @return {@code true} if the socket has been closed because the last write exceeded its deadline
+     */
+    boolean isExpired() {
+        return expired;
+    }
+
+    /**
+     * @return a {@link SocketTimeoutException} if the given exception has been caused by the expiration of the
+     * deadline, the given exception otherwise
+     */
+    @NonNull
+    IOException translate(@NonNull IOException e) {
+        if (!expired || e instanceof SocketTimeoutException) {
+            return e;
+        }
+        SocketTimeoutException timeout = new SocketTimeoutException("Write timed out after " + timeoutInMillis + "ms");
+        timeout.initCause(e);
+        return timeout;
+    }
+
+    private void expire() {
+        Socket socket = this.socket;
+        if (socket != null && armedDeadlines.remove(this)) {
+            expired = true;
+            IoUtils.closeQuietly(socket);
+        }
+    }
+
+    private static void startWatchdog() {
+        synchronized (watchdogLock) {
+            if (watchdog == null) {
+                Thread thread = new Thread(WriteDeadline::watch, "syslog-write-watchdog");
+                thread.setDaemon(true);
+                thread.start();
+                watchdog = thread;
+            }
+        }
+    }
+
+    private static void watch() {
+        try {
+            while (true) {
+                synchronized (watchdogLock) {
+                    // set idle before checking the deadlines so that arm() either sees the flag or is seen
+                    watchdogIdle = true;
+                    while (armedDeadlines.isEmpty()) {
+                        watchdogLock.wait();
+                    }
+                    watchdogIdle = false;
+                }
+                TimeUnit.MILLISECONDS.sleep(TICK_IN_MILLIS);
+                long nowInNanos = System.nanoTime();
+                for (WriteDeadline deadline : armedDeadlines) {
+                    if (nowInNanos - deadline.deadlineInNanos > 0) {
+                        deadline.expire();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            synchronized (watchdogLock) {
+                watchdog = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.server;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import net.jcip.annotations.NotThreadSafe;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Incremental decoder of the frames of a stream transport (TCP, TLS), see
+ * <a href="https://tools.ietf.org/html/rfc6587#section-3.4">RFC 6587 - 3.4 Framing</a>.
+ *
+ * The framing is detected frame by frame: a frame starting with a digit is octet counted, any other frame is
+ * terminated by a LF or a NUL (a CR preceding the LF is removed). The bytes read from the connection are appended to
+ * {@link #buffer()} then {@link #decode(FrameListener)} hands the complete frames to the listener and keeps the
+ * incomplete one for the next read.
+ *
+ * Frames longer than the max frame length are discarded.
+ */
+@NotThreadSafe
+final class StreamFrameDecoder {
+    /**
+     * Digits of the length of an octet counted frame
+     */
+    private final static int MAX_OCTET_COUNT_DIGITS = 10;
+
+    interface FrameListener {
+        /**
+         * @param buffer buffer holding the frame, only valid during the call
+         * @param offset index of the first byte of the frame in the buffer
+         * @param length length of the frame, without its framing
+         */
+        void onFrame(@NonNull ByteBuffer buffer, int offset, int length);
+    }
+
+    private final int maxFrameLength;
+    private final AtomicLong oversizedFrameCounter;
+    /**
+     * In write mode between the calls to {@link #decode(FrameListener)}
+     */
+    private ByteBuffer buffer;
+    /**
+     * Remaining bytes of an oversized octet counted frame to discard
+     */
+    private long bytesToSkip;
+    /**
+     * {@code true} while discarding an oversized non-transparent frame up to its trailer
+     */
+    private boolean discardingUntilTrailer;
+    /**
+     * Length, including its octet count, of the incomplete octet counted frame at the beginning of the buffer
+     */
+    private int pendingFrameLength;
+
+    /**
+     * @param initialCapacity       initial size of the buffer, grown up to the max frame length as needed
+     * @param maxFrameLength        max length of a frame, longer frames are discarded
+     * @param oversizedFrameCounter incremented for each discarded frame
+     */
+    StreamFrameDecoder(int initialCapacity, int maxFrameLength, @NonNull AtomicLong oversizedFrameCounter) {
+        this.buffer = ByteBuffer.allocate(Math.min(initialCapacity, maxFrameLength + MAX_OCTET_COUNT_DIGITS + 1));
+        this.maxFrameLength = maxFrameLength;
+        this.oversizedFrameCounter = oversizedFrameCounter;
+    }
+
+    /**
+     * @return the buffer to which the bytes read from the connection must be appended, never full
+     */
+    @NonNull
+    ByteBuffer buffer() {
+        if (!buffer.hasRemaining()) {
+            grow(buffer.capacity() * 2);
+        }
+        return buffer;
+    }
+
+    /**
+     * Make room for the given number of bytes in {@link #buffer()}, whatever the max frame length.
+     */
+    void ensureRemaining(int length) {
+        if (buffer.remaining() < length) {
+            grow(buffer.position() + length);
+        }
+    }
+
+    /**
+     * @return {@code true} if some bytes of an incomplete frame are buffered
+     */
+    boolean hasPartialFrame() {
+        return buffer.position() > 0 || bytesToSkip > 0 || discardingUntilTrailer;
+    }
+
+    /**
+     * Hand the complete frames of the buffer to the given listener.
+     */
+    void decode(@NonNull FrameListener listener) {
+        buffer.flip();
+        pendingFrameLength = 0;
+        try {
+            decodeFrames(listener);
+        } finally {
+            buffer.compact();
+        }
+        if (pendingFrameLength > buffer.capacity()) {
+            grow(pendingFrameLength);
+        }
+    }
+
+    private void decodeFrames(@NonNull FrameListener listener) {
+        final byte[] array = buffer.array();
+        int position = buffer.position();
+        final int limit = buffer.limit();
+        try {
+            while (position < limit) {
+                if (bytesToSkip > 0) {
+                    int skipped = (int) Math.min(bytesToSkip, limit - position);
+                    position += skipped;
+                    bytesToSkip -= skipped;
+                    continue;
+                }
+                if (discardingUntilTrailer) {
+                    int trailer = indexOfTrailer(array, position, limit);
+                    if (trailer == -1) {
+                        position = limit;
+                    } else {
+                        position = trailer + 1;
+                        discardingUntilTrailer = false;
+                    }
+                    continue;
+                }
+                byte first = array[position];
+                if (first == '\n' || first == '\r' || first == '\0') {
+                    // trailer following an octet counted frame, empty frame
+                    position++;
+                    continue;
+                }
+                if (first >= '1' && first <= '9') {
+                    int frameStart = -1;
+                    long length = 0;
+                    int maxIndex = Math.min(limit, position + MAX_OCTET_COUNT_DIGITS + 1);
+                    for (int i = position; i < maxIndex; i++) {
+                        byte b = array[i];
+                        if (b == ' ') {
+                            frameStart = i + 1;
+                            break;
+                        } else if (b < '0' || b > '9') {
+                            maxIndex = -1;
+                            break;
+                        }
+                        length = length * 10 + (b - '0');
+                    }
+                    if (frameStart == -1 && maxIndex == limit && limit - position <= MAX_OCTET_COUNT_DIGITS) {
+                        // incomplete length
+                        return;
+                    }
+                    if (frameStart != -1) {
+                        if (length > maxFrameLength) {
+                            bytesToSkip = length;
+                            position = frameStart;
+                            oversizedFrameCounter.incrementAndGet();
+                        } else if (limit - frameStart < length) {
+                            // incomplete frame
+                            pendingFrameLength = frameStart - position + (int) length;
+                            return;
+                        } else {
+                            listener.onFrame(buffer, frameStart, (int) length);
+                            position = frameStart + (int) length;
+                        }
+                        continue;
+                    }
+                    // not an octet count, decoded as a non-transparent frame
+                }
+                int trailer = indexOfTrailer(array, position, limit);
+                if (trailer == -1) {
+                    if (limit - position > maxFrameLength) {
+                        discardingUntilTrailer = true;
+                        position = limit;
+                        oversizedFrameCounter.incrementAndGet();
+                        continue;
+                    }
+                    // incomplete frame
+                    return;
+                }
+                int end = trailer;
+                if (end > position && array[trailer] == '\n' && array[end - 1] == '\r') {
+                    end--;
+                }
+                listener.onFrame(buffer, position, end - position);
+                position = trailer + 1;
+            }
+        } finally {
+            buffer.position(position);
+        }
+    }
+
+    private static int indexOfTrailer(byte[] array, int from, int to) {
+        for (int i = from; i < to; i++) {
+            byte b = array[i];
+            if (b == '\n' || b == '\0') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void grow(int minCapacity) {
+        int capacity = Math.max(minCapacity, buffer.capacity() * 2);
+        if (minCapacity <= maxFrameLength + MAX_OCTET_COUNT_DIGITS + 1) {
+            capacity = Math.min(capacity, maxFrameLength + MAX_OCTET_COUNT_DIGITS + 1);
+        }
+        ByteBuffer grown = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        grown.put(buffer);
+        buffer = grown;
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.server;
+
+import com.cloudbees.syslog.SyslogMessage;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.List;
+
+/**
+ * Callback of the {@link SyslogServer} receiving the decoded messages.
+ */
+public interface SyslogMessageHandler {
+    /**
+     * Invoked by the I/O thread of the server with the messages received since the previous batch. The handler must
+     * not block, slow processing must be handed off to another thread.
+     *
+     * @param messages batch of messages in their reception order, the list is reused by the server and must not be
+     *                 retained after the call (the messages can)
+     */
+    void handle(@NonNull List<SyslogMessage> messages);
+}
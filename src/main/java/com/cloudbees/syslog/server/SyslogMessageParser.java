@@ -0,0 +1,287 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.server;
+
+import com.cloudbees.syslog.Facility;
+import com.cloudbees.syslog.Severity;
+import com.cloudbees.syslog.SyslogMessage;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import net.jcip.annotations.ThreadSafe;
+import java.nio.ByteBuffer;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parser of <a href="https://tools.ietf.org/html/rfc5424">RFC 5424</a> and
+ * <a href="https://tools.ietf.org/html/rfc3164">RFC 3164</a> messages working on a {@link ByteBuffer}.
+ *
+ * Parsing only decodes the PRI: the other fields are located and decoded by the returned {@link SyslogMessageView}
+ * when they are accessed, so that a filter reading the severity and the app name of a message doesn't pay for its
+ * structured data nor its text. The PRI is decoded with lookup tables and the timestamps without
+ * {@link java.text.SimpleDateFormat}.
+ *
+ * <pre>{@code
+ * SyslogMessageView view = new SyslogMessageView();
+ * SyslogMessageParser.parse(buffer, offset, length, view);
+ * if (view.getSeverity().numericalCode() <= Severity.WARNING.numericalCode() && view.appNameEquals("sshd")) {
+ *     SyslogMessage message = view.toSyslogMessage();
+ * }
+ * }</pre>
+ */
+@ThreadSafe
+public final class SyslogMessageParser {
+    /**
+     * PRI of the messages without PRI, see <a href="https://tools.ietf.org/html/rfc3164#section-4.3.3">RFC 3164 - 4.3.3</a>
+     */
+    public final static int DEFAULT_PRI = 13;
+    public final static int MAX_PRI = 191;
+
+    private final static Facility[] facilities = new Facility[MAX_PRI + 1];
+    private final static Severity[] severities = new Severity[MAX_PRI + 1];
+    /**
+     * "Jan" to "Dec" packed in an int
+     */
+    private final static int[] months = new int[12];
+    private final static long MILLIS_PER_DAY = TimeUnit.DAYS.toMillis(1);
+
+    static {
+        for (int pri = 0; pri <= MAX_PRI; pri++) {
+            facilities[pri] = Facility.fromNumericalCode(pri / 8);
+            severities[pri] = Severity.fromNumericalCode(pri % 8);
+        }
+        String[] names = {"Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"};
+        for (int i = 0; i < names.length; i++) {
+            months[i] = names[i].charAt(0) << 16 | names[i].charAt(1) << 8 | names[i].charAt(2);
+        }
+    }
+
+    private SyslogMessageParser() {
+    }
+
+    /**
+     * Parse the message between the position and the limit of the given buffer. The buffer must not be modified
+     * while the returned view is used.
+     *
+     * @throws IllegalArgumentException if the message has an invalid PRI
+     */
+    @NonNull
+    public static SyslogMessageView parse(@NonNull ByteBuffer buffer) throws IllegalArgumentException {
+        return parse(buffer, buffer.position(), buffer.remaining(), new SyslogMessageView());
+    }
+
+    /**
+     * Parse the message at the given absolute index of the buffer, reusing the given view. The position of the buffer
+     * is ignored, the message must be before its limit. The buffer must not be modified while the view is used.
+     *
+     * @return the given view
+     * @throws IllegalArgumentException if the message has an invalid PRI
+     */
+    @NonNull
+    public static SyslogMessageView parse(@NonNull ByteBuffer buffer, int offset, int length, @NonNull SyslogMessageView view) throws IllegalArgumentException {
+        view.wrap(buffer, offset, length);
+        return view;
+    }
+
+    /**
+     * Parse and materialize the message between the position and the limit of the given buffer.
+     *
+     * @throws IllegalArgumentException if the message is invalid
+     */
+    @NonNull
+    public static SyslogMessage parseMessage(@NonNull ByteBuffer buffer) throws IllegalArgumentException {
+        return parse(buffer).toSyslogMessage();
+    }
+
+    @NonNull
+    static Facility facility(int pri) {
+        return facilities[pri];
+    }
+
+    @NonNull
+    static Severity severity(int pri) {
+        return severities[pri];
+    }
+
+    /**
+     * Parse an <a href="https://tools.ietf.org/html/rfc5424#section-6.2.3">RFC 5424 timestamp</a>
+     * ({@code 2003-10-11T22:14:15.003Z}, {@code 2003-08-24T05:14:15.000003-07:00}), the fraction is truncated to the
+     * millisecond.
+     *
+     * @param start index of the first byte of the timestamp
+     * @param end   index following the last byte of the timestamp
+     * @return the timestamp in millis since the epoch
+     * @throws IllegalArgumentException if the timestamp is invalid
+     */
+    static long parseRfc3339Timestamp(@NonNull ByteBuffer buffer, int start, int end) throws IllegalArgumentException {
+        if (end - start < 20
+                || buffer.get(start + 4) != '-' || buffer.get(start + 7) != '-'
+                || (buffer.get(start + 10) != 'T' && buffer.get(start + 10) != 't')
+                || buffer.get(start + 13) != ':' || buffer.get(start + 16) != ':') {
+            throw invalidTimestamp(buffer, start, end);
+        }
+        int year = digits(buffer, start, 4, end);
+        int month = digits(buffer, start + 5, 2, end);
+        int day = digits(buffer, start + 8, 2, end);
+        int hour = digits(buffer, start + 11, 2, end);
+        int minute = digits(buffer, start + 14, 2, end);
+        int second = digits(buffer, start + 17, 2, end);
+        int position = start + 19;
+        int millis = 0;
+        if (buffer.get(position) == '.') {
+            position++;
+            int fractionDigits = 0;
+            for (; position < end && isDigit(buffer.get(position)); position++, fractionDigits++) {
+                if (fractionDigits < 3) {
+                    millis = millis * 10 + buffer.get(position) - '0';
+                }
+            }
+            if (fractionDigits == 0 || fractionDigits > 6) {
+                throw invalidTimestamp(buffer, start, end);
+            }
+            for (; fractionDigits < 3; fractionDigits++) {
+                millis *= 10;
+            }
+        }
+        int offsetInMinutes;
+        byte offset = position < end ? buffer.get(position) : 0;
+        if (offset == 'Z' || offset == 'z') {
+            offsetInMinutes = 0;
+            position++;
+        } else if ((offset == '+' || offset == '-') && end - position == 6 && buffer.get(position + 3) == ':') {
+            offsetInMinutes = digits(buffer, position + 1, 2, end) * 60 + digits(buffer, position + 4, 2, end);
+            if (offset == '-') {
+                offsetInMinutes = -offsetInMinutes;
+            }
+            position += 6;
+        } else {
+            throw invalidTimestamp(buffer, start, end);
+        }
+        if (position != end || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)
+                || hour > 23 || minute > 59 || second > 60) {
+            throw invalidTimestamp(buffer, start, end);
+        }
+        // leap second
+        second = Math.min(second, 59);
+        return daysSinceEpoch(year, month, day) * MILLIS_PER_DAY
+                + ((hour * 60L + minute - offsetInMinutes) * 60 + second) * 1000 + millis;
+    }
+
+    /**
+     * Parse an <a href="https://tools.ietf.org/html/rfc3164#section-4.1.2">RFC 3164 timestamp</a>
+     * ({@code Oct 11 22:14:15}, {@code Oct  1 22:14:15}) in the given time zone. The year is not transmitted: it is
+     * the current year, or the previous one for a timestamp more than a day in the future (December messages
+     * received in January).
+     *
+     * @param start index of the first byte of the 15 bytes timestamp
+     * @return the timestamp in millis since the epoch, {@link SyslogMessageView#NO_TIMESTAMP} if the timestamp is
+     * invalid
+     */
+    static long parseRfc3164Timestamp(@NonNull ByteBuffer buffer, int start, @NonNull ZoneId zone) {
+        int packedMonth = (buffer.get(start) & 0xFF) << 16 | (buffer.get(start + 1) & 0xFF) << 8 | (buffer.get(start + 2) & 0xFF);
+        int month = 0;
+        for (int i = 0; i < months.length; i++) {
+            if (months[i] == packedMonth) {
+                month = i + 1;
+                break;
+            }
+        }
+        byte dayTens = buffer.get(start + 4);
+        if (month == 0 || buffer.get(start + 3) != ' ' || (dayTens != ' ' && !isDigit(dayTens)) || !isDigit(buffer.get(start + 5))
+                || buffer.get(start + 6) != ' ' || buffer.get(start + 9) != ':' || buffer.get(start + 12) != ':'
+                || !isDigit(buffer.get(start + 7)) || !isDigit(buffer.get(start + 8)) || !isDigit(buffer.get(start + 10))
+                || !isDigit(buffer.get(start + 11)) || !isDigit(buffer.get(start + 13)) || !isDigit(buffer.get(start + 14))) {
+            return SyslogMessageView.NO_TIMESTAMP;
+        }
+        int day = (dayTens == ' ' ? 0 : (dayTens - '0') * 10) + buffer.get(start + 5) - '0';
+        int hour = (buffer.get(start + 7) - '0') * 10 + buffer.get(start + 8) - '0';
+        int minute = (buffer.get(start + 10) - '0') * 10 + buffer.get(start + 11) - '0';
+        int second = (buffer.get(start + 13) - '0') * 10 + buffer.get(start + 14) - '0';
+        long now = System.currentTimeMillis();
+        LocalDateTime today = LocalDateTime.now(zone);
+        try {
+            long timestamp = LocalDateTime.of(today.getYear(), month, day, hour, minute, second).atZone(zone).toInstant().toEpochMilli();
+            if (timestamp - now > MILLIS_PER_DAY) {
+                timestamp = LocalDateTime.of(today.getYear() - 1, month, day, hour, minute, second).atZone(zone).toInstant().toEpochMilli();
+            }
+            return timestamp;
+        } catch (DateTimeException e) {
+            // e.g. Feb 29 of a non leap year
+            return SyslogMessageView.NO_TIMESTAMP;
+        }
+    }
+
+    private static int digits(@NonNull ByteBuffer buffer, int start, int count, int end) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            byte b = buffer.get(i);
+            if (!isDigit(b)) {
+                throw invalidTimestamp(buffer, start, end);
+            }
+            value = value * 10 + b - '0';
+        }
+        return value;
+    }
+
+    static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    /**
+     * Days since 1970-01-01 of the given date of the proleptic Gregorian calendar.
+     */
+    private static long daysSinceEpoch(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = (y >= 0 ? y : y - 399) / 400;
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    @NonNull
+    private static IllegalArgumentException invalidTimestamp(@NonNull ByteBuffer buffer, int start, int end) {
+        return new IllegalArgumentException("Invalid timestamp: " + SyslogMessageView.decode(buffer, start, Math.min(end, buffer.limit())));
+    }
+
+    /**
+     * @return the index of the given byte in the given range, {@code -1} if not found
+     */
+    static int indexOf(@NonNull ByteBuffer buffer, byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
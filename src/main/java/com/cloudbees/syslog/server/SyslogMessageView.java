@@ -0,0 +1,605 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.server;
+
+import com.cloudbees.syslog.Facility;
+import com.cloudbees.syslog.MessageFormat;
+import com.cloudbees.syslog.SDElement;
+import com.cloudbees.syslog.SDParam;
+import com.cloudbees.syslog.Severity;
+import com.cloudbees.syslog.SyslogFrame;
+import com.cloudbees.syslog.SyslogMessage;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import net.jcip.annotations.NotThreadSafe;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Message parsed by the {@link SyslogMessageParser}, view over the bytes of the message.
+ *
+ * The header fields, the structured data and the text of the message are located and decoded when they are first
+ * accessed. The view is only valid as long as the underlying buffer is not modified, {@link #toSyslogMessage()}
+ * copies the message. Views are reusable: {@link SyslogMessageParser#parse(ByteBuffer, int, int, SyslogMessageView)}
+ * resets them.
+ *
+ * <a href="https://tools.ietf.org/html/rfc3164">RFC 3164</a> messages are parsed leniently as recommended by
+ * <a href="https://tools.ietf.org/html/rfc3164#section-4.3">RFC 3164 - 4.3 Relay Behavior</a>: a message without
+ * PRI has the {@link SyslogMessageParser#DEFAULT_PRI default PRI} and a message without valid timestamp is entirely
+ * the text of the message.
+ */
+@NotThreadSafe
+public final class SyslogMessageView {
+    /**
+     * Value of {@link #getTimestampInMillis()} for the messages without timestamp
+     */
+    public final static long NO_TIMESTAMP = Long.MIN_VALUE;
+    private final static int RFC_3164_TIMESTAMP_LENGTH = 15;
+
+    // materialized fields, bits of materializedFields
+    private final static int HOSTNAME = 1;
+    private final static int APP_NAME = 1 << 1;
+    private final static int PROC_ID = 1 << 2;
+    private final static int MSG_ID = 1 << 3;
+    private final static int MSG = 1 << 4;
+    private final static int TIMESTAMP = 1 << 5;
+
+    private ByteBuffer buffer;
+    private int offset;
+    private int end;
+    private int pri;
+    private MessageFormat messageFormat;
+    /**
+     * Index following the PRI and the version
+     */
+    private int headerStart;
+
+    // located by scanHeader(), -1 for absent fields
+    private boolean headerScanned;
+    private int timestampStart;
+    private int timestampEnd;
+    private int hostnameStart;
+    private int hostnameEnd;
+    private int appNameStart;
+    private int appNameEnd;
+    private int procIdStart;
+    private int procIdEnd;
+    private int msgIdStart;
+    private int msgIdEnd;
+    private int sdStart;
+    private int sdEnd;
+    private int msgStart;
+
+    private int materializedFields;
+    private long timestamp;
+    private String hostname;
+    private String appName;
+    private String procId;
+    private String msgId;
+    private String msg;
+    @Nullable
+    private Set<SDElement> sdElements;
+
+    /**
+     * @see SyslogMessageParser#parse(ByteBuffer, int, int, SyslogMessageView)
+     */
+    void wrap(@NonNull ByteBuffer buffer, int offset, int length) throws IllegalArgumentException {
+        if (offset < 0 || length <= 0 || offset + length > buffer.limit()) {
+            throw new IllegalArgumentException("Invalid message range [" + offset + ", " + (offset + length) + "[ of " + buffer);
+        }
+        this.buffer = buffer;
+        this.offset = offset;
+        this.end = offset + length;
+        this.headerScanned = false;
+        this.materializedFields = 0;
+        this.sdElements = null;
+
+        int position = offset;
+        if (buffer.get(position) == '<') {
+            int value = 0;
+            int digits = 0;
+            position++;
+            for (; position < end && digits <= 3 && SyslogMessageParser.isDigit(buffer.get(position)); position++, digits++) {
+                value = value * 10 + buffer.get(position) - '0';
+            }
+            if (digits == 0 || digits > 3 || position == end || buffer.get(position) != '>' || value > SyslogMessageParser.MAX_PRI) {
+                throw new IllegalArgumentException("Invalid PRI: " + this);
+            }
+            this.pri = value;
+            position++;
+        } else {
+            this.pri = SyslogMessageParser.DEFAULT_PRI;
+        }
+        if (end - position >= 2 && buffer.get(position) == '1' && buffer.get(position + 1) == SyslogMessage.SP) {
+            this.messageFormat = MessageFormat.RFC_5424;
+            position += 2;
+        } else {
+            this.messageFormat = MessageFormat.RFC_3164;
+        }
+        this.headerStart = position;
+    }
+
+    public int getPri() {
+        return pri;
+    }
+
+    @NonNull
+    public Facility getFacility() {
+        return SyslogMessageParser.facility(pri);
+    }
+
+    @NonNull
+    public Severity getSeverity() {
+        return SyslogMessageParser.severity(pri);
+    }
+
+    /**
+     * @return {@link MessageFormat#RFC_5424} or {@link MessageFormat#RFC_3164}
+     */
+    @NonNull
+    public MessageFormat getMessageFormat() {
+        return messageFormat;
+    }
+
+    /**
+     * @return the timestamp in millis since the epoch, {@link #NO_TIMESTAMP} if the message has no timestamp
+     * @throws IllegalArgumentException if the RFC 5424 timestamp is invalid
+     */
+    public long getTimestampInMillis() throws IllegalArgumentException {
+        scanHeader();
+        if ((materializedFields & TIMESTAMP) == 0) {
+            if (timestampStart == -1 || isNil(timestampStart, timestampEnd)) {
+                timestamp = NO_TIMESTAMP;
+            } else {
+                timestamp = SyslogMessageParser.parseRfc3339Timestamp(buffer, timestampStart, timestampEnd);
+            }
+            materializedFields |= TIMESTAMP;
+        }
+        return timestamp;
+    }
+
+    @Nullable
+    public String getHostname() {
+        scanHeader();
+        if ((materializedFields & HOSTNAME) == 0) {
+            hostname = field(hostnameStart, hostnameEnd);
+            materializedFields |= HOSTNAME;
+        }
+        return hostname;
+    }
+
+    @Nullable
+    public String getAppName() {
+        scanHeader();
+        if ((materializedFields & APP_NAME) == 0) {
+            appName = field(appNameStart, appNameEnd);
+            materializedFields |= APP_NAME;
+        }
+        return appName;
+    }
+
+    /**
+     * Compare the app name of the message without decoding it.
+     *
+     * @param appName {@code null} for the messages without app name
+     */
+    public boolean appNameEquals(@Nullable String appName) {
+        scanHeader();
+        if (appName == null || appNameStart == -1 || isNil(appNameStart, appNameEnd)) {
+            return appName == null && (appNameStart == -1 || isNil(appNameStart, appNameEnd));
+        }
+        if (appName.length() != appNameEnd - appNameStart) {
+            // different lengths in bytes for ASCII names
+            return !isAscii(appName) && appName.equals(getAppName());
+        }
+        for (int i = 0; i < appName.length(); i++) {
+            char c = appName.charAt(i);
+            if (c >= 0x80) {
+                return appName.equals(getAppName());
+            }
+            if (buffer.get(appNameStart + i) != c) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Nullable
+    public String getProcId() {
+        scanHeader();
+        if ((materializedFields & PROC_ID) == 0) {
+            procId = field(procIdStart, procIdEnd);
+            materializedFields |= PROC_ID;
+        }
+        return procId;
+    }
+
+    @Nullable
+    public String getMsgId() {
+        scanHeader();
+        if ((materializedFields & MSG_ID) == 0) {
+            msgId = field(msgIdStart, msgIdEnd);
+            materializedFields |= MSG_ID;
+        }
+        return msgId;
+    }
+
+    /**
+     * @return the text of the message, without the UTF-8 BOM of RFC 5424 messages
+     */
+    @Nullable
+    public String getMsg() {
+        scanHeader();
+        if ((materializedFields & MSG) == 0) {
+            msg = msgStart == -1 ? null : decode(buffer, msgStart, end);
+            materializedFields |= MSG;
+        }
+        return msg;
+    }
+
+    /**
+     * @return the structured data elements of the message, in their order of appearance, empty if none
+     */
+    @NonNull
+    public Set<SDElement> getSDElements() {
+        scanHeader();
+        if (sdElements == null) {
+            if (sdStart == -1 || isNil(sdStart, sdEnd)) {
+                sdElements = Collections.emptySet();
+            } else {
+                Set<SDElement> elements = new LinkedHashSet<>();
+                int position = sdStart;
+                while (position < sdEnd) {
+                    int idEnd = sdIdEnd(position + 1);
+                    SDElement element = new SDElement(decode(buffer, position + 1, idEnd));
+                    position = idEnd;
+                    while (buffer.get(position) == SyslogMessage.SP) {
+                        int nameEnd = SyslogMessageParser.indexOf(buffer, (byte) '=', position + 1, sdEnd);
+                        int valueEnd = sdParamValueEnd(nameEnd + 2);
+                        element.addSDParam(new SDParam(decode(buffer, position + 1, nameEnd), unescape(nameEnd + 2, valueEnd)));
+                        position = valueEnd + 1;
+                    }
+                    elements.add(element);
+                    // ']'
+                    position++;
+                }
+                sdElements = elements;
+            }
+        }
+        return sdElements;
+    }
+
+    /**
+     * Look up a structured data parameter without decoding the other elements and parameters.
+     *
+     * @return the value of the first parameter with the given name of the first element with the given SD-ID,
+     * {@code null} if not found
+     */
+    @Nullable
+    public String getSDParamValue(@NonNull String sdId, @NonNull String paramName) {
+        scanHeader();
+        if (sdStart == -1 || isNil(sdStart, sdEnd)) {
+            return null;
+        }
+        int position = sdStart;
+        while (position < sdEnd) {
+            int idEnd = sdIdEnd(position + 1);
+            boolean idMatches = asciiEquals(sdId, position + 1, idEnd);
+            position = idEnd;
+            while (buffer.get(position) == SyslogMessage.SP) {
+                int nameEnd = SyslogMessageParser.indexOf(buffer, (byte) '=', position + 1, sdEnd);
+                int valueEnd = sdParamValueEnd(nameEnd + 2);
+                if (idMatches && asciiEquals(paramName, position + 1, nameEnd)) {
+                    return unescape(nameEnd + 2, valueEnd);
+                }
+                position = valueEnd + 1;
+            }
+            if (idMatches) {
+                return null;
+            }
+            position++;
+        }
+        return null;
+    }
+
+    /**
+     * @return a new buffer sharing the bytes of the message, positioned on the message
+     */
+    @NonNull
+    public ByteBuffer getFrame() {
+        ByteBuffer frame = buffer.duplicate();
+        frame.limit(end).position(offset);
+        return frame;
+    }
+
+    /**
+     * @return the length in bytes of the message
+     */
+    public int getLength() {
+        return end - offset;
+    }
+
+    /**
+     * @return a copy of the bytes of the message, in its {@link #getMessageFormat() format}
+     */
+    @NonNull
+    public SyslogFrame toSyslogFrame() {
+        byte[] bytes = new byte[end - offset];
+        buffer.get(offset, bytes);
+        return SyslogFrame.copyOf(messageFormat, bytes);
+    }
+
+    /**
+     * @return a copy of the message
+     * @throws IllegalArgumentException if the message is invalid
+     */
+    @NonNull
+    public SyslogMessage toSyslogMessage() throws IllegalArgumentException {
+        SyslogMessage message = new SyslogMessage()
+                .withFacility(getFacility())
+                .withSeverity(getSeverity())
+                .withHostname(getHostname())
+                .withAppName(getAppName())
+                .withProcId(getProcId())
+                .withMsgId(getMsgId());
+        long timestamp = getTimestampInMillis();
+        if (timestamp != NO_TIMESTAMP) {
+            message.withTimestamp(timestamp);
+        }
+        for (SDElement element : getSDElements()) {
+            message.withSDElement(element);
+        }
+        String msg = getMsg();
+        if (msg != null) {
+            message.withMsg(msg);
+        }
+        return message;
+    }
+
+    /**
+     * Locate the header fields, the structured data and the text of the message.
+     */
+    private void scanHeader() throws IllegalArgumentException {
+        if (headerScanned) {
+            return;
+        }
+        timestampStart = timestampEnd = hostnameStart = hostnameEnd = appNameStart = appNameEnd = -1;
+        procIdStart = procIdEnd = msgIdStart = msgIdEnd = sdStart = sdEnd = msgStart = -1;
+        if (messageFormat == MessageFormat.RFC_5424) {
+            scanRfc5424Header();
+        } else {
+            scanRfc3164Header();
+        }
+        headerScanned = true;
+    }
+
+    private void scanRfc5424Header() {
+        int position = headerStart;
+        timestampStart = position;
+        timestampEnd = position = nextSpace(position);
+        hostnameStart = ++position;
+        hostnameEnd = position = nextSpace(position);
+        appNameStart = ++position;
+        appNameEnd = position = nextSpace(position);
+        procIdStart = ++position;
+        procIdEnd = position = nextSpace(position);
+        msgIdStart = ++position;
+        msgIdEnd = position = nextSpace(position);
+        sdStart = ++position;
+        if (position >= end) {
+            throw new IllegalArgumentException("Missing structured data: " + this);
+        }
+        if (buffer.get(position) == SyslogMessage.NILVALUE) {
+            position++;
+        } else if (buffer.get(position) == '[') {
+            while (position < end && buffer.get(position) == '[') {
+                position = sdElementEnd(position + 1) + 1;
+            }
+        } else {
+            throw new IllegalArgumentException("Invalid structured data: " + this);
+        }
+        sdEnd = position;
+        if (position < end) {
+            if (buffer.get(position) != SyslogMessage.SP) {
+                throw new IllegalArgumentException("Invalid structured data: " + this);
+            }
+            position++;
+            if (end - position >= 3 && buffer.get(position) == (byte) 0xEF && buffer.get(position + 1) == (byte) 0xBB && buffer.get(position + 2) == (byte) 0xBF) {
+                position += 3;
+            }
+            msgStart = position;
+        }
+    }
+
+    private void scanRfc3164Header() {
+        int position = headerStart;
+        long timestamp = end - position > RFC_3164_TIMESTAMP_LENGTH && buffer.get(position + RFC_3164_TIMESTAMP_LENGTH) == SyslogMessage.SP ?
+                SyslogMessageParser.parseRfc3164Timestamp(buffer, position, ZoneId.systemDefault()) : NO_TIMESTAMP;
+        this.timestamp = timestamp;
+        materializedFields |= TIMESTAMP;
+        if (timestamp == NO_TIMESTAMP) {
+            msgStart = position < end ? position : -1;
+            return;
+        }
+        position += RFC_3164_TIMESTAMP_LENGTH + 1;
+        hostnameStart = position;
+        int hostnameEnd = SyslogMessageParser.indexOf(buffer, (byte) SyslogMessage.SP, position, end);
+        if (hostnameEnd == -1) {
+            this.hostnameEnd = end;
+            return;
+        }
+        this.hostnameEnd = hostnameEnd;
+        position = hostnameEnd + 1;
+
+        // TAG: app name optionally followed by "[pid]" and a colon
+        int tagEnd = position;
+        while (tagEnd < end && buffer.get(tagEnd) != ':' && buffer.get(tagEnd) != '[' && buffer.get(tagEnd) != SyslogMessage.SP) {
+            tagEnd++;
+        }
+        if (tagEnd > position) {
+            appNameStart = position;
+            appNameEnd = tagEnd;
+        }
+        position = tagEnd;
+        if (position < end && buffer.get(position) == '[') {
+            int pidEnd = SyslogMessageParser.indexOf(buffer, (byte) ']', position, end);
+            if (pidEnd != -1) {
+                procIdStart = position + 1;
+                procIdEnd = pidEnd;
+                position = pidEnd + 1;
+            }
+        }
+        if (position < end && buffer.get(position) == ':') {
+            position++;
+        }
+        if (position < end && buffer.get(position) == SyslogMessage.SP) {
+            position++;
+        }
+        msgStart = position < end ? position : -1;
+    }
+
+    private int nextSpace(int from) {
+        int index = SyslogMessageParser.indexOf(buffer, (byte) SyslogMessage.SP, from, end);
+        if (index == -1) {
+            throw new IllegalArgumentException("Missing header field: " + this);
+        }
+        return index;
+    }
+
+    /**
+     * @param position index following the '['
+     * @return the index of the ']'
+     */
+    private int sdElementEnd(int position) {
+        position = sdIdEnd(position);
+        while (buffer.get(position) == SyslogMessage.SP) {
+            int nameEnd = SyslogMessageParser.indexOf(buffer, (byte) '=', position + 1, end);
+            if (nameEnd == -1 || nameEnd + 1 >= end || buffer.get(nameEnd + 1) != '"') {
+                throw new IllegalArgumentException("Invalid structured data: " + this);
+            }
+            position = sdParamValueEnd(nameEnd + 2) + 1;
+            if (position >= end) {
+                throw new IllegalArgumentException("Invalid structured data: " + this);
+            }
+        }
+        if (buffer.get(position) != ']') {
+            throw new IllegalArgumentException("Invalid structured data: " + this);
+        }
+        return position;
+    }
+
+    /**
+     * @param position index of the first byte of the SD-ID
+     * @return the index following the SD-ID
+     */
+    private int sdIdEnd(int position) {
+        int idEnd = position;
+        while (idEnd < end && buffer.get(idEnd) != SyslogMessage.SP && buffer.get(idEnd) != ']') {
+            idEnd++;
+        }
+        if (idEnd == position || idEnd == end) {
+            throw new IllegalArgumentException("Invalid structured data: " + this);
+        }
+        return idEnd;
+    }
+
+    /**
+     * @param position index following the opening quote
+     * @return the index of the closing quote
+     */
+    private int sdParamValueEnd(int position) {
+        for (; position < end; position++) {
+            byte b = buffer.get(position);
+            if (b == '"') {
+                return position;
+            } else if (b == '\\') {
+                position++;
+            }
+        }
+        throw new IllegalArgumentException("Invalid structured data: " + this);
+    }
+
+    @NonNull
+    private String unescape(int start, int end) {
+        if (SyslogMessageParser.indexOf(buffer, (byte) '\\', start, end) == -1) {
+            return decode(buffer, start, end);
+        }
+        byte[] bytes = new byte[end - start];
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b == '\\' && i + 1 < end) {
+                byte next = buffer.get(i + 1);
+                if (next == '"' || next == '\\' || next == ']') {
+                    b = next;
+                    i++;
+                }
+            }
+            bytes[length++] = b;
+        }
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    @Nullable
+    private String field(int start, int end) {
+        return start == -1 || isNil(start, end) ? null : decode(buffer, start, end);
+    }
+
+    private boolean isNil(int start, int end) {
+        return end - start == 1 && buffer.get(start) == SyslogMessage.NILVALUE;
+    }
+
+    private boolean asciiEquals(@NonNull String value, int start, int end) {
+        if (value.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (buffer.get(start + i) != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isAscii(@NonNull String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @NonNull
+    static String decode(@NonNull ByteBuffer buffer, int start, int end) {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + start, end - start, StandardCharsets.UTF_8);
+        }
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return buffer == null ? "SyslogMessageView{}" : decode(buffer, offset, end);
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.server;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.List;
+
+/**
+ * Callback of the {@link SyslogServer} receiving the parsed messages without materializing them, for filters and
+ * relays that only read a few fields of most messages.
+ */
+public interface SyslogMessageViewHandler {
+    /**
+     * Invoked by the I/O thread of the server with the messages received since the previous batch. The handler must
+     * not block, slow processing must be handed off to another thread.
+     *
+     * @param messages batch of messages in their reception order. The list, the views and their buffer are reused by
+     *                 the server and must not be retained after the call, see {@link SyslogMessageView#toSyslogMessage()}
+     *                 and {@link SyslogMessageView#toSyslogFrame()}
+     */
+    void handle(@NonNull List<SyslogMessageView> messages);
+}
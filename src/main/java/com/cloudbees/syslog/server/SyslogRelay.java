@@ -0,0 +1,541 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.server;
+
+import com.cloudbees.syslog.MessageFormat;
+import com.cloudbees.syslog.SDElement;
+import com.cloudbees.syslog.SyslogFrame;
+import com.cloudbees.syslog.SyslogMessage;
+import com.cloudbees.syslog.sender.SendBudget;
+import com.cloudbees.syslog.sender.SyslogFrameSender;
+import com.cloudbees.syslog.sender.TcpSyslogMessageSender;
+import com.cloudbees.syslog.util.InternalLogger;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import net.jcip.annotations.ThreadSafe;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Relay forwarding the messages received by a {@link SyslogServer}, typically over UDP from legacy appliances, to a
+ * {@link SyslogFrameSender}, typically a persistent TCP or TLS {@link TcpSyslogMessageSender}.
+ *
+ * The relay is the {@link SyslogServer#setMessageViewHandler(SyslogMessageViewHandler) view handler} of the server:
+ * the bytes of the received messages are forwarded as is when they are in the format of the sender and don't need to
+ * be rewritten, other messages are materialized, {@link Rewriter rewritten} and encoded again. The messages are queued
+ * and sent in batches by a forwarding thread, with a single flush per batch for a {@link TcpSyslogMessageSender}. When
+ * the queue is full, or when the {@link #setSendBudget(SendBudget) send budget} shared with the senders of the JVM is
+ * exhausted, the received messages are dropped.
+ *
+ * <pre>{@code
+ * java -jar syslog-java-client.jar --udp-port 514 --target-host collector.example.com --target-port 6514 --tls
+ * }</pre>
+ */
+@ThreadSafe
+public class SyslogRelay implements SyslogMessageViewHandler, Closeable {
+    public final static int DEFAULT_QUEUE_CAPACITY = 10_000;
+    public final static int DEFAULT_MAX_BATCH_SIZE = 256;
+    public final static long DEFAULT_SHUTDOWN_TIMEOUT_IN_MILLIS = 1000;
+    public final static int DEFAULT_STATS_INTERVAL_IN_SECONDS = 60;
+
+    /**
+     * Rewrite or enrich the relayed messages.
+     */
+    public interface Rewriter {
+        /**
+         * @return {@code false} to forward the bytes of the message as is, without materializing it
+         */
+        default boolean needsRewrite(@NonNull SyslogMessageView view) {
+            return true;
+        }
+
+        /**
+         * @param message the materialized message, can be modified
+         * @return the message to forward, {@code null} to drop the message
+         */
+        @Nullable
+        SyslogMessage rewrite(@NonNull SyslogMessage message);
+
+        /**
+         * @return a rewriter setting the hostname of the messages that have no hostname
+         */
+        @NonNull
+        static Rewriter hostnameIfMissing(@NonNull String hostname) {
+            return new Rewriter() {
+                @Override
+                public boolean needsRewrite(@NonNull SyslogMessageView view) {
+                    return view.getHostname() == null;
+                }
+
+                @Override
+                public SyslogMessage rewrite(@NonNull SyslogMessage message) {
+                    return message.getHostname() == null ? message.withHostname(hostname) : message;
+                }
+            };
+        }
+
+        /**
+         * @return a rewriter adding the given structured data element to all the messages, the RFC 3164 messages
+         * are converted to RFC 5424 by the senders using this format
+         */
+        @NonNull
+        static Rewriter sdElement(@NonNull SDElement element) {
+            return message -> message.withSDElement(element);
+        }
+    }
+
+    private final static InternalLogger logger = InternalLogger.getLogger(SyslogRelay.class);
+
+    protected final AtomicLong receivedCounter = new AtomicLong();
+    protected final AtomicLong forwardedCounter = new AtomicLong();
+    protected final AtomicLong rewrittenCounter = new AtomicLong();
+    protected final AtomicLong filteredCounter = new AtomicLong();
+    protected final AtomicLong invalidCounter = new AtomicLong();
+    protected final AtomicLong droppedCounter = new AtomicLong();
+    protected final AtomicLong sendErrorCounter = new AtomicLong();
+
+    private final SyslogFrameSender sender;
+    private final BlockingQueue<SyslogFrame> queue;
+    private final int queueCapacity;
+    private final int maxBatchSize;
+    private final Thread forwarderThread;
+    private volatile boolean running = true;
+    @Nullable
+    private volatile Rewriter rewriter;
+    private volatile long shutdownTimeoutInMillis = DEFAULT_SHUTDOWN_TIMEOUT_IN_MILLIS;
+    @Nullable
+    private volatile SendBudget.Account sendBudgetAccount;
+    private boolean lastSendFailed;
+
+    public SyslogRelay(@NonNull SyslogFrameSender sender) {
+        this(sender, DEFAULT_QUEUE_CAPACITY, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    /**
+     * @param sender        sender of the relayed messages, closed when the relay is closed
+     * @param queueCapacity max number of messages waiting to be forwarded
+     * @param maxBatchSize  max number of messages sent with a single flush
+     */
+    public SyslogRelay(@NonNull SyslogFrameSender sender, int queueCapacity, int maxBatchSize) {
+        if (queueCapacity < 1 || maxBatchSize < 1) {
+            throw new IllegalArgumentException("Invalid queue capacity " + queueCapacity + " or max batch size " + maxBatchSize);
+        }
+        this.sender = sender;
+        this.queueCapacity = queueCapacity;
+        this.maxBatchSize = maxBatchSize;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.forwarderThread = new Thread(this::forward, "syslog-relay");
+        this.forwarderThread.setDaemon(true);
+        this.forwarderThread.start();
+    }
+
+    /**
+     * Queue the given messages, invoked by the I/O thread of the server.
+     */
+    @Override
+    public void handle(@NonNull List<SyslogMessageView> messages) {
+        for (SyslogMessageView view : messages) {
+            receivedCounter.incrementAndGet();
+            SyslogFrame frame;
+            try {
+                frame = toSyslogFrame(view);
+            } catch (IllegalArgumentException e) {
+                invalidCounter.incrementAndGet();
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine("Drop invalid syslog message: " + e.getMessage());
+                }
+                continue;
+            }
+            if (frame == null) {
+                filteredCounter.incrementAndGet();
+                continue;
+            }
+            SendBudget.Account sendBudgetAccount = this.sendBudgetAccount;
+            if (sendBudgetAccount != null && !sendBudgetAccount.tryReserve(frame.size())) {
+                long droppedCount = droppedCounter.incrementAndGet();
+                if (droppedCount == 1 || logger.isLoggable(Level.FINEST)) {
+                    logger.warn("Syslog send budget is exhausted (" + sendBudgetAccount.getSendBudget() + "), drop message, total dropped: " + droppedCount);
+                }
+            } else if (!running || !queue.offer(frame)) {
+                if (sendBudgetAccount != null) {
+                    sendBudgetAccount.release(frame.size());
+                }
+                long droppedCount = droppedCounter.incrementAndGet();
+                if (droppedCount == 1 || logger.isLoggable(Level.FINEST)) {
+                    logger.warn("Syslog relay queue is saturated (capacity: " + queueCapacity + "), drop message, total dropped: " + droppedCount);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the frame to forward, {@code null} if the rewriter dropped the message
+     */
+    @Nullable
+    private SyslogFrame toSyslogFrame(@NonNull SyslogMessageView view) {
+        MessageFormat messageFormat = sender.getMessageFormat();
+        Rewriter rewriter = this.rewriter;
+        boolean rewrite = rewriter != null && rewriter.needsRewrite(view);
+        if (!rewrite) {
+            if (view.getMessageFormat() == messageFormat) {
+                return view.toSyslogFrame();
+            } else if (view.getMessageFormat() == MessageFormat.RFC_5424 && messageFormat == MessageFormat.RFC_5425) {
+                return octetCounted(view);
+            }
+        }
+        SyslogMessage message = view.toSyslogMessage();
+        if (rewrite) {
+            rewrittenCounter.incrementAndGet();
+            message = rewriter.rewrite(message);
+            if (message == null) {
+                return null;
+            }
+        }
+        return message.toSyslogFrame(messageFormat);
+    }
+
+    /**
+     * @return the given RFC 5424 message prefixed by its length, as a {@link MessageFormat#RFC_5425} frame
+     */
+    @NonNull
+    private static SyslogFrame octetCounted(@NonNull SyslogMessageView view) {
+        String length = Integer.toString(view.getLength());
+        byte[] bytes = new byte[length.length() + 1 + view.getLength()];
+        for (int i = 0; i < length.length(); i++) {
+            bytes[i] = (byte) length.charAt(i);
+        }
+        bytes[length.length()] = SyslogMessage.SP;
+        view.getFrame().get(bytes, length.length() + 1, view.getLength());
+        return SyslogFrame.copyOf(MessageFormat.RFC_5425, bytes);
+    }
+
+    private void forward() {
+        List<SyslogFrame> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                SyslogFrame frame = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (frame == null) {
+                    continue;
+                }
+                batch.add(frame);
+            } catch (InterruptedException e) {
+                // close() timed out
+                break;
+            }
+            queue.drainTo(batch, maxBatchSize - 1);
+            SendBudget.Account sendBudgetAccount = this.sendBudgetAccount;
+            if (sendBudgetAccount != null) {
+                long size = 0;
+                for (SyslogFrame frame : batch) {
+                    size += frame.size();
+                }
+                sendBudgetAccount.release(size);
+            }
+            try {
+                if (sender instanceof TcpSyslogMessageSender) {
+                    ((TcpSyslogMessageSender) sender).sendFrames(batch);
+                } else {
+                    for (SyslogFrame frame : batch) {
+                        sender.sendFrame(frame);
+                    }
+                }
+                forwardedCounter.addAndGet(batch.size());
+                if (lastSendFailed) {
+                    logger.info("Syslog messages are relayed again to " + sender);
+                    lastSendFailed = false;
+                }
+            } catch (IOException | RuntimeException e) {
+                sendErrorCounter.addAndGet(batch.size());
+                if (!lastSendFailed) {
+                    logger.warn("Exception relaying " + batch.size() + " syslog messages to " + sender + ", drop messages", e);
+                    lastSendFailed = true;
+                } else if (logger.isLoggable(Level.FINE)) {
+                    logger.log(Level.FINE, "Exception relaying syslog messages to " + sender, e);
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Wait up to {@link #getShutdownTimeoutInMillis()} for the queued messages to be forwarded, then close the sender.
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        try {
+            forwarderThread.join(Math.max(1, shutdownTimeoutInMillis));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (forwarderThread.isAlive()) {
+            forwarderThread.interrupt();
+            logger.warn("Syslog relay closed with " + queue.size() + " messages not forwarded");
+        }
+        SendBudget.Account sendBudgetAccount = this.sendBudgetAccount;
+        if (sendBudgetAccount != null) {
+            sendBudgetAccount.releaseAll();
+        }
+        sender.close();
+    }
+
+    @Nullable
+    public Rewriter getRewriter() {
+        return rewriter;
+    }
+
+    /**
+     * @param rewriter {@code null} (default) to forward the messages without rewriting them. RFC 5424 messages that
+     *                 are rewritten get the current time when they have no timestamp and the local hostname when they
+     *                 have no hostname, like the messages sent by the senders.
+     */
+    public void setRewriter(@Nullable Rewriter rewriter) {
+        this.rewriter = rewriter;
+    }
+
+    @Nullable
+    public SendBudget getSendBudget() {
+        SendBudget.Account sendBudgetAccount = this.sendBudgetAccount;
+        return sendBudgetAccount == null ? null : sendBudgetAccount.getSendBudget();
+    }
+
+    /**
+     * @param sendBudget budget shared with the senders bounding the bytes of the queued messages, {@code null}
+     *                   (default) for no budget. To be set before starting the server.
+     */
+    public void setSendBudget(@Nullable SendBudget sendBudget) {
+        SendBudget.Account previous = this.sendBudgetAccount;
+        this.sendBudgetAccount = sendBudget == null ? null : sendBudget.newAccount();
+        if (previous != null) {
+            previous.releaseAll();
+        }
+    }
+
+    public long getShutdownTimeoutInMillis() {
+        return shutdownTimeoutInMillis;
+    }
+
+    public void setShutdownTimeoutInMillis(long shutdownTimeoutInMillis) {
+        this.shutdownTimeoutInMillis = shutdownTimeoutInMillis;
+    }
+
+    @NonNull
+    public SyslogFrameSender getSender() {
+        return sender;
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    public long getReceivedCount() {
+        return receivedCounter.get();
+    }
+
+    /**
+     * @return number of messages handed successfully to the sender
+     */
+    public long getForwardedCount() {
+        return forwardedCounter.get();
+    }
+
+    /**
+     * @return number of messages materialized for the rewriter
+     */
+    public long getRewrittenCount() {
+        return rewrittenCounter.get();
+    }
+
+    /**
+     * @return number of messages dropped by the rewriter
+     */
+    public long getFilteredCount() {
+        return filteredCounter.get();
+    }
+
+    /**
+     * @return number of messages dropped because they could not be parsed
+     */
+    public long getInvalidCount() {
+        return invalidCounter.get();
+    }
+
+    /**
+     * @return number of messages dropped because the queue was full or the send budget exhausted
+     */
+    public long getDroppedCount() {
+        return droppedCounter.get();
+    }
+
+    /**
+     * @return number of messages dropped because the sender failed
+     */
+    public long getSendErrorCount() {
+        return sendErrorCounter.get();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getName() + "{" +
+                "sender=" + sender +
+                ", queueCapacity=" + queueCapacity +
+                ", maxBatchSize=" + maxBatchSize +
+                ", rewriter=" + rewriter +
+                ", receivedCounter=" + receivedCounter +
+                ", forwardedCounter=" + forwardedCounter +
+                ", rewrittenCounter=" + rewrittenCounter +
+                ", filteredCounter=" + filteredCounter +
+                ", invalidCounter=" + invalidCounter +
+                ", droppedCounter=" + droppedCounter +
+                ", sendErrorCounter=" + sendErrorCounter +
+                '}';
+    }
+
+    /**
+     * Run a relay receiving messages over UDP and forwarding them over TCP or TLS, the statistics are logged
+     * periodically. The TLS trust store is configured with the {@code javax.net.ssl.trustStore} system properties.
+     *
+     * <pre>
+     * --udp-port &lt;port&gt;             UDP port to listen on, default 514
+     * --bind &lt;address&gt;              address to listen on, default all
+     * --target-host &lt;hostname&gt;      Syslog server to forward the messages to, required
+     * --target-port &lt;port&gt;          default 514, 6514 with TLS
+     * --tls                          forward over TLS
+     * --format &lt;format&gt;             RFC_3164 (default), RFC_5424 or RFC_5425, messages in another format are converted
+     * --hostname-if-missing &lt;name&gt;   hostname of the messages without hostname
+     * --queue-capacity &lt;count&gt;       default 10000
+     * --batch-size &lt;count&gt;           default 256
+     * --stats-interval &lt;seconds&gt;     default 60
+     * </pre>
+     */
+    public static void main(String[] args) throws Exception {
+        int udpPort = 514;
+        InetAddress bindAddress = null;
+        String targetHost = null;
+        int targetPort = -1;
+        boolean tls = false;
+        MessageFormat messageFormat = MessageFormat.RFC_3164;
+        String hostnameIfMissing = null;
+        int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+        int batchSize = DEFAULT_MAX_BATCH_SIZE;
+        int statsIntervalInSeconds = DEFAULT_STATS_INTERVAL_IN_SECONDS;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String option = args[i];
+                if (option.equals("--tls")) {
+                    tls = true;
+                    continue;
+                }
+                if (i + 1 == args.length) {
+                    throw new IllegalArgumentException("Missing value of " + option);
+                }
+                String value = args[++i];
+                switch (option) {
+                    case "--udp-port":
+                        udpPort = Integer.parseInt(value);
+                        break;
+                    case "--bind":
+                        bindAddress = InetAddress.getByName(value);
+                        break;
+                    case "--target-host":
+                        targetHost = value;
+                        break;
+                    case "--target-port":
+                        targetPort = Integer.parseInt(value);
+                        break;
+                    case "--format":
+                        messageFormat = MessageFormat.valueOf(value);
+                        break;
+                    case "--hostname-if-missing":
+                        hostnameIfMissing = value;
+                        break;
+                    case "--queue-capacity":
+                        queueCapacity = Integer.parseInt(value);
+                        break;
+                    case "--batch-size":
+                        batchSize = Integer.parseInt(value);
+                        break;
+                    case "--stats-interval":
+                        statsIntervalInSeconds = Integer.parseInt(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + option);
+                }
+            }
+            if (targetHost == null) {
+                throw new IllegalArgumentException("Missing --target-host");
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: java " + SyslogRelay.class.getName() + " --target-host <hostname> [--target-port <port>] [--tls] " +
+                    "[--format RFC_3164|RFC_5424|RFC_5425] [--udp-port <port>] [--bind <address>] [--hostname-if-missing <name>] " +
+                    "[--queue-capacity <count>] [--batch-size <count>] [--stats-interval <seconds>]");
+            System.exit(1);
+            return;
+        }
+
+        TcpSyslogMessageSender sender = new TcpSyslogMessageSender();
+        sender.setSyslogServerHostname(targetHost);
+        sender.setSyslogServerPort(targetPort == -1 ? (tls ? 6514 : 514) : targetPort);
+        sender.setSsl(tls);
+        sender.setMessageFormat(messageFormat);
+        SyslogRelay relay = new SyslogRelay(sender, queueCapacity, batchSize);
+        if (hostnameIfMissing != null) {
+            relay.setRewriter(Rewriter.hostnameIfMissing(hostnameIfMissing));
+        }
+        SyslogServer server = new SyslogServer();
+        server.setBindAddress(bindAddress);
+        server.setUdpPort(udpPort);
+        server.setMessageViewHandler(relay);
+        server.start();
+        logger.info("Relay syslog messages from UDP port " + server.getUdpPort() + " to " + sender.getSyslogServerHostname() + ":" + sender.getSyslogServerPort() + (tls ? " over TLS" : ""));
+
+        CountDownLatch shutdown = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+                relay.close();
+            } catch (IOException e) {
+                logger.warn("Exception closing the syslog relay", e);
+            } finally {
+                shutdown.countDown();
+            }
+        }));
+        long lastForwardedCount = 0;
+        long lastNanos = System.nanoTime();
+        while (!shutdown.await(statsIntervalInSeconds, TimeUnit.SECONDS)) {
+            long forwardedCount = relay.getForwardedCount();
+            long nanos = System.nanoTime();
+            double throughput = (forwardedCount - lastForwardedCount) * 1_000_000_000.0 / (nanos - lastNanos);
+            logger.info(String.format("Syslog relay: %.1f msg/s, received=%d, forwarded=%d, rewritten=%d, dropped=%d, invalid=%d, sendErrors=%d, queued=%d, invalidFrames=%d, oversizedFrames=%d",
+                    throughput, relay.getReceivedCount(), forwardedCount, relay.getRewrittenCount(), relay.getDroppedCount(),
+                    relay.getInvalidCount(), relay.getSendErrorCount(), relay.getQueueSize(), server.getInvalidMessageCount(), server.getOversizedFrameCount()));
+            lastForwardedCount = forwardedCount;
+            lastNanos = nanos;
+        }
+    }
+}
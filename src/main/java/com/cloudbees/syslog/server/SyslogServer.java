@@ -0,0 +1,740 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.server;
+
+import com.cloudbees.syslog.SyslogMessage;
+import com.cloudbees.syslog.util.InternalLogger;
+import com.cloudbees.syslog.util.IoUtils;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import net.jcip.annotations.ThreadSafe;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Syslog server receiving messages over UDP (<a href="https://tools.ietf.org/html/rfc5426">RFC 5426</a>),
+ * TCP (<a href="https://tools.ietf.org/html/rfc6587">RFC 6587</a>) and TLS
+ * (<a href="https://tools.ietf.org/html/rfc5425">RFC 5425</a>), for integration tests, local aggregation and
+ * benchmarks.
+ *
+ * All the channels are served by a single NIO thread. The stream transports are decoded incrementally, each frame
+ * being either octet counted or terminated by a LF or a NUL. The messages are parsed as
+ * <a href="https://tools.ietf.org/html/rfc5424">RFC 5424</a> or <a href="https://tools.ietf.org/html/rfc3164">RFC 3164</a>
+ * messages by the {@link SyslogMessageParser} and handed in batches either materialized to a
+ * {@link SyslogMessageHandler} or as views over the received bytes to a {@link SyslogMessageViewHandler}: a batch is
+ * delivered when it reaches the {@link #setMaxBatchSize(int) max batch size} or when all the pending network reads
+ * have been processed.
+ *
+ * <pre>{@code
+ * SyslogServer server = new SyslogServer();
+ * server.setTcpPort(1514);
+ * server.setMessageHandler(messages -> messages.forEach(System.out::println));
+ * server.start();
+ * }</pre>
+ */
+@ThreadSafe
+public class SyslogServer implements Closeable {
+    public final static int SETTING_PORT_DISABLED = -1;
+    public final static int SETTING_MAX_FRAME_LENGTH_DEFAULT_VALUE = 64 * 1024;
+    public final static int SETTING_MAX_BATCH_SIZE_DEFAULT_VALUE = 256;
+    /**
+     * Initial size of the buffer of each connection, grown up to the max frame length as needed
+     */
+    public final static int SETTING_RECEIVE_BUFFER_SIZE_DEFAULT_VALUE = 8192;
+    private final static int MAX_DATAGRAM_LENGTH = 65_535;
+    /**
+     * Datagrams received before serving the other channels
+     */
+    private final static int MAX_DATAGRAMS_PER_SELECT = 64;
+    /**
+     * Bytes of the messages of a batch of views, at least the max frame length
+     */
+    private final static int VIEW_BATCH_BUFFER_SIZE = 256 * 1024;
+    private final static ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
+
+    protected final InternalLogger logger = InternalLogger.getLogger(getClass());
+
+    protected final AtomicLong receivedMessageCounter = new AtomicLong();
+    protected final AtomicLong invalidMessageCounter = new AtomicLong();
+    protected final AtomicLong oversizedFrameCounter = new AtomicLong();
+    protected final AtomicLong acceptedConnectionCounter = new AtomicLong();
+    protected final AtomicLong handlerErrorCounter = new AtomicLong();
+
+    @Nullable
+    private InetAddress bindAddress;
+    private int udpPort = SETTING_PORT_DISABLED;
+    private int tcpPort = SETTING_PORT_DISABLED;
+    private int tlsPort = SETTING_PORT_DISABLED;
+    @Nullable
+    private SSLContext sslContext;
+    private int maxFrameLength = SETTING_MAX_FRAME_LENGTH_DEFAULT_VALUE;
+    private int maxBatchSize = SETTING_MAX_BATCH_SIZE_DEFAULT_VALUE;
+    private int receiveBufferSize = SETTING_RECEIVE_BUFFER_SIZE_DEFAULT_VALUE;
+    @Nullable
+    private SyslogMessageHandler messageHandler;
+    @Nullable
+    private SyslogMessageViewHandler messageViewHandler;
+
+    // state, the channels are only accessed by the I/O thread once started
+    @Nullable
+    private Selector selector;
+    @Nullable
+    private DatagramChannel udpChannel;
+    @Nullable
+    private ServerSocketChannel tcpChannel;
+    @Nullable
+    private ServerSocketChannel tlsChannel;
+    @Nullable
+    private Thread ioThread;
+    private volatile boolean running;
+    private final List<SyslogMessage> batch = new ArrayList<>();
+    private final List<SyslogMessageView> viewBatch = new ArrayList<>();
+    /**
+     * Views reused by the batches
+     */
+    private final List<SyslogMessageView> views = new ArrayList<>();
+    /**
+     * Copy of the messages of the batch of views, the buffers of the connections are overwritten by the next reads
+     */
+    @Nullable
+    private ByteBuffer viewBatchBuffer;
+    private final Set<Connection> connections = new HashSet<>();
+    private final StreamFrameDecoder.FrameListener frameListener = this::onFrame;
+    @Nullable
+    private ByteBuffer datagramBuffer;
+
+    /**
+     * Bind the configured ports and start the I/O thread.
+     *
+     * @return this server
+     * @throws IOException if a port cannot be bound
+     */
+    @NonNull
+    public synchronized SyslogServer start() throws IOException {
+        if (selector != null) {
+            throw new IllegalStateException("Already started");
+        }
+        if (udpPort == SETTING_PORT_DISABLED && tcpPort == SETTING_PORT_DISABLED && tlsPort == SETTING_PORT_DISABLED) {
+            throw new IllegalStateException("No UDP, TCP nor TLS port configured");
+        }
+        if (tlsPort != SETTING_PORT_DISABLED && sslContext == null) {
+            throw new IllegalStateException("No SSLContext configured for the TLS port");
+        }
+        if ((messageHandler == null) == (messageViewHandler == null)) {
+            throw new IllegalStateException("A message handler or a message view handler must be configured");
+        }
+        if (messageViewHandler != null) {
+            viewBatchBuffer = ByteBuffer.allocate(Math.max(maxFrameLength, VIEW_BATCH_BUFFER_SIZE));
+        }
+        Selector selector = Selector.open();
+        try {
+            if (udpPort != SETTING_PORT_DISABLED) {
+                udpChannel = DatagramChannel.open();
+                udpChannel.bind(new InetSocketAddress(bindAddress, udpPort));
+                udpChannel.configureBlocking(false);
+                udpChannel.register(selector, SelectionKey.OP_READ);
+                datagramBuffer = ByteBuffer.allocate(MAX_DATAGRAM_LENGTH);
+            }
+            if (tcpPort != SETTING_PORT_DISABLED) {
+                tcpChannel = openServerChannel(selector, tcpPort, false);
+            }
+            if (tlsPort != SETTING_PORT_DISABLED) {
+                tlsChannel = openServerChannel(selector, tlsPort, true);
+            }
+        } catch (IOException | RuntimeException e) {
+            IoUtils.closeQuietly(udpChannel);
+            IoUtils.closeQuietly(tcpChannel);
+            IoUtils.closeQuietly(tlsChannel);
+            IoUtils.closeQuietly(selector);
+            throw e;
+        }
+        this.selector = selector;
+        running = true;
+        Thread thread = new Thread(this::run, "syslog-server");
+        thread.setDaemon(true);
+        thread.start();
+        ioThread = thread;
+        logger.fine("Syslog server started: " + this);
+        return this;
+    }
+
+    @NonNull
+    private ServerSocketChannel openServerChannel(@NonNull Selector selector, int port, boolean tls) throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        try {
+            channel.bind(new InetSocketAddress(bindAddress, port));
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_ACCEPT, tls);
+        } catch (IOException e) {
+            IoUtils.closeQuietly(channel);
+            throw e;
+        }
+        return channel;
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    process(key);
+                }
+                flushBatch();
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (running) {
+                logger.warn("Syslog server failure, stop listening", e);
+            }
+        } finally {
+            flushBatch();
+            for (Connection connection : new ArrayList<>(connections)) {
+                connection.close();
+            }
+            IoUtils.closeQuietly(udpChannel);
+            IoUtils.closeQuietly(tcpChannel);
+            IoUtils.closeQuietly(tlsChannel);
+            IoUtils.closeQuietly(selector);
+        }
+    }
+
+    private void process(@NonNull SelectionKey key) throws IOException {
+        if (!key.isValid()) {
+            return;
+        }
+        Object attachment = key.attachment();
+        if (attachment instanceof Connection) {
+            Connection connection = (Connection) attachment;
+            try {
+                if (key.isWritable()) {
+                    connection.onWritable();
+                }
+                if (key.isValid() && key.isReadable()) {
+                    connection.onReadable();
+                }
+            } catch (IOException | CancelledKeyException e) {
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine("Close connection " + connection + ": " + e);
+                }
+                connection.close();
+            }
+        } else if (key.channel() == udpChannel) {
+            receiveDatagrams();
+        } else {
+            accept((ServerSocketChannel) key.channel(), Boolean.TRUE.equals(attachment));
+        }
+    }
+
+    private void accept(@NonNull ServerSocketChannel serverChannel, boolean tls) throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            acceptedConnectionCounter.incrementAndGet();
+            try {
+                channel.configureBlocking(false);
+                Connection connection;
+                if (tls) {
+                    SSLEngine engine = sslContext.createSSLEngine();
+                    engine.setUseClientMode(false);
+                    connection = new TlsConnection(channel, engine);
+                } else {
+                    connection = new Connection(channel);
+                }
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                connections.add(connection);
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Failure to accept connection " + channel, e);
+                IoUtils.closeQuietly(channel);
+            }
+        }
+    }
+
+    private void receiveDatagrams() throws IOException {
+        ByteBuffer buffer = datagramBuffer;
+        byte[] array = buffer.array();
+        for (int i = 0; i < MAX_DATAGRAMS_PER_SELECT; i++) {
+            buffer.clear();
+            if (udpChannel.receive(buffer) == null) {
+                return;
+            }
+            int length = buffer.position();
+            // some senders terminate the datagrams like the stream frames
+            while (length > 0 && (array[length - 1] == '\n' || array[length - 1] == '\r' || array[length - 1] == '\0')) {
+                length--;
+            }
+            if (length > maxFrameLength) {
+                oversizedFrameCounter.incrementAndGet();
+            } else if (length > 0) {
+                onFrame(buffer, 0, length);
+            }
+        }
+    }
+
+    private void onFrame(@NonNull ByteBuffer buffer, int offset, int length) {
+        try {
+            if (messageViewHandler == null) {
+                SyslogMessageView view = nextView();
+                batch.add(SyslogMessageParser.parse(buffer, offset, length, view).toSyslogMessage());
+            } else {
+                ByteBuffer viewBatchBuffer = this.viewBatchBuffer;
+                if (viewBatchBuffer.remaining() < length) {
+                    flushBatch();
+                }
+                int viewOffset = viewBatchBuffer.position();
+                viewBatchBuffer.put(viewOffset, buffer, offset, length);
+                SyslogMessageView view = SyslogMessageParser.parse(viewBatchBuffer, viewOffset, length, nextView());
+                viewBatchBuffer.position(viewOffset + length);
+                viewBatch.add(view);
+            }
+        } catch (IllegalArgumentException e) {
+            invalidMessageCounter.incrementAndGet();
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("Discard invalid syslog message: " + e.getMessage());
+            }
+            return;
+        }
+        receivedMessageCounter.incrementAndGet();
+        if (batch.size() + viewBatch.size() >= maxBatchSize) {
+            flushBatch();
+        }
+    }
+
+    /**
+     * @return a view that is not used by the current batch
+     */
+    @NonNull
+    private SyslogMessageView nextView() {
+        int index = messageViewHandler == null ? 0 : viewBatch.size();
+        if (index == views.size()) {
+            views.add(new SyslogMessageView());
+        }
+        return views.get(index);
+    }
+
+    private void flushBatch() {
+        if (batch.isEmpty() && viewBatch.isEmpty()) {
+            return;
+        }
+        int size = batch.size() + viewBatch.size();
+        try {
+            if (messageViewHandler == null) {
+                messageHandler.handle(batch);
+            } else {
+                messageViewHandler.handle(viewBatch);
+            }
+        } catch (RuntimeException e) {
+            handlerErrorCounter.incrementAndGet();
+            logger.warn("Failure to handle " + size + " syslog messages", e);
+        } finally {
+            batch.clear();
+            viewBatch.clear();
+            if (viewBatchBuffer != null) {
+                viewBatchBuffer.clear();
+            }
+        }
+    }
+
+    /**
+     * Stop listening and close the connections. The messages already received are handed to the handler.
+     */
+    @Override
+    public void close() throws IOException {
+        Thread thread;
+        synchronized (this) {
+            running = false;
+            thread = ioThread;
+            if (selector != null) {
+                selector.wakeup();
+            }
+        }
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Connection of a stream transport
+     */
+    private class Connection {
+        final SocketChannel channel;
+        final StreamFrameDecoder decoder;
+        SelectionKey key;
+
+        Connection(@NonNull SocketChannel channel) {
+            this.channel = channel;
+            this.decoder = new StreamFrameDecoder(receiveBufferSize, maxFrameLength, oversizedFrameCounter);
+        }
+
+        void onReadable() throws IOException {
+            int read = channel.read(decoder.buffer());
+            if (read == -1) {
+                close();
+            } else if (read > 0) {
+                decoder.decode(frameListener);
+            }
+        }
+
+        void onWritable() throws IOException {
+        }
+
+        void close() {
+            if (decoder.hasPartialFrame() && logger.isLoggable(Level.FINE)) {
+                logger.fine("Connection " + this + " closed in the middle of a frame");
+            }
+            connections.remove(this);
+            if (key != null) {
+                key.cancel();
+            }
+            IoUtils.closeQuietly(channel);
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(channel);
+        }
+    }
+
+    /**
+     * TLS connection, the records are decrypted with a non-blocking {@link SSLEngine} into the buffer of the frame
+     * decoder. The handshake and the post-handshake messages are written when the socket is writable.
+     */
+    private class TlsConnection extends Connection {
+        private final SSLEngine engine;
+        private ByteBuffer netIn;
+        private ByteBuffer netOut;
+
+        TlsConnection(@NonNull SocketChannel channel, @NonNull SSLEngine engine) {
+            super(channel);
+            this.engine = engine;
+            int packetBufferSize = engine.getSession().getPacketBufferSize();
+            this.netIn = ByteBuffer.allocate(packetBufferSize);
+            this.netOut = ByteBuffer.allocate(packetBufferSize);
+        }
+
+        @Override
+        void onReadable() throws IOException {
+            int read = channel.read(netIn);
+            if (read == -1) {
+                try {
+                    engine.closeInbound();
+                } catch (SSLException e) {
+                    // connection closed without close_notify
+                }
+                close();
+            } else {
+                process();
+            }
+        }
+
+        @Override
+        void onWritable() throws IOException {
+            process();
+        }
+
+        private void process() throws IOException {
+            netIn.flip();
+            try {
+                while (true) {
+                    if (netOut.position() > 0 && !flush()) {
+                        return;
+                    }
+                    SSLEngineResult.HandshakeStatus handshakeStatus = engine.getHandshakeStatus();
+                    if (handshakeStatus == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                        Runnable task;
+                        while ((task = engine.getDelegatedTask()) != null) {
+                            task.run();
+                        }
+                        continue;
+                    }
+                    if (handshakeStatus == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                        SSLEngineResult result = engine.wrap(EMPTY_BUFFER, netOut);
+                        if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                            netOut = grow(netOut, engine.getSession().getPacketBufferSize());
+                        } else if (result.getStatus() == SSLEngineResult.Status.CLOSED && netOut.position() == 0) {
+                            close();
+                            return;
+                        }
+                        continue;
+                    }
+                    if (!netIn.hasRemaining()) {
+                        return;
+                    }
+                    decoder.ensureRemaining(engine.getSession().getApplicationBufferSize());
+                    SSLEngineResult result = engine.unwrap(netIn, decoder.buffer());
+                    switch (result.getStatus()) {
+                        case OK:
+                            if (result.bytesProduced() > 0) {
+                                decoder.decode(frameListener);
+                            } else if (result.bytesConsumed() == 0 && result.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.NEED_TASK
+                                    && result.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                                return;
+                            }
+                            break;
+                        case BUFFER_UNDERFLOW:
+                            if (netIn.position() == 0 && netIn.limit() == netIn.capacity()) {
+                                // record larger than the buffer
+                                netIn.position(netIn.limit());
+                                netIn = grow(netIn, engine.getSession().getPacketBufferSize());
+                                netIn.flip();
+                            }
+                            return;
+                        case BUFFER_OVERFLOW:
+                            // the application buffer size has grown, ensured at the next iteration
+                            break;
+                        case CLOSED:
+                            close();
+                            return;
+                        default:
+                            throw new IllegalStateException("Unexpected status " + result.getStatus());
+                    }
+                }
+            } finally {
+                netIn.compact();
+            }
+        }
+
+        /**
+         * @return {@code true} if all the pending bytes have been written
+         */
+        private boolean flush() throws IOException {
+            netOut.flip();
+            channel.write(netOut);
+            netOut.compact();
+            boolean flushed = netOut.position() == 0;
+            key.interestOps(flushed ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            return flushed;
+        }
+
+        @Override
+        void close() {
+            engine.closeOutbound();
+            super.close();
+        }
+    }
+
+    /**
+     * @return a copy of the given buffer, in write mode, with the given additional capacity
+     */
+    @NonNull
+    private static ByteBuffer grow(@NonNull ByteBuffer buffer, int additionalCapacity) {
+        ByteBuffer grown = ByteBuffer.allocate(buffer.capacity() + additionalCapacity);
+        buffer.flip();
+        grown.put(buffer);
+        return grown;
+    }
+
+    /**
+     * @return the bound UDP port, the configured port if the server is not started
+     */
+    public int getUdpPort() {
+        DatagramChannel channel = udpChannel;
+        return channel == null ? udpPort : channel.socket().getLocalPort();
+    }
+
+    /**
+     * @param udpPort {@code 0} for an ephemeral port, {@link #SETTING_PORT_DISABLED} (default) to not listen on UDP
+     */
+    public void setUdpPort(int udpPort) {
+        this.udpPort = udpPort;
+    }
+
+    /**
+     * @return the bound TCP port, the configured port if the server is not started
+     */
+    public int getTcpPort() {
+        ServerSocketChannel channel = tcpChannel;
+        return channel == null ? tcpPort : channel.socket().getLocalPort();
+    }
+
+    /**
+     * @param tcpPort {@code 0} for an ephemeral port, {@link #SETTING_PORT_DISABLED} (default) to not listen on TCP
+     */
+    public void setTcpPort(int tcpPort) {
+        this.tcpPort = tcpPort;
+    }
+
+    /**
+     * @return the bound TLS port, the configured port if the server is not started
+     */
+    public int getTlsPort() {
+        ServerSocketChannel channel = tlsChannel;
+        return channel == null ? tlsPort : channel.socket().getLocalPort();
+    }
+
+    /**
+     * @param tlsPort {@code 0} for an ephemeral port, {@link #SETTING_PORT_DISABLED} (default) to not listen on TLS
+     * @see #setSSLContext(SSLContext)
+     */
+    public void setTlsPort(int tlsPort) {
+        this.tlsPort = tlsPort;
+    }
+
+    @Nullable
+    public InetAddress getBindAddress() {
+        return bindAddress;
+    }
+
+    /**
+     * @param bindAddress {@code null} (default) to listen on all the interfaces
+     */
+    public void setBindAddress(@Nullable InetAddress bindAddress) {
+        this.bindAddress = bindAddress;
+    }
+
+    @Nullable
+    public SSLContext getSSLContext() {
+        return sslContext;
+    }
+
+    /**
+     * @param sslContext context holding the certificate of the server, required to listen on TLS
+     */
+    public void setSSLContext(@Nullable SSLContext sslContext) {
+        this.sslContext = sslContext;
+    }
+
+    public int getMaxFrameLength() {
+        return maxFrameLength;
+    }
+
+    /**
+     * @param maxFrameLength max length in bytes of a message, longer messages are discarded
+     */
+    public void setMaxFrameLength(int maxFrameLength) {
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * @param maxBatchSize max number of messages handed at once to the handler
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    /**
+     * @param receiveBufferSize initial size in bytes of the buffer of each TCP and TLS connection
+     */
+    public void setReceiveBufferSize(int receiveBufferSize) {
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
+    @Nullable
+    public SyslogMessageHandler getMessageHandler() {
+        return messageHandler;
+    }
+
+    /**
+     * @see #setMessageViewHandler(SyslogMessageViewHandler)
+     */
+    public void setMessageHandler(@Nullable SyslogMessageHandler messageHandler) {
+        this.messageHandler = messageHandler;
+    }
+
+    @Nullable
+    public SyslogMessageViewHandler getMessageViewHandler() {
+        return messageViewHandler;
+    }
+
+    /**
+     * @param messageViewHandler handler receiving the messages without materializing them, replaces the
+     *                           {@link #setMessageHandler(SyslogMessageHandler) message handler}
+     */
+    public void setMessageViewHandler(@Nullable SyslogMessageViewHandler messageViewHandler) {
+        this.messageViewHandler = messageViewHandler;
+    }
+
+    public long getReceivedMessageCount() {
+        return receivedMessageCounter.get();
+    }
+
+    /**
+     * @return number of frames that could not be parsed as syslog messages
+     */
+    public long getInvalidMessageCount() {
+        return invalidMessageCounter.get();
+    }
+
+    /**
+     * @return number of frames discarded because they exceed the max frame length
+     */
+    public long getOversizedFrameCount() {
+        return oversizedFrameCounter.get();
+    }
+
+    public long getAcceptedConnectionCount() {
+        return acceptedConnectionCounter.get();
+    }
+
+    /**
+     * @return number of batches for which the handler has thrown an exception
+     */
+    public long getHandlerErrorCount() {
+        return handlerErrorCounter.get();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getName() + "{" +
+                "bindAddress=" + bindAddress +
+                ", udpPort=" + getUdpPort() +
+                ", tcpPort=" + getTcpPort() +
+                ", tlsPort=" + getTlsPort() +
+                ", maxFrameLength=" + maxFrameLength +
+                ", maxBatchSize=" + maxBatchSize +
+                ", receiveBufferSize=" + receiveBufferSize +
+                ", receivedMessageCounter=" + receivedMessageCounter +
+                ", invalidMessageCounter=" + invalidMessageCounter +
+                ", oversizedFrameCounter=" + oversizedFrameCounter +
+                ", acceptedConnectionCounter=" + acceptedConnectionCounter +
+                ", handlerErrorCounter=" + handlerErrorCounter +
+                '}';
+    }
+}
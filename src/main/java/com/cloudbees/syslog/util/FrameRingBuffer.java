@@ -0,0 +1,192 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.util;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import net.jcip.annotations.ThreadSafe;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded queue of frames (byte sequences) stored in a direct {@link ByteBuffer}, outside of the heap, with many
+ * producers and a single consumer.
+ *
+ * Each frame is a record made of a 4 bytes header and of the bytes of the frame, aligned on 8 bytes. A producer claims
+ * the room of its record by moving the tail with a compare-and-set, copies the frame and publishes the record by
+ * writing its length in the header: producers don't lock and don't wait for each other. A record that would not fit
+ * before the end of the buffer is preceded by a padding record and starts at the beginning of the buffer. The consumer
+ * reads the published records in order, zeroes them and moves the head to give their room back to the producers.
+ */
+@ThreadSafe
+public class FrameRingBuffer {
+    public final static int HEADER_LENGTH = 4;
+    public final static int ALIGNMENT = 8;
+
+    /**
+     * Volatile access to the headers of the records, {@code 0} for a record not yet published, the length of the frame
+     * for a published record, minus the length of the record for a padding record.
+     */
+    private final static VarHandle HEADER = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+    private final static byte[] ZEROES = new byte[4096];
+
+    /**
+     * Handles the frames read from the buffer.
+     */
+    public interface FrameHandler {
+        /**
+         * @param buffer the buffer, only valid during the call
+         * @param index  index of the first byte of the frame in the buffer
+         * @param length number of bytes of the frame
+         * @return {@code false} to stop reading, the frame is not consumed and is handed again to the next read
+         */
+        boolean onFrame(@NonNull ByteBuffer buffer, int index, int length);
+    }
+
+    private final ByteBuffer buffer;
+    private final int capacity;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * @param capacity size of the buffer in bytes, a power of 2 of at least 64 bytes
+     */
+    public FrameRingBuffer(int capacity) {
+        if (capacity < 64 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity + ", must be a power of 2 of at least 64 bytes");
+        }
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.buffer = ByteBuffer.allocateDirect(capacity + ALIGNMENT).alignedSlice(ALIGNMENT).limit(capacity).slice();
+    }
+
+    /**
+     * Copy the given frame in the buffer, invoked by the producers.
+     *
+     * @return {@code false} if there is not enough room in the buffer or if the frame is longer than
+     * {@link #getMaxFrameLength()}
+     * @throws IllegalArgumentException if the frame is empty, a header of {@code 0} marks a record not yet published
+     */
+    public boolean offer(@NonNull byte[] bytes, int offset, int length) {
+        if (length < 1) {
+            throw new IllegalArgumentException("Invalid frame length " + length);
+        }
+        if (length > getMaxFrameLength()) {
+            return false;
+        }
+        int recordLength = align(HEADER_LENGTH + length);
+        long claimedTail;
+        int paddingLength;
+        do {
+            claimedTail = tail.get();
+            int available = capacity - (int) (claimedTail - head.get());
+            int toEnd = capacity - (int) (claimedTail & mask);
+            paddingLength = recordLength > toEnd ? toEnd : 0;
+            if (paddingLength + recordLength > available) {
+                return false;
+            }
+        } while (!tail.compareAndSet(claimedTail, claimedTail + paddingLength + recordLength));
+
+        int index = (int) (claimedTail & mask);
+        if (paddingLength > 0) {
+            HEADER.setVolatile(buffer, index, -paddingLength);
+            index = 0;
+        }
+        buffer.put(index + HEADER_LENGTH, bytes, offset, length);
+        HEADER.setVolatile(buffer, index, length);
+        return true;
+    }
+
+    /**
+     * Hand the published frames to the given handler, in order, until the handler stops or a record is not published
+     * yet. Invoked by the consumer thread only.
+     *
+     * @return the number of frames consumed
+     */
+    public int read(@NonNull FrameHandler handler) {
+        long initialHead = head.get();
+        long currentHead = initialHead;
+        int count = 0;
+        while (currentHead - initialHead < capacity) {
+            int index = (int) (currentHead & mask);
+            int header = (int) HEADER.getVolatile(buffer, index);
+            if (header == 0) {
+                break;
+            } else if (header < 0) {
+                currentHead += -header;
+            } else if (handler.onFrame(buffer, index + HEADER_LENGTH, header)) {
+                currentHead += align(HEADER_LENGTH + header);
+                count++;
+            } else {
+                break;
+            }
+        }
+        if (currentHead != initialHead) {
+            zero(initialHead, currentHead);
+            head.lazySet(currentHead);
+        }
+        return count;
+    }
+
+    private void zero(long from, long to) {
+        while (from < to) {
+            int index = (int) (from & mask);
+            int length = (int) Math.min(Math.min(to - from, capacity - index), ZEROES.length);
+            buffer.put(index, ZEROES, 0, length);
+            from += length;
+        }
+    }
+
+    private static int align(int length) {
+        return (length + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+
+    /**
+     * @return {@code true} if no frame is being written nor waiting to be read
+     */
+    public boolean isEmpty() {
+        return tail.get() == head.get();
+    }
+
+    /**
+     * @return number of bytes used by the frames being written or waiting to be read, including headers and padding
+     */
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return maximum length of a frame, so that a record always fits once the buffer is empty
+     */
+    public int getMaxFrameLength() {
+        return capacity / 2 - HEADER_LENGTH;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getName() + "{" +
+                "capacity=" + capacity +
+                ", size=" + size() +
+                '}';
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.util;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import net.jcip.annotations.ThreadSafe;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * Resolve all the addresses (A and AAAA records) of a hostname and refresh them in the background.
+ *
+ * Once the hostname has been resolved, {@link #getAddresses()} never blocks: when the addresses are older than the
+ * refresh interval, they are returned and a lookup is started on a background thread, the new addresses replace them
+ * when the lookup succeeds. Only the first resolution waits for the lookup.
+ *
+ * The addresses are ordered as recommended by <a href="https://tools.ietf.org/html/rfc8305">RFC 8305 - Happy
+ * Eyeballs</a>: the address families are interleaved starting with the family preferred by the system, the address
+ * of the last {@link #reportSuccess(InetAddress) successful} connection comes first and the addresses that
+ * {@link #reportFailure(InetAddress) failed} are moved last.
+ */
+@ThreadSafe
+public class InetAddressResolver {
+    /**
+     * Maximum time the first resolution waits for the lookup.
+     */
+    public final static long DEFAULT_RESOLUTION_TIMEOUT_IN_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    /**
+     * Maximum number of concurrent lookups, the lookups of the other resolvers wait for a thread. A lookup can hang
+     * for as long as the name service timeouts, the pool grows so that a few hung lookups don't delay the others.
+     */
+    private final static int MAX_LOOKUP_THREADS = 8;
+
+    private final static InternalLogger logger = InternalLogger.getLogger(InetAddressResolver.class);
+    /**
+     * Daemon threads running the name service lookups, {@link LocalHostnameResolver} has its own.
+     */
+    private final static Executor lookupExecutor = newLookupExecutor("syslog-dns-resolver-", MAX_LOOKUP_THREADS);
+
+    /**
+     * @return an executor starting up to the given number of daemon threads, stopped after 60 seconds without lookup
+     */
+    @NonNull
+    static Executor newLookupExecutor(@NonNull String threadNamePrefix, int maxThreads) {
+        AtomicInteger threadCounter = new AtomicInteger();
+        // a new thread is started for each lookup until the core size is reached, then the lookups are queued
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, threadNamePrefix + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private final String hostname;
+    private final long refreshIntervalInNanos;
+    private final long resolutionTimeoutInMillis;
+    private final AtomicBoolean lookupInProgress = new AtomicBoolean();
+    @Nullable
+    private volatile Resolution resolution;
+    @Nullable
+    private volatile UnknownHostException lastFailure;
+    /**
+     * Number of completed lookups, guarded by {@code this}
+     */
+    private long lookupCount;
+
+    /**
+     * @param hostname                hostname or literal IP address
+     * @param refreshIntervalInMillis age of the addresses after which they are looked up again
+     */
+    public InetAddressResolver(@NonNull String hostname, long refreshIntervalInMillis) {
+        this(hostname, refreshIntervalInMillis, DEFAULT_RESOLUTION_TIMEOUT_IN_MILLIS);
+    }
+
+    /**
+     * @param hostname                  hostname or literal IP address
+     * @param refreshIntervalInMillis   age of the addresses after which they are looked up again
+     * @param resolutionTimeoutInMillis maximum time the first resolution waits for the lookup
+     */
+    public InetAddressResolver(@NonNull String hostname, long refreshIntervalInMillis, long resolutionTimeoutInMillis) {
+        this.hostname = hostname;
+        this.refreshIntervalInNanos = TimeUnit.MILLISECONDS.toNanos(refreshIntervalInMillis);
+        this.resolutionTimeoutInMillis = resolutionTimeoutInMillis;
+    }
+
+    /**
+     * @return the addresses of the hostname, preferred first. The returned array must not be modified.
+     * @throws UnknownHostException if the hostname has never been resolved
+     */
+    @NonNull
+    public InetAddress[] getAddresses() throws UnknownHostException {
+        Resolution resolution = this.resolution;
+        if (resolution == null) {
+            resolution = awaitFirstResolution();
+        } else if (System.nanoTime() - resolution.resolvedAtInNanos > refreshIntervalInNanos) {
+            startLookup();
+        }
+        return resolution.addresses;
+    }
+
+    /**
+     * @return the preferred address of the hostname
+     * @throws UnknownHostException if the hostname has never been resolved
+     */
+    @NonNull
+    public InetAddress getAddress() throws UnknownHostException {
+        return getAddresses()[0];
+    }
+
+    @NonNull
+    private synchronized Resolution awaitFirstResolution() throws UnknownHostException {
+        long lookupCount = this.lookupCount;
+        startLookup();
+        long deadlineInNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(resolutionTimeoutInMillis);
+        try {
+            long remainingInNanos;
+            while (this.resolution == null && this.lookupCount == lookupCount
+                    && (remainingInNanos = deadlineInNanos - System.nanoTime()) > 0) {
+                TimeUnit.NANOSECONDS.timedWait(this, remainingInNanos);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Resolution resolution = this.resolution;
+        if (resolution != null) {
+            return resolution;
+        }
+        UnknownHostException lastFailure = this.lastFailure;
+        UnknownHostException e = new UnknownHostException(lastFailure == null ?
+                "Timeout resolving " + hostname + " after " + resolutionTimeoutInMillis + "ms" : lastFailure.getMessage());
+        if (lastFailure != null) {
+            e.initCause(lastFailure);
+        }
+        throw e;
+    }
+
+    /**
+     * Look up the addresses of the hostname in the background, unless a lookup is already in progress. Call it after
+     * the creation of the resolver to resolve the hostname before it is needed.
+     */
+    public void refresh() {
+        startLookup();
+    }
+
+    private void startLookup() {
+        if (lookupInProgress.compareAndSet(false, true)) {
+            try {
+                lookupExecutor.execute(this::lookup);
+            } catch (RuntimeException e) {
+                lookupInProgress.set(false);
+                throw e;
+            }
+        }
+    }
+
+    private void lookup() {
+        try {
+            InetAddress[] addresses = lookup(hostname);
+            Resolution previous = this.resolution;
+            this.resolution = new Resolution(order(addresses, previous == null ? null : previous.addresses[0]), System.nanoTime());
+            this.lastFailure = null;
+            if (previous != null && !Arrays.asList(addresses).containsAll(Arrays.asList(previous.addresses)) && logger.isLoggable(Level.FINE)) {
+                logger.fine("Addresses of " + hostname + " changed from " + Arrays.toString(previous.addresses) + " to " + Arrays.toString(addresses));
+            }
+        } catch (UnknownHostException | RuntimeException e) {
+            UnknownHostException failure;
+            if (e instanceof UnknownHostException) {
+                failure = (UnknownHostException) e;
+            } else {
+                failure = new UnknownHostException("Exception resolving " + hostname + ": " + e);
+                failure.initCause(e);
+            }
+            Resolution previous = this.resolution;
+            if (previous == null) {
+                this.lastFailure = failure;
+            } else {
+                // keep the previous addresses rather than failing the sends
+                logger.warn("Exception resolving " + hostname + ", keep using " + Arrays.toString(previous.addresses) + ": " + e);
+                this.resolution = new Resolution(previous.addresses, System.nanoTime());
+            }
+        } finally {
+            lookupInProgress.set(false);
+            // release the threads waiting for the first resolution, even if it failed
+            synchronized (this) {
+                lookupCount++;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Look up the addresses of the given hostname, overridable for tests.
+     */
+    @NonNull
+    protected InetAddress[] lookup(@NonNull String hostname) throws UnknownHostException {
+        return InetAddress.getAllByName(hostname);
+    }
+
+    /**
+     * Prefer the given address, typically after a successful connection.
+     */
+    public void reportSuccess(@NonNull InetAddress address) {
+        Resolution resolution = this.resolution;
+        if (resolution != null && !resolution.addresses[0].equals(address) && indexOf(resolution.addresses, address) != -1) {
+            this.resolution = new Resolution(order(resolution.addresses, address), resolution.resolvedAtInNanos);
+        }
+    }
+
+    /**
+     * Move the given address last, typically after a connection failure.
+     */
+    public void reportFailure(@NonNull InetAddress address) {
+        Resolution resolution = this.resolution;
+        if (resolution == null || resolution.addresses.length < 2) {
+            return;
+        }
+        int index = indexOf(resolution.addresses, address);
+        if (index == -1 || index == resolution.addresses.length - 1) {
+            return;
+        }
+        InetAddress[] addresses = new InetAddress[resolution.addresses.length];
+        System.arraycopy(resolution.addresses, 0, addresses, 0, index);
+        System.arraycopy(resolution.addresses, index + 1, addresses, index, addresses.length - index - 1);
+        addresses[addresses.length - 1] = address;
+        this.resolution = new Resolution(addresses, resolution.resolvedAtInNanos);
+    }
+
+    /**
+     * Interleave the address families, starting with the family of the first address, and move the given preferred
+     * address first.
+     */
+    @NonNull
+    static InetAddress[] order(@NonNull InetAddress[] addresses, @Nullable InetAddress preferred) {
+        List<InetAddress> first = new ArrayList<>(addresses.length);
+        List<InetAddress> second = new ArrayList<>(addresses.length);
+        boolean firstIsIpv6 = addresses[0] instanceof Inet6Address;
+        for (InetAddress address : addresses) {
+            if (!address.equals(preferred)) {
+                ((address instanceof Inet6Address) == firstIsIpv6 ? first : second).add(address);
+            }
+        }
+        InetAddress[] ordered = new InetAddress[first.size() + second.size() + (first.size() + second.size() < addresses.length ? 1 : 0)];
+        int i = 0;
+        if (ordered.length > first.size() + second.size()) {
+            ordered[i++] = preferred;
+        }
+        for (int j = 0; j < Math.max(first.size(), second.size()); j++) {
+            if (j < first.size()) {
+                ordered[i++] = first.get(j);
+            }
+            if (j < second.size()) {
+                ordered[i++] = second.get(j);
+            }
+        }
+        return ordered;
+    }
+
+    private static int indexOf(@NonNull InetAddress[] addresses, @NonNull InetAddress address) {
+        for (int i = 0; i < addresses.length; i++) {
+            if (addresses[i].equals(address)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @NonNull
+    public String getHostname() {
+        return hostname;
+    }
+
+    public long getRefreshIntervalInMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(refreshIntervalInNanos);
+    }
+
+    @Override
+    public String toString() {
+        Resolution resolution = this.resolution;
+        return "InetAddressResolver[" + hostname + "=" + (resolution == null ? null : Arrays.toString(resolution.addresses)) + "]";
+    }
+
+    private static class Resolution {
+        final InetAddress[] addresses;
+        final long resolvedAtInNanos;
+
+        Resolution(InetAddress[] addresses, long resolvedAtInNanos) {
+            this.addresses = addresses;
+            this.resolvedAtInNanos = resolvedAtInNanos;
+        }
+    }
+}
@@ -16,7 +16,9 @@
 package com.cloudbees.syslog.util;
 
 import edu.umd.cs.findbugs.annotations.Nullable;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
 import java.net.Socket;
 
@@ -28,6 +30,15 @@ public class IoUtils {
 
     }
 
+    public static void closeQuietly(@Nullable Closeable closeable) {
+        try {
+            if (closeable != null) {
+                closeable.close();
+            }
+        } catch (Exception e) {
+        }
+    }
+
     public static void closeQuietly(@Nullable Socket socket) {
         try {
             if (socket != null && !socket.isClosed()) {
@@ -53,4 +64,21 @@ public class IoUtils {
         }
         closeQuietly(socket);
     }
+
+    /**
+     * Close the given stream then the given socket, ignoring exceptions.
+     *
+     * @param socket
+     * @param outputStream
+     */
+    public static void closeQuietly(@Nullable Socket socket, @Nullable OutputStream outputStream) {
+        if (outputStream != null) {
+            try {
+                outputStream.close();
+            } catch (IOException e) {
+
+            }
+        }
+        closeQuietly(socket);
+    }
 }
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.util;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import net.jcip.annotations.ThreadSafe;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+/**
+ * Name of the local host, emitted in the HOSTNAME field of the messages that don't specify one.
+ *
+ * {@link #getHostname()} never blocks on the name service:
+ * <ul>
+ * <li>the hostname configured with the {@value #HOSTNAME_PROPERTY} system property or with the {@code HOSTNAME}
+ * (or {@code COMPUTERNAME} on Windows) environment variable is used as is, without any lookup,</li>
+ * <li>otherwise {@link InetAddress#getLocalHost()} is looked up in the background when the resolver is created and
+ * when the hostname is older than the refresh interval. The {@code '-'} NILVALUE is returned until the first lookup
+ * completes and the previous hostname is kept when a lookup fails.</li>
+ * </ul>
+ */
+@ThreadSafe
+public class LocalHostnameResolver {
+    /**
+     * System property overriding the name of the local host.
+     */
+    public final static String HOSTNAME_PROPERTY = "com.cloudbees.syslog.hostname";
+    public final static long DEFAULT_REFRESH_INTERVAL_IN_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    /**
+     * Hostname returned until the first lookup completes, the RFC 5424 NILVALUE.
+     */
+    public final static String UNKNOWN_HOSTNAME = "-";
+
+    private final static InternalLogger logger = InternalLogger.getLogger(LocalHostnameResolver.class);
+    /**
+     * Thread of the local host lookups, not shared with the {@link InetAddressResolver}s so that their hung lookups
+     * never delay the hostname of the messages.
+     */
+    private final static Executor lookupExecutor = InetAddressResolver.newLookupExecutor("syslog-local-hostname-resolver-", 1);
+
+    @Nullable
+    private final String configuredHostname;
+    private final long refreshIntervalInNanos;
+    private final AtomicBoolean lookupInProgress = new AtomicBoolean();
+    @NonNull
+    private volatile String hostname = UNKNOWN_HOSTNAME;
+    private volatile long resolvedAtInNanos;
+    private volatile boolean resolved;
+
+    /**
+     * Use the configured hostname if any, otherwise start looking up the local host.
+     */
+    public LocalHostnameResolver() {
+        this(getConfiguredHostname(), DEFAULT_REFRESH_INTERVAL_IN_MILLIS);
+        if (configuredHostname == null) {
+            refresh();
+        }
+    }
+
+    /**
+     * The local host is not looked up until {@link #refresh()} or {@link #getHostname()} is called.
+     *
+     * @param configuredHostname      hostname used without any lookup, {@code null} to look up the local host
+     * @param refreshIntervalInMillis age of the hostname after which the local host is looked up again
+     */
+    public LocalHostnameResolver(@Nullable String configuredHostname, long refreshIntervalInMillis) {
+        this.configuredHostname = configuredHostname;
+        this.refreshIntervalInNanos = TimeUnit.MILLISECONDS.toNanos(refreshIntervalInMillis);
+        if (configuredHostname != null) {
+            this.hostname = configuredHostname;
+        }
+    }
+
+    /**
+     * @return the name of the local host, {@link #UNKNOWN_HOSTNAME} if it has not been resolved yet
+     */
+    @NonNull
+    public String getHostname() {
+        if (configuredHostname == null && (!resolved || System.nanoTime() - resolvedAtInNanos > refreshIntervalInNanos)) {
+            refresh();
+        }
+        return hostname;
+    }
+
+    /**
+     * Look up the local host in the background, unless a lookup is already in progress or the hostname is configured.
+     */
+    public void refresh() {
+        if (configuredHostname == null && lookupInProgress.compareAndSet(false, true)) {
+            try {
+                lookupExecutor.execute(this::lookup);
+            } catch (RuntimeException e) {
+                lookupInProgress.set(false);
+                throw e;
+            }
+        }
+    }
+
+    private void lookup() {
+        try {
+            String hostname = lookupHostname();
+            if (!hostname.equals(this.hostname) && resolved && logger.isLoggable(Level.FINE)) {
+                logger.fine("Local hostname changed from " + this.hostname + " to " + hostname);
+            }
+            this.hostname = hostname;
+        } catch (UnknownHostException | RuntimeException e) {
+            logger.warn("Exception resolving the local hostname, keep using '" + hostname + "': " + e);
+        } finally {
+            // don't retry a failed lookup on each message
+            resolvedAtInNanos = System.nanoTime();
+            resolved = true;
+            lookupInProgress.set(false);
+        }
+    }
+
+    /**
+     * Look up the name of the local host, overridable for tests.
+     */
+    @NonNull
+    protected String lookupHostname() throws UnknownHostException {
+        return InetAddress.getLocalHost().getHostName();
+    }
+
+    /**
+     * @return the hostname configured with the {@value #HOSTNAME_PROPERTY} system property or the {@code HOSTNAME}
+     * or {@code COMPUTERNAME} environment variable, {@code null} if none
+     */
+    @Nullable
+    public static String getConfiguredHostname() {
+        String hostname = trimToNull(System.getProperty(HOSTNAME_PROPERTY));
+        if (hostname == null) {
+            try {
+                hostname = trimToNull(System.getenv("HOSTNAME"));
+                if (hostname == null) {
+                    hostname = trimToNull(System.getenv("COMPUTERNAME"));
+                }
+            } catch (SecurityException e) {
+                // ignore, look up the local host
+            }
+        }
+        return hostname;
+    }
+
+    @Nullable
+    private static String trimToNull(@Nullable String value) {
+        if (value == null) {
+            return null;
+        }
+        value = value.trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    @Override
+    public String toString() {
+        return "LocalHostnameResolver[hostname=" + hostname + ", configured=" + (configuredHostname != null) + "]";
+    }
+}
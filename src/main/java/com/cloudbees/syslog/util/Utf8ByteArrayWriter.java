@@ -0,0 +1,225 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.util;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import net.jcip.annotations.NotThreadSafe;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * {@link Writer} encoding the chars in UTF-8 in a growable byte array, up to a maximum number of bytes.
+ *
+ * Once a code point doesn't fit in the remaining bytes, the writer is {@link #isTruncated() truncated} and ignores
+ * the chars written afterwards: the content is never cut in the middle of a multi-byte sequence nor of a surrogate
+ * pair. Malformed surrogates are encoded as {@code '?'} like {@link java.io.OutputStreamWriter} does.
+ *
+ * The writer can be {@link #reset(int) reset} and reused.
+ */
+@NotThreadSafe
+public class Utf8ByteArrayWriter extends Writer {
+    private byte[] buffer;
+    private int count;
+    private int maxSize = Integer.MAX_VALUE;
+    private boolean truncated;
+    /**
+     * High surrogate waiting for the low surrogate of the next write, {@code 0} if none
+     */
+    private char highSurrogate;
+
+    public Utf8ByteArrayWriter(int initialCapacity) {
+        this.buffer = new byte[initialCapacity];
+    }
+
+    /**
+     * Discard the content and set the maximum number of bytes of the new content.
+     *
+     * @param maxSize maximum number of bytes, {@link Integer#MAX_VALUE} for no limit
+     */
+    public void reset(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("Invalid maxSize " + maxSize);
+        }
+        this.count = 0;
+        this.maxSize = maxSize;
+        this.truncated = false;
+        this.highSurrogate = 0;
+    }
+
+    @Override
+    public void write(int c) {
+        writeChar((char) c);
+    }
+
+    @Override
+    public void write(@NonNull char[] chars, int off, int len) {
+        for (int i = off, end = off + len; i < end && !truncated; i++) {
+            writeChar(chars[i]);
+        }
+    }
+
+    @Override
+    public void write(@NonNull String str, int off, int len) {
+        for (int i = off, end = off + len; i < end && !truncated; i++) {
+            writeChar(str.charAt(i));
+        }
+    }
+
+    private void writeChar(char c) {
+        if (truncated) {
+            return;
+        }
+        if (highSurrogate != 0) {
+            char high = highSurrogate;
+            highSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                writeCodePoint(Character.toCodePoint(high, c));
+                return;
+            }
+            writeCodePoint('?');
+        }
+        if (Character.isHighSurrogate(c)) {
+            highSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            writeCodePoint('?');
+        } else {
+            writeCodePoint(c);
+        }
+    }
+
+    private void writeCodePoint(int codePoint) {
+        int length = codePoint < 0x80 ? 1 : codePoint < 0x800 ? 2 : codePoint < 0x10000 ? 3 : 4;
+        if (length > maxSize - count) {
+            truncated = true;
+            return;
+        }
+        ensureCapacity(count + length);
+        switch (length) {
+            case 1:
+                buffer[count++] = (byte) codePoint;
+                break;
+            case 2:
+                buffer[count++] = (byte) (0xC0 | (codePoint >> 6));
+                buffer[count++] = (byte) (0x80 | (codePoint & 0x3F));
+                break;
+            case 3:
+                buffer[count++] = (byte) (0xE0 | (codePoint >> 12));
+                buffer[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[count++] = (byte) (0x80 | (codePoint & 0x3F));
+                break;
+            default:
+                buffer[count++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[count++] = (byte) (0x80 | (codePoint & 0x3F));
+                break;
+        }
+    }
+
+    private void ensureCapacity(int minCapacity) {
+        if (minCapacity > buffer.length) {
+            int newCapacity = Math.max(minCapacity, buffer.length << 1);
+            buffer = Arrays.copyOf(buffer, newCapacity < 0 ? minCapacity : newCapacity);
+        }
+    }
+
+    /**
+     * @return {@code true} if chars have been ignored because the maximum number of bytes was reached
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * @return number of bytes written
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return size of the underlying byte array
+     */
+    public int capacity() {
+        return buffer.length;
+    }
+
+    /**
+     * @return a copy of the bytes written
+     */
+    @NonNull
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, count);
+    }
+
+    /**
+     * Copy the bytes written in the given array.
+     */
+    public void copyTo(@NonNull byte[] dest, int destOffset) {
+        System.arraycopy(buffer, 0, dest, destOffset, count);
+    }
+
+    public void writeTo(@NonNull OutputStream out) throws IOException {
+        out.write(buffer, 0, count);
+    }
+
+    /**
+     * @return the decoded bytes written
+     */
+    @Override
+    public String toString() {
+        return new String(buffer, 0, count, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A high surrogate written last is encoded as {@code '?'} if it still fits.
+     */
+    @Override
+    public void flush() {
+        if (highSurrogate != 0) {
+            highSurrogate = 0;
+            writeCodePoint('?');
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+    }
+
+    /**
+     * @return number of bytes of the UTF-8 encoding of the code point starting at the given index, {@code 4} for a
+     * surrogate pair made of this char and the next one
+     */
+    public static int utf8Length(@NonNull char[] chars, int index) {
+        char c = chars[index];
+        if (c < 0x80) {
+            return 1;
+        } else if (c < 0x800) {
+            return 2;
+        } else if (Character.isHighSurrogate(c) && index + 1 < chars.length && Character.isLowSurrogate(chars[index + 1])) {
+            return 4;
+        } else if (Character.isSurrogate(c)) {
+            // malformed, encoded as '?'
+            return 1;
+        } else {
+            return 3;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Allocation regression gate: measures with {@link com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long)}
+ * the bytes allocated in steady state by an operation and fails if they exceed the budget configured in
+ * {@code allocation-budgets.properties}.
+ *
+ * A budget can be overridden with the system property {@code allocation.budget.<key>}, the gate can be turned into a
+ * report with {@code -Dallocation.budget.enforce=false}.
+ */
+public final class AllocationBudget {
+
+    public static final int DEFAULT_WARM_UP_ITERATIONS = 20_000;
+    public static final int DEFAULT_MEASURED_ITERATIONS = 10_000;
+
+    private static final Properties budgets = new Properties();
+
+    static {
+        try (InputStream in = AllocationBudget.class.getResourceAsStream("allocation-budgets.properties")) {
+            budgets.load(in);
+        } catch (IOException e) {
+            throw new IllegalStateException("Exception loading allocation budgets", e);
+        }
+    }
+
+    @FunctionalInterface
+    public interface Operation {
+        void run() throws Exception;
+    }
+
+    private AllocationBudget() {
+    }
+
+    /**
+     * Run {@code operation} {@link #DEFAULT_WARM_UP_ITERATIONS} times to reach the steady state then verify the
+     * average bytes allocated by one invocation over {@link #DEFAULT_MEASURED_ITERATIONS} invocations.
+     *
+     * @param key key of the budget in {@code allocation-budgets.properties}
+     * @return the measured bytes per invocation
+     */
+    public static long assertWithinBudget(String key, Operation operation) throws Exception {
+        long budget = getBudget(key);
+        long measured = measure(operation, DEFAULT_WARM_UP_ITERATIONS, DEFAULT_MEASURED_ITERATIONS);
+        String report = "Allocated " + measured + " bytes per operation for '" + key + "', budget is " + budget;
+        System.out.println(report);
+        if (measured > budget && Boolean.parseBoolean(System.getProperty("allocation.budget.enforce", "true"))) {
+            fail(report);
+        }
+        return measured;
+    }
+
+    public static long measure(Operation operation, int warmUpIterations, int measuredIterations) throws Exception {
+        java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean, "ThreadMXBean allocation measures not available");
+        com.sun.management.ThreadMXBean allocationMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+        assumeTrue(allocationMXBean.isThreadAllocatedMemorySupported(), "ThreadMXBean allocation measures not supported");
+        allocationMXBean.setThreadAllocatedMemoryEnabled(true);
+
+        long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < warmUpIterations; i++) {
+            operation.run();
+        }
+        // cost of the measure itself
+        long overhead = allocationMXBean.getThreadAllocatedBytes(threadId);
+        overhead = allocationMXBean.getThreadAllocatedBytes(threadId) - overhead;
+
+        long before = allocationMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < measuredIterations; i++) {
+            operation.run();
+        }
+        long allocated = allocationMXBean.getThreadAllocatedBytes(threadId) - before - overhead;
+        return Math.max(0, allocated / measuredIterations);
+    }
+
+    public static long getBudget(String key) {
+        String budget = System.getProperty("allocation.budget." + key, budgets.getProperty(key));
+        if (budget == null) {
+            throw new IllegalArgumentException("No allocation budget defined for '" + key + "'");
+        }
+        return Long.parseLong(budget.trim());
+    }
+}
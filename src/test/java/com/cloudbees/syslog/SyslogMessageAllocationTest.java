@@ -0,0 +1,44 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog;
+
+import java.io.CharArrayWriter;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+/**
+ * Allocation regression gate of the encoding of a {@link SyslogMessage}, see {@link AllocationBudget}.
+ */
+class SyslogMessageAllocationTest {
+
+    @ParameterizedTest
+    @EnumSource(MessageFormat.class)
+    void encode(MessageFormat messageFormat) throws Exception {
+        SyslogMessage message = new SyslogMessage()
+                .withTimestamp(System.currentTimeMillis())
+                .withAppName("my_app")
+                .withHostname("myserver.example.com")
+                .withFacility(Facility.USER)
+                .withSeverity(Severity.INFORMATIONAL)
+                .withMsg("a syslog message with some non ASCII characters éèà");
+        CharArrayWriter out = new CharArrayWriter(256);
+
+        AllocationBudget.assertWithinBudget("encode." + messageFormat, () -> {
+            out.reset();
+            message.toSyslogMessage(messageFormat, out);
+        });
+    }
+}
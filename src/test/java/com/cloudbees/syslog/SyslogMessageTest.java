@@ -15,10 +15,13 @@
  */
 package com.cloudbees.syslog;
 
+import java.io.CharArrayWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.Calendar;
 import java.util.TimeZone;
 import org.junit.jupiter.api.Test;
 
+import static org.hamcrest.Matchers.endsWith;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 
@@ -136,4 +139,75 @@ class SyslogMessageTest {
 
         assertThat(actual, is(expected));
     }
+
+    @Test
+    void testSyslogFrame() {
+        SyslogMessage message = new SyslogMessage()
+                .withTimestamp(1386239405000L)
+                .withAppName("my_app")
+                .withHostname("myserver.example.com")
+                .withFacility(Facility.USER)
+                .withSeverity(Severity.INFORMATIONAL)
+                .withMsg("a syslog message \u00e9\u20ac");
+
+        for (MessageFormat messageFormat : MessageFormat.values()) {
+            SyslogFrame frame = message.toSyslogFrame(messageFormat);
+            byte[] expected = message.toSyslogMessage(messageFormat).getBytes(StandardCharsets.UTF_8);
+
+            assertThat(frame.getMessageFormat(), is(messageFormat));
+            assertThat(frame.size(), is(expected.length));
+            assertThat(frame.toByteArray(), is(expected));
+            assertThat(frame, is(SyslogFrame.copyOf(messageFormat, expected)));
+
+            // frames are immutable
+            frame.toByteArray()[0] = 0;
+            assertThat(frame.toByteArray(), is(expected));
+        }
+    }
+
+    @Test
+    void testSyslogFrameReflectsTheMessageModifiedInPlace() {
+        CharArrayWriter msg = new CharArrayWriter();
+        msg.append("first message");
+        SyslogMessage message = new SyslogMessage()
+                .withTimestamp(1386239405000L)
+                .withAppName("my_app")
+                .withHostname("myserver.example.com")
+                .withFacility(Facility.USER)
+                .withSeverity(Severity.INFORMATIONAL)
+                .withMsg(msg)
+                .withSDElement(new SDElement("exampleSDID@32473", new SDParam("iut", "3")));
+        assertThat(message.toSyslogFrame(MessageFormat.RFC_5424).toString(), endsWith(" [exampleSDID@32473 iut=\"3\"] first message"));
+
+        // pooled message reused for another record
+        msg.reset();
+        msg.append("second message");
+        message.getSDElements().clear();
+        assertThat(message.toSyslogFrame(MessageFormat.RFC_5424).toString(), endsWith(" - second message"));
+    }
+
+    @Test
+    void testSyslogFrameWithMaxSize() {
+        SyslogMessage message = new SyslogMessage()
+                .withTimestamp(1386239405000L)
+                .withAppName("my_app")
+                .withHostname("myserver.example.com")
+                .withFacility(Facility.USER)
+                .withSeverity(Severity.INFORMATIONAL)
+                .withMsg("a syslog message \u00e9\u20ac");
+
+        for (MessageFormat messageFormat : MessageFormat.values()) {
+            byte[] expected = message.toSyslogMessage(messageFormat).getBytes(StandardCharsets.UTF_8);
+
+            SyslogFrame truncated = message.toSyslogFrame(messageFormat, expected.length - 1);
+            assertThat(truncated.isTruncated(), is(true));
+            // the euro sign is not cut
+            assertThat(truncated.size(), is(expected.length - 3));
+            assertThat(truncated.toString(), endsWith("a syslog message \u00e9"));
+
+            SyslogFrame frame = message.toSyslogFrame(messageFormat, expected.length);
+            assertThat(frame.isTruncated(), is(false));
+            assertThat(frame.toByteArray(), is(expected));
+        }
+    }
 }
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2010-2013 the original author or authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.cloudbees.syslog.integration.jul;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
+class StackTraceDeduplicatorTest {
+
+    @Test
+    void fingerprint_ignores_messages() {
+        long[] fingerprints = new long[2];
+        for (int i = 0; i < fingerprints.length; i++) {
+            fingerprints[i] = StackTraceDeduplicator.fingerprint(newException("message " + i));
+        }
+        assertThat(fingerprints[0], is(fingerprints[1]));
+    }
+
+    @Test
+    void fingerprint_depends_on_frames_and_causes() {
+        long fingerprint = StackTraceDeduplicator.fingerprint(newException("message"));
+        assertThat(StackTraceDeduplicator.fingerprint(new IllegalStateException("message")), is(not(fingerprint)));
+
+        Exception withCause = newException("message");
+        withCause.initCause(new IllegalArgumentException());
+        assertThat(StackTraceDeduplicator.fingerprint(withCause), is(not(fingerprint)));
+    }
+
+    @Test
+    void fingerprint_depends_on_suppressed_exceptions() {
+        Exception[] suppressed = {new IllegalStateException(), new UnsupportedOperationException()};
+        long[] fingerprints = new long[2];
+        for (int i = 0; i < fingerprints.length; i++) {
+            Exception exception = newException("message");
+            exception.initCause(new IllegalArgumentException());
+            exception.addSuppressed(suppressed[i]);
+            fingerprints[i] = StackTraceDeduplicator.fingerprint(exception);
+        }
+        assertThat(fingerprints[1], is(not(fingerprints[0])));
+
+        // a suppressed exception is not a cause
+        for (int i = 0; i < fingerprints.length; i++) {
+            Exception exception = newException("message");
+            Exception other = new IllegalStateException();
+            if (i == 0) {
+                exception.initCause(other);
+            } else {
+                exception.addSuppressed(other);
+            }
+            fingerprints[i] = StackTraceDeduplicator.fingerprint(exception);
+        }
+        assertThat(fingerprints[1], is(not(fingerprints[0])));
+
+        // cycles are bounded
+        Exception cycle = newException("message");
+        Exception suppressedByCycle = newException("suppressed");
+        cycle.addSuppressed(suppressedByCycle);
+        suppressedByCycle.addSuppressed(cycle);
+        StackTraceDeduplicator.fingerprint(cycle);
+    }
+
+    @Test
+    void occurrences_are_counted_per_window() {
+        StackTraceDeduplicator deduplicator = new StackTraceDeduplicator(1000, 10);
+        assertThat(deduplicator.record(1, 0), is(1L));
+        assertThat(deduplicator.record(1, 10), is(2L));
+        assertThat(deduplicator.record(2, 20), is(1L));
+        assertThat(deduplicator.record(1, 999), is(3L));
+        assertThat(deduplicator.record(1, 1000), is(1L));
+        assertThat(deduplicator.record(1, 1001), is(2L));
+    }
+
+    @Test
+    void unknown_stack_traces_are_not_deduplicated_when_too_many_are_tracked() {
+        StackTraceDeduplicator deduplicator = new StackTraceDeduplicator(1000, 2);
+        deduplicator.record(1, 0);
+        deduplicator.record(2, 0);
+        assertThat(deduplicator.record(3, 10), is(1L));
+        assertThat(deduplicator.record(3, 20), is(1L));
+        assertThat(deduplicator.record(1, 30), is(2L));
+
+        // expired fingerprints are purged to track new ones
+        assertThat(deduplicator.record(3, 1000), is(1L));
+        assertThat(deduplicator.record(3, 1010), is(2L));
+    }
+
+    @Test
+    void id_is_zero_padded() {
+        assertThat(StackTraceDeduplicator.toId(0xabcL), is("0000000000000abc"));
+        assertThat(StackTraceDeduplicator.toId(-1L), is("ffffffffffffffff"));
+    }
+
+    private static Exception newException(String message) {
+        return new Exception(message);
+    }
+}
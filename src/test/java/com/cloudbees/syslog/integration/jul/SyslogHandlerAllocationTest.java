@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2010-2013 the original author or authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.cloudbees.syslog.integration.jul;
+
+import com.cloudbees.syslog.AllocationBudget;
+import com.cloudbees.syslog.MessageFormat;
+import com.cloudbees.syslog.sender.LoopbackSyslogServer;
+import com.cloudbees.syslog.sender.TcpSyslogMessageSender;
+import org.junit.jupiter.api.Test;
+
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Allocation regression gate of {@link SyslogHandler#publish(LogRecord)}, see {@link AllocationBudget}.
+ */
+class SyslogHandlerAllocationTest {
+
+    @Test
+    void publish() throws Exception {
+        measure("publish", null);
+    }
+
+    @Test
+    void publish_with_throwable() throws Exception {
+        measure("publish.throwable", new IllegalStateException("expected"));
+    }
+
+    private void measure(String key, Throwable thrown) throws Exception {
+        try (LoopbackSyslogServer server = LoopbackSyslogServer.tcp().start()) {
+            server.setRetainFrames(false);
+            TcpSyslogMessageSender messageSender = new TcpSyslogMessageSender();
+            messageSender.setSyslogServerHostname("127.0.0.1");
+            messageSender.setSyslogServerPort(server.getPort());
+            messageSender.setMessageFormat(MessageFormat.RFC_5424);
+            SyslogHandler syslogHandler = new SyslogHandler(messageSender, Level.ALL, null);
+            syslogHandler.setAppName("my_app");
+            syslogHandler.setMessageHostname("myserver.example.com");
+
+            LogRecord record = new LogRecord(Level.INFO, "a log message with some non ASCII characters éèà");
+            record.setLoggerName(getClass().getName());
+            record.setThrown(thrown);
+            try {
+                AllocationBudget.assertWithinBudget("handler." + key, () -> syslogHandler.publish(record));
+            } finally {
+                syslogHandler.close();
+            }
+        }
+    }
+}
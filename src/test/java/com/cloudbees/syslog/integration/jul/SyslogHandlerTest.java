@@ -23,12 +23,29 @@
  */
 package com.cloudbees.syslog.integration.jul;
 
+import com.cloudbees.syslog.MessageFormat;
+import com.cloudbees.syslog.Severity;
+import com.cloudbees.syslog.sender.AsyncSyslogMessageSender;
+import com.cloudbees.syslog.sender.LoopbackSyslogServer;
 import com.cloudbees.syslog.sender.UdpSyslogMessageSender;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 import org.junit.jupiter.api.Test;
 
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.endsWith;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
 /**
  * @author <a href="mailto:cleclerc@cloudbees.com">Cyrille Le Clerc</a>
  */
@@ -51,4 +68,74 @@ class SyslogHandlerTest {
 
         logger.fine("hello world 2");
     }
+
+    @Test
+    void async_mode_configured_in_logging_properties() throws Exception {
+        try (LoopbackSyslogServer server = LoopbackSyslogServer.udp().start()) {
+            String prefix = SyslogHandler.class.getName();
+            String config = prefix + ".level=ALL\n" +
+                    prefix + ".syslogServerHostname=127.0.0.1\n" +
+                    prefix + ".syslogServerPort=" + server.getPort() + "\n" +
+                    prefix + ".appName=async-test\n" +
+                    prefix + ".async=true\n" +
+                    prefix + ".asyncQueueCapacity=100\n" +
+                    prefix + ".asyncDiscardingThreshold=10\n" +
+                    prefix + ".asyncDiscardingLevel=FINER\n" +
+                    prefix + ".asyncOverflowPolicy=DISCARD_OLDEST\n" +
+                    prefix + ".asyncShutdownTimeoutInMillis=2000\n";
+            LogManager.getLogManager().readConfiguration(new ByteArrayInputStream(config.getBytes(StandardCharsets.UTF_8)));
+            SyslogHandler syslogHandler;
+            try {
+                syslogHandler = new SyslogHandler();
+            } finally {
+                LogManager.getLogManager().readConfiguration();
+            }
+
+            assertThat(syslogHandler.getSyslogMessageSender(), instanceOf(AsyncSyslogMessageSender.class));
+            AsyncSyslogMessageSender asyncSender = (AsyncSyslogMessageSender) syslogHandler.getSyslogMessageSender();
+            assertThat(asyncSender.getQueueCapacity(), is(100));
+            assertThat(asyncSender.getDiscardingThreshold(), is(10));
+            assertThat(asyncSender.getDiscardingSeverity(), is(Severity.DEBUG));
+            assertThat(asyncSender.getOverflowPolicy(), is(AsyncSyslogMessageSender.OverflowPolicy.DISCARD_OLDEST));
+            assertThat(asyncSender.getShutdownTimeoutInMillis(), is(2000L));
+
+            for (int i = 0; i < 10; i++) {
+                syslogHandler.publish(new LogRecord(Level.INFO, "async message " + i));
+            }
+            syslogHandler.flush();
+            syslogHandler.close();
+
+            List<String> frames = server.awaitFrames(10, 5, TimeUnit.SECONDS);
+            assertThat(frames.get(9), endsWith("async message 9"));
+        }
+    }
+
+    @Test
+    void stack_traces_are_deduplicated() throws Exception {
+        try (LoopbackSyslogServer server = LoopbackSyslogServer.udp().start()) {
+            UdpSyslogMessageSender messageSender = new UdpSyslogMessageSender();
+            messageSender.setSyslogServerHostname("127.0.0.1");
+            messageSender.setSyslogServerPort(server.getPort());
+            messageSender.setMessageFormat(MessageFormat.RFC_5424);
+            SyslogHandler syslogHandler = new SyslogHandler(messageSender, Level.ALL, null);
+            syslogHandler.setStackTraceDeduplicator(new StackTraceDeduplicator(60_000, 10));
+
+            for (int i = 0; i < 3; i++) {
+                LogRecord record = new LogRecord(Level.WARNING, "failure " + i);
+                record.setThrown(new IllegalStateException("boom " + i));
+                syslogHandler.publish(record);
+            }
+            syslogHandler.close();
+
+            List<String> frames = server.awaitFrames(3, 5, TimeUnit.SECONDS);
+            String fingerprintId = frames.get(0).replaceAll("(?s).*fingerprint=\"([0-9a-f]+)\".*", "$1");
+            assertThat(frames.get(0), containsString("[stacktrace@32473 fingerprint=\"" + fingerprintId + "\" occurrence=\"1\"]"));
+            assertThat(frames.get(0), containsString("\tat " + getClass().getName() + ".stack_traces_are_deduplicated"));
+
+            assertThat(frames.get(2), containsString("fingerprint=\"" + fingerprintId + "\""));
+            assertThat(frames.get(2), containsString("occurrence=\"3\""));
+            assertThat(frames.get(2), endsWith("failure 2\njava.lang.IllegalStateException: boom 2 [stack trace " + fingerprintId + " already sent, occurrence 3]"));
+            assertThat(frames.get(2), not(containsString("\tat ")));
+        }
+    }
 }
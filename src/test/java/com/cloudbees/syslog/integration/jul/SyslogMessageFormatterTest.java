@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2010-2013 the original author or authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package com.cloudbees.syslog.integration.jul;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+
+class SyslogMessageFormatterTest {
+
+    @Test
+    void format_without_throwable() {
+        LogRecord record = new LogRecord(Level.WARNING, "hello {0}");
+        record.setParameters(new Object[]{"world"});
+        record.setLoggerName("my.logger");
+
+        String actual = new SyslogMessageFormatter().format(record);
+
+        assertThat(actual, is("WARNING [" + Thread.currentThread().getName() + "] my.logger: hello world"));
+    }
+
+    @Test
+    void stack_trace_is_rendered_like_printStackTrace() {
+        IllegalStateException cause = new IllegalStateException("cause");
+        RuntimeException thrown = new RuntimeException("thrown", cause);
+        thrown.addSuppressed(new IllegalArgumentException("suppressed"));
+        LogRecord record = new LogRecord(Level.SEVERE, "failure");
+        record.setLoggerName("my.logger");
+        record.setThrown(thrown);
+
+        StringWriter expected = new StringWriter();
+        PrintWriter pw = new PrintWriter(expected);
+        pw.println();
+        thrown.printStackTrace(pw);
+        pw.close();
+
+        String actual = new SyslogMessageFormatter().format(record);
+
+        assertThat(actual, is("SEVERE [" + Thread.currentThread().getName() + "] my.logger: failure" + expected));
+    }
+
+    @Test
+    void buffer_is_reused_by_the_thread() {
+        SyslogMessageFormatter formatter = new SyslogMessageFormatter();
+
+        assertThat(formatter.formatToBuffer(new LogRecord(Level.INFO, "first")),
+                sameInstance(formatter.formatToBuffer(new LogRecord(Level.INFO, "second"))));
+        assertThat(formatter.formatToBuffer(new LogRecord(Level.INFO, "third")).toString(),
+                is("INFO [" + Thread.currentThread().getName() + "] null: third"));
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.sender;
+
+import com.cloudbees.syslog.Facility;
+import com.cloudbees.syslog.Severity;
+import com.cloudbees.syslog.SyslogMessage;
+import org.junit.jupiter.api.Test;
+
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+
+class AsyncSyslogMessageSenderTest {
+
+    @Test
+    void send_does_not_block_and_discards_low_severity_first() throws Exception {
+        BlockingSyslogMessageSender blockingSender = new BlockingSyslogMessageSender();
+        try (AsyncSyslogMessageSender messageSender = new AsyncSyslogMessageSender(blockingSender, 10)) {
+            messageSender.setDiscardingThreshold(5);
+
+            // first message is taken by the writer thread which blocks
+            messageSender.sendMessage(message(Severity.INFORMATIONAL, "in-flight"));
+            blockingSender.awaitBlocked();
+            for (int i = 0; i < 5; i++) {
+                messageSender.sendMessage(message(Severity.INFORMATIONAL, "info-" + i));
+            }
+            // remaining capacity is 5, not below the threshold
+            messageSender.sendMessage(message(Severity.DEBUG, "debug-kept"));
+            // remaining capacity is 4, below the threshold
+            messageSender.sendMessage(message(Severity.DEBUG, "debug-discarded"));
+            for (int i = 5; i < 9; i++) {
+                messageSender.sendMessage(message(Severity.ERROR, "error-" + i));
+            }
+            // queue is full
+            messageSender.sendMessage(message(Severity.ERROR, "error-discarded"));
+
+            assertThat(messageSender.getQueueSize(), is(10));
+            assertThat(messageSender.getDiscardCount(), is(2L));
+
+            blockingSender.unblock();
+            assertThat(messageSender.flush(5, TimeUnit.SECONDS), is(true));
+            assertThat(blockingSender.bodies, contains("in-flight", "info-0", "info-1", "info-2", "info-3", "info-4",
+                    "debug-kept", "error-5", "error-6", "error-7", "error-8"));
+        }
+    }
+
+    @Test
+    void discard_oldest_when_full() throws Exception {
+        BlockingSyslogMessageSender blockingSender = new BlockingSyslogMessageSender();
+        try (AsyncSyslogMessageSender messageSender = new AsyncSyslogMessageSender(blockingSender, 2)) {
+            messageSender.setOverflowPolicy(AsyncSyslogMessageSender.OverflowPolicy.DISCARD_OLDEST);
+
+            messageSender.sendMessage(message(Severity.ERROR, "in-flight"));
+            blockingSender.awaitBlocked();
+            messageSender.sendMessage(message(Severity.ERROR, "1"));
+            messageSender.sendMessage(message(Severity.ERROR, "2"));
+            messageSender.sendMessage(message(Severity.ERROR, "3"));
+
+            assertThat(messageSender.getDiscardCount(), is(1L));
+            blockingSender.unblock();
+            assertThat(messageSender.flush(5, TimeUnit.SECONDS), is(true));
+            assertThat(blockingSender.bodies, contains("in-flight", "2", "3"));
+        }
+    }
+
+    @Test
+    void close_drains_queue_and_closes_underlying_sender() throws Exception {
+        BlockingSyslogMessageSender blockingSender = new BlockingSyslogMessageSender();
+        blockingSender.unblock();
+        AsyncSyslogMessageSender messageSender = new AsyncSyslogMessageSender(blockingSender);
+        for (int i = 0; i < 100; i++) {
+            messageSender.sendMessage("message-" + i);
+        }
+        messageSender.close();
+
+        assertThat(blockingSender.bodies.size(), is(100));
+        assertThat(blockingSender.closed, is(true));
+    }
+
+    @Test
+    void close_gives_up_after_shutdown_timeout() throws Exception {
+        BlockingSyslogMessageSender blockingSender = new BlockingSyslogMessageSender();
+        AsyncSyslogMessageSender messageSender = new AsyncSyslogMessageSender(blockingSender);
+        messageSender.setShutdownTimeoutInMillis(50);
+        messageSender.sendMessage("in-flight");
+        blockingSender.awaitBlocked();
+        messageSender.sendMessage("never sent");
+
+        assertThat(messageSender.flush(), is(false));
+        long nanosBefore = System.nanoTime();
+        messageSender.close();
+
+        assertThat(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - nanosBefore) < 5, is(true));
+        assertThat(messageSender.getDiscardCount(), is(1L));
+        assertThat(blockingSender.closed, is(true));
+    }
+
+    @Test
+    void send_errors_are_counted_not_thrown() throws Exception {
+        BlockingSyslogMessageSender failingSender = new BlockingSyslogMessageSender() {
+            @Override
+            public void sendMessage(SyslogMessage message) throws IOException {
+                throw new IOException("expected");
+            }
+        };
+        try (AsyncSyslogMessageSender messageSender = new AsyncSyslogMessageSender(failingSender)) {
+            messageSender.sendMessage("message-1");
+            messageSender.sendMessage("message-2");
+            assertThat(messageSender.flush(5, TimeUnit.SECONDS), is(true));
+            assertThat(messageSender.getSendErrorCount(), is(2));
+        }
+    }
+
+    private static SyslogMessage message(Severity severity, String body) {
+        return new SyslogMessage().withFacility(Facility.USER).withSeverity(severity).withMsg(body);
+    }
+
+    /**
+     * Records the sent messages, blocks until {@link #unblock()} is invoked.
+     */
+    static class BlockingSyslogMessageSender implements SyslogMessageSender {
+        final List<String> bodies = new CopyOnWriteArrayList<>();
+        private final CountDownLatch blocked = new CountDownLatch(1);
+        private final CountDownLatch unblocked = new CountDownLatch(1);
+        volatile boolean closed;
+
+        void awaitBlocked() throws InterruptedException {
+            assertThat(blocked.await(5, TimeUnit.SECONDS), is(true));
+        }
+
+        void unblock() {
+            unblocked.countDown();
+        }
+
+        @Override
+        public void sendMessage(CharArrayWriter message) throws IOException {
+            sendMessage(new SyslogMessage().withMsg(message));
+        }
+
+        @Override
+        public void sendMessage(CharSequence message) throws IOException {
+            sendMessage(new SyslogMessage().withMsg(message.toString()));
+        }
+
+        @Override
+        public void sendMessage(SyslogMessage message) throws IOException {
+            blocked.countDown();
+            try {
+                unblocked.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            bodies.add(message.getMsg().toString());
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.sender;
+
+import com.cloudbees.syslog.Facility;
+import com.cloudbees.syslog.MessageFormat;
+import com.cloudbees.syslog.Severity;
+import com.cloudbees.syslog.SyslogFrame;
+import com.cloudbees.syslog.SyslogMessage;
+import com.cloudbees.syslog.sender.AsyncSyslogMessageSenderTest.BlockingSyslogMessageSender;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.endsWith;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FanOutSyslogMessageSenderTest {
+
+    @Test
+    void messages_are_encoded_once_per_format() throws Exception {
+        try (NioLoopbackSyslogServer udpServer = LoopbackSyslogServer.udp().start();
+             NioLoopbackSyslogServer tlsServer = LoopbackSyslogServer.tls().start();
+             NioLoopbackSyslogServer tcpServer = LoopbackSyslogServer.tcp().start()) {
+            UdpSyslogMessageSender udpSender = new UdpSyslogMessageSender();
+            udpSender.setSyslogServerHostname("127.0.0.1");
+            udpSender.setSyslogServerPort(udpServer.getPort());
+            udpSender.setMessageFormat(MessageFormat.RFC_5424);
+
+            TcpSyslogMessageSender tlsSender = new TcpSyslogMessageSender();
+            tlsSender.setSyslogServerHostname("127.0.0.1");
+            tlsSender.setSyslogServerPort(tlsServer.getPort());
+            tlsSender.setSsl(true);
+            tlsSender.setSSLContext(tlsServer.getClientSslContext());
+            tlsSender.setMessageFormat(MessageFormat.RFC_5424);
+
+            TcpSyslogMessageSender tcpSender = new TcpSyslogMessageSender();
+            tcpSender.setSyslogServerHostname("127.0.0.1");
+            tcpSender.setSyslogServerPort(tcpServer.getPort());
+            tcpSender.setMessageFormat(MessageFormat.RFC_3164);
+
+            RecordingSyslogMessageSender recordingSender = new RecordingSyslogMessageSender();
+
+            try (FanOutSyslogMessageSender messageSender = new FanOutSyslogMessageSender(udpSender, tlsSender, tcpSender, recordingSender)) {
+                for (int i = 0; i < 10; i++) {
+                    messageSender.sendMessage(message("message-" + i));
+                }
+                assertThat(messageSender.flush(10, TimeUnit.SECONDS), is(true));
+                assertThat(messageSender.getEncodeCount(), is(20L));
+                assertThat(messageSender.getSendErrorCount(), is(0));
+            }
+
+            List<String> udpFrames = udpServer.awaitFrames(10, 5, TimeUnit.SECONDS);
+            List<String> tlsFrames = tlsServer.awaitFrames(10, 5, TimeUnit.SECONDS);
+            List<String> tcpFrames = tcpServer.awaitFrames(10, 5, TimeUnit.SECONDS);
+            assertThat(udpFrames.get(9), startsWith("<14>1 "));
+            assertThat(udpFrames.get(9), endsWith(" message-9"));
+            assertThat(tlsFrames, is(udpFrames));
+            assertThat(tcpFrames.get(9), startsWith("<14>"));
+            assertThat(tcpFrames.get(9), endsWith("my_app: message-9"));
+            assertThat(recordingSender.bodies().get(9), is("message-9"));
+        }
+    }
+
+    @Test
+    void slow_sender_does_not_delay_the_others() throws Exception {
+        BlockingSyslogMessageSender slowSender = new BlockingSyslogMessageSender();
+        RecordingSyslogMessageSender fastSender = new RecordingSyslogMessageSender();
+        FanOutSyslogMessageSender messageSender = new FanOutSyslogMessageSender(slowSender, fastSender);
+        messageSender.setShutdownTimeoutInMillis(100);
+        for (int i = 0; i < 10; i++) {
+            messageSender.sendMessage(message("message-" + i));
+        }
+        slowSender.awaitBlocked();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (fastSender.messages.size() < 10 && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+        assertThat(fastSender.messages.size(), is(10));
+        assertThat(messageSender.flush(10, TimeUnit.MILLISECONDS), is(false));
+
+        messageSender.close();
+        FanOutSyslogMessageSender.Branch slowBranch = messageSender.getBranches().get(0);
+        assertThat(slowBranch.getDiscardCount(), is(9L));
+        assertThat(slowSender.closed, is(true));
+        assertThat(fastSender.closed, is(true));
+    }
+
+    @Test
+    void frame_of_another_format_is_rejected() throws Exception {
+        try (TcpSyslogMessageSender tcpSender = new TcpSyslogMessageSender()) {
+            tcpSender.setMessageFormat(MessageFormat.RFC_3164);
+            SyslogFrame frame = message("message").toSyslogFrame(MessageFormat.RFC_5424);
+            assertThrows(IllegalArgumentException.class, () -> tcpSender.sendFrame(frame));
+        }
+    }
+
+    private static SyslogMessage message(String body) {
+        return new SyslogMessage().withTimestamp(1386239405000L).withHostname("myserver.example.com").withAppName("my_app")
+                .withFacility(Facility.USER).withSeverity(Severity.INFORMATIONAL).withMsg(body);
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.sender;
+
+import com.cloudbees.syslog.MessageFormat;
+import com.cloudbees.syslog.SyslogFrame;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+class FramingTest {
+
+    @Test
+    void non_transparent_framing_appends_the_trailer() throws Exception {
+        SyslogFrame frame = frame(MessageFormat.RFC_5424, "<14>1 message");
+        assertThat(write(Framing.LF, frame), is("<14>1 message\n"));
+        assertThat(write(Framing.CRLF, frame), is("<14>1 message\r\n"));
+        assertThat(write(Framing.NUL, frame), is("<14>1 message\0"));
+        assertThat(write(Framing.nonTransparent("||"), frame), is("<14>1 message||"));
+    }
+
+    @Test
+    void octet_counting_prefixes_the_length_in_bytes() throws Exception {
+        assertThat(write(Framing.OCTET_COUNTING, frame(MessageFormat.RFC_3164, "<14>é")), is("6 <14>é"));
+        assertThat(write(Framing.OCTET_COUNTING, frame(MessageFormat.RFC_5424, "<14>1 0123456789")), is("16 <14>1 0123456789"));
+        // already octet counted
+        assertThat(write(Framing.OCTET_COUNTING, frame(MessageFormat.RFC_5425, "8 <14>1 ab")), is("8 <14>1 ab"));
+    }
+
+    @Test
+    void default_framing_depends_on_the_format() {
+        assertThat(Framing.defaultFraming(MessageFormat.RFC_3164), is(Framing.CRLF));
+        assertThat(Framing.defaultFraming(MessageFormat.RFC_5424), is(Framing.CRLF));
+        assertThat(Framing.defaultFraming(MessageFormat.RFC_5425), is(Framing.OCTET_COUNTING));
+    }
+
+    private static SyslogFrame frame(MessageFormat messageFormat, String message) {
+        return SyslogFrame.copyOf(messageFormat, message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String write(Framing framing, SyslogFrame frame) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        framing.writeFrame(frame, out);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
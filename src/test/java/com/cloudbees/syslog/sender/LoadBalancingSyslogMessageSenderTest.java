@@ -0,0 +1,200 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.sender;
+
+import com.cloudbees.syslog.SyslogMessage;
+import com.cloudbees.syslog.sender.AsyncSyslogMessageSenderTest.BlockingSyslogMessageSender;
+import com.cloudbees.syslog.sender.LoadBalancingSyslogMessageSender.Destination;
+import com.cloudbees.syslog.sender.LoadBalancingSyslogMessageSender.Policy;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class LoadBalancingSyslogMessageSenderTest {
+
+    @Test
+    void round_robin_spreads_messages_evenly() throws Exception {
+        RecordingSyslogMessageSender[] senders = {new RecordingSyslogMessageSender(), new RecordingSyslogMessageSender(), new RecordingSyslogMessageSender()};
+        try (LoadBalancingSyslogMessageSender messageSender = new LoadBalancingSyslogMessageSender(Policy.ROUND_ROBIN, senders)) {
+            for (int i = 0; i < 30; i++) {
+                messageSender.sendMessage("message-" + i);
+            }
+            for (RecordingSyslogMessageSender sender : senders) {
+                assertThat(sender.messages.size(), is(10));
+            }
+            for (Destination destination : messageSender.getDestinations()) {
+                assertThat(destination.getSentCount(), is(10L));
+            }
+        }
+    }
+
+    @Test
+    void failed_destination_is_ejected_and_readmitted() throws Exception {
+        RecordingSyslogMessageSender healthy = new RecordingSyslogMessageSender();
+        RecordingSyslogMessageSender failing = new RecordingSyslogMessageSender();
+        failing.failing = true;
+        try (LoadBalancingSyslogMessageSender messageSender = new LoadBalancingSyslogMessageSender(Policy.ROUND_ROBIN, healthy, failing)) {
+            messageSender.setProbeIntervalInMillis(TimeUnit.HOURS.toMillis(1));
+            for (int i = 0; i < 10; i++) {
+                messageSender.sendMessage("message-" + i);
+            }
+            assertThat(healthy.messages.size(), is(10));
+            Destination failingDestination = messageSender.getDestinations().get(1);
+            assertThat(failingDestination.isHealthy(), is(false));
+            assertThat(failingDestination.getFailureCount(), is(1L));
+            assertThat(failingDestination.getEjectionCount(), is(1L));
+            assertThat(messageSender.getSendErrorCount(), is(0));
+
+            failing.failing = false;
+            messageSender.probeEjectedDestinations();
+            assertThat(failingDestination.isHealthy(), is(true));
+            for (int i = 0; i < 10; i++) {
+                messageSender.sendMessage("message-" + i);
+            }
+            assertThat(failing.messages.size(), is(5));
+        }
+    }
+
+    @Test
+    void send_fails_when_all_destinations_fail() throws Exception {
+        RecordingSyslogMessageSender first = new RecordingSyslogMessageSender();
+        RecordingSyslogMessageSender second = new RecordingSyslogMessageSender();
+        first.failing = true;
+        second.failing = true;
+        try (LoadBalancingSyslogMessageSender messageSender = new LoadBalancingSyslogMessageSender(Policy.ROUND_ROBIN, first, second)) {
+            messageSender.setMaxConsecutiveFailures(3);
+            assertThrows(IOException.class, () -> messageSender.sendMessage("message"));
+            assertThat(first.getSendCount() + second.getSendCount(), is(2));
+            assertThat(messageSender.getSendErrorCount(), is(1));
+            assertThat(messageSender.getHealthyDestinations().size(), is(2));
+        }
+    }
+
+    @Test
+    void least_outstanding_bytes_avoids_busy_destination() throws Exception {
+        BlockingSyslogMessageSender busy = new BlockingSyslogMessageSender();
+        RecordingSyslogMessageSender idle = new RecordingSyslogMessageSender();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (LoadBalancingSyslogMessageSender messageSender = new LoadBalancingSyslogMessageSender(Policy.LEAST_OUTSTANDING_BYTES, busy, idle)) {
+            // both destinations are idle, the first one may be the idle sender
+            Future<?> inFlight = null;
+            for (int i = 0; i < 2 && inFlight == null; i++) {
+                Future<?> future = executor.submit(() -> {
+                    messageSender.sendMessage("in-flight");
+                    return null;
+                });
+                try {
+                    future.get(200, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    inFlight = future;
+                }
+            }
+            busy.awaitBlocked();
+            assertThat(messageSender.getDestinations().get(0).getOutstandingBytes(), greaterThan(0L));
+
+            int idleMessagesBefore = idle.messages.size();
+            for (int i = 0; i < 10; i++) {
+                messageSender.sendMessage("message-" + i);
+            }
+            assertThat(idle.messages.size(), is(idleMessagesBefore + 10));
+            busy.unblock();
+            inFlight.get(5, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void ewma_latency_favors_fast_destination() throws Exception {
+        RecordingSyslogMessageSender slow = new RecordingSyslogMessageSender() {
+            @Override
+            public void sendMessage(SyslogMessage message) throws IOException {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(20);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                super.sendMessage(message);
+            }
+        };
+        RecordingSyslogMessageSender fast = new RecordingSyslogMessageSender();
+        try (LoadBalancingSyslogMessageSender messageSender = new LoadBalancingSyslogMessageSender(Policy.EWMA_LATENCY, slow, fast)) {
+            for (int i = 0; i < 20; i++) {
+                messageSender.sendMessage("message-" + i);
+            }
+            assertThat(slow.messages.size() <= 1, is(true));
+            assertThat(messageSender.getDestinations().get(0).getLatencyEwmaInNanos() > messageSender.getDestinations().get(1).getLatencyEwmaInNanos(), is(true));
+        }
+    }
+
+    @Test
+    void ewma_latency_tries_again_a_destination_once_slow() throws Exception {
+        RecordingSyslogMessageSender recovering = new RecordingSyslogMessageSender() {
+            @Override
+            public void sendMessage(SyslogMessage message) throws IOException {
+                if (messages.isEmpty()) {
+                    try {
+                        TimeUnit.MILLISECONDS.sleep(20);
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+                super.sendMessage(message);
+            }
+        };
+        RecordingSyslogMessageSender fast = new RecordingSyslogMessageSender();
+        try (LoadBalancingSyslogMessageSender messageSender = new LoadBalancingSyslogMessageSender(Policy.EWMA_LATENCY, recovering, fast)) {
+            messageSender.setLatencyEwmaHalfLifeInMillis(20);
+            long deadlineInNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            int i = 0;
+            while (recovering.messages.size() < 2 && System.nanoTime() < deadlineInNanos) {
+                messageSender.sendMessage("message-" + i++);
+                TimeUnit.MILLISECONDS.sleep(5);
+            }
+            assertThat(recovering.messages.size(), is(2));
+            assertThat(messageSender.getDestinations().get(0).getLatencyEwmaInNanos() < TimeUnit.MILLISECONDS.toNanos(20), is(true));
+        }
+    }
+
+    @Test
+    void tcp_destinations_are_probed_with_a_connection() throws Exception {
+        NioLoopbackSyslogServer server = LoopbackSyslogServer.tcp().start();
+        TcpSyslogMessageSender tcpSender = new TcpSyslogMessageSender();
+        tcpSender.setSyslogServerHostname("127.0.0.1");
+        tcpSender.setSyslogServerPort(server.getPort());
+        try (LoadBalancingSyslogMessageSender messageSender = new LoadBalancingSyslogMessageSender(Policy.ROUND_ROBIN, tcpSender)) {
+            Destination destination = messageSender.getDestinations().get(0);
+            assertThat(messageSender.probe(destination), is(true));
+            server.close();
+            // the listening socket is released asynchronously when the acceptor thread wakes up
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (messageSender.probe(destination) && System.nanoTime() < deadline) {
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+            assertThat(messageSender.probe(destination), is(false));
+        }
+    }
+}
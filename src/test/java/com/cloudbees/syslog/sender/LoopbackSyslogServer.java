@@ -0,0 +1,201 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.sender;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * In-process syslog server listening on the loopback interface, used as a stand-in for a real collector in tests
+ * and benchmarks.
+ *
+ * Every received frame is handed, without its framing, to the {@link #setFrameListener(Consumer) frame listener}.
+ * Frames are also retained in memory unless {@link #setRetainFrames(boolean)} is disabled (benchmarks).
+ *
+ * Failures of the server threads are recorded and fail the waits and the {@link #close()} of the server.
+ */
+public abstract class LoopbackSyslogServer implements Closeable {
+
+    protected final AtomicLong receivedFrameCounter = new AtomicLong();
+    protected final AtomicLong receivedByteCounter = new AtomicLong();
+    private final List<String> frames = new ArrayList<>();
+    private final List<Throwable> failures = new CopyOnWriteArrayList<>();
+    private volatile boolean retainFrames = true;
+    private volatile Consumer<String> frameListener;
+
+    /**
+     * Start listening on an ephemeral port of the loopback interface.
+     */
+    public abstract LoopbackSyslogServer start() throws Exception;
+
+    public abstract int getPort();
+
+    /**
+     * Stop listening and close the connections.
+     */
+    protected abstract void stop() throws IOException;
+
+    /**
+     * @throws AssertionError if a server thread failed
+     */
+    @Override
+    public void close() throws IOException {
+        stop();
+        assertNoFailure();
+    }
+
+    /**
+     * Record the failure of a server thread.
+     */
+    protected void onFailure(Throwable failure) {
+        failures.add(failure);
+        synchronized (frames) {
+            frames.notifyAll();
+        }
+    }
+
+    /**
+     * @throws AssertionError if a server thread failed
+     */
+    public void assertNoFailure() {
+        if (!failures.isEmpty()) {
+            AssertionError error = new AssertionError("Loopback syslog server failed: " + failures);
+            for (Throwable failure : failures) {
+                error.addSuppressed(failure);
+            }
+            throw error;
+        }
+    }
+
+    public static NioLoopbackSyslogServer udp() {
+        return new NioLoopbackSyslogServer(NioLoopbackSyslogServer.Transport.UDP);
+    }
+
+    public static NioLoopbackSyslogServer tcp() {
+        return new NioLoopbackSyslogServer(NioLoopbackSyslogServer.Transport.TCP);
+    }
+
+    public static NioLoopbackSyslogServer tls() {
+        return new NioLoopbackSyslogServer(NioLoopbackSyslogServer.Transport.TLS);
+    }
+
+    public static RelpLoopbackSyslogServer relp() {
+        return new RelpLoopbackSyslogServer();
+    }
+
+    protected void onFrame(byte[] buffer, int offset, int length) {
+        receivedFrameCounter.incrementAndGet();
+        receivedByteCounter.addAndGet(length);
+        String frame = new String(buffer, offset, length, StandardCharsets.UTF_8);
+        if (retainFrames) {
+            synchronized (frames) {
+                frames.add(frame);
+                frames.notifyAll();
+            }
+        }
+        Consumer<String> listener = frameListener;
+        if (listener != null) {
+            listener.accept(frame);
+        }
+    }
+
+    /**
+     * Wait until at least {@code count} frames have been received.
+     *
+     * @return the received frames
+     * @throws AssertionError if the frames have not been received before the timeout
+     */
+    public List<String> awaitFrames(int count, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (frames) {
+            while (frames.size() < count) {
+                assertNoFailure();
+                long remainingInMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingInMillis <= 0) {
+                    throw new AssertionError("Received " + frames.size() + " frames, expected " + count + ": " + frames);
+                }
+                frames.wait(remainingInMillis);
+            }
+            return new ArrayList<>(frames);
+        }
+    }
+
+    /**
+     * Wait until at least {@code count} frames have been received, also works when frames are not retained.
+     *
+     * @throws AssertionError if the frames have not been received before the timeout
+     */
+    public void awaitReceivedFrameCount(long count, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (receivedFrameCounter.get() < count) {
+            assertNoFailure();
+            if (System.nanoTime() - deadline > 0) {
+                throw new AssertionError("Received " + receivedFrameCounter.get() + " frames, expected " + count);
+            }
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+    }
+
+    /**
+     * Wait until the received frame count stops increasing, for lossy transports where the expected count may
+     * never be reached.
+     */
+    public long awaitQuiescence(long quietPeriod, TimeUnit unit) throws InterruptedException {
+        long before;
+        do {
+            before = receivedFrameCounter.get();
+            unit.sleep(quietPeriod);
+        } while (receivedFrameCounter.get() != before);
+        return before;
+    }
+
+    public List<String> getFrames() {
+        synchronized (frames) {
+            return new ArrayList<>(frames);
+        }
+    }
+
+    public void clear() {
+        synchronized (frames) {
+            frames.clear();
+        }
+        receivedFrameCounter.set(0);
+        receivedByteCounter.set(0);
+    }
+
+    public long getReceivedFrameCount() {
+        return receivedFrameCounter.get();
+    }
+
+    public long getReceivedByteCount() {
+        return receivedByteCounter.get();
+    }
+
+    public void setRetainFrames(boolean retainFrames) {
+        this.retainFrames = retainFrames;
+    }
+
+    public void setFrameListener(Consumer<String> frameListener) {
+        this.frameListener = frameListener;
+    }
+}
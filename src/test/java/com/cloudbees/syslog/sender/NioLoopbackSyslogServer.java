@@ -0,0 +1,121 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.sender;
+
+import com.cloudbees.syslog.server.SyslogMessageView;
+import com.cloudbees.syslog.server.SyslogServer;
+
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Loopback syslog server over UDP, TCP or TLS backed by the {@link SyslogServer}: every received message is recorded
+ * as is, without its framing.
+ */
+public class NioLoopbackSyslogServer extends LoopbackSyslogServer {
+
+    enum Transport {UDP, TCP, TLS}
+
+    private final Transport transport;
+    private volatile SyslogServer syslogServer;
+
+    NioLoopbackSyslogServer(Transport transport) {
+        this.transport = transport;
+    }
+
+    @Override
+    public NioLoopbackSyslogServer start() throws Exception {
+        return start(InetAddress.getLoopbackAddress(), 0);
+    }
+
+    /**
+     * @param bindAddress local address to listen on
+     * @param port        port to listen on, {@code 0} for an ephemeral port
+     */
+    public NioLoopbackSyslogServer start(InetAddress bindAddress, int port) throws Exception {
+        SyslogServer syslogServer = new SyslogServer();
+        syslogServer.setBindAddress(bindAddress);
+        switch (transport) {
+            case UDP:
+                syslogServer.setUdpPort(port);
+                break;
+            case TCP:
+                syslogServer.setTcpPort(port);
+                break;
+            case TLS:
+                syslogServer.setTlsPort(port);
+                syslogServer.setSSLContext(SelfSignedCertificate.getInstance().getServerSslContext());
+                break;
+            default:
+                throw new IllegalStateException("Unexpected transport " + transport);
+        }
+        syslogServer.setMessageViewHandler(this::onMessages);
+        this.syslogServer = syslogServer.start();
+        return this;
+    }
+
+    private void onMessages(List<SyslogMessageView> messages) {
+        try {
+            for (SyslogMessageView message : messages) {
+                ByteBuffer frame = message.getFrame();
+                onFrame(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+            }
+        } catch (RuntimeException e) {
+            onFailure(e);
+            throw e;
+        }
+    }
+
+    /**
+     * @return the client {@link SSLContext} trusting the certificate of this server
+     */
+    public SSLContext getClientSslContext() throws Exception {
+        return SelfSignedCertificate.getInstance().getClientSslContext();
+    }
+
+    /**
+     * Abruptly close all the accepted connections by restarting the server on the same port, the received frames are
+     * kept.
+     */
+    public void dropConnections() throws Exception {
+        SyslogServer syslogServer = this.syslogServer;
+        InetAddress bindAddress = syslogServer.getBindAddress();
+        int port = getPort();
+        syslogServer.close();
+        start(bindAddress, port);
+    }
+
+    @Override
+    public int getPort() {
+        SyslogServer syslogServer = this.syslogServer;
+        switch (transport) {
+            case UDP:
+                return syslogServer.getUdpPort();
+            case TCP:
+                return syslogServer.getTcpPort();
+            default:
+                return syslogServer.getTlsPort();
+        }
+    }
+
+    @Override
+    protected void stop() throws IOException {
+        syslogServer.close();
+    }
+}
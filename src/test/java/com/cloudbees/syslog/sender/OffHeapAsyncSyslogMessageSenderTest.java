@@ -0,0 +1,122 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.sender;
+
+import com.cloudbees.syslog.MessageFormat;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class OffHeapAsyncSyslogMessageSenderTest {
+
+    @Test
+    void messages_of_concurrent_threads_are_sent_in_batches() throws Exception {
+        try (NioLoopbackSyslogServer server = LoopbackSyslogServer.tcp().start()) {
+            TcpSyslogMessageSender tcpSender = new TcpSyslogMessageSender();
+            tcpSender.setSyslogServerHostname("127.0.0.1");
+            tcpSender.setSyslogServerPort(server.getPort());
+            tcpSender.setMessageFormat(MessageFormat.RFC_5425);
+            try (OffHeapAsyncSyslogMessageSender messageSender = new OffHeapAsyncSyslogMessageSender(tcpSender)) {
+                List<Thread> threads = new ArrayList<>();
+                for (int t = 0; t < 4; t++) {
+                    int thread = t;
+                    threads.add(new Thread(() -> {
+                        try {
+                            for (int i = 0; i < 500; i++) {
+                                messageSender.sendMessage("thread-" + thread + " message-" + i + "\nwith a line break");
+                            }
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }));
+                }
+                threads.forEach(Thread::start);
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+
+                assertThat(messageSender.flush(5, TimeUnit.SECONDS), is(true));
+                List<String> frames = server.awaitFrames(2000, 5, TimeUnit.SECONDS);
+                int[] nextByThread = new int[4];
+                for (String frame : frames) {
+                    String msg = frame.substring(frame.indexOf("thread-"));
+                    int thread = msg.charAt("thread-".length()) - '0';
+                    assertThat(msg, is("thread-" + thread + " message-" + nextByThread[thread]++ + "\nwith a line break"));
+                }
+                assertThat(messageSender.getSendCount(), is(2000));
+                assertThat(messageSender.getDiscardCount(), is(0L));
+                assertThat(messageSender.getQueueSize(), is(0L));
+                // the messages of the batches are counted by the underlying sender
+                assertThat(tcpSender.getSendCount(), is(2000));
+            }
+        }
+    }
+
+    @Test
+    void messages_are_discarded_when_the_buffer_is_full() throws Exception {
+        BlockingTcpSyslogMessageSender tcpSender = new BlockingTcpSyslogMessageSender();
+        try (OffHeapAsyncSyslogMessageSender messageSender = new OffHeapAsyncSyslogMessageSender(tcpSender, 1024)) {
+            messageSender.setShutdownTimeoutInMillis(50);
+            messageSender.sendMessage("in-flight");
+            assertThat(tcpSender.blocked.await(5, TimeUnit.SECONDS), is(true));
+            for (int i = 0; i < 100; i++) {
+                messageSender.sendMessage("message-" + i);
+            }
+
+            assertThat(messageSender.getDiscardCount() > 0, is(true));
+            assertThat(messageSender.getBufferSizeInBytes() > 1024 - 128, is(true));
+            assertThat(messageSender.getQueueSize() + messageSender.getDiscardCount(), is(101L));
+        }
+        assertThat(tcpSender.closed, is(true));
+    }
+
+    @Test
+    void relp_is_not_supported() {
+        assertThrows(IllegalArgumentException.class, () -> new OffHeapAsyncSyslogMessageSender(new RelpSyslogMessageSender()));
+    }
+
+    /**
+     * Blocks the writer thread until closed.
+     */
+    private static class BlockingTcpSyslogMessageSender extends TcpSyslogMessageSender {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        volatile boolean closed;
+
+        @Override
+        void sendFramedBytes(byte[] bytes, int offset, int length, int messageCount) throws IOException {
+            blocked.countDown();
+            try {
+                Thread.sleep(Long.MAX_VALUE);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
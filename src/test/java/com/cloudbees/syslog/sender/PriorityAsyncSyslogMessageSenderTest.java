@@ -0,0 +1,130 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.sender;
+
+import com.cloudbees.syslog.Facility;
+import com.cloudbees.syslog.Severity;
+import com.cloudbees.syslog.SyslogMessage;
+import com.cloudbees.syslog.sender.AsyncSyslogMessageSenderTest.BlockingSyslogMessageSender;
+import com.cloudbees.syslog.sender.PriorityAsyncSyslogMessageSender.DrainPolicy;
+import com.cloudbees.syslog.sender.PriorityAsyncSyslogMessageSender.Lane;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+
+class PriorityAsyncSyslogMessageSenderTest {
+
+    @Test
+    void lanes_of_severities() {
+        assertThat(Lane.fromSeverity(Severity.EMERGENCY), is(Lane.HIGH));
+        assertThat(Lane.fromSeverity(Severity.ERROR), is(Lane.HIGH));
+        assertThat(Lane.fromSeverity(Severity.WARNING), is(Lane.MEDIUM));
+        assertThat(Lane.fromSeverity(Severity.NOTICE), is(Lane.MEDIUM));
+        assertThat(Lane.fromSeverity(Severity.INFORMATIONAL), is(Lane.LOW));
+        assertThat(Lane.fromSeverity(Severity.DEBUG), is(Lane.LOW));
+    }
+
+    @Test
+    void strict_priority_sends_higher_lanes_first() throws Exception {
+        BlockingSyslogMessageSender blockingSender = new BlockingSyslogMessageSender();
+        try (PriorityAsyncSyslogMessageSender messageSender = new PriorityAsyncSyslogMessageSender(blockingSender, 10)) {
+            messageSender.sendMessage(message(Severity.DEBUG, "in-flight"));
+            blockingSender.awaitBlocked();
+            messageSender.sendMessage(message(Severity.DEBUG, "debug-1"));
+            messageSender.sendMessage(message(Severity.WARNING, "warning-1"));
+            messageSender.sendMessage(message(Severity.ERROR, "error-1"));
+            messageSender.sendMessage(message(Severity.DEBUG, "debug-2"));
+            messageSender.sendMessage(message(Severity.CRITICAL, "critical-1"));
+
+            assertThat(messageSender.getQueueSize(Lane.HIGH), is(2));
+            blockingSender.unblock();
+            assertThat(messageSender.flush(5, TimeUnit.SECONDS), is(true));
+            assertThat(blockingSender.bodies, contains("in-flight", "error-1", "critical-1", "warning-1", "debug-1", "debug-2"));
+        }
+    }
+
+    @Test
+    void weighted_priority_does_not_starve_lower_lanes() throws Exception {
+        BlockingSyslogMessageSender blockingSender = new BlockingSyslogMessageSender();
+        try (PriorityAsyncSyslogMessageSender messageSender = new PriorityAsyncSyslogMessageSender(blockingSender, 100)) {
+            messageSender.setDrainPolicy(DrainPolicy.WEIGHTED);
+            messageSender.sendMessage(message(Severity.DEBUG, "in-flight"));
+            blockingSender.awaitBlocked();
+            messageSender.sendMessage(message(Severity.DEBUG, "debug"));
+            for (int i = 0; i < 20; i++) {
+                messageSender.sendMessage(message(Severity.ERROR, "error-" + i));
+            }
+
+            blockingSender.unblock();
+            assertThat(messageSender.flush(5, TimeUnit.SECONDS), is(true));
+            // the in-flight message used the credit of the low lane in the first round, sent after the errors of
+            // the second round
+            assertThat(blockingSender.bodies.indexOf("debug"), is(1 + 2 * Lane.HIGH.weight()));
+        }
+    }
+
+    @Test
+    void lowest_lane_is_discarded_first_when_full() throws Exception {
+        BlockingSyslogMessageSender blockingSender = new BlockingSyslogMessageSender();
+        try (PriorityAsyncSyslogMessageSender messageSender = new PriorityAsyncSyslogMessageSender(blockingSender, 3)) {
+            messageSender.sendMessage(message(Severity.ERROR, "in-flight"));
+            blockingSender.awaitBlocked();
+            messageSender.sendMessage(message(Severity.DEBUG, "debug-1"));
+            messageSender.sendMessage(message(Severity.WARNING, "warning-1"));
+            messageSender.sendMessage(message(Severity.DEBUG, "debug-2"));
+            // full, discards debug-1
+            messageSender.sendMessage(message(Severity.ERROR, "error-1"));
+            // full, discards debug-2
+            messageSender.sendMessage(message(Severity.WARNING, "warning-2"));
+            // full, nothing of lower priority, discarded
+            messageSender.sendMessage(message(Severity.WARNING, "warning-3"));
+            // full, discards warning-1
+            messageSender.sendMessage(message(Severity.ERROR, "error-2"));
+
+            assertThat(messageSender.getDiscardCount(Lane.LOW), is(2L));
+            assertThat(messageSender.getDiscardCount(Lane.MEDIUM), is(2L));
+            assertThat(messageSender.getDiscardCount(Lane.HIGH), is(0L));
+            assertThat(messageSender.getQueueSize(), is(3));
+
+            blockingSender.unblock();
+            assertThat(messageSender.flush(5, TimeUnit.SECONDS), is(true));
+            assertThat(blockingSender.bodies, contains("in-flight", "error-1", "error-2", "warning-2"));
+        }
+    }
+
+    @Test
+    void close_drains_all_lanes() throws Exception {
+        BlockingSyslogMessageSender blockingSender = new BlockingSyslogMessageSender();
+        blockingSender.unblock();
+        PriorityAsyncSyslogMessageSender messageSender = new PriorityAsyncSyslogMessageSender(blockingSender);
+        Severity[] severities = Severity.values();
+        for (int i = 0; i < 100; i++) {
+            messageSender.sendMessage(message(severities[i % severities.length], "message-" + i));
+        }
+        messageSender.close();
+
+        assertThat(blockingSender.bodies.size(), is(100));
+        assertThat(blockingSender.closed, is(true));
+    }
+
+    private static SyslogMessage message(Severity severity, String body) {
+        return new SyslogMessage().withFacility(Facility.USER).withSeverity(severity).withMsg(body);
+    }
+}
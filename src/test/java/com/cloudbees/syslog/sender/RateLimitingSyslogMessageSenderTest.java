@@ -0,0 +1,132 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.sender;
+
+import com.cloudbees.syslog.Facility;
+import com.cloudbees.syslog.SDElement;
+import com.cloudbees.syslog.SDParam;
+import com.cloudbees.syslog.Severity;
+import com.cloudbees.syslog.SyslogMessage;
+import com.cloudbees.syslog.sender.AsyncSyslogMessageSenderTest.BlockingSyslogMessageSender;
+import com.cloudbees.syslog.sender.RateLimitingSyslogMessageSender.KeyField;
+import org.junit.jupiter.api.Test;
+
+import java.util.EnumSet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+
+class RateLimitingSyslogMessageSenderTest {
+
+    /**
+     * Refill interval long enough for the background thread to never refill during the tests.
+     */
+    private static final long NEVER = 3_600_000;
+
+    @Test
+    void messages_over_the_limit_are_suppressed_and_summarized() throws Exception {
+        RecordingSyslogMessageSender recordingSender = new RecordingSyslogMessageSender();
+        try (RateLimitingSyslogMessageSender messageSender = new RateLimitingSyslogMessageSender(recordingSender, 2, 3, NEVER,
+                EnumSet.of(KeyField.APP_NAME, KeyField.SEVERITY))) {
+            for (int i = 0; i < 10; i++) {
+                messageSender.sendMessage(message("app-a", Severity.DEBUG, "a-debug-" + i));
+            }
+            messageSender.sendMessage(message("app-a", Severity.ERROR, "a-error"));
+            messageSender.sendMessage(message("app-b", Severity.DEBUG, "b-debug"));
+
+            assertThat(recordingSender.bodies(), contains("a-debug-0", "a-debug-1", "a-debug-2", "a-error", "b-debug"));
+
+            // 1 second, 2 permits
+            messageSender.refill(1000);
+            messageSender.sendMessage(message("app-a", Severity.DEBUG, "a-debug-10"));
+            messageSender.sendMessage(message("app-a", Severity.DEBUG, "a-debug-11"));
+            messageSender.sendMessage(message("app-a", Severity.DEBUG, "a-debug-12"));
+            assertThat(messageSender.getSuppressedCount(), is(7L));
+
+            recordingSender.messages.clear();
+            messageSender.sendSummary();
+            assertThat(messageSender.getSuppressedCount(), is(8L));
+            assertThat(recordingSender.messages.size(), is(1));
+            SyslogMessage summary = recordingSender.messages.get(0);
+            assertThat(summary.getSeverity(), is(Severity.WARNING));
+            assertThat(summary.getAppName(), is("app-a"));
+            SDElement sdElement = summary.getSDElements().iterator().next();
+            assertThat(sdElement.getSdID(), is(RateLimitingSyslogMessageSender.RATE_LIMIT_SD_ID));
+            assertThat(sdElement.getSdParams(), contains(new SDParam("suppressed", "8"), new SDParam("severity", "DEBUG"),
+                    new SDParam("appName", "app-a")));
+
+            recordingSender.messages.clear();
+            messageSender.sendSummary();
+            assertThat(recordingSender.messages.size(), is(0));
+        }
+    }
+
+    @Test
+    void buckets_never_exceed_burst() throws Exception {
+        RecordingSyslogMessageSender recordingSender = new RecordingSyslogMessageSender();
+        try (RateLimitingSyslogMessageSender messageSender = new RateLimitingSyslogMessageSender(recordingSender, 1000, 2, NEVER,
+                EnumSet.noneOf(KeyField.class))) {
+            messageSender.refill(60_000);
+            for (int i = 0; i < 5; i++) {
+                messageSender.sendMessage(message("app", Severity.INFORMATIONAL, "message-" + i));
+            }
+            assertThat(recordingSender.bodies(), contains("message-0", "message-1"));
+        }
+    }
+
+    @Test
+    void fractional_permits_are_accumulated() throws Exception {
+        RecordingSyslogMessageSender recordingSender = new RecordingSyslogMessageSender();
+        try (RateLimitingSyslogMessageSender messageSender = new RateLimitingSyslogMessageSender(recordingSender, 1, 1, NEVER,
+                EnumSet.of(KeyField.FACILITY))) {
+            messageSender.sendMessage(message("app", Severity.INFORMATIONAL, "message-0"));
+            for (int i = 1; i < 10; i++) {
+                messageSender.refill(100);
+                messageSender.sendMessage(message("app", Severity.INFORMATIONAL, "message-" + i));
+            }
+            messageSender.refill(100);
+            messageSender.sendMessage(message("app", Severity.INFORMATIONAL, "message-10"));
+            assertThat(recordingSender.bodies(), contains("message-0", "message-10"));
+        }
+    }
+
+    @Test
+    void app_names_beyond_the_maximum_share_buckets() throws Exception {
+        RecordingSyslogMessageSender recordingSender = new RecordingSyslogMessageSender();
+        try (RateLimitingSyslogMessageSender messageSender = new RateLimitingSyslogMessageSender(recordingSender, 1, 1, NEVER,
+                EnumSet.of(KeyField.APP_NAME))) {
+            messageSender.setMaxAppNames(1);
+            messageSender.sendMessage(message("app-a", Severity.INFORMATIONAL, "a"));
+            messageSender.sendMessage(message("app-b", Severity.INFORMATIONAL, "b"));
+            messageSender.sendMessage(message("app-c", Severity.INFORMATIONAL, "c"));
+            assertThat(recordingSender.bodies(), containsInAnyOrder("a", "b"));
+        }
+    }
+
+    @Test
+    void close_closes_underlying_sender() throws Exception {
+        BlockingSyslogMessageSender blockingSender = new BlockingSyslogMessageSender();
+        RateLimitingSyslogMessageSender messageSender = new RateLimitingSyslogMessageSender(blockingSender, 10, 10);
+        messageSender.close();
+        assertThat(blockingSender.closed, is(true));
+    }
+
+    private static SyslogMessage message(String appName, Severity severity, String body) {
+        return new SyslogMessage().withAppName(appName).withFacility(Facility.USER).withSeverity(severity).withMsg(body);
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.sender;
+
+import com.cloudbees.syslog.SyslogMessage;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+/**
+ * Records the sent messages, fails with an {@link IOException} while {@link #failing}.
+ */
+class RecordingSyslogMessageSender extends AbstractSyslogMessageSender {
+    final List<SyslogMessage> messages = new CopyOnWriteArrayList<>();
+    volatile boolean failing;
+    volatile boolean closed;
+
+    List<String> bodies() {
+        return messages.stream().map(message -> message.getMsg().toString()).collect(Collectors.toList());
+    }
+
+    @Override
+    public void sendMessage(SyslogMessage message) throws IOException {
+        sendCounter.incrementAndGet();
+        if (failing) {
+            sendErrorCounter.incrementAndGet();
+            throw new IOException("expected");
+        }
+        messages.add(message);
+    }
+
+    @Override
+    public void setSyslogServerHostname(String syslogServerHostname) {
+    }
+
+    @Override
+    public void setSyslogServerPort(int syslogServerPort) {
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+}
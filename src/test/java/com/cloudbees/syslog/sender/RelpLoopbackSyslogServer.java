@@ -0,0 +1,179 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.sender;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Loopback RELP server: answers the {@code open} and {@code close} commands and acknowledges each {@code syslog}
+ * command with a {@code 200 OK} response, unless {@link #setAcknowledging(boolean) acknowledgements} are disabled to
+ * simulate messages lost in the socket buffers, or the message contains the {@link #setRejectedText(String) rejected
+ * text}.
+ */
+public class RelpLoopbackSyslogServer extends LoopbackSyslogServer {
+
+    private ServerSocket serverSocket;
+    private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+    private volatile boolean acknowledging = true;
+    private volatile String rejectedText;
+
+    @Override
+    public RelpLoopbackSyslogServer start() throws Exception {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptorThread = new Thread(this::accept, "relp-loopback-syslog-server-" + getPort());
+        acceptorThread.setDaemon(true);
+        acceptorThread.start();
+        return this;
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                sockets.add(socket);
+                Thread readerThread = new Thread(() -> read(socket), "relp-loopback-syslog-server-connection-" + socket.getPort());
+                readerThread.setDaemon(true);
+                readerThread.start();
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    onFailure(e);
+                }
+            }
+        }
+    }
+
+    private void read(Socket socket) {
+        try (InputStream in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+             OutputStream out = new BufferedOutputStream(socket.getOutputStream())) {
+            int b;
+            while ((b = in.read()) != -1) {
+                if (b == '\n') {
+                    continue;
+                }
+                StringBuilder txnr = new StringBuilder();
+                do {
+                    txnr.append((char) b);
+                } while ((b = in.read()) != ' ' && b != -1);
+                StringBuilder command = new StringBuilder();
+                while ((b = in.read()) != ' ' && b != -1) {
+                    command.append((char) b);
+                }
+                int length = 0;
+                while ((b = in.read()) >= '0' && b <= '9') {
+                    length = length * 10 + (b - '0');
+                }
+                byte[] data = new byte[length];
+                if (b == ' ') {
+                    int offset = 0;
+                    while (offset < length) {
+                        int read = in.read(data, offset, length - offset);
+                        if (read == -1) {
+                            throw new EOFException("Truncated frame, expected " + length + " bytes, got " + offset);
+                        }
+                        offset += read;
+                    }
+                    b = in.read();
+                }
+                if (b != '\n') {
+                    throw new IOException("Invalid trailer " + b + " for command " + txnr + " " + command);
+                }
+                switch (command.toString()) {
+                    case "open":
+                        respond(out, txnr, "200 OK\nrelp_version=0\nrelp_software=loopback\ncommands=syslog");
+                        break;
+                    case "syslog":
+                        onFrame(data, 0, length);
+                        String rejectedText = this.rejectedText;
+                        if (rejectedText != null && new String(data, StandardCharsets.UTF_8).contains(rejectedText)) {
+                            respond(out, txnr, "500 rejected");
+                        } else if (acknowledging) {
+                            respond(out, txnr, "200 OK");
+                        }
+                        break;
+                    case "close":
+                        respond(out, txnr, "");
+                        out.write("0 serverclose 0\n".getBytes(StandardCharsets.US_ASCII));
+                        out.flush();
+                        return;
+                    default:
+                        respond(out, txnr, "500 unknown command");
+                }
+            }
+        } catch (SocketException e) {
+            // connection closed
+        } catch (IOException e) {
+            if (!socket.isClosed()) {
+                onFailure(e);
+            }
+        } finally {
+            sockets.remove(socket);
+        }
+    }
+
+    private static void respond(OutputStream out, CharSequence txnr, String data) throws IOException {
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        out.write((txnr + " rsp " + bytes.length + (bytes.length == 0 ? "" : " ")).getBytes(StandardCharsets.US_ASCII));
+        out.write(bytes);
+        out.write('\n');
+        out.flush();
+    }
+
+    /**
+     * @param acknowledging {@code false} to receive the messages without acknowledging them
+     */
+    public void setAcknowledging(boolean acknowledging) {
+        this.acknowledging = acknowledging;
+    }
+
+    /**
+     * @param rejectedText messages containing this text are rejected with a {@code 500} response
+     */
+    public void setRejectedText(String rejectedText) {
+        this.rejectedText = rejectedText;
+    }
+
+    /**
+     * Abruptly close all the accepted connections, keep listening.
+     */
+    public void dropConnections() throws IOException {
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+    }
+
+    @Override
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    @Override
+    protected void stop() throws IOException {
+        serverSocket.close();
+        dropConnections();
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.sender;
+
+import com.cloudbees.syslog.MessageFormat;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.endsWith;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RelpSyslogMessageSenderTest {
+
+    @Test
+    void messages_are_pipelined_and_acknowledged() throws Exception {
+        try (RelpLoopbackSyslogServer server = LoopbackSyslogServer.relp().start()) {
+            RelpSyslogMessageSender messageSender = newMessageSender(server);
+            messageSender.setWindowSize(16);
+            for (int i = 0; i < 1000; i++) {
+                messageSender.sendMessage("message-" + i);
+            }
+            assertThat(messageSender.awaitAcknowledgements(TimeUnit.SECONDS.toMillis(5)), is(true));
+            assertThat(messageSender.getAcknowledgedCount(), is(1000L));
+            assertThat(messageSender.getUnacknowledgedCount(), is(0));
+            messageSender.close();
+
+            List<String> frames = server.getFrames();
+            assertThat(frames.size(), is(1000));
+            assertThat(frames.get(999), endsWith("message-999"));
+        }
+    }
+
+    @Test
+    void unacknowledged_messages_are_resent_after_a_reconnection() throws Exception {
+        try (RelpLoopbackSyslogServer server = LoopbackSyslogServer.relp().start()) {
+            RelpSyslogMessageSender messageSender = newMessageSender(server);
+            server.setAcknowledging(false);
+            for (int i = 0; i < 5; i++) {
+                messageSender.sendMessage("lost-" + i);
+            }
+            server.awaitFrames(5, 5, TimeUnit.SECONDS);
+            assertThat(messageSender.getUnacknowledgedCount(), is(5));
+
+            server.setAcknowledging(true);
+            server.dropConnections();
+            // the reader thread notices the closed connection
+            assertThat(messageSender.awaitAcknowledgements(TimeUnit.SECONDS.toMillis(5)), is(false));
+            messageSender.sendMessage("after-reconnection");
+            assertThat(messageSender.awaitAcknowledgements(TimeUnit.SECONDS.toMillis(5)), is(true));
+            assertThat(messageSender.getResentCount(), is(5L));
+            assertThat(messageSender.getAcknowledgedCount(), is(6L));
+            messageSender.close();
+
+            Set<String> received = new HashSet<>();
+            for (String frame : server.getFrames()) {
+                received.add(frame.substring(frame.lastIndexOf(' ') + 1));
+            }
+            for (int i = 0; i < 5; i++) {
+                assertThat(received.contains("lost-" + i), is(true));
+            }
+            assertThat(received.contains("after-reconnection"), is(true));
+        }
+    }
+
+    @Test
+    void send_fails_when_the_window_stays_full() throws Exception {
+        try (RelpLoopbackSyslogServer server = LoopbackSyslogServer.relp().start()) {
+            RelpSyslogMessageSender messageSender = newMessageSender(server);
+            messageSender.setWindowSize(2);
+            messageSender.setAckTimeoutInMillis(100);
+            messageSender.setMaxRetryCount(1);
+            server.setAcknowledging(false);
+            messageSender.sendMessage("message-1");
+            messageSender.sendMessage("message-2");
+            assertThrows(IOException.class, () -> messageSender.sendMessage("message-3"));
+            assertThat(messageSender.getSendErrorCount(), is(1));
+            assertThat(messageSender.getUnacknowledgedCount(), is(2));
+
+            server.setAcknowledging(true);
+            messageSender.sendMessage("message-4");
+            assertThat(messageSender.awaitAcknowledgements(TimeUnit.SECONDS.toMillis(5)), is(true));
+            messageSender.close();
+        }
+    }
+
+    @Test
+    void rejected_messages_are_not_resent() throws Exception {
+        try (RelpLoopbackSyslogServer server = LoopbackSyslogServer.relp().start()) {
+            RelpSyslogMessageSender messageSender = newMessageSender(server);
+            server.setRejectedText("poison");
+            messageSender.sendMessage("poison");
+            messageSender.sendMessage("message");
+            assertThat(messageSender.awaitAcknowledgements(TimeUnit.SECONDS.toMillis(5)), is(true));
+            assertThat(messageSender.getRejectedCount(), is(1L));
+            assertThat(messageSender.getAcknowledgedCount(), is(1L));
+            messageSender.close();
+        }
+    }
+
+    @Test
+    void oversized_responses_are_refused_before_reading_their_data() throws Exception {
+        try (ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            Thread acceptor = new Thread(() -> {
+                try {
+                    while (true) {
+                        try (Socket socket = serverSocket.accept()) {
+                            // announce a response of almost 1GB to the "open" command
+                            OutputStream out = socket.getOutputStream();
+                            out.write("1 rsp 999999999 200 OK\n".getBytes(StandardCharsets.US_ASCII));
+                            out.flush();
+                            socket.getInputStream().read();
+                        }
+                    }
+                } catch (IOException e) {
+                    // server closed
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+
+            RelpSyslogMessageSender messageSender = new RelpSyslogMessageSender();
+            messageSender.setSyslogServerHostname("127.0.0.1");
+            messageSender.setSyslogServerPort(serverSocket.getLocalPort());
+            messageSender.setMaxRetryCount(0);
+            IOException e = assertThrows(IOException.class, () -> messageSender.sendMessage("message"));
+            assertThat(e.getMessage(), containsString("RELP response too large"));
+            messageSender.close();
+        }
+    }
+
+    @Test
+    void octet_counting_is_refused() {
+        RelpSyslogMessageSender messageSender = new RelpSyslogMessageSender();
+        messageSender.setMessageFormat(MessageFormat.RFC_5425);
+        assertThrows(IllegalArgumentException.class, () -> messageSender.sendMessage("message"));
+    }
+
+    private static RelpSyslogMessageSender newMessageSender(RelpLoopbackSyslogServer server) {
+        RelpSyslogMessageSender messageSender = new RelpSyslogMessageSender();
+        messageSender.setSyslogServerHostname("127.0.0.1");
+        messageSender.setSyslogServerPort(server.getPort());
+        messageSender.setDefaultAppName("myapp");
+        return messageSender;
+    }
+}
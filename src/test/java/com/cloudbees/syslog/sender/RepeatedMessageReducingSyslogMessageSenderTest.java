@@ -0,0 +1,133 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.sender;
+
+import com.cloudbees.syslog.Facility;
+import com.cloudbees.syslog.Severity;
+import com.cloudbees.syslog.SyslogMessage;
+import com.cloudbees.syslog.sender.AsyncSyslogMessageSenderTest.BlockingSyslogMessageSender;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+
+class RepeatedMessageReducingSyslogMessageSenderTest {
+
+    private static final long WINDOW = 3_600_000;
+
+    @Test
+    void repetitions_are_counted_until_the_message_changes() throws Exception {
+        RecordingSyslogMessageSender recordingSender = new RecordingSyslogMessageSender();
+        try (RepeatedMessageReducingSyslogMessageSender messageSender = new RepeatedMessageReducingSyslogMessageSender(recordingSender, WINDOW, 10)) {
+            for (int i = 0; i < 5; i++) {
+                messageSender.sendMessage(message("app", Severity.WARNING, "connection refused, retrying"));
+            }
+            messageSender.sendMessage(message("app", Severity.INFORMATIONAL, "connected"));
+            messageSender.sendMessage(message("app", Severity.INFORMATIONAL, "connected"));
+            messageSender.sendMessage(message("app", Severity.WARNING, "connected"));
+
+            assertThat(recordingSender.bodies(), contains(
+                    "connection refused, retrying",
+                    "last message repeated 4 times",
+                    "connected",
+                    "last message repeated 1 times",
+                    "connected"));
+            assertThat(recordingSender.messages.get(1).getSeverity(), is(Severity.WARNING));
+            assertThat(messageSender.getReducedCount(), is(5L));
+        }
+    }
+
+    @Test
+    void streams_are_independent() throws Exception {
+        RecordingSyslogMessageSender recordingSender = new RecordingSyslogMessageSender();
+        try (RepeatedMessageReducingSyslogMessageSender messageSender = new RepeatedMessageReducingSyslogMessageSender(recordingSender, WINDOW, 10)) {
+            messageSender.sendMessage(message("app-a", Severity.WARNING, "retrying"));
+            messageSender.sendMessage(message("app-b", Severity.WARNING, "retrying"));
+            messageSender.sendMessage(message("app-a", Severity.WARNING, "retrying"));
+            messageSender.sendMessage(message("app-b", Severity.WARNING, "retrying"));
+
+            assertThat(recordingSender.bodies(), contains("retrying", "retrying"));
+        }
+        assertThat(recordingSender.bodies(), contains("retrying", "retrying", "last message repeated 1 times", "last message repeated 1 times"));
+    }
+
+    @Test
+    void repetitions_are_sent_when_the_window_ends() throws Exception {
+        RecordingSyslogMessageSender recordingSender = new RecordingSyslogMessageSender();
+        try (RepeatedMessageReducingSyslogMessageSender messageSender = new RepeatedMessageReducingSyslogMessageSender(recordingSender, WINDOW, 10)) {
+            for (int i = 0; i < 3; i++) {
+                messageSender.sendMessage(message("app", Severity.WARNING, "retrying"));
+            }
+            messageSender.flush(System.currentTimeMillis());
+            assertThat(recordingSender.bodies(), contains("retrying"));
+
+            messageSender.flush(System.currentTimeMillis() + WINDOW);
+            assertThat(recordingSender.bodies(), contains("retrying", "last message repeated 2 times"));
+
+            messageSender.sendMessage(message("app", Severity.WARNING, "retrying"));
+            messageSender.flush(System.currentTimeMillis() + WINDOW);
+            assertThat(recordingSender.bodies(), contains("retrying", "last message repeated 2 times", "last message repeated 1 times"));
+        }
+    }
+
+    @Test
+    void least_recently_used_streams_are_evicted() throws Exception {
+        RecordingSyslogMessageSender recordingSender = new RecordingSyslogMessageSender();
+        try (RepeatedMessageReducingSyslogMessageSender messageSender = new RepeatedMessageReducingSyslogMessageSender(recordingSender, WINDOW, 2)) {
+            messageSender.sendMessage(message("app-a", Severity.WARNING, "retrying"));
+            messageSender.sendMessage(message("app-a", Severity.WARNING, "retrying"));
+            messageSender.sendMessage(message("app-b", Severity.WARNING, "retrying"));
+            messageSender.sendMessage(message("app-c", Severity.WARNING, "retrying"));
+            // app-a has been evicted
+            messageSender.sendMessage(message("app-a", Severity.WARNING, "retrying"));
+
+            assertThat(recordingSender.bodies(), contains("retrying", "retrying", "last message repeated 1 times", "retrying", "retrying"));
+            assertThat(recordingSender.messages.get(2).getAppName(), is("app-a"));
+        }
+    }
+
+    @Test
+    void repetitions_keep_the_fields_of_a_reused_message() throws Exception {
+        RecordingSyslogMessageSender recordingSender = new RecordingSyslogMessageSender();
+        try (RepeatedMessageReducingSyslogMessageSender messageSender = new RepeatedMessageReducingSyslogMessageSender(recordingSender, WINDOW, 10)) {
+            SyslogMessage pooledMessage = message("app", Severity.WARNING, "retrying").withMsgId("ID1");
+            messageSender.sendMessage(pooledMessage);
+            messageSender.sendMessage(pooledMessage);
+            // the caller reuses the message for another stream
+            pooledMessage.withAppName("other-app").withSeverity(Severity.ERROR).withMsgId("ID2");
+            messageSender.sendMessage(pooledMessage);
+            messageSender.flush(System.currentTimeMillis() + WINDOW);
+
+            assertThat(recordingSender.bodies(), contains("retrying", "retrying", "last message repeated 1 times"));
+            SyslogMessage repetitions = recordingSender.messages.get(2);
+            assertThat(repetitions.getAppName(), is("app"));
+            assertThat(repetitions.getSeverity(), is(Severity.WARNING));
+            assertThat(repetitions.getMsgId(), is("ID1"));
+        }
+    }
+
+    @Test
+    void close_closes_underlying_sender() throws Exception {
+        BlockingSyslogMessageSender blockingSender = new BlockingSyslogMessageSender();
+        new RepeatedMessageReducingSyslogMessageSender(blockingSender).close();
+        assertThat(blockingSender.closed, is(true));
+    }
+
+    private static SyslogMessage message(String appName, Severity severity, String body) {
+        return new SyslogMessage().withAppName(appName).withFacility(Facility.USER).withSeverity(severity).withMsg(body);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.sender;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Self-signed certificate for {@code localhost} / {@code 127.0.0.1}, generated once per JVM with the {@code keytool}
+ * of the running JDK so that no certificate has to be committed nor can expire.
+ */
+public final class SelfSignedCertificate {
+
+    private static final char[] PASSWORD = "changeit".toCharArray();
+    private static SelfSignedCertificate instance;
+
+    private final KeyStore keyStore;
+
+    private SelfSignedCertificate(KeyStore keyStore) {
+        this.keyStore = keyStore;
+    }
+
+    public static synchronized SelfSignedCertificate getInstance() throws Exception {
+        if (instance == null) {
+            instance = new SelfSignedCertificate(generateKeyStore());
+        }
+        return instance;
+    }
+
+    private static KeyStore generateKeyStore() throws Exception {
+        Path directory = Files.createTempDirectory("syslog-loopback");
+        Path keyStoreFile = directory.resolve("keystore.p12");
+        String keytool = System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool";
+        Process process = new ProcessBuilder(keytool,
+                "-genkeypair",
+                "-alias", "localhost",
+                "-keyalg", "EC",
+                "-groupname", "secp256r1",
+                "-dname", "CN=localhost",
+                "-ext", "SAN=dns:localhost,ip:127.0.0.1",
+                "-validity", "2",
+                "-storetype", "PKCS12",
+                "-keystore", keyStoreFile.toString(),
+                "-storepass", new String(PASSWORD),
+                "-keypass", new String(PASSWORD))
+                .redirectErrorStream(true)
+                .start();
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        if (!process.waitFor(1, TimeUnit.MINUTES) || process.exitValue() != 0) {
+            throw new IOException("Failure generating self-signed certificate with " + keytool + ": " + output);
+        }
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream in = Files.newInputStream(keyStoreFile)) {
+            keyStore.load(in, PASSWORD);
+        } finally {
+            Files.deleteIfExists(keyStoreFile);
+            Files.deleteIfExists(directory);
+        }
+        return keyStore;
+    }
+
+    public SSLContext getServerSslContext() throws Exception {
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, PASSWORD);
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagerFactory.getKeyManagers(), null, null);
+        return sslContext;
+    }
+
+    /**
+     * @return a new client {@link SSLContext} trusting only this certificate
+     */
+    public SSLContext getClientSslContext() throws Exception {
+        TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagerFactory.init(keyStore);
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(null, trustManagerFactory.getTrustManagers(), null);
+        return sslContext;
+    }
+}
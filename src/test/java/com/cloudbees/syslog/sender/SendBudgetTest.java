@@ -0,0 +1,177 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.sender;
+
+import com.cloudbees.syslog.Facility;
+import com.cloudbees.syslog.Severity;
+import com.cloudbees.syslog.SyslogMessage;
+import com.cloudbees.syslog.sender.AsyncSyslogMessageSenderTest.BlockingSyslogMessageSender;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+
+class SendBudgetTest {
+
+    @Test
+    void senders_share_the_budget_and_apply_their_overflow_policy() throws Exception {
+        SendBudget sendBudget = new SendBudget(4L * SendBudget.estimateSize(message(Severity.INFORMATIONAL, "x-0")));
+        BlockingSyslogMessageSender firstSender = new BlockingSyslogMessageSender();
+        BlockingSyslogMessageSender secondSender = new BlockingSyslogMessageSender();
+        try (AsyncSyslogMessageSender first = new AsyncSyslogMessageSender(firstSender);
+             AsyncSyslogMessageSender second = new AsyncSyslogMessageSender(secondSender)) {
+            first.setSendBudget(sendBudget);
+            second.setSendBudget(sendBudget);
+            second.setOverflowPolicy(AsyncSyslogMessageSender.OverflowPolicy.DISCARD_OLDEST);
+
+            // messages taken by the writer threads are no longer queued
+            first.sendMessage(message(Severity.INFORMATIONAL, "a-0"));
+            firstSender.awaitBlocked();
+            second.sendMessage(message(Severity.INFORMATIONAL, "b-0"));
+            secondSender.awaitBlocked();
+            for (int i = 1; i < 4; i++) {
+                first.sendMessage(message(Severity.INFORMATIONAL, "a-" + i));
+            }
+            second.sendMessage(message(Severity.INFORMATIONAL, "b-1"));
+            assertThat(sendBudget.getUtilization(), is(1.0));
+
+            // DISCARD_NEWEST
+            first.sendMessage(message(Severity.INFORMATIONAL, "a-4"));
+            // DISCARD_OLDEST discards its own messages
+            second.sendMessage(message(Severity.INFORMATIONAL, "b-2"));
+
+            assertThat(first.getDiscardCount(), is(1L));
+            assertThat(second.getDiscardCount(), is(1L));
+            assertThat(sendBudget.getRejectionCount(), is(2L));
+            firstSender.unblock();
+            secondSender.unblock();
+            assertThat(first.flush(5, TimeUnit.SECONDS), is(true));
+            assertThat(second.flush(5, TimeUnit.SECONDS), is(true));
+            assertThat(firstSender.bodies, contains("a-0", "a-1", "a-2", "a-3"));
+            assertThat(secondSender.bodies, contains("b-0", "b-2"));
+            assertThat(sendBudget.getUsedBytes(), is(0L));
+        }
+    }
+
+    @Test
+    void discard_oldest_keeps_its_queue_when_discarding_it_would_not_make_enough_room() throws Exception {
+        SendBudget sendBudget = new SendBudget(5L * SendBudget.estimateSize(message(Severity.INFORMATIONAL, "x-0")));
+        BlockingSyslogMessageSender firstSender = new BlockingSyslogMessageSender();
+        BlockingSyslogMessageSender secondSender = new BlockingSyslogMessageSender();
+        try (AsyncSyslogMessageSender first = new AsyncSyslogMessageSender(firstSender);
+             AsyncSyslogMessageSender second = new AsyncSyslogMessageSender(secondSender)) {
+            first.setSendBudget(sendBudget);
+            second.setSendBudget(sendBudget);
+            second.setOverflowPolicy(AsyncSyslogMessageSender.OverflowPolicy.DISCARD_OLDEST);
+
+            first.sendMessage(message(Severity.INFORMATIONAL, "a-0"));
+            firstSender.awaitBlocked();
+            second.sendMessage(message(Severity.INFORMATIONAL, "b-0"));
+            secondSender.awaitBlocked();
+            for (int i = 1; i < 4; i++) {
+                first.sendMessage(message(Severity.INFORMATIONAL, "a-" + i));
+            }
+            second.sendMessage(message(Severity.INFORMATIONAL, "b-1"));
+            second.sendMessage(message(Severity.INFORMATIONAL, "b-2"));
+            assertThat(sendBudget.getUtilization(), is(1.0));
+
+            // larger than the 2 messages queued by the second sender, the rest of the budget is held by the first one
+            StringBuilder body = new StringBuilder("b-large-");
+            while (body.length() < 100) {
+                body.append('x');
+            }
+            second.sendMessage(message(Severity.INFORMATIONAL, body.toString()));
+
+            assertThat(second.getDiscardCount(), is(1L));
+            assertThat(second.getQueueSize(), is(2));
+            firstSender.unblock();
+            secondSender.unblock();
+            assertThat(first.flush(5, TimeUnit.SECONDS), is(true));
+            assertThat(second.flush(5, TimeUnit.SECONDS), is(true));
+            assertThat(secondSender.bodies, contains("b-0", "b-1", "b-2"));
+            assertThat(sendBudget.getUsedBytes(), is(0L));
+        }
+    }
+
+    @Test
+    void priority_sender_discards_lower_priority_messages_when_the_budget_is_exhausted() throws Exception {
+        SendBudget sendBudget = new SendBudget(2L * SendBudget.estimateSize(message(Severity.INFORMATIONAL, "x-0")));
+        BlockingSyslogMessageSender blockingSender = new BlockingSyslogMessageSender();
+        try (PriorityAsyncSyslogMessageSender messageSender = new PriorityAsyncSyslogMessageSender(blockingSender)) {
+            messageSender.setSendBudget(sendBudget);
+            messageSender.sendMessage(message(Severity.INFORMATIONAL, "in-flight"));
+            blockingSender.awaitBlocked();
+            messageSender.sendMessage(message(Severity.INFORMATIONAL, "i-1"));
+            messageSender.sendMessage(message(Severity.INFORMATIONAL, "i-2"));
+            messageSender.sendMessage(message(Severity.ERROR, "e-1"));
+            messageSender.sendMessage(message(Severity.ERROR, "e-2"));
+            messageSender.sendMessage(message(Severity.ERROR, "e-3"));
+
+            assertThat(messageSender.getDiscardCount(PriorityAsyncSyslogMessageSender.Lane.LOW), is(2L));
+            assertThat(messageSender.getDiscardCount(PriorityAsyncSyslogMessageSender.Lane.HIGH), is(1L));
+            blockingSender.unblock();
+            assertThat(messageSender.flush(5, TimeUnit.SECONDS), is(true));
+            assertThat(blockingSender.bodies, contains("in-flight", "e-1", "e-2"));
+            assertThat(sendBudget.getUsedBytes(), is(0L));
+        }
+    }
+
+    @Test
+    void fan_out_branches_reserve_their_queued_messages() throws Exception {
+        SendBudget sendBudget = new SendBudget(3L * SendBudget.estimateSize(message(Severity.INFORMATIONAL, "m-0")));
+        BlockingSyslogMessageSender blockingSender = new BlockingSyslogMessageSender();
+        try (FanOutSyslogMessageSender messageSender = new FanOutSyslogMessageSender(blockingSender)) {
+            messageSender.setSendBudget(sendBudget);
+            messageSender.sendMessage(message(Severity.INFORMATIONAL, "m-0"));
+            blockingSender.awaitBlocked();
+            for (int i = 1; i < 6; i++) {
+                messageSender.sendMessage(message(Severity.INFORMATIONAL, "m-" + i));
+            }
+
+            assertThat(sendBudget.getUtilization(), is(1.0));
+            assertThat(messageSender.getBranches().get(0).getDiscardCount(), is(2L));
+            blockingSender.unblock();
+            assertThat(messageSender.flush(5, TimeUnit.SECONDS), is(true));
+            assertThat(blockingSender.bodies, contains("m-0", "m-1", "m-2", "m-3"));
+            assertThat(sendBudget.getUsedBytes(), is(0L));
+        }
+    }
+
+    @Test
+    void accounts_never_release_more_than_reserved() {
+        SendBudget sendBudget = new SendBudget(100);
+        SendBudget.Account first = sendBudget.newAccount();
+        SendBudget.Account second = sendBudget.newAccount();
+
+        assertThat(first.tryReserve(60), is(true));
+        assertThat(second.tryReserve(50), is(false));
+        assertThat(second.tryReserve(40), is(true));
+        first.releaseAll();
+        first.release(60);
+        assertThat(sendBudget.getUsedBytes(), is(40L));
+        assertThat(sendBudget.getUtilization(), is(0.4));
+        second.release(100);
+        assertThat(sendBudget.getUsedBytes(), is(0L));
+        assertThat(second.getReservedBytes(), is(0L));
+    }
+
+    private static SyslogMessage message(Severity severity, String body) {
+        return new SyslogMessage().withFacility(Facility.USER).withSeverity(severity).withMsg(body);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.sender;
+
+import com.cloudbees.syslog.Facility;
+import com.cloudbees.syslog.MessageFormat;
+import com.cloudbees.syslog.SDElement;
+import com.cloudbees.syslog.SDParam;
+import com.cloudbees.syslog.Severity;
+import com.cloudbees.syslog.SyslogMessage;
+import com.cloudbees.syslog.sender.ShardedSyslogMessageSender.KeyExtractor;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+class ShardedSyslogMessageSenderTest {
+
+    @Test
+    void messages_of_a_key_stay_ordered_on_one_shard() throws Exception {
+        List<RecordingSyslogMessageSender> senders = new ArrayList<>();
+        try (ShardedSyslogMessageSender messageSender = new ShardedSyslogMessageSender(4, () -> {
+            RecordingSyslogMessageSender sender = new RecordingSyslogMessageSender();
+            senders.add(sender);
+            return sender;
+        }, KeyExtractor.appName())) {
+            for (int i = 0; i < 100; i++) {
+                for (int app = 0; app < 20; app++) {
+                    messageSender.sendMessage(new SyslogMessage().withAppName("app-" + app).withMsg(Integer.toString(i)));
+                }
+            }
+            assertThat(messageSender.flush(5, TimeUnit.SECONDS), is(true));
+        }
+
+        int usedShards = 0;
+        Set<String> appNames = new HashSet<>();
+        for (RecordingSyslogMessageSender sender : senders) {
+            Map<String, Integer> lastSequenceByAppName = new HashMap<>();
+            for (SyslogMessage message : sender.messages) {
+                assertThat("app " + message.getAppName() + " sent by several shards", appNames.contains(message.getAppName())
+                        && !lastSequenceByAppName.containsKey(message.getAppName()), is(false));
+                int sequence = Integer.parseInt(message.getMsg().toString());
+                Integer previous = lastSequenceByAppName.put(message.getAppName(), sequence);
+                assertThat(sequence, is(previous == null ? 0 : previous + 1));
+            }
+            appNames.addAll(lastSequenceByAppName.keySet());
+            if (!sender.messages.isEmpty()) {
+                usedShards++;
+            }
+        }
+        assertThat(appNames.size(), is(20));
+        assertThat(usedShards, greaterThan(1));
+    }
+
+    @Test
+    void key_extractors() {
+        SyslogMessage message = new SyslogMessage().withAppName("app").withProcId("1234").withMsgId("ID47")
+                .withSDElement(new SDElement("origin@32473", new SDParam("tenant", "acme")));
+        assertThat(KeyExtractor.appName().getKey(message), is("app"));
+        assertThat(KeyExtractor.procId().getKey(message), is("1234"));
+        assertThat(KeyExtractor.msgId().getKey(message), is("ID47"));
+        assertThat(KeyExtractor.sdParam("origin@32473", "tenant").getKey(message), is("acme"));
+        assertThat(KeyExtractor.sdParam("origin@32473", "other").getKey(message), is(nullValue()));
+        assertThat(KeyExtractor.sdParam("other@32473", "tenant").getKey(message), is(nullValue()));
+    }
+
+    @Test
+    void parallel_tcp_connections_keep_per_key_order() throws Exception {
+        try (NioLoopbackSyslogServer server = LoopbackSyslogServer.tcp().start()) {
+            try (ShardedSyslogMessageSender messageSender = new ShardedSyslogMessageSender(4, () -> {
+                TcpSyslogMessageSender sender = new TcpSyslogMessageSender();
+                sender.setSyslogServerHostname("127.0.0.1");
+                sender.setSyslogServerPort(server.getPort());
+                sender.setMessageFormat(MessageFormat.RFC_5424);
+                return sender;
+            }, KeyExtractor.procId(), 10_000)) {
+                for (int i = 0; i < 200; i++) {
+                    for (int proc = 0; proc < 10; proc++) {
+                        messageSender.sendMessage(new SyslogMessage().withFacility(Facility.USER).withSeverity(Severity.INFORMATIONAL)
+                                .withAppName("app").withProcId(Integer.toString(proc)).withMsg(Integer.toString(i)));
+                    }
+                }
+                assertThat(messageSender.flush(10, TimeUnit.SECONDS), is(true));
+                assertThat(messageSender.getDiscardCount(), is(0L));
+            }
+
+            List<String> frames = server.awaitFrames(2000, 10, TimeUnit.SECONDS);
+            Pattern pattern = Pattern.compile(".* app (\\d+) - - (\\d+)$");
+            Map<String, Integer> lastSequenceByProcId = new HashMap<>();
+            for (String frame : frames) {
+                Matcher matcher = pattern.matcher(frame);
+                assertThat(frame, matcher.matches(), is(true));
+                int sequence = Integer.parseInt(matcher.group(2));
+                Integer previous = lastSequenceByProcId.put(matcher.group(1), sequence);
+                assertThat(frame, sequence, is(previous == null ? 0 : previous + 1));
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.sender;
+
+import com.cloudbees.syslog.AllocationBudget;
+import com.cloudbees.syslog.Facility;
+import com.cloudbees.syslog.MessageFormat;
+import com.cloudbees.syslog.Severity;
+import com.cloudbees.syslog.SyslogMessage;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+/**
+ * Allocation regression gate of {@code sendMessage()} for each sender against loopback servers, see
+ * {@link AllocationBudget}.
+ */
+class SyslogMessageSenderAllocationTest {
+
+    @ParameterizedTest
+    @EnumSource(MessageFormat.class)
+    void udp_send(MessageFormat messageFormat) throws Exception {
+        try (LoopbackSyslogServer server = LoopbackSyslogServer.udp().start();
+             UdpSyslogMessageSender messageSender = new UdpSyslogMessageSender()) {
+            server.setRetainFrames(false);
+            messageSender.setSyslogServerHostname("127.0.0.1");
+            messageSender.setSyslogServerPort(server.getPort());
+            messageSender.setMessageFormat(messageFormat);
+
+            SyslogMessage message = newMessage();
+            AllocationBudget.assertWithinBudget("send.udp." + messageFormat, () -> messageSender.sendMessage(message));
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(MessageFormat.class)
+    void tcp_send(MessageFormat messageFormat) throws Exception {
+        try (LoopbackSyslogServer server = LoopbackSyslogServer.tcp().start();
+             TcpSyslogMessageSender messageSender = new TcpSyslogMessageSender()) {
+            server.setRetainFrames(false);
+            messageSender.setSyslogServerHostname("127.0.0.1");
+            messageSender.setSyslogServerPort(server.getPort());
+            messageSender.setMessageFormat(messageFormat);
+
+            SyslogMessage message = newMessage();
+            AllocationBudget.assertWithinBudget("send.tcp." + messageFormat, () -> messageSender.sendMessage(message));
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(MessageFormat.class)
+    void off_heap_async_send(MessageFormat messageFormat) throws Exception {
+        try (LoopbackSyslogServer server = LoopbackSyslogServer.tcp().start();
+             OffHeapAsyncSyslogMessageSender messageSender = new OffHeapAsyncSyslogMessageSender(new TcpSyslogMessageSender())) {
+            server.setRetainFrames(false);
+            messageSender.setSyslogServerHostname("127.0.0.1");
+            messageSender.setSyslogServerPort(server.getPort());
+            messageSender.setMessageFormat(messageFormat);
+
+            SyslogMessage message = newMessage();
+            AllocationBudget.assertWithinBudget("send.offheap." + messageFormat, () -> messageSender.sendMessage(message));
+        }
+    }
+
+    private static SyslogMessage newMessage() {
+        return new SyslogMessage()
+                .withTimestamp(System.currentTimeMillis())
+                .withAppName("my_app")
+                .withHostname("myserver.example.com")
+                .withFacility(Facility.USER)
+                .withSeverity(Severity.INFORMATIONAL)
+                .withMsg("a syslog message with some non ASCII characters éèà");
+    }
+}
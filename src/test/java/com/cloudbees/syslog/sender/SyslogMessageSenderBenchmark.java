@@ -0,0 +1,352 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.sender;
+
+import com.cloudbees.syslog.Facility;
+import com.cloudbees.syslog.MessageFormat;
+import com.cloudbees.syslog.Severity;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * End-to-end benchmark of the {@link UdpSyslogMessageSender} and of the {@link TcpSyslogMessageSender} (plain and
+ * TLS) against in-process {@link com.cloudbees.syslog.server.SyslogServer}s, no network access required.
+ *
+ * For each transport, message format and thread count (1, 2, 4 ... up to {@code maxThreads}), measures the
+ * messages/s, the bytes/s received by the server and the percentiles of the {@code sendMessage()} latency, then
+ * verifies that every message has been received exactly once, intact and unsplit.
+ *
+ * Usage: {@code SyslogMessageSenderBenchmark [maxThreads] [messagesPerThread] [messageSize] [transport,...]}
+ */
+public class SyslogMessageSenderBenchmark {
+
+    public enum Transport {UDP, TCP, TLS}
+
+    private static final String BODY_MARKER = "#BENCH# ";
+    private static final String PADDING = "abcdefghijklmnopqrstuvwxyz0123456789éèà-";
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors() * 2;
+        int messagesPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        int messageSize = args.length > 2 ? Integer.parseInt(args[2]) : 256;
+        List<Transport> transports = new ArrayList<>();
+        if (args.length > 3) {
+            for (String transport : args[3].split(",")) {
+                transports.add(Transport.valueOf(transport.trim().toUpperCase(Locale.ROOT)));
+            }
+        } else {
+            transports.addAll(Arrays.asList(Transport.values()));
+        }
+
+        System.out.println(Result.header());
+        boolean success = true;
+        for (Transport transport : transports) {
+            for (MessageFormat messageFormat : MessageFormat.values()) {
+                for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                    Result result = run(transport, messageFormat, threads, messagesPerThread, messageSize);
+                    System.out.println(result);
+                    success &= result.isSuccessful();
+                }
+            }
+        }
+        System.out.println(success ? "SUCCESS" : "FAILURE: messages lost, duplicated, corrupted or split");
+        if (!success) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Run one benchmark iteration with a new server and a new sender.
+     */
+    public static Result run(Transport transport, MessageFormat messageFormat, int threads, int messagesPerThread, int messageSize) throws Exception {
+        try (NioLoopbackSyslogServer server = newServer(transport).start()) {
+            server.setRetainFrames(false);
+            Verifier verifier = new Verifier(threads, messagesPerThread, messageSize);
+            server.setFrameListener(verifier);
+
+            AbstractSyslogMessageSender messageSender = newSender(transport, server);
+            messageSender.setDefaultMessageHostname("benchmark.example.com");
+            messageSender.setDefaultAppName("benchmark");
+            messageSender.setDefaultFacility(Facility.USER);
+            messageSender.setDefaultSeverity(Severity.INFORMATIONAL);
+            messageSender.setMessageFormat(messageFormat);
+
+            // warm up the connection, excluded from the measures
+            messageSender.sendMessage("warm up");
+            server.awaitReceivedFrameCount(1, 10, TimeUnit.SECONDS);
+
+            long[][] latenciesInNanos = new long[threads][messagesPerThread];
+            AtomicLong errorCounter = new AtomicLong();
+            CountDownLatch startLatch = new CountDownLatch(1);
+            List<Thread> senderThreads = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int threadIndex = t;
+                Thread thread = new Thread(() -> {
+                    try {
+                        startLatch.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    long[] latencies = latenciesInNanos[threadIndex];
+                    for (int s = 0; s < messagesPerThread; s++) {
+                        String body = body(threadIndex, s, messageSize);
+                        long nanosBefore = System.nanoTime();
+                        try {
+                            messageSender.sendMessage(body);
+                        } catch (IOException e) {
+                            errorCounter.incrementAndGet();
+                        }
+                        latencies[s] = System.nanoTime() - nanosBefore;
+                    }
+                }, "benchmark-sender-" + t);
+                senderThreads.add(thread);
+                thread.start();
+            }
+
+            long nanosBefore = System.nanoTime();
+            startLatch.countDown();
+            for (Thread thread : senderThreads) {
+                thread.join();
+            }
+            messageSender.close();
+            long expected = (long) threads * messagesPerThread;
+            long elapsedInNanos;
+            if (transport == Transport.UDP) {
+                // lost datagrams will never arrive, measure up to the last send
+                elapsedInNanos = System.nanoTime() - nanosBefore;
+                server.awaitQuiescence(100, TimeUnit.MILLISECONDS);
+            } else {
+                verifier.await(expected, 60, TimeUnit.SECONDS);
+                elapsedInNanos = System.nanoTime() - nanosBefore;
+            }
+
+            long[] allLatencies = new long[(int) expected];
+            for (int t = 0; t < threads; t++) {
+                System.arraycopy(latenciesInNanos[t], 0, allLatencies, t * messagesPerThread, messagesPerThread);
+            }
+            Arrays.sort(allLatencies);
+            return new Result(transport, messageFormat, threads, expected, verifier.getReceivedCount(), errorCounter.get(),
+                    verifier.getDuplicateCount(), verifier.getCorruptedCount(), server.getReceivedByteCount(),
+                    elapsedInNanos, allLatencies);
+        }
+    }
+
+    private static NioLoopbackSyslogServer newServer(Transport transport) {
+        switch (transport) {
+            case UDP:
+                return LoopbackSyslogServer.udp();
+            case TCP:
+                return LoopbackSyslogServer.tcp();
+            case TLS:
+                return LoopbackSyslogServer.tls();
+            default:
+                throw new IllegalStateException("Unsupported transport '" + transport + "'");
+        }
+    }
+
+    private static AbstractSyslogMessageSender newSender(Transport transport, NioLoopbackSyslogServer server) throws Exception {
+        if (transport == Transport.UDP) {
+            UdpSyslogMessageSender messageSender = new UdpSyslogMessageSender();
+            messageSender.setSyslogServerHostname("127.0.0.1");
+            messageSender.setSyslogServerPort(server.getPort());
+            return messageSender;
+        }
+        TcpSyslogMessageSender messageSender = new TcpSyslogMessageSender();
+        messageSender.setSyslogServerHostname("127.0.0.1");
+        messageSender.setSyslogServerPort(server.getPort());
+        if (transport == Transport.TLS) {
+            messageSender.setSsl(true);
+            messageSender.setSSLContext(server.getClientSslContext());
+        }
+        return messageSender;
+    }
+
+    /**
+     * @return the body of the message {@code sequence} of the thread {@code thread}, {@code size} characters
+     * long (but never shorter than the identification prefix) and containing non ASCII characters.
+     */
+    static String body(int thread, int sequence, int size) {
+        StringBuilder sb = new StringBuilder(Math.max(size, 32));
+        sb.append(BODY_MARKER).append("t=").append(thread).append(" s=").append(sequence).append(' ');
+        for (int i = 0; sb.length() < size; i++) {
+            sb.append(PADDING.charAt(i % PADDING.length()));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Checks the frames received by the server: each benchmark message must be received once and its body must be
+     * the very end of the frame.
+     */
+    static class Verifier implements Consumer<String> {
+        private final BitSet[] receivedByThread;
+        private final int messagesPerThread;
+        private final int messageSize;
+        private long receivedCount;
+        private long duplicateCount;
+        private long corruptedCount;
+
+        Verifier(int threads, int messagesPerThread, int messageSize) {
+            this.receivedByThread = new BitSet[threads];
+            for (int i = 0; i < threads; i++) {
+                receivedByThread[i] = new BitSet(messagesPerThread);
+            }
+            this.messagesPerThread = messagesPerThread;
+            this.messageSize = messageSize;
+        }
+
+        @Override
+        public synchronized void accept(String frame) {
+            int idx = frame.indexOf(BODY_MARKER);
+            if (idx == -1) {
+                if (!frame.endsWith("warm up")) {
+                    corruptedCount++;
+                }
+                return;
+            }
+            try {
+                String[] tokens = frame.substring(idx + BODY_MARKER.length()).split(" ", 3);
+                int thread = Integer.parseInt(tokens[0].substring("t=".length()));
+                int sequence = Integer.parseInt(tokens[1].substring("s=".length()));
+                String expected = thread < receivedByThread.length && sequence < messagesPerThread ?
+                        body(thread, sequence, messageSize) : null;
+                if (expected == null || !frame.startsWith(expected, idx) || frame.length() - idx != expected.length()) {
+                    corruptedCount++;
+                } else if (receivedByThread[thread].get(sequence)) {
+                    duplicateCount++;
+                } else {
+                    receivedByThread[thread].set(sequence);
+                    receivedCount++;
+                    notifyAll();
+                }
+            } catch (RuntimeException e) {
+                corruptedCount++;
+            }
+        }
+
+        synchronized void await(long count, long timeout, TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            while (receivedCount + corruptedCount < count) {
+                long remainingInMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingInMillis <= 0) {
+                    return;
+                }
+                wait(remainingInMillis);
+            }
+        }
+
+        synchronized long getReceivedCount() {
+            return receivedCount;
+        }
+
+        synchronized long getDuplicateCount() {
+            return duplicateCount;
+        }
+
+        synchronized long getCorruptedCount() {
+            return corruptedCount;
+        }
+    }
+
+    public static class Result {
+        final Transport transport;
+        final MessageFormat messageFormat;
+        final int threads;
+        final long sent;
+        final long received;
+        final long errors;
+        final long duplicates;
+        final long corrupted;
+        final long bytes;
+        final long elapsedInNanos;
+        final long[] sortedLatenciesInNanos;
+
+        Result(Transport transport, MessageFormat messageFormat, int threads, long sent, long received, long errors,
+               long duplicates, long corrupted, long bytes, long elapsedInNanos, long[] sortedLatenciesInNanos) {
+            this.transport = transport;
+            this.messageFormat = messageFormat;
+            this.threads = threads;
+            this.sent = sent;
+            this.received = received;
+            this.errors = errors;
+            this.duplicates = duplicates;
+            this.corrupted = corrupted;
+            this.bytes = bytes;
+            this.elapsedInNanos = elapsedInNanos;
+            this.sortedLatenciesInNanos = sortedLatenciesInNanos;
+        }
+
+        /**
+         * UDP is allowed to lose messages, nothing is allowed to duplicate, corrupt or split them.
+         */
+        public boolean isSuccessful() {
+            return errors == 0 && duplicates == 0 && corrupted == 0 && (transport == Transport.UDP || received == sent);
+        }
+
+        public long getLost() {
+            return sent - received;
+        }
+
+        public long getCorrupted() {
+            return corrupted;
+        }
+
+        public long getDuplicates() {
+            return duplicates;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public long getLatencyPercentileInNanos(double percentile) {
+            if (sortedLatenciesInNanos.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100 * sortedLatenciesInNanos.length) - 1;
+            return sortedLatenciesInNanos[Math.max(0, Math.min(index, sortedLatenciesInNanos.length - 1))];
+        }
+
+        static String header() {
+            return String.format(Locale.ROOT, "%-4s %-9s %7s %10s %6s %5s %12s %10s %9s %9s %9s %9s %9s",
+                    "", "format", "threads", "msg", "lost", "bad", "msg/s", "MiB/s",
+                    "p50(us)", "p90(us)", "p99(us)", "p99.9(us)", "max(us)");
+        }
+
+        @Override
+        public String toString() {
+            double seconds = elapsedInNanos / 1_000_000_000.0;
+            return String.format(Locale.ROOT, "%-4s %-9s %7d %10d %6d %5d %12.0f %10.2f %9.1f %9.1f %9.1f %9.1f %9.1f",
+                    transport, messageFormat, threads, sent, getLost(), duplicates + corrupted + errors,
+                    received / seconds, bytes / seconds / (1024 * 1024),
+                    getLatencyPercentileInNanos(50) / 1000.0,
+                    getLatencyPercentileInNanos(90) / 1000.0,
+                    getLatencyPercentileInNanos(99) / 1000.0,
+                    getLatencyPercentileInNanos(99.9) / 1000.0,
+                    getLatencyPercentileInNanos(100) / 1000.0);
+        }
+    }
+}
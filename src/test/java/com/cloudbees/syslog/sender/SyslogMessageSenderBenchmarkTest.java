@@ -0,0 +1,43 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.sender;
+
+import com.cloudbees.syslog.MessageFormat;
+import com.cloudbees.syslog.sender.SyslogMessageSenderBenchmark.Result;
+import com.cloudbees.syslog.sender.SyslogMessageSenderBenchmark.Transport;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Small run of the {@link SyslogMessageSenderBenchmark} to verify end to end, against loopback servers, that the
+ * messages are received intact and unsplit.
+ */
+class SyslogMessageSenderBenchmarkTest {
+
+    @ParameterizedTest
+    @EnumSource(Transport.class)
+    void messages_are_received_intact(Transport transport) throws Exception {
+        for (MessageFormat messageFormat : MessageFormat.values()) {
+            Result result = SyslogMessageSenderBenchmark.run(transport, messageFormat, 4, 250, 300);
+
+            // UDP is allowed to lose messages
+            assertThat(result.toString(), result.isSuccessful(), is(true));
+        }
+    }
+}
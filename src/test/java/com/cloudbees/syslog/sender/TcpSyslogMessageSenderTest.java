@@ -19,28 +19,68 @@ import com.cloudbees.syslog.Facility;
 import com.cloudbees.syslog.MessageFormat;
 import com.cloudbees.syslog.Severity;
 import com.cloudbees.syslog.SyslogMessage;
+import com.cloudbees.syslog.server.SyslogServer;
+import com.cloudbees.syslog.util.InetAddressResolver;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSocket;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.sql.Timestamp;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.endsWith;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 /**
  * @author <a href="mailto:cleclerc@cloudbees.com">Cyrille Le Clerc</a>
  */
 class TcpSyslogMessageSenderTest {
 
-    // @Disabled
     @Test
     void send() throws Exception {
-        TcpSyslogMessageSender messageSender = new TcpSyslogMessageSender();
-        messageSender.setDefaultMessageHostname("mysecretkey");
-        messageSender.setDefaultAppName("myapp");
-        messageSender.setDefaultFacility(Facility.USER);
-        messageSender.setDefaultSeverity(Severity.INFORMATIONAL);
-        messageSender.setSyslogServerHostname("logs2.papertrailapp.com");
-        messageSender.setSyslogServerPort(46022);
-        messageSender.setMessageFormat(MessageFormat.RFC_3164);
-        messageSender.setSsl(true);
-        messageSender.sendMessage("unit test message over tcp éèà " + getClass() + " - " + new Timestamp(System.currentTimeMillis()));
+        List<SyslogMessage> received = new CopyOnWriteArrayList<>();
+        try (SyslogServer server = new SyslogServer();
+             TcpSyslogMessageSender messageSender = new TcpSyslogMessageSender()) {
+            server.setBindAddress(InetAddress.getLoopbackAddress());
+            server.setTlsPort(0);
+            server.setSSLContext(SelfSignedCertificate.getInstance().getServerSslContext());
+            server.setMessageHandler(received::addAll);
+            server.start();
+
+            messageSender.setDefaultMessageHostname("mysecretkey");
+            messageSender.setDefaultAppName("myapp");
+            messageSender.setDefaultFacility(Facility.USER);
+            messageSender.setDefaultSeverity(Severity.INFORMATIONAL);
+            messageSender.setSyslogServerHostname("127.0.0.1");
+            messageSender.setSyslogServerPort(server.getTlsPort());
+            messageSender.setMessageFormat(MessageFormat.RFC_3164);
+            messageSender.setSsl(true);
+            messageSender.setSSLContext(SelfSignedCertificate.getInstance().getClientSslContext());
+            String msg = "unit test message over tcp éèà " + getClass() + " - " + new Timestamp(System.currentTimeMillis());
+            messageSender.sendMessage(msg);
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (received.isEmpty() && System.nanoTime() - deadline < 0) {
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+            assertThat(received.size(), is(1));
+            SyslogMessage message = received.get(0);
+            assertThat(message.getHostname(), is("mysecretkey"));
+            assertThat(message.getAppName(), is("myapp"));
+            assertThat(message.getSeverity(), is(Severity.INFORMATIONAL));
+            assertThat(message.getMsg().toString(), is(msg));
+        }
     }
 
     @Disabled
@@ -95,4 +135,225 @@ class TcpSyslogMessageSenderTest {
         TcpSyslogMessageSender tcpSyslogMessageSender = new TcpSyslogMessageSender();
         tcpSyslogMessageSender.toString();
     }
+
+    @Test
+    void connection_fails_over_to_the_next_address() throws Exception {
+        try (NioLoopbackSyslogServer server = LoopbackSyslogServer.tcp().start(InetAddress.getByName("127.0.0.1"), 0);
+             TcpSyslogMessageSender messageSender = new TcpSyslogMessageSender()) {
+            // nothing listens on 127.0.0.2
+            FixedInetAddressResolver resolver = new FixedInetAddressResolver(InetAddress.getByName("127.0.0.2"), InetAddress.getByName("127.0.0.1"));
+            messageSender.syslogServerAddressResolver = resolver;
+            messageSender.setSyslogServerPort(server.getPort());
+
+            messageSender.sendMessage("failover");
+
+            assertThat(server.awaitFrames(1, 5, TimeUnit.SECONDS).get(0), endsWith("failover"));
+            assertThat(resolver.getAddress(), is(InetAddress.getByName("127.0.0.1")));
+            assertThat(messageSender.getTrySendErrorCounter(), is(0));
+        }
+    }
+
+    @Test
+    void connection_rolls_over_when_the_addresses_change() throws Exception {
+        try (NioLoopbackSyslogServer oldServer = LoopbackSyslogServer.tcp().start(InetAddress.getByName("127.0.0.1"), 0);
+             NioLoopbackSyslogServer newServer = LoopbackSyslogServer.tcp().start(InetAddress.getByName("127.0.0.2"), oldServer.getPort());
+             TcpSyslogMessageSender messageSender = new TcpSyslogMessageSender()) {
+            FixedInetAddressResolver resolver = new FixedInetAddressResolver(InetAddress.getByName("127.0.0.1"));
+            messageSender.syslogServerAddressResolver = resolver;
+            messageSender.setSyslogServerPort(oldServer.getPort());
+            messageSender.sendMessage("before");
+
+            resolver.addresses = new InetAddress[]{InetAddress.getByName("127.0.0.2")};
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (!resolver.getAddress().equals(resolver.addresses[0]) && System.nanoTime() < deadline) {
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+            messageSender.sendMessage("after");
+
+            assertThat(newServer.awaitFrames(1, 5, TimeUnit.SECONDS).get(0), endsWith("after"));
+            List<String> oldFrames = oldServer.getFrames();
+            assertThat(oldFrames.size(), is(1));
+            assertThat(oldFrames.get(0), endsWith("before"));
+            assertThat(messageSender.getTrySendErrorCounter(), is(0));
+        }
+    }
+
+    @Test
+    void tls_sessions_are_resumed_after_a_reconnection() throws Exception {
+        for (String protocol : new String[]{"TLSv1.2", "TLSv1.3"}) {
+            try (NioLoopbackSyslogServer server = LoopbackSyslogServer.tls().start();
+                 TcpSyslogMessageSender messageSender = new TcpSyslogMessageSender()) {
+                messageSender.setSyslogServerHostname("127.0.0.1");
+                messageSender.setSyslogServerPort(server.getPort());
+                messageSender.setSsl(true);
+                messageSender.setSSLContext(server.getClientSslContext());
+                messageSender.setSslEnabledProtocols(protocol);
+                for (int i = 0; i < 3; i++) {
+                    messageSender.sendMessage("message-" + i);
+                    messageSender.close();
+                }
+                assertThat(server.awaitFrames(3, 5, TimeUnit.SECONDS).size(), is(3));
+                assertThat(protocol, messageSender.getSslHandshakeCount(), is(3));
+                assertThat(protocol, messageSender.getSslResumedHandshakeCount(), is(2));
+            }
+        }
+    }
+
+    @Test
+    void tls_post_handshake_messages_dont_break_the_liveness_check() throws Exception {
+        try (NioLoopbackSyslogServer server = LoopbackSyslogServer.tls().start();
+             TcpSyslogMessageSender messageSender = new TcpSyslogMessageSender()) {
+            messageSender.setSyslogServerHostname("127.0.0.1");
+            messageSender.setSyslogServerPort(server.getPort());
+            messageSender.setSsl(true);
+            messageSender.setSSLContext(server.getClientSslContext());
+            messageSender.setSslEnabledProtocols("TLSv1.3");
+            // the session ticket arrives after the handshake, during the liveness checks
+            messageSender.setSslSessionTicketTimeoutInMillis(0);
+            messageSender.setLivenessCheckIntervalInMillis(0);
+            for (int i = 0; i < 5; i++) {
+                messageSender.sendMessage("message-" + i);
+                TimeUnit.MILLISECONDS.sleep(50);
+            }
+            assertThat(server.awaitFrames(5, 5, TimeUnit.SECONDS).size(), is(5));
+            assertThat(messageSender.getSslHandshakeCount(), is(1));
+            assertThat(messageSender.getDeadConnectionCount(), is(0));
+        }
+    }
+
+    @Test
+    void tls_handshake_fails_without_a_common_cipher_suite() throws Exception {
+        try (NioLoopbackSyslogServer server = LoopbackSyslogServer.tls().start();
+             TcpSyslogMessageSender messageSender = new TcpSyslogMessageSender()) {
+            messageSender.setSyslogServerHostname("127.0.0.1");
+            messageSender.setSyslogServerPort(server.getPort());
+            messageSender.setSsl(true);
+            messageSender.setSSLContext(server.getClientSslContext());
+            messageSender.setMaxRetryCount(0);
+            // the server certificate is an EC key
+            messageSender.setSslEnabledProtocols("TLSv1.2");
+            messageSender.setSslEnabledCipherSuites("TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256");
+            assertThrows(SSLException.class, () -> messageSender.sendMessage("message"));
+            assertThat(messageSender.getSslHandshakeCount(), is(0));
+        }
+    }
+
+    @Test
+    void write_to_a_stalled_server_times_out() throws Exception {
+        for (boolean ssl : new boolean[]{false, true}) {
+            SSLContext serverSslContext = SelfSignedCertificate.getInstance().getServerSslContext();
+            try (ServerSocket serverSocket = ssl ?
+                    serverSslContext.getServerSocketFactory().createServerSocket(0, 50, InetAddress.getLoopbackAddress()) :
+                    new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+                 TcpSyslogMessageSender messageSender = new TcpSyslogMessageSender()) {
+                serverSocket.setReceiveBufferSize(4096);
+                List<Socket> accepted = new CopyOnWriteArrayList<>();
+                Thread acceptor = new Thread(() -> {
+                    try {
+                        while (true) {
+                            Socket socket = serverSocket.accept();
+                            if (socket instanceof SSLSocket) {
+                                ((SSLSocket) socket).startHandshake();
+                            }
+                            // never read
+                            accepted.add(socket);
+                        }
+                    } catch (IOException e) {
+                        // server closed
+                    }
+                });
+                acceptor.setDaemon(true);
+                acceptor.start();
+
+                messageSender.setSyslogServerHostname("127.0.0.1");
+                messageSender.setSyslogServerPort(serverSocket.getLocalPort());
+                messageSender.setSsl(ssl);
+                messageSender.setSSLContext(SelfSignedCertificate.getInstance().getClientSslContext());
+                messageSender.setSendBufferSize(4096);
+                messageSender.setTcpNoDelay(true);
+                messageSender.setWriteTimeoutInMillis(200);
+                messageSender.setMaxRetryCount(0);
+
+                StringBuilder message = new StringBuilder();
+                while (message.length() < 1024 * 1024) {
+                    message.append("stalled ");
+                }
+                long nanosBefore = System.nanoTime();
+                assertThrows(SocketTimeoutException.class, () -> messageSender.sendMessage(message));
+                assertThat(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - nanosBefore) < 5, is(true));
+                assertThat(messageSender.getWriteTimeoutCount(), is(1));
+                for (Socket socket : accepted) {
+                    socket.close();
+                }
+            }
+        }
+    }
+
+    @Test
+    void connection_closed_by_the_server_is_detected_before_writing() throws Exception {
+        for (boolean ssl : new boolean[]{false, true}) {
+            try (NioLoopbackSyslogServer server = (ssl ? LoopbackSyslogServer.tls() : LoopbackSyslogServer.tcp()).start();
+                 TcpSyslogMessageSender messageSender = new TcpSyslogMessageSender()) {
+                messageSender.setSyslogServerHostname("127.0.0.1");
+                messageSender.setSyslogServerPort(server.getPort());
+                messageSender.setSsl(ssl);
+                messageSender.setSSLContext(server.getClientSslContext());
+                messageSender.setLivenessCheckIntervalInMillis(0);
+                messageSender.setKeepAliveIdleInSeconds(60);
+                messageSender.setKeepAliveIntervalInSeconds(10);
+                messageSender.setKeepAliveCount(3);
+                messageSender.sendMessage("before");
+                server.awaitFrames(1, 5, TimeUnit.SECONDS);
+
+                server.dropConnections();
+                // let the FIN reach the client
+                TimeUnit.MILLISECONDS.sleep(100);
+                messageSender.sendMessage("after");
+
+                List<String> frames = server.awaitFrames(2, 5, TimeUnit.SECONDS);
+                assertThat(frames.get(1), endsWith("after"));
+                assertThat(messageSender.getDeadConnectionCount(), is(1));
+                assertThat(messageSender.getTrySendErrorCounter(), is(0));
+            }
+        }
+    }
+
+    @Test
+    void messages_are_framed() throws Exception {
+        for (Framing framing : new Framing[]{Framing.OCTET_COUNTING, Framing.NUL, Framing.LF}) {
+            try (NioLoopbackSyslogServer server = LoopbackSyslogServer.tcp().start();
+                 TcpSyslogMessageSender messageSender = new TcpSyslogMessageSender()) {
+                messageSender.setSyslogServerHostname("127.0.0.1");
+                messageSender.setSyslogServerPort(server.getPort());
+                messageSender.setMessageFormat(MessageFormat.RFC_5424);
+                messageSender.setFraming(framing);
+                // only octet counting is transparent to line breaks
+                String message = framing == Framing.OCTET_COUNTING ? "first line\nsecond line" : "first message";
+                messageSender.sendMessage(message);
+                messageSender.sendMessage("next message");
+
+                List<String> frames = server.awaitFrames(2, 5, TimeUnit.SECONDS);
+                assertThat(framing.toString(), frames.size(), is(2));
+                assertThat(frames.get(0), endsWith(message));
+                assertThat(frames.get(1), endsWith("next message"));
+            }
+        }
+    }
+
+    /**
+     * Resolve to the given addresses, refreshed on each access.
+     */
+    static class FixedInetAddressResolver extends InetAddressResolver {
+        volatile InetAddress[] addresses;
+
+        FixedInetAddressResolver(InetAddress... addresses) {
+            super("syslog.example.com", 0);
+            this.addresses = addresses;
+        }
+
+        @Override
+        protected InetAddress[] lookup(String hostname) {
+            return addresses;
+        }
+    }
 }
@@ -16,10 +16,24 @@
 package com.cloudbees.syslog.sender;
 
 import com.cloudbees.syslog.Facility;
+import com.cloudbees.syslog.MessageFormat;
 import com.cloudbees.syslog.Severity;
+import com.cloudbees.syslog.SyslogMessage;
 
+import java.nio.charset.StandardCharsets;
 import java.sql.Timestamp;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.startsWith;
 
 /**
  * @author <a href="mailto:cleclerc@cloudbees.com">Cyrille Le Clerc</a>
@@ -39,4 +53,89 @@ class UpdSyslogMessageSenderTest {
         messageSender.setSyslogServerPort(18977);
         messageSender.sendMessage("unit test message éèà " + getClass() + " - " + new Timestamp(System.currentTimeMillis()));
     }
+
+    @ParameterizedTest
+    @EnumSource(MessageFormat.class)
+    void oversized_messages_are_truncated(MessageFormat messageFormat) throws Exception {
+        try (NioLoopbackSyslogServer server = LoopbackSyslogServer.udp().start();
+             UdpSyslogMessageSender messageSender = new UdpSyslogMessageSender()) {
+            messageSender.setSyslogServerHostname("127.0.0.1");
+            messageSender.setSyslogServerPort(server.getPort());
+            messageSender.setMessageFormat(messageFormat);
+            messageSender.setMaxDatagramSize(200);
+
+            messageSender.sendMessage(newMessage(repeat("éèà€ ", 100)));
+            messageSender.sendMessage(newMessage("short message"));
+
+            List<String> frames = server.awaitFrames(2, 5, TimeUnit.SECONDS);
+            String truncated = frames.get(0);
+            assertThat(truncated.getBytes(StandardCharsets.UTF_8).length, lessThanOrEqualTo(200));
+            assertThat(truncated, not(containsString("\uFFFD")));
+            if (messageFormat == MessageFormat.RFC_3164) {
+                assertThat(truncated, containsString("my_app: éèà€ "));
+            } else {
+                assertThat(truncated, containsString("[truncated@32473 maxSize=\"200\"] éèà€ "));
+            }
+            if (messageFormat == MessageFormat.RFC_5425) {
+                String length = truncated.substring(0, truncated.indexOf(' '));
+                assertThat(truncated.substring(length.length() + 1).getBytes(StandardCharsets.UTF_8).length, is(Integer.parseInt(length)));
+            }
+            assertThat(frames.get(1), containsString("short message"));
+            assertThat(messageSender.getOversizedMessageCount(), is(1));
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = MessageFormat.class, names = {"RFC_5424", "RFC_5425"})
+    void oversized_messages_are_split(MessageFormat messageFormat) throws Exception {
+        try (NioLoopbackSyslogServer server = LoopbackSyslogServer.udp().start();
+             UdpSyslogMessageSender messageSender = new UdpSyslogMessageSender()) {
+            messageSender.setSyslogServerHostname("127.0.0.1");
+            messageSender.setSyslogServerPort(server.getPort());
+            messageSender.setMessageFormat(messageFormat);
+            messageSender.setMaxDatagramSize(300);
+            messageSender.setOversizePolicy(UdpSyslogMessageSender.OversizePolicy.SPLIT);
+
+            StringBuilder body = new StringBuilder("java.lang.IllegalStateException: éèà€ 😀\n");
+            for (int i = 0; i < 30; i++) {
+                body.append("\tat com.example.Service.method").append(i).append("(Service.java:").append(i).append(")\n");
+            }
+            messageSender.sendMessage(newMessage(body.toString()));
+
+            server.awaitQuiescence(200, TimeUnit.MILLISECONDS);
+            List<String> frames = server.getFrames();
+            StringBuilder reassembled = new StringBuilder();
+            for (int i = 0; i < frames.size(); i++) {
+                String frame = frames.get(i);
+                assertThat(frame.getBytes(StandardCharsets.UTF_8).length, lessThanOrEqualTo(300));
+                String splitElement = "[split@32473 id=\"1\" part=\"" + (i + 1) + "\" total=\"" + frames.size() + "\"] ";
+                assertThat(frame, containsString(splitElement));
+                // the parts are split after the lines and the server strips the LF terminating the datagrams
+                reassembled.append(frame.substring(frame.indexOf(splitElement) + splitElement.length())).append('\n');
+            }
+            assertThat(frames.size() > 1, is(true));
+            assertThat(reassembled.toString(), is(body.toString()));
+            // split after the lines
+            assertThat(frames.get(1).substring(frames.get(1).indexOf("] ") + 2), startsWith("\tat"));
+            assertThat(messageSender.getOversizedMessageCount(), is(1));
+        }
+    }
+
+    private static SyslogMessage newMessage(String msg) {
+        return new SyslogMessage()
+                .withTimestamp(System.currentTimeMillis())
+                .withAppName("my_app")
+                .withHostname("myserver.example.com")
+                .withFacility(Facility.USER)
+                .withSeverity(Severity.INFORMATIONAL)
+                .withMsg(msg);
+    }
+
+    private static String repeat(String s, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
 }
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+
+class StreamFrameDecoderTest {
+
+    private final AtomicLong oversizedFrameCounter = new AtomicLong();
+    private final List<String> frames = new ArrayList<>();
+
+    @Test
+    void octet_counted_and_non_transparent_frames_are_decoded() {
+        StreamFrameDecoder decoder = new StreamFrameDecoder(64, 1024, oversizedFrameCounter);
+        feed(decoder, "<14>lf\n<14>crlf\r\n<14>nul\0" + "11 <14>1 a\nb c\n" + "9 <14>1 abc");
+
+        assertThat(frames, contains("<14>lf", "<14>crlf", "<14>nul", "<14>1 a\nb c", "<14>1 abc"));
+        assertThat(decoder.hasPartialFrame(), is(false));
+    }
+
+    @Test
+    void frames_split_across_reads_are_decoded() {
+        StreamFrameDecoder decoder = new StreamFrameDecoder(4, 1024, oversizedFrameCounter);
+        String stream = "<14>first message\r\n" + "20 <14>1 second message" + "<14>third message\n";
+        for (int i = 0; i < stream.length(); i++) {
+            feed(decoder, stream.substring(i, i + 1));
+        }
+
+        assertThat(frames, contains("<14>first message", "<14>1 second message", "<14>third message"));
+        assertThat(oversizedFrameCounter.get(), is(0L));
+    }
+
+    @Test
+    void oversized_frames_are_discarded() {
+        StreamFrameDecoder decoder = new StreamFrameDecoder(8, 16, oversizedFrameCounter);
+        feed(decoder, "20 <14>1 0123456789abcd");
+        feed(decoder, "<14>0123456789abcdef");
+        feed(decoder, "0123456789\n");
+        feed(decoder, "<14>1 fits\n");
+
+        assertThat(frames, contains("<14>1 fits"));
+        assertThat(oversizedFrameCounter.get(), is(2L));
+    }
+
+    private void feed(StreamFrameDecoder decoder, String bytes) {
+        ByteBuffer input = ByteBuffer.wrap(bytes.getBytes(StandardCharsets.UTF_8));
+        while (input.hasRemaining()) {
+            ByteBuffer buffer = decoder.buffer();
+            int length = Math.min(buffer.remaining(), input.remaining());
+            buffer.put(input.array(), input.position(), length);
+            input.position(input.position() + length);
+            decoder.decode((frameBuffer, offset, frameLength) -> frames.add(new String(frameBuffer.array(), offset, frameLength, StandardCharsets.UTF_8)));
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.server;
+
+import com.cloudbees.syslog.Facility;
+import com.cloudbees.syslog.MessageFormat;
+import com.cloudbees.syslog.SDElement;
+import com.cloudbees.syslog.SDParam;
+import com.cloudbees.syslog.Severity;
+import com.cloudbees.syslog.SyslogMessage;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SyslogMessageParserTest {
+
+    @Test
+    void rfc_5424_message_is_parsed() {
+        SyslogMessageView view = parse("<165>1 2003-10-11T22:14:15.003Z mymachine.example.com evntslog - ID47 " +
+                "[exampleSDID@32473 iut=\"3\" eventSource=\"Application\" eventID=\"1011\"][examplePriority@32473 class=\"high\"] " +
+                "﻿An application event log entry...");
+
+        assertThat(view.getMessageFormat(), is(MessageFormat.RFC_5424));
+        assertThat(view.getFacility(), is(Facility.LOCAL4));
+        assertThat(view.getSeverity(), is(Severity.NOTICE));
+        assertThat(view.getTimestampInMillis(), is(OffsetDateTime.parse("2003-10-11T22:14:15.003Z").toInstant().toEpochMilli()));
+        assertThat(view.getHostname(), is("mymachine.example.com"));
+        assertThat(view.getAppName(), is("evntslog"));
+        assertThat(view.getProcId(), is(nullValue()));
+        assertThat(view.getMsgId(), is("ID47"));
+        assertThat(view.getSDElements(), contains(
+                new SDElement("exampleSDID@32473", new SDParam("iut", "3"), new SDParam("eventSource", "Application"), new SDParam("eventID", "1011")),
+                new SDElement("examplePriority@32473", new SDParam("class", "high"))));
+        assertThat(view.getMsg(), is("An application event log entry..."));
+    }
+
+    @Test
+    void rfc_5424_messages_encoded_by_the_senders_are_parsed() {
+        SyslogMessage message = new SyslogMessage()
+                .withFacility(Facility.AUTHPRIV)
+                .withSeverity(Severity.ALERT)
+                .withTimestamp(1_500_000_000_123L)
+                .withHostname("my-host")
+                .withAppName("my-app")
+                .withProcId("42")
+                .withMsgId("my-msg-id")
+                .withSDElement(new SDElement("escaped@32473", new SDParam("value", "a \"quoted\" [value] with \\ backslash")))
+                .withMsg("multi\nline éèà");
+
+        SyslogMessage parsed = SyslogMessageParser.parseMessage(ByteBuffer.wrap(message.toRfc5424SyslogMessage().getBytes(StandardCharsets.UTF_8)));
+
+        assertThat(parsed.toRfc5424SyslogMessage(), is(message.toRfc5424SyslogMessage()));
+        assertThat(parsed.getTimestamp().getTime(), is(1_500_000_000_123L));
+    }
+
+    @Test
+    void nil_values_are_null() {
+        SyslogMessageView view = parse("<14>1 - - - - - -");
+
+        assertThat(view.getTimestampInMillis(), is(SyslogMessageView.NO_TIMESTAMP));
+        assertThat(view.getHostname(), is(nullValue()));
+        assertThat(view.getAppName(), is(nullValue()));
+        assertThat(view.appNameEquals(null), is(true));
+        assertThat(view.getProcId(), is(nullValue()));
+        assertThat(view.getMsgId(), is(nullValue()));
+        assertThat(view.getSDElements(), is(empty()));
+        assertThat(view.getMsg(), is(nullValue()));
+    }
+
+    @Test
+    void rfc_3339_timestamps_are_parsed() {
+        assertThat(timestamp("1985-04-12T23:20:50.52Z"), is(epochMillis("1985-04-12T23:20:50.520Z")));
+        assertThat(timestamp("2003-08-24T05:14:15.000003-07:00"), is(epochMillis("2003-08-24T12:14:15Z")));
+        assertThat(timestamp("2003-10-11T22:14:15+02:30"), is(epochMillis("2003-10-11T19:44:15Z")));
+        assertThat(timestamp("1969-12-31T23:59:59.999Z"), is(-1L));
+        assertThat(timestamp("2024-02-29T00:00:00Z"), is(epochMillis("2024-02-29T00:00:00Z")));
+        // leap second
+        assertThat(timestamp("2016-12-31T23:59:60Z"), is(epochMillis("2016-12-31T23:59:59Z")));
+
+        for (String invalid : new String[]{"2003-10-11 22:14:15Z", "2003-10-11T22:14:15", "2003-13-11T22:14:15Z",
+                "2023-02-29T22:14:15Z", "2003-10-11T22:14:15.Z", "2003-10-11T22:14:15.0000001Z", "2003-10-11T22:14:15+0200"}) {
+            assertThrows(IllegalArgumentException.class, () -> timestamp(invalid), invalid);
+        }
+    }
+
+    @Test
+    void rfc_3164_message_is_parsed() {
+        SyslogMessageView view = parse("<34>Oct  1 22:14:15 mymachine su[123]: 'su root' failed for lonvick on /dev/pts/8");
+
+        assertThat(view.getMessageFormat(), is(MessageFormat.RFC_3164));
+        assertThat(view.getFacility(), is(Facility.AUTH));
+        assertThat(view.getSeverity(), is(Severity.CRITICAL));
+        LocalDateTime timestamp = LocalDateTime.ofEpochSecond(view.getTimestampInMillis() / 1000, 0, ZoneId.systemDefault().getRules().getOffset(java.time.Instant.ofEpochMilli(view.getTimestampInMillis())));
+        assertThat(timestamp.getMonthValue(), is(10));
+        assertThat(timestamp.getDayOfMonth(), is(1));
+        assertThat(timestamp.getHour(), is(22));
+        assertThat(timestamp.getSecond(), is(15));
+        assertThat(view.getHostname(), is("mymachine"));
+        assertThat(view.getAppName(), is("su"));
+        assertThat(view.getProcId(), is("123"));
+        assertThat(view.getMsg(), is("'su root' failed for lonvick on /dev/pts/8"));
+        assertThat(view.getSDElements(), is(empty()));
+    }
+
+    @Test
+    void rfc_3164_messages_are_parsed_leniently() {
+        SyslogMessageView noPri = parse("Use the BFG!");
+        assertThat(noPri.getPri(), is(SyslogMessageParser.DEFAULT_PRI));
+        assertThat(noPri.getFacility(), is(Facility.USER));
+        assertThat(noPri.getSeverity(), is(Severity.NOTICE));
+        assertThat(noPri.getMsg(), is("Use the BFG!"));
+
+        SyslogMessageView noTimestamp = parse("<13>Use the BFG!");
+        assertThat(noTimestamp.getTimestampInMillis(), is(SyslogMessageView.NO_TIMESTAMP));
+        assertThat(noTimestamp.getHostname(), is(nullValue()));
+        assertThat(noTimestamp.getMsg(), is("Use the BFG!"));
+
+        SyslogMessageView noTag = parse("<13>Feb  5 17:32:18 10.0.0.99");
+        assertThat(noTag.getHostname(), is("10.0.0.99"));
+        assertThat(noTag.getAppName(), is(nullValue()));
+        assertThat(noTag.getMsg(), is(nullValue()));
+    }
+
+    @Test
+    void fields_are_decoded_only_when_accessed() {
+        // invalid structured data
+        SyslogMessageView view = parse("<11>1 - host app - - [unterminated message");
+
+        assertThat(view.getSeverity(), is(Severity.ERROR));
+        assertThrows(IllegalArgumentException.class, view::getAppName);
+        assertThrows(IllegalArgumentException.class, view::toSyslogMessage);
+    }
+
+    @Test
+    void app_name_and_sd_params_are_compared_in_place() {
+        SyslogMessageView view = parse("<14>1 - host sshd - - [a@1 x=\"1\"][b@1 y=\"2\" z=\"\\\"3\\]\"] message");
+
+        assertThat(view.appNameEquals("sshd"), is(true));
+        assertThat(view.appNameEquals("sshe"), is(false));
+        assertThat(view.appNameEquals("ssh"), is(false));
+        assertThat(view.appNameEquals("sshdé"), is(false));
+        assertThat(view.appNameEquals(null), is(false));
+        assertThat(view.getSDParamValue("b@1", "z"), is("\"3]"));
+        assertThat(view.getSDParamValue("b@1", "y"), is("2"));
+        assertThat(view.getSDParamValue("a@1", "y"), is(nullValue()));
+        assertThat(view.getSDParamValue("c@1", "x"), is(nullValue()));
+        assertThat(view.getMsg(), is("message"));
+    }
+
+    @Test
+    void views_over_direct_buffers_are_reusable() {
+        byte[] bytes = "xx<14>1 - - first - - - one<15>1 - - second - - - two".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+        SyslogMessageView view = new SyslogMessageView();
+
+        SyslogMessageParser.parse(buffer, 2, 25, view);
+        assertThat(view.getAppName(), is("first"));
+        assertThat(view.getMsg(), is("one"));
+        assertThat(view.toSyslogFrame().size(), is(25));
+
+        SyslogMessageParser.parse(buffer, 27, 26, view);
+        assertThat(view.getSeverity(), is(Severity.DEBUG));
+        assertThat(view.getAppName(), is("second"));
+        assertThat(view.getMsg(), is("two"));
+    }
+
+    @Test
+    void invalid_pri_is_rejected() {
+        for (String invalid : new String[]{"<192>1 - - - - - -", "<>1 - - - - - -", "<1234>message", "<14 message"}) {
+            assertThrows(IllegalArgumentException.class, () -> parse(invalid), invalid);
+        }
+    }
+
+    private static SyslogMessageView parse(String message) {
+        return SyslogMessageParser.parse(ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static long timestamp(String timestamp) {
+        return parse("<14>1 " + timestamp + " - - - - -").getTimestampInMillis();
+    }
+
+    private static long epochMillis(String timestamp) {
+        return OffsetDateTime.parse(timestamp).toInstant().toEpochMilli();
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.server;
+
+import com.cloudbees.syslog.MessageFormat;
+import com.cloudbees.syslog.SDElement;
+import com.cloudbees.syslog.SDParam;
+import com.cloudbees.syslog.SyslogFrame;
+import com.cloudbees.syslog.SyslogMessage;
+import com.cloudbees.syslog.sender.LoopbackSyslogServer;
+import com.cloudbees.syslog.sender.NioLoopbackSyslogServer;
+import com.cloudbees.syslog.sender.SyslogFrameSender;
+import com.cloudbees.syslog.sender.TcpSyslogMessageSender;
+import org.junit.jupiter.api.Test;
+
+import java.io.CharArrayWriter;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+
+class SyslogRelayTest {
+
+    @Test
+    void messages_are_relayed_from_udp_to_tcp() throws Exception {
+        try (NioLoopbackSyslogServer collector = LoopbackSyslogServer.tcp().start()) {
+            SyslogRelay relay = new SyslogRelay(newSender(collector, MessageFormat.RFC_5424));
+            try (SyslogServer server = newServer(relay); SyslogRelay ignored = relay) {
+                String rfc5424 = "<165>1 2003-10-11T22:14:15.003Z mymachine.example.com evntslog - ID47 [exampleSDID@32473 iut=\"3\"] forwarded as is";
+                String rfc3164 = "<34>Oct  1 22:14:15 mymachine su[123]: converted";
+                sendDatagram(server, rfc5424);
+                sendDatagram(server, rfc3164);
+
+                List<String> frames = collector.awaitFrames(2, 5, TimeUnit.SECONDS);
+                assertThat(frames.get(0), is(rfc5424));
+                SyslogMessage converted = SyslogMessageParser.parseMessage(ByteBuffer.wrap(frames.get(1).getBytes(StandardCharsets.UTF_8)));
+                assertThat(frames.get(1).startsWith("<34>1 "), is(true));
+                assertThat(converted.getHostname(), is("mymachine"));
+                assertThat(converted.getAppName(), is("su"));
+                assertThat(converted.getProcId(), is("123"));
+                assertThat(converted.getMsg().toString(), is("converted"));
+                assertThat(relay.getReceivedCount(), is(2L));
+                assertThat(relay.getRewrittenCount(), is(0L));
+                awaitForwardedCount(relay, 2);
+            }
+        }
+    }
+
+    @Test
+    void octet_counting_is_added_to_rfc_5424_messages() throws Exception {
+        try (NioLoopbackSyslogServer collector = LoopbackSyslogServer.tcp().start()) {
+            SyslogRelay relay = new SyslogRelay(newSender(collector, MessageFormat.RFC_5425));
+            try (SyslogServer server = newServer(relay); SyslogRelay ignored = relay) {
+                String rfc5424 = "<14>1 - host app - - - multi\nline";
+                sendDatagram(server, rfc5424);
+
+                assertThat(collector.awaitFrames(1, 5, TimeUnit.SECONDS), contains(rfc5424));
+            }
+        }
+    }
+
+    @Test
+    void messages_are_rewritten_or_filtered() throws Exception {
+        try (NioLoopbackSyslogServer collector = LoopbackSyslogServer.tcp().start()) {
+            SyslogRelay relay = new SyslogRelay(newSender(collector, MessageFormat.RFC_5424));
+            SDElement origin = new SDElement("origin@32473", new SDParam("relay", "my-relay"));
+            relay.setRewriter(message -> message.getMsg().toString().startsWith("debug") ? null : message.withSDElement(origin));
+            try (SyslogServer server = newServer(relay); SyslogRelay ignored = relay) {
+                sendDatagram(server, "<14>1 2003-10-11T22:14:15.003Z host app - - - debug message");
+                sendDatagram(server, "<14>1 2003-10-11T22:14:15.003Z host app - - - enriched message");
+
+                assertThat(collector.awaitFrames(1, 5, TimeUnit.SECONDS), contains("<14>1 2003-10-11T22:14:15.003Z host app - - [origin@32473 relay=\"my-relay\"] enriched message"));
+                assertThat(relay.getRewrittenCount(), is(2L));
+                assertThat(relay.getFilteredCount(), is(1L));
+            }
+        }
+    }
+
+    @Test
+    void hostname_is_added_when_missing() throws Exception {
+        try (NioLoopbackSyslogServer collector = LoopbackSyslogServer.tcp().start()) {
+            SyslogRelay relay = new SyslogRelay(newSender(collector, MessageFormat.RFC_5424));
+            relay.setRewriter(SyslogRelay.Rewriter.hostnameIfMissing("my-relay"));
+            try (SyslogServer server = newServer(relay); SyslogRelay ignored = relay) {
+                sendDatagram(server, "<14>1 2003-10-11T22:14:15.003Z - app - - - no hostname");
+                sendDatagram(server, "<14>1 2003-10-11T22:14:15.003Z host app - - - hostname");
+
+                assertThat(collector.awaitFrames(2, 5, TimeUnit.SECONDS), contains(
+                        "<14>1 2003-10-11T22:14:15.003Z my-relay app - - - no hostname",
+                        "<14>1 2003-10-11T22:14:15.003Z host app - - - hostname"));
+                assertThat(relay.getRewrittenCount(), is(1L));
+            }
+        }
+    }
+
+    @Test
+    void messages_are_dropped_when_the_queue_is_full() throws Exception {
+        BlockedFrameSender sender = new BlockedFrameSender();
+        try (SyslogRelay relay = new SyslogRelay(sender, 2, 1)) {
+            relay.setShutdownTimeoutInMillis(10);
+            SyslogMessageView view = SyslogMessageParser.parse(ByteBuffer.wrap("<14>1 - - - - - - message".getBytes(StandardCharsets.UTF_8)));
+            List<SyslogMessageView> views = Collections.singletonList(view);
+            relay.handle(views);
+            // wait for the forwarding thread to be blocked on the first message
+            assertThat(sender.sending.await(5, TimeUnit.SECONDS), is(true));
+            for (int i = 0; i < 5; i++) {
+                relay.handle(views);
+            }
+
+            assertThat(relay.getReceivedCount(), is(6L));
+            assertThat(relay.getQueueSize(), is(2));
+            assertThat(relay.getDroppedCount(), is(3L));
+        }
+    }
+
+    private static SyslogServer newServer(SyslogRelay relay) throws Exception {
+        SyslogServer server = new SyslogServer();
+        server.setBindAddress(InetAddress.getLoopbackAddress());
+        server.setUdpPort(0);
+        server.setMessageViewHandler(relay);
+        return server.start();
+    }
+
+    private static TcpSyslogMessageSender newSender(LoopbackSyslogServer collector, MessageFormat messageFormat) {
+        TcpSyslogMessageSender sender = new TcpSyslogMessageSender();
+        sender.setSyslogServerHostname("127.0.0.1");
+        sender.setSyslogServerPort(collector.getPort());
+        sender.setMessageFormat(messageFormat);
+        return sender;
+    }
+
+    private static void sendDatagram(SyslogServer server, String message) throws Exception {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.send(new DatagramPacket(bytes, bytes.length, InetAddress.getLoopbackAddress(), server.getUdpPort()));
+        }
+    }
+
+    private static void awaitForwardedCount(SyslogRelay relay, long count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (relay.getForwardedCount() < count) {
+            if (System.nanoTime() - deadline > 0) {
+                throw new AssertionError("Forwarded " + relay.getForwardedCount() + " messages, expected " + count);
+            }
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+    }
+
+    /**
+     * Blocks the forwarding thread until closed.
+     */
+    private static class BlockedFrameSender implements SyslogFrameSender {
+        final CountDownLatch sending = new CountDownLatch(1);
+        final CountDownLatch closed = new CountDownLatch(1);
+
+        @Override
+        public MessageFormat getMessageFormat() {
+            return MessageFormat.RFC_5424;
+        }
+
+        @Override
+        public void sendFrame(SyslogFrame frame) {
+            sending.countDown();
+            try {
+                closed.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void sendMessage(CharArrayWriter message) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void sendMessage(CharSequence message) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void sendMessage(SyslogMessage message) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+    }
+}
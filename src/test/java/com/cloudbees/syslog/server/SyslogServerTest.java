@@ -0,0 +1,279 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.server;
+
+import com.cloudbees.syslog.Facility;
+import com.cloudbees.syslog.MessageFormat;
+import com.cloudbees.syslog.SDElement;
+import com.cloudbees.syslog.SDParam;
+import com.cloudbees.syslog.Severity;
+import com.cloudbees.syslog.SyslogMessage;
+import com.cloudbees.syslog.sender.AbstractSyslogMessageSender;
+import com.cloudbees.syslog.sender.SelfSignedCertificate;
+import com.cloudbees.syslog.sender.TcpSyslogMessageSender;
+import com.cloudbees.syslog.sender.UdpSyslogMessageSender;
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.nullValue;
+
+class SyslogServerTest {
+
+    @Test
+    void messages_are_received_over_udp_tcp_and_tls() throws Exception {
+        RecordingMessageHandler handler = new RecordingMessageHandler();
+        try (SyslogServer server = newServer(handler);
+             UdpSyslogMessageSender udpSender = new UdpSyslogMessageSender();
+             TcpSyslogMessageSender tcpSender = new TcpSyslogMessageSender();
+             TcpSyslogMessageSender tlsSender = new TcpSyslogMessageSender()) {
+            server.setUdpPort(0);
+            server.setTcpPort(0);
+            server.setTlsPort(0);
+            server.setSSLContext(SelfSignedCertificate.getInstance().getServerSslContext());
+            server.start();
+
+            udpSender.setSyslogServerPort(server.getUdpPort());
+            tcpSender.setSyslogServerPort(server.getTcpPort());
+            tlsSender.setSyslogServerPort(server.getTlsPort());
+            tlsSender.setSsl(true);
+            tlsSender.setSSLContext(SelfSignedCertificate.getInstance().getClientSslContext());
+            long timestamp = 1_500_000_000_123L;
+            for (AbstractSyslogMessageSender sender : new AbstractSyslogMessageSender[]{udpSender, tcpSender, tlsSender}) {
+                sender.setSyslogServerHostname("127.0.0.1");
+                sender.setMessageFormat(MessageFormat.RFC_5424);
+                sender.sendMessage(new SyslogMessage()
+                        .withFacility(Facility.LOCAL3)
+                        .withSeverity(Severity.WARNING)
+                        .withTimestamp(timestamp)
+                        .withHostname("my-host")
+                        .withAppName("my-app")
+                        .withProcId("1234")
+                        .withSDElement(new SDElement("origin@32473", new SDParam("ip", "10.0.0.1"), new SDParam("quote", "a \"b\" [c]")))
+                        .withMsg("over " + sender.getClass().getSimpleName() + " éèà"));
+            }
+
+            List<SyslogMessage> messages = handler.awaitMessages(3);
+            List<String> msgs = new ArrayList<>();
+            for (SyslogMessage message : messages) {
+                assertThat(message.getFacility(), is(Facility.LOCAL3));
+                assertThat(message.getSeverity(), is(Severity.WARNING));
+                assertThat(message.getTimestamp().getTime(), is(timestamp));
+                assertThat(message.getHostname(), is("my-host"));
+                assertThat(message.getAppName(), is("my-app"));
+                assertThat(message.getProcId(), is("1234"));
+                assertThat(message.getMsgId(), is(nullValue()));
+                assertThat(message.getSDElements(), contains(new SDElement("origin@32473", new SDParam("ip", "10.0.0.1"), new SDParam("quote", "a \"b\" [c]"))));
+                msgs.add(message.getMsg().toString());
+            }
+            assertThat(msgs.contains("over UdpSyslogMessageSender éèà"), is(true));
+            assertThat(msgs.contains("over TcpSyslogMessageSender éèà"), is(true));
+            assertThat(server.getAcceptedConnectionCount(), is(2L));
+        }
+    }
+
+    @Test
+    void rfc_3164_messages_are_received() throws Exception {
+        RecordingMessageHandler handler = new RecordingMessageHandler();
+        try (SyslogServer server = newServer(handler);
+             TcpSyslogMessageSender sender = new TcpSyslogMessageSender()) {
+            server.setTcpPort(0);
+            server.start();
+            sender.setSyslogServerHostname("127.0.0.1");
+            sender.setSyslogServerPort(server.getTcpPort());
+            sender.setMessageFormat(MessageFormat.RFC_3164);
+            sender.sendMessage(new SyslogMessage()
+                    .withFacility(Facility.AUTH)
+                    .withSeverity(Severity.ERROR)
+                    .withHostname("my-host")
+                    .withAppName("sshd")
+                    .withMsg("login failed"));
+
+            SyslogMessage message = handler.awaitMessages(1).get(0);
+            assertThat(message.getFacility(), is(Facility.AUTH));
+            assertThat(message.getSeverity(), is(Severity.ERROR));
+            assertThat(message.getHostname(), is("my-host"));
+            assertThat(message.getAppName(), is("sshd"));
+            assertThat(message.getMsg().toString(), is("login failed"));
+            assertThat(Math.abs(message.getTimestamp().getTime() - System.currentTimeMillis()) < TimeUnit.MINUTES.toMillis(1), is(true));
+        }
+    }
+
+    @Test
+    void stream_framings_are_decoded_incrementally() throws Exception {
+        RecordingMessageHandler handler = new RecordingMessageHandler();
+        try (SyslogServer server = newServer(handler)) {
+            server.setTcpPort(0);
+            server.start();
+            byte[] stream = ("<14>1 - - - - - - lf\n" +
+                    "<14>1 - - - - - - crlf\r\n" +
+                    "<14>1 - - - - - - nul\0" +
+                    "29 <14>1 - - - - - - octet\ncount" +
+                    "not a syslog message\n").getBytes(StandardCharsets.UTF_8);
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getTcpPort())) {
+                socket.setTcpNoDelay(true);
+                OutputStream out = socket.getOutputStream();
+                for (byte b : stream) {
+                    out.write(b);
+                    out.flush();
+                }
+                List<String> msgs = new ArrayList<>();
+                for (SyslogMessage message : handler.awaitMessages(5)) {
+                    msgs.add(message.getMsg().toString());
+                }
+                assertThat(msgs, contains("lf", "crlf", "nul", "octet\ncount", "not a syslog message"));
+            }
+        }
+    }
+
+    @Test
+    void messages_are_handed_in_batches() throws Exception {
+        RecordingMessageHandler handler = new RecordingMessageHandler();
+        try (SyslogServer server = newServer(handler);
+             TcpSyslogMessageSender sender = new TcpSyslogMessageSender()) {
+            server.setTcpPort(0);
+            server.setMaxBatchSize(10);
+            server.start();
+            sender.setSyslogServerHostname("127.0.0.1");
+            sender.setSyslogServerPort(server.getTcpPort());
+            for (int i = 0; i < 1000; i++) {
+                sender.sendMessage("message " + i);
+            }
+
+            List<SyslogMessage> messages = handler.awaitMessages(1000);
+            for (int i = 0; i < 1000; i++) {
+                assertThat(messages.get(i).getMsg().toString(), is("message " + i));
+            }
+            assertThat(handler.getMaxBatchSize(), lessThanOrEqualTo(10));
+            assertThat(server.getReceivedMessageCount(), is(1000L));
+        }
+    }
+
+    @Test
+    void messages_are_handed_as_views() throws Exception {
+        List<String> appNames = new ArrayList<>();
+        List<SyslogMessage> warnings = new ArrayList<>();
+        SyslogServer server = new SyslogServer();
+        server.setBindAddress(InetAddress.getLoopbackAddress());
+        server.setMessageViewHandler(views -> {
+            synchronized (warnings) {
+                for (SyslogMessageView view : views) {
+                    appNames.add(view.getAppName());
+                    if (view.getSeverity() == Severity.WARNING) {
+                        warnings.add(view.toSyslogMessage());
+                    }
+                }
+                warnings.notifyAll();
+            }
+        });
+        try (SyslogServer ignored = server;
+             UdpSyslogMessageSender sender = new UdpSyslogMessageSender()) {
+            server.setUdpPort(0);
+            server.start();
+            sender.setSyslogServerHostname("127.0.0.1");
+            sender.setSyslogServerPort(server.getUdpPort());
+            sender.setMessageFormat(MessageFormat.RFC_5424);
+            sender.setDefaultAppName("my-app");
+            for (int i = 0; i < 10; i++) {
+                sender.sendMessage(new SyslogMessage()
+                        .withFacility(Facility.USER)
+                        .withSeverity(i % 5 == 0 ? Severity.WARNING : Severity.INFORMATIONAL)
+                        .withMsg("message " + i));
+            }
+
+            synchronized (warnings) {
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                while (appNames.size() < 10 && System.nanoTime() - deadline < 0) {
+                    warnings.wait(100);
+                }
+                assertThat(appNames.size(), is(10));
+                assertThat(warnings.size(), is(2));
+                assertThat(warnings.get(0).getMsg().toString(), is("message 0"));
+                assertThat(warnings.get(1).getMsg().toString(), is("message 5"));
+            }
+        }
+    }
+
+    @Test
+    void invalid_and_oversized_frames_are_discarded() throws Exception {
+        RecordingMessageHandler handler = new RecordingMessageHandler();
+        try (SyslogServer server = newServer(handler)) {
+            server.setTcpPort(0);
+            server.setMaxFrameLength(64);
+            server.start();
+            StringBuilder oversized = new StringBuilder("<14>1 - - - - - - ");
+            while (oversized.length() < 1024) {
+                oversized.append("oversized ");
+            }
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getTcpPort())) {
+                OutputStream out = socket.getOutputStream();
+                out.write(("<999>1 - - - - - - invalid PRI\n" +
+                        oversized + "\n" +
+                        "<14>1 - - - - - - valid\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+
+                assertThat(handler.awaitMessages(1).get(0).getMsg().toString(), is("valid"));
+                assertThat(server.getInvalidMessageCount(), is(1L));
+                assertThat(server.getOversizedFrameCount(), is(1L));
+            }
+        }
+    }
+
+    private static SyslogServer newServer(SyslogMessageHandler handler) {
+        SyslogServer server = new SyslogServer();
+        server.setBindAddress(InetAddress.getLoopbackAddress());
+        server.setMessageHandler(handler);
+        return server;
+    }
+
+    private static class RecordingMessageHandler implements SyslogMessageHandler {
+        private final List<SyslogMessage> messages = new ArrayList<>();
+        private int maxBatchSize;
+
+        @Override
+        public synchronized void handle(List<SyslogMessage> batch) {
+            messages.addAll(batch);
+            maxBatchSize = Math.max(maxBatchSize, batch.size());
+            notifyAll();
+        }
+
+        synchronized List<SyslogMessage> awaitMessages(int count) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (messages.size() < count) {
+                long remainingInMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingInMillis <= 0) {
+                    throw new AssertionError("Received " + messages.size() + " messages, expected " + count + ": " + messages);
+                }
+                wait(remainingInMillis);
+            }
+            return new ArrayList<>(messages);
+        }
+
+        synchronized int getMaxBatchSize() {
+            return maxBatchSize;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FrameRingBufferTest {
+
+    @Test
+    void frames_are_read_in_order_and_wrap_around() {
+        FrameRingBuffer ringBuffer = new FrameRingBuffer(64);
+        List<String> frames = new ArrayList<>();
+
+        // 2 records of 16 bytes
+        assertThat(offer(ringBuffer, "first frame"), is(true));
+        assertThat(offer(ringBuffer, "second"), is(true));
+        assertThat(ringBuffer.size(), is(32));
+        assertThat(ringBuffer.read(frameRecorder(frames)), is(2));
+        assertThat(frames, contains("first frame", "second"));
+        assertThat(ringBuffer.isEmpty(), is(true));
+
+        // records of 24 bytes, the second one doesn't fit in the 8 bytes left before the end: padded, starts at 0
+        assertThat(offer(ringBuffer, "third frame, 19"), is(true));
+        assertThat(offer(ringBuffer, "fourth frame, 20"), is(true));
+        assertThat(ringBuffer.size(), is(24 + 8 + 24));
+        assertThat(offer(ringBuffer, "no room"), is(false));
+
+        frames.clear();
+        assertThat(ringBuffer.read(frameRecorder(frames)), is(2));
+        assertThat(frames, contains("third frame, 19", "fourth frame, 20"));
+        assertThat(ringBuffer.isEmpty(), is(true));
+    }
+
+    @Test
+    void handler_stops_reading_without_consuming_the_frame() {
+        FrameRingBuffer ringBuffer = new FrameRingBuffer(64);
+        offer(ringBuffer, "first");
+        offer(ringBuffer, "second");
+        List<String> frames = new ArrayList<>();
+
+        assertThat(ringBuffer.read((buffer, index, length) -> frames.isEmpty() && frameRecorder(frames).onFrame(buffer, index, length)), is(1));
+        assertThat(ringBuffer.read(frameRecorder(frames)), is(1));
+        assertThat(frames, contains("first", "second"));
+    }
+
+    @Test
+    void frames_longer_than_half_the_capacity_are_rejected() {
+        FrameRingBuffer ringBuffer = new FrameRingBuffer(64);
+
+        assertThat(ringBuffer.offer(new byte[28], 0, 28), is(true));
+        assertThat(ringBuffer.offer(new byte[29], 0, 29), is(false));
+        assertThrows(IllegalArgumentException.class, () -> new FrameRingBuffer(100));
+    }
+
+    @Test
+    void empty_frames_are_rejected() {
+        FrameRingBuffer ringBuffer = new FrameRingBuffer(64);
+
+        assertThrows(IllegalArgumentException.class, () -> ringBuffer.offer(new byte[1], 0, 0));
+        offer(ringBuffer, "next");
+        List<String> frames = new ArrayList<>();
+        assertThat(ringBuffer.read(frameRecorder(frames)), is(1));
+        assertThat(frames, contains("next"));
+        assertThat(ringBuffer.isEmpty(), is(true));
+    }
+
+    @Test
+    void concurrent_producers_dont_lose_frames() throws Exception {
+        FrameRingBuffer ringBuffer = new FrameRingBuffer(1024);
+        int producers = 4;
+        int framesPerProducer = 2_000;
+        ExecutorService executor = Executors.newFixedThreadPool(producers);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int p = 0; p < producers; p++) {
+                int producer = p;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < framesPerProducer; i++) {
+                        while (!offer(ringBuffer, producer + ":" + i + ":" + "x".repeat(i % 50))) {
+                            Thread.yield();
+                        }
+                    }
+                }));
+            }
+            int[] nextByProducer = new int[producers];
+            List<String> errors = new ArrayList<>();
+            int read = 0;
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (read < producers * framesPerProducer && System.nanoTime() - deadline < 0) {
+                read += ringBuffer.read((buffer, index, length) -> {
+                    byte[] bytes = new byte[length];
+                    buffer.get(index, bytes);
+                    String[] frame = new String(bytes, StandardCharsets.UTF_8).split(":", -1);
+                    int producer = Integer.parseInt(frame[0]);
+                    int i = Integer.parseInt(frame[1]);
+                    if (i != nextByProducer[producer]++ || frame[2].length() != i % 50) {
+                        errors.add(new String(bytes, StandardCharsets.UTF_8));
+                    }
+                    return true;
+                });
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+
+            assertThat(read, is(producers * framesPerProducer));
+            assertThat(errors, is(empty()));
+            assertThat(ringBuffer.isEmpty(), is(true));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static boolean offer(FrameRingBuffer ringBuffer, String frame) {
+        byte[] bytes = frame.getBytes(StandardCharsets.UTF_8);
+        return ringBuffer.offer(bytes, 0, bytes.length);
+    }
+
+    private static FrameRingBuffer.FrameHandler frameRecorder(List<String> frames) {
+        return (buffer, index, length) -> {
+            byte[] bytes = new byte[length];
+            buffer.get(index, bytes);
+            frames.add(new String(bytes, StandardCharsets.UTF_8));
+            return true;
+        };
+    }
+}
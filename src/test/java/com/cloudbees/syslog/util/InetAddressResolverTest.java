@@ -0,0 +1,148 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class InetAddressResolverTest {
+
+    @Test
+    void address_families_are_interleaved() throws Exception {
+        InetAddress v6a = InetAddress.getByName("::1");
+        InetAddress v6b = InetAddress.getByName("::2");
+        InetAddress v4a = InetAddress.getByName("127.0.0.1");
+        InetAddress v4b = InetAddress.getByName("127.0.0.2");
+        InetAddress v4c = InetAddress.getByName("127.0.0.3");
+
+        assertThat(InetAddressResolver.order(new InetAddress[]{v6a, v6b, v4a, v4b, v4c}, null),
+                is(new InetAddress[]{v6a, v4a, v6b, v4b, v4c}));
+        assertThat(InetAddressResolver.order(new InetAddress[]{v4a, v4b, v6a}, null),
+                is(new InetAddress[]{v4a, v6a, v4b}));
+        assertThat(InetAddressResolver.order(new InetAddress[]{v6a, v4a, v4b}, v4b),
+                is(new InetAddress[]{v4b, v6a, v4a}));
+    }
+
+    @Test
+    void failed_addresses_are_moved_last() throws Exception {
+        InetAddress first = InetAddress.getByName("127.0.0.1");
+        InetAddress second = InetAddress.getByName("127.0.0.2");
+        InetAddress third = InetAddress.getByName("127.0.0.3");
+        InetAddressResolver resolver = new TestInetAddressResolver(TimeUnit.HOURS.toMillis(1), first, second, third);
+
+        assertThat(resolver.getAddress(), is(first));
+        resolver.reportFailure(first);
+        assertThat(resolver.getAddresses(), is(new InetAddress[]{second, third, first}));
+        resolver.reportSuccess(third);
+        assertThat(resolver.getAddresses(), is(new InetAddress[]{third, second, first}));
+    }
+
+    @Test
+    void stale_addresses_are_returned_while_refreshing() throws Exception {
+        InetAddress before = InetAddress.getByName("127.0.0.1");
+        InetAddress after = InetAddress.getByName("127.0.0.2");
+        TestInetAddressResolver resolver = new TestInetAddressResolver(0, before);
+        assertThat(resolver.getAddress(), is(before));
+
+        resolver.addresses = new InetAddress[]{after};
+        resolver.lookupLatch = new CountDownLatch(1);
+        // the lookup is blocked, the stale address is returned
+        assertThat(resolver.getAddress(), is(before));
+        assertThat(resolver.getAddress(), is(before));
+
+        resolver.lookupLatch.countDown();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!resolver.getAddress().equals(after) && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertThat(resolver.getAddress(), is(after));
+    }
+
+    @Test
+    void failed_refresh_keeps_the_previous_addresses() throws Exception {
+        InetAddress address = InetAddress.getByName("127.0.0.1");
+        TestInetAddressResolver resolver = new TestInetAddressResolver(0, address);
+        assertThat(resolver.getAddress(), is(address));
+
+        resolver.addresses = null;
+        int lookups = resolver.lookupCounter.get();
+        resolver.getAddress();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (resolver.lookupCounter.get() == lookups && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertThat(resolver.getAddress(), is(address));
+    }
+
+    @Test
+    void hung_lookups_dont_delay_the_other_resolvers() throws Exception {
+        InetAddress address = InetAddress.getByName("127.0.0.1");
+        CountDownLatch hangLatch = new CountDownLatch(1);
+        try {
+            for (int i = 0; i < 3; i++) {
+                TestInetAddressResolver hung = new TestInetAddressResolver(0, address);
+                hung.lookupLatch = hangLatch;
+                hung.refresh();
+            }
+            TestInetAddressResolver resolver = new TestInetAddressResolver(0, address);
+            assertThat(resolver.getAddress(), is(address));
+        } finally {
+            hangLatch.countDown();
+        }
+    }
+
+    @Test
+    void unknown_host() {
+        TestInetAddressResolver resolver = new TestInetAddressResolver(0);
+        resolver.addresses = null;
+        assertThrows(UnknownHostException.class, resolver::getAddress);
+    }
+
+    private static class TestInetAddressResolver extends InetAddressResolver {
+        volatile InetAddress[] addresses;
+        volatile CountDownLatch lookupLatch = new CountDownLatch(0);
+        final AtomicInteger lookupCounter = new AtomicInteger();
+
+        TestInetAddressResolver(long refreshIntervalInMillis, InetAddress... addresses) {
+            super("syslog.example.com", refreshIntervalInMillis);
+            this.addresses = addresses;
+        }
+
+        @Override
+        protected InetAddress[] lookup(String hostname) throws UnknownHostException {
+            try {
+                lookupLatch.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            lookupCounter.incrementAndGet();
+            InetAddress[] addresses = this.addresses;
+            if (addresses == null) {
+                throw new UnknownHostException(hostname);
+            }
+            return addresses;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.UnknownHostException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+class LocalHostnameResolverTest {
+
+    @Test
+    void configured_hostname_is_never_looked_up() {
+        TestLocalHostnameResolver resolver = new TestLocalHostnameResolver("configured-host", 0);
+        resolver.refresh();
+        assertThat(resolver.getHostname(), is("configured-host"));
+        assertThat(resolver.lookupCount.get(), is(0));
+    }
+
+    @Test
+    void hostname_is_looked_up_in_the_background() throws Exception {
+        TestLocalHostnameResolver resolver = new TestLocalHostnameResolver(null, TimeUnit.HOURS.toMillis(1));
+        resolver.hostname = "looked-up-host";
+        resolver.lookupLatch = new CountDownLatch(1);
+        // the lookup is blocked, the fallback is returned
+        assertThat(resolver.getHostname(), is(LocalHostnameResolver.UNKNOWN_HOSTNAME));
+        assertThat(resolver.getHostname(), is(LocalHostnameResolver.UNKNOWN_HOSTNAME));
+
+        resolver.lookupLatch.countDown();
+        awaitHostname(resolver, "looked-up-host");
+        assertThat(resolver.lookupCount.get(), is(1));
+    }
+
+    @Test
+    void previous_hostname_is_kept_when_a_lookup_fails() throws Exception {
+        TestLocalHostnameResolver resolver = new TestLocalHostnameResolver(null, 0);
+        resolver.hostname = "looked-up-host";
+        resolver.refresh();
+        awaitHostname(resolver, "looked-up-host");
+
+        resolver.hostname = null;
+        int lookupCount = resolver.lookupCount.get();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (resolver.lookupCount.get() == lookupCount && System.nanoTime() < deadline) {
+            resolver.getHostname();
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertThat(resolver.getHostname(), is("looked-up-host"));
+    }
+
+    @Test
+    void system_property_overrides_the_hostname() {
+        System.setProperty(LocalHostnameResolver.HOSTNAME_PROPERTY, " property-host ");
+        try {
+            assertThat(LocalHostnameResolver.getConfiguredHostname(), is("property-host"));
+            assertThat(new LocalHostnameResolver().getHostname(), is("property-host"));
+        } finally {
+            System.clearProperty(LocalHostnameResolver.HOSTNAME_PROPERTY);
+        }
+    }
+
+    private static void awaitHostname(LocalHostnameResolver resolver, String hostname) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!resolver.getHostname().equals(hostname) && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertThat(resolver.getHostname(), is(hostname));
+    }
+
+    static class TestLocalHostnameResolver extends LocalHostnameResolver {
+        final AtomicInteger lookupCount = new AtomicInteger();
+        volatile String hostname;
+        volatile CountDownLatch lookupLatch;
+
+        TestLocalHostnameResolver(String configuredHostname, long refreshIntervalInMillis) {
+            super(configuredHostname, refreshIntervalInMillis);
+        }
+
+        @Override
+        protected String lookupHostname() throws UnknownHostException {
+            try {
+                CountDownLatch lookupLatch = this.lookupLatch;
+                if (lookupLatch != null) {
+                    lookupLatch.await(5, TimeUnit.SECONDS);
+                }
+                if (hostname == null) {
+                    throw new UnknownHostException("test");
+                }
+                return hostname;
+            } catch (InterruptedException e) {
+                throw new UnknownHostException(e.toString());
+            } finally {
+                lookupCount.incrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2010-2014, CloudBees Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cloudbees.syslog.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+class Utf8ByteArrayWriterTest {
+
+    private static final String TEXT = "aé€😀z";
+
+    @Test
+    void encodes_like_the_jdk() throws Exception {
+        Utf8ByteArrayWriter writer = new Utf8ByteArrayWriter(2);
+        writer.write(TEXT);
+        // surrogate pair split across writes
+        writer.write('\uD83D');
+        writer.write("\uDE00");
+        writer.flush();
+
+        String expected = TEXT + "😀";
+        assertThat(writer.toByteArray(), is(expected.getBytes(StandardCharsets.UTF_8)));
+        assertThat(writer.size(), is(expected.getBytes(StandardCharsets.UTF_8).length));
+        assertThat(writer.isTruncated(), is(false));
+    }
+
+    @Test
+    void malformed_surrogates_are_replaced() throws Exception {
+        Utf8ByteArrayWriter writer = new Utf8ByteArrayWriter(16);
+        writer.write("a\uDE00b\uD83D");
+        writer.flush();
+        assertThat(new String(writer.toByteArray(), StandardCharsets.UTF_8), is("a?b?"));
+    }
+
+    @Test
+    void truncated_on_code_point_boundaries() throws Exception {
+        int[] expectedSizes = {0, 1, 1, 3, 3, 3, 6, 6, 6, 6, 10, 11};
+        for (int maxSize = 0; maxSize < expectedSizes.length; maxSize++) {
+            Utf8ByteArrayWriter writer = new Utf8ByteArrayWriter(16);
+            writer.reset(maxSize);
+            writer.write(TEXT);
+            writer.flush();
+
+            assertThat("maxSize " + maxSize, writer.size(), is(expectedSizes[maxSize]));
+            assertThat("maxSize " + maxSize, writer.isTruncated(), is(maxSize < 11));
+            String decoded = new String(writer.toByteArray(), StandardCharsets.UTF_8);
+            assertThat(TEXT.startsWith(decoded), is(true));
+        }
+    }
+
+    @Test
+    void writes_are_ignored_once_truncated() throws Exception {
+        Utf8ByteArrayWriter writer = new Utf8ByteArrayWriter(16);
+        writer.reset(2);
+        writer.write("aé");
+        writer.write("b");
+        assertThat(writer.size(), is(1));
+        assertThat(writer.isTruncated(), is(true));
+
+        writer.reset(Integer.MAX_VALUE);
+        writer.write("b");
+        assertThat(writer.toByteArray(), is(new byte[]{'b'}));
+        assertThat(writer.isTruncated(), is(false));
+    }
+
+    @Test
+    void utf8_length() {
+        char[] chars = TEXT.toCharArray();
+        assertThat(Utf8ByteArrayWriter.utf8Length(chars, 0), is(1));
+        assertThat(Utf8ByteArrayWriter.utf8Length(chars, 1), is(2));
+        assertThat(Utf8ByteArrayWriter.utf8Length(chars, 2), is(3));
+        assertThat(Utf8ByteArrayWriter.utf8Length(chars, 3), is(4));
+        assertThat(Utf8ByteArrayWriter.utf8Length(chars, 5), is(1));
+    }
+}